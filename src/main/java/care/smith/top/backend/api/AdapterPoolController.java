@@ -0,0 +1,27 @@
+package care.smith.top.backend.api;
+
+import care.smith.top.backend.service.PhenotypeQueryService;
+import care.smith.top.backend.service.nlp.DocumentQueryService;
+import care.smith.top.backend.util.AdapterPool;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Endpoint exposing usage statistics of the pooled data adapters. */
+@RestController
+@RequestMapping("${openapi.tOP.base-path:}")
+public class AdapterPoolController {
+  @Autowired private PhenotypeQueryService phenotypeQueryService;
+  @Autowired private DocumentQueryService documentQueryService;
+
+  @GetMapping(value = "/adapterPool", produces = "application/json")
+  public ResponseEntity<List<AdapterPool.Stats>> getAdapterPoolStats() {
+    List<AdapterPool.Stats> stats = new ArrayList<>(phenotypeQueryService.getAdapterPoolStats());
+    stats.addAll(documentQueryService.getAdapterPoolStats());
+    return ResponseEntity.ok(stats);
+  }
+}
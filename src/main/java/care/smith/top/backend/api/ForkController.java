@@ -0,0 +1,61 @@
+package care.smith.top.backend.api;
+
+import care.smith.top.backend.model.fork.ForkingStatsSummary;
+import care.smith.top.backend.model.fork.OutdatedFork;
+import care.smith.top.backend.service.EntityService;
+import care.smith.top.backend.util.ApiModelMapper;
+import care.smith.top.model.EntityPage;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Endpoints for inspecting forks across whole repositories and organisations. */
+@RestController
+@RequestMapping("${openapi.tOP.base-path:}")
+public class ForkController {
+  @Autowired private EntityService entityService;
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/entity/{id}/forks",
+      produces = "application/json")
+  public ResponseEntity<EntityPage> getForks(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("id") String id,
+      @RequestParam(value = "page", required = false, defaultValue = "1") Integer page) {
+    return ResponseEntity.ok(
+        ApiModelMapper.toEntityPage(
+            entityService.getForks(organisationId, repositoryId, id, page)));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/entity/{id}/forkingStats/summary",
+      produces = "application/json")
+  public ResponseEntity<ForkingStatsSummary> getForkingStatsSummary(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("id") String id) {
+    return ResponseEntity.ok(
+        entityService.getForkingStatsSummary(organisationId, repositoryId, id));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/outdatedForks",
+      produces = "application/json")
+  public ResponseEntity<List<OutdatedFork>> getOutdatedForks(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId) {
+    return ResponseEntity.ok(entityService.getOutdatedForks(organisationId, repositoryId));
+  }
+
+  @GetMapping(value = "/organisation/{organisationId}/outdatedForks", produces = "application/json")
+  public ResponseEntity<List<OutdatedFork>> getOutdatedForksByOrganisationId(
+      @PathVariable("organisationId") String organisationId) {
+    return ResponseEntity.ok(entityService.getOutdatedForksByOrganisationId(organisationId));
+  }
+}
@@ -0,0 +1,44 @@
+package care.smith.top.backend.api;
+
+import care.smith.top.backend.service.OrganisationExportService;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Endpoint for organisation wide repository exports. The archive is streamed to the client while
+ * repositories are still being exported.
+ */
+@RestController
+@RequestMapping("${openapi.tOP.base-path:}")
+public class OrganisationExportController {
+  @Autowired private OrganisationExportService organisationExportService;
+
+  @GetMapping(value = "/organisation/{organisationId}/export", produces = "application/zip")
+  public ResponseEntity<StreamingResponseBody> exportOrganisation(
+      @PathVariable("organisationId") String organisationId,
+      @RequestParam(value = "converter") String converter,
+      @RequestParam(value = "repositoryId", required = false) List<String> repositoryIds) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentDisposition(
+        ContentDisposition.builder("attachment")
+            .filename(String.format("%s.zip", organisationId))
+            .build());
+    return ResponseEntity.ok()
+        .headers(headers)
+        .contentType(MediaType.parseMediaType("application/zip"))
+        .body(
+            outputStream ->
+                organisationExportService.exportOrganisation(
+                    organisationId, repositoryIds, converter, outputStream));
+  }
+}
@@ -6,14 +6,21 @@ import care.smith.top.backend.service.PhenotypeQueryService;
 import care.smith.top.backend.service.QueryService;
 import care.smith.top.backend.service.nlp.DocumentQueryService;
 import care.smith.top.backend.util.ApiModelMapper;
+import care.smith.top.backend.util.ResultManifest;
 import care.smith.top.model.*;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.FileSystemException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
@@ -21,6 +28,9 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.server.ResponseStatusException;
 
 @Service
@@ -38,22 +48,40 @@ public class QueryApiDelegateImpl implements QueryApiDelegate {
     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
   }
 
+  /**
+   * Returns the result file of a query. The response carries a strong ETag (SHA-256 checksum of the
+   * file, see {@link ResultManifest}) and the modification time of the file, so that interrupted
+   * downloads can be resumed with {@code Range} requests. A {@code Range} header is ignored if an
+   * {@code If-Range} header is present that does not match the current file.
+   */
   @Override
   public ResponseEntity<Resource> downloadQueryResult(
       String organisationId, String repositoryId, UUID queryId) {
     try {
-      File file =
-          getQueryService(organisationId, repositoryId, queryId)
-              .getQueryResultPath(organisationId, repositoryId, queryId)
-              .toFile();
+      QueryService queryService = getQueryService(organisationId, repositoryId, queryId);
+      File file = queryService.getQueryResultPath(organisationId, repositoryId, queryId).toFile();
+      ResultManifest manifest =
+          queryService.getQueryResultManifest(organisationId, repositoryId, queryId);
       ContentDisposition contentDisposition =
           ContentDisposition.builder("inline").filename(file.getName()).build();
       HttpHeaders headers = new HttpHeaders();
       headers.setContentDisposition(contentDisposition);
+      headers.setETag(manifest.getETag());
+      headers.setLastModified(manifest.getLastModified());
+
+      if (isRangeIgnored(manifest)) {
+        // Spring applies Range headers to all resources except InputStreamResource
+        headers.setContentLength(manifest.getSize());
+        return new ResponseEntity<>(
+            new InputStreamResource(new FileInputStream(file)), headers, HttpStatus.OK);
+      }
       return new ResponseEntity<>(new FileSystemResource(file), headers, HttpStatus.OK);
     } catch (FileSystemException e) {
       throw new ResponseStatusException(
           HttpStatus.INTERNAL_SERVER_ERROR, "Query result is not accessible.", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(
+          HttpStatus.INTERNAL_SERVER_ERROR, "Query result could not be read.", e);
     }
   }
 
@@ -165,6 +193,29 @@ public class QueryApiDelegateImpl implements QueryApiDelegate {
         .getQueryType();
   }
 
+  /**
+   * @param manifest Manifest of the requested result file.
+   * @return True if the current request has a {@code Range} header that must be ignored, because
+   *     its {@code If-Range} header matches neither the ETag nor the modification time of the file.
+   */
+  private boolean isRangeIgnored(ResultManifest manifest) {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (!(attributes instanceof ServletRequestAttributes)) return false;
+    HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (request.getHeader(HttpHeaders.RANGE) == null || ifRange == null) return false;
+
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+      return !ifRange.equals(manifest.getETag());
+    try {
+      return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond()
+          != manifest.getLastModified() / 1000;
+    } catch (DateTimeParseException e) {
+      return true;
+    }
+  }
+
   private Collection<DataSource> loadDataSources(QueryType queryType) {
     List<DataSource> dataSources = new ArrayList<>();
     if (queryType == null || QueryType.PHENOTYPE.equals(queryType))
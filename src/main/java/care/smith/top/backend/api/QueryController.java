@@ -0,0 +1,233 @@
+package care.smith.top.backend.api;
+
+import care.smith.top.backend.model.jpa.QueryPriority;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.backend.service.CohortService;
+import care.smith.top.backend.service.PhenotypeQueryService;
+import care.smith.top.backend.service.QueryDispatcher;
+import care.smith.top.backend.service.QueryEventService;
+import care.smith.top.backend.service.QueryService;
+import care.smith.top.backend.service.ResultStorageService;
+import care.smith.top.backend.service.nlp.DocumentQueryService;
+import care.smith.top.backend.util.ResultAggregator;
+import care.smith.top.backend.util.ResultManifest;
+import care.smith.top.backend.util.ResultRowFile;
+import care.smith.top.backend.util.ResultStatistics;
+import care.smith.top.model.Query;
+import care.smith.top.model.QueryResult;
+import care.smith.top.model.QueryType;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/** Endpoints for controlling the execution of queries, which are not part of the API spec. */
+@RestController
+@RequestMapping("${openapi.tOP.base-path:}")
+public class QueryController {
+  @Autowired private PhenotypeQueryService phenotypeQueryService;
+  @Autowired private DocumentQueryService documentQueryService;
+  @Autowired private QueryEventService queryEventService;
+  @Autowired private QueryDispatcher queryDispatcher;
+  @Autowired private ResultStorageService resultStorageService;
+  @Autowired private CohortService cohortService;
+  @Autowired private QueryRepository queryRepository;
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/queryEvents",
+      produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter subscribeQueryEvents(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId) {
+    return queryEventService.subscribe(organisationId, repositoryId);
+  }
+
+  @PostMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/queryBatch",
+      consumes = "application/json",
+      produces = "application/json")
+  public ResponseEntity<List<PhenotypeQueryService.BatchEntry>> enqueueQueries(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @RequestBody List<Query> queries,
+      @RequestParam(value = "timeLimit", required = false) Duration timeLimit,
+      @RequestParam(value = "priority", required = false) QueryPriority priority,
+      @RequestParam(value = "countOnly", defaultValue = "false") boolean countOnly) {
+    return ResponseEntity.ok(
+        phenotypeQueryService.enqueueQueries(
+            organisationId, repositoryId, queries, timeLimit, priority, countOnly));
+  }
+
+  @PostMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/countQuery",
+      consumes = "application/json",
+      produces = "application/json")
+  public ResponseEntity<QueryResult> enqueueCountQuery(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @RequestBody Query query,
+      @RequestParam(value = "priority", required = false) QueryPriority priority) {
+    return new ResponseEntity<>(
+        phenotypeQueryService.enqueueCountQuery(organisationId, repositoryId, query, priority),
+        HttpStatus.CREATED);
+  }
+
+  @PostMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/query/{queryId}/rerun",
+      produces = "application/json")
+  public ResponseEntity<QueryResult> rerunQuery(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("queryId") UUID queryId,
+      @RequestParam(value = "timeLimit", required = false) Duration timeLimit,
+      @RequestParam(value = "priority", required = false) QueryPriority priority) {
+    return new ResponseEntity<>(
+        phenotypeQueryService.rerunQuery(
+            organisationId, repositoryId, queryId, timeLimit, priority),
+        HttpStatus.CREATED);
+  }
+
+  @PostMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/query/{queryId}/cancel",
+      produces = "application/json")
+  public ResponseEntity<QueryResult> cancelQuery(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("queryId") UUID queryId) {
+    return ResponseEntity.ok(
+        getQueryService(organisationId, repositoryId, queryId)
+            .cancelQuery(organisationId, repositoryId, queryId));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/query/{queryId}/rows",
+      produces = "application/json")
+  public ResponseEntity<ResultRowFile.Rows> getQueryResultRows(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("queryId") UUID queryId,
+      @RequestParam(value = "offset", defaultValue = "0") long offset,
+      @RequestParam(value = "limit", defaultValue = "100") int limit)
+      throws IOException {
+    return ResponseEntity.ok(
+        getQueryService(organisationId, repositoryId, queryId)
+            .getQueryResultRows(organisationId, repositoryId, queryId, offset, limit));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/query/{queryId}/aggregate",
+      produces = "application/json")
+  public ResponseEntity<ResultAggregator.Result> aggregateQueryResult(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("queryId") UUID queryId,
+      @RequestParam(value = "function", defaultValue = "SUMMARY")
+          ResultAggregator.Function function,
+      @RequestParam(value = "columns", required = false) List<String> columns,
+      @RequestParam(value = "groupBy", required = false) String groupBy,
+      @RequestParam(value = "filter", required = false) List<String> filters,
+      @RequestParam(value = "groupLimit", defaultValue = "100") int groupLimit,
+      @RequestParam(value = "bins", defaultValue = "10") int bins)
+      throws IOException {
+    return ResponseEntity.ok(
+        getQueryService(organisationId, repositoryId, queryId)
+            .aggregateQueryResult(
+                organisationId,
+                repositoryId,
+                queryId,
+                function,
+                columns,
+                groupBy,
+                filters,
+                groupLimit,
+                bins));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/query/{queryId}/statistics",
+      produces = "application/json")
+  public ResponseEntity<ResultStatistics> getQueryResultStatistics(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("queryId") UUID queryId)
+      throws IOException {
+    return ResponseEntity.ok(
+        phenotypeQueryService.getQueryResultStatistics(organisationId, repositoryId, queryId));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/query/{queryId}/manifest",
+      produces = "application/json")
+  public ResponseEntity<ResultManifest> getQueryResultManifest(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @PathVariable("queryId") UUID queryId)
+      throws IOException {
+    return ResponseEntity.ok(
+        getQueryService(organisationId, repositoryId, queryId)
+            .getQueryResultManifest(organisationId, repositoryId, queryId));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/cohort",
+      produces = "application/json")
+  public ResponseEntity<CohortService.Cohort> combineCohorts(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @RequestParam("operation") CohortService.Operation operation,
+      @RequestParam("queryIds") List<UUID> queryIds,
+      @RequestParam(value = "subjectLimit", defaultValue = "0") int subjectLimit)
+      throws IOException {
+    return ResponseEntity.ok(
+        cohortService.combine(organisationId, repositoryId, operation, queryIds, subjectLimit));
+  }
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/cohortOverlaps",
+      produces = "application/json")
+  public ResponseEntity<List<CohortService.Overlap>> getCohortOverlaps(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @RequestParam("queryIds") List<UUID> queryIds)
+      throws IOException {
+    return ResponseEntity.ok(cohortService.getOverlaps(organisationId, repositoryId, queryIds));
+  }
+
+  @GetMapping(value = "/queryQueues", produces = "application/json")
+  public ResponseEntity<List<QueryDispatcher.Stats>> getQueryQueueStats() {
+    return ResponseEntity.ok(queryDispatcher.getStats());
+  }
+
+  @GetMapping(value = "/resultStorage", produces = "application/json")
+  public ResponseEntity<ResultStorageService.Usage> getResultStorageUsage() throws IOException {
+    return ResponseEntity.ok(resultStorageService.getUsage());
+  }
+
+  @PostMapping(value = "/resultStorage/gc", produces = "application/json")
+  public ResponseEntity<ResultStorageService.GarbageCollection> collectResultGarbage() {
+    return ResponseEntity.ok(resultStorageService.collectGarbage());
+  }
+
+  private QueryService getQueryService(String organisationId, String repositoryId, UUID queryId) {
+    QueryType type =
+        queryRepository
+            .findByRepository_OrganisationIdAndRepositoryIdAndId(
+                organisationId, repositoryId, queryId.toString())
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND))
+            .getQueryType();
+    return QueryType.CONCEPT.equals(type) ? documentQueryService : phenotypeQueryService;
+  }
+}
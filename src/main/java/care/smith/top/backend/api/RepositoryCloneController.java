@@ -0,0 +1,38 @@
+package care.smith.top.backend.api;
+
+import care.smith.top.backend.service.RepositoryService;
+import care.smith.top.model.Repository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Endpoint for server-side repository cloning. */
+@RestController
+@RequestMapping("${openapi.tOP.base-path:}")
+public class RepositoryCloneController {
+  @Autowired private RepositoryService repositoryService;
+
+  @PostMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/clone",
+      produces = "application/json",
+      consumes = "application/json")
+  public ResponseEntity<Repository> cloneRepository(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @RequestParam(value = "targetOrganisationId", required = false) String targetOrganisationId,
+      @RequestBody Repository repository) {
+    return new ResponseEntity<>(
+        repositoryService.cloneRepository(
+            organisationId,
+            repositoryId,
+            targetOrganisationId != null ? targetOrganisationId : organisationId,
+            repository),
+        HttpStatus.CREATED);
+  }
+}
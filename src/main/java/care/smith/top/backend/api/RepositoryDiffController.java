@@ -0,0 +1,31 @@
+package care.smith.top.backend.api;
+
+import care.smith.top.backend.model.diff.RepositoryDiff;
+import care.smith.top.backend.service.RepositoryDiffService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/** Endpoint for comparing a fork repository with its origin repository. */
+@RestController
+@RequestMapping("${openapi.tOP.base-path:}")
+public class RepositoryDiffController {
+  @Autowired private RepositoryDiffService repositoryDiffService;
+
+  @GetMapping(
+      value = "/organisation/{organisationId}/repository/{repositoryId}/diff",
+      produces = "application/json")
+  public ResponseEntity<RepositoryDiff> diffRepository(
+      @PathVariable("organisationId") String organisationId,
+      @PathVariable("repositoryId") String repositoryId,
+      @RequestParam(value = "originRepositoryId") String originRepositoryId,
+      @RequestParam(value = "fields", required = false, defaultValue = "false") Boolean fields) {
+    return ResponseEntity.ok(
+        repositoryDiffService.diffRepository(
+            organisationId, repositoryId, originRepositoryId, fields));
+  }
+}
@@ -77,9 +77,9 @@ public class DocumentApiDelegateImpl implements DocumentApiDelegate {
     try {
       return ResponseEntity.ok(
           ApiModelMapper.toDocumentPage(
-              documentService.getDocumentsByIds(
-                  documentQueryService.getDocumentIds(organisationId, repositoryId, queryId),
-                  page)));
+              documentService.getDocumentsByIdPage(
+                  documentQueryService.getDocumentIds(
+                      organisationId, repositoryId, queryId, page))));
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
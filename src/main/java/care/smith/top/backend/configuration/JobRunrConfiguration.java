@@ -1,17 +1,40 @@
 package care.smith.top.backend.configuration;
 
+import javax.sql.DataSource;
 import org.jobrunr.jobs.mappers.JobMapper;
 import org.jobrunr.storage.InMemoryStorageProvider;
 import org.jobrunr.storage.StorageProvider;
+import org.jobrunr.storage.StorageProviderUtils.DatabaseOptions;
+import org.jobrunr.storage.sql.common.SqlStorageProviderFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class JobRunrConfiguration {
   @Bean
+  @ConditionalOnProperty(name = "top.jobs.storage", havingValue = "memory", matchIfMissing = true)
   public StorageProvider storageProvider(JobMapper jobMapper) {
     InMemoryStorageProvider storageProvider = new InMemoryStorageProvider();
     storageProvider.setJobMapper(jobMapper);
     return storageProvider;
   }
+
+  /**
+   * Stores jobs in the application database, so that multiple backend instances share one job
+   * queue. Each instance's background job server picks up enqueued jobs and takes over jobs of
+   * instances that stopped sending heartbeats. JobRunr creates and migrates its own tables.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "top.jobs.storage", havingValue = "sql")
+  public StorageProvider sqlStorageProvider(
+      DataSource dataSource,
+      JobMapper jobMapper,
+      @Value("${top.jobs.table-prefix:#{null}}") String tablePrefix) {
+    StorageProvider storageProvider =
+        SqlStorageProviderFactory.using(dataSource, tablePrefix, DatabaseOptions.CREATE);
+    storageProvider.setJobMapper(jobMapper);
+    return storageProvider;
+  }
 }
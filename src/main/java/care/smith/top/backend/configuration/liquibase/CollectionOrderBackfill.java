@@ -0,0 +1,95 @@
+package care.smith.top.backend.configuration.liquibase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Fills the order columns of the restriction value collections for rows, that existed before the
+ * columns were added. The collection tables have no primary key and may contain equal values, so
+ * the rows of each restriction are deleted and inserted again with consecutive indices, in the
+ * order the database returns them. This is the order in which Hibernate read the values before the
+ * order columns existed.
+ */
+public class CollectionOrderBackfill implements CustomTaskChange {
+  private static final List<String> COLUMNS =
+      List.of("boolean_values", "date_time_values", "number_values", "string_values");
+
+  private int count;
+
+  @Override
+  public void execute(Database database) throws CustomChangeException {
+    Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+    try {
+      for (String column : COLUMNS) count += backfill(connection, "restriction_" + column, column);
+    } catch (SQLException e) {
+      throw new CustomChangeException(e);
+    }
+  }
+
+  /** @return Number of restrictions, whose values have been numbered. */
+  private int backfill(Connection connection, String table, String column) throws SQLException {
+    Map<Long, List<Object>> values = new LinkedHashMap<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet rs =
+            statement.executeQuery(
+                String.format(
+                    "SELECT restriction_id, %1$s FROM %2$s WHERE %1$s_order IS NULL",
+                    column, table))) {
+      while (rs.next())
+        values.computeIfAbsent(rs.getLong(1), k -> new ArrayList<>()).add(rs.getObject(2));
+    }
+    if (values.isEmpty()) return 0;
+
+    try (PreparedStatement delete =
+            connection.prepareStatement(
+                String.format("DELETE FROM %s WHERE restriction_id = ?", table));
+        PreparedStatement insert =
+            connection.prepareStatement(
+                String.format(
+                    "INSERT INTO %2$s (restriction_id, %1$s, %1$s_order) VALUES (?, ?, ?)",
+                    column, table))) {
+      for (Map.Entry<Long, List<Object>> entry : values.entrySet()) {
+        delete.setLong(1, entry.getKey());
+        delete.addBatch();
+        for (int i = 0; i < entry.getValue().size(); i++) {
+          insert.setLong(1, entry.getKey());
+          insert.setObject(2, entry.getValue().get(i));
+          insert.setInt(3, i);
+          insert.addBatch();
+        }
+      }
+      delete.executeBatch();
+      insert.executeBatch();
+    }
+    return values.size();
+  }
+
+  @Override
+  public String getConfirmationMessage() {
+    return String.format("Numbered the values of %d restriction collections.", count);
+  }
+
+  @Override
+  public void setUp() {}
+
+  @Override
+  public void setFileOpener(ResourceAccessor resourceAccessor) {}
+
+  @Override
+  public ValidationErrors validate(Database database) {
+    return new ValidationErrors();
+  }
+}
@@ -0,0 +1,88 @@
+package care.smith.top.backend.model.diff;
+
+import care.smith.top.model.EntityType;
+import java.util.List;
+
+/** Comparison of a single entity of a fork repository with its origin. */
+public class EntityDiff {
+  private String id;
+  private String originId;
+  private EntityType entityType;
+  private Integer version;
+  private Integer originVersion;
+  private String hash;
+  private String originHash;
+  private List<FieldDiff> fields;
+
+  public String getId() {
+    return id;
+  }
+
+  public EntityDiff id(String id) {
+    this.id = id;
+    return this;
+  }
+
+  public String getOriginId() {
+    return originId;
+  }
+
+  public EntityDiff originId(String originId) {
+    this.originId = originId;
+    return this;
+  }
+
+  public EntityType getEntityType() {
+    return entityType;
+  }
+
+  public EntityDiff entityType(EntityType entityType) {
+    this.entityType = entityType;
+    return this;
+  }
+
+  public Integer getVersion() {
+    return version;
+  }
+
+  public EntityDiff version(Integer version) {
+    this.version = version;
+    return this;
+  }
+
+  public Integer getOriginVersion() {
+    return originVersion;
+  }
+
+  public EntityDiff originVersion(Integer originVersion) {
+    this.originVersion = originVersion;
+    return this;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public EntityDiff hash(String hash) {
+    this.hash = hash;
+    return this;
+  }
+
+  public String getOriginHash() {
+    return originHash;
+  }
+
+  public EntityDiff originHash(String originHash) {
+    this.originHash = originHash;
+    return this;
+  }
+
+  public List<FieldDiff> getFields() {
+    return fields;
+  }
+
+  public EntityDiff fields(List<FieldDiff> fields) {
+    this.fields = fields;
+    return this;
+  }
+}
@@ -0,0 +1,30 @@
+package care.smith.top.backend.model.diff;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/** A top-level field of an entity whose value differs between a fork and its origin. */
+public class FieldDiff {
+  private String field;
+  private JsonNode value;
+  private JsonNode originValue;
+
+  public FieldDiff() {}
+
+  public FieldDiff(String field, JsonNode value, JsonNode originValue) {
+    this.field = field;
+    this.value = value;
+    this.originValue = originValue;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public JsonNode getValue() {
+    return value;
+  }
+
+  public JsonNode getOriginValue() {
+    return originValue;
+  }
+}
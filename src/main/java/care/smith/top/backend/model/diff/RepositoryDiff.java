@@ -0,0 +1,75 @@
+package care.smith.top.backend.model.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Differences between a fork repository and its origin repository. Entities are matched by the
+ * origin links of the fork repository's entities.
+ *
+ * <ul>
+ *   <li>{@code added}: entities of the fork repository without an origin in the origin repository
+ *   <li>{@code removed}: entities of the origin repository without a fork in the fork repository
+ *   <li>{@code changed}: forks whose content hash differs from the hash of their origin
+ *   <li>{@code unchanged}: forks whose content hash equals the hash of their origin
+ * </ul>
+ */
+public class RepositoryDiff {
+  private String repositoryId;
+  private String originRepositoryId;
+  private final List<EntityDiff> added = new ArrayList<>();
+  private final List<EntityDiff> removed = new ArrayList<>();
+  private final List<EntityDiff> changed = new ArrayList<>();
+  private final List<EntityDiff> unchanged = new ArrayList<>();
+
+  public RepositoryDiff() {}
+
+  public RepositoryDiff(String repositoryId, String originRepositoryId) {
+    this.repositoryId = repositoryId;
+    this.originRepositoryId = originRepositoryId;
+  }
+
+  public String getRepositoryId() {
+    return repositoryId;
+  }
+
+  public String getOriginRepositoryId() {
+    return originRepositoryId;
+  }
+
+  public List<EntityDiff> getAdded() {
+    return added;
+  }
+
+  public RepositoryDiff addAddedItem(EntityDiff entityDiff) {
+    added.add(entityDiff);
+    return this;
+  }
+
+  public List<EntityDiff> getRemoved() {
+    return removed;
+  }
+
+  public RepositoryDiff addRemovedItem(EntityDiff entityDiff) {
+    removed.add(entityDiff);
+    return this;
+  }
+
+  public List<EntityDiff> getChanged() {
+    return changed;
+  }
+
+  public RepositoryDiff addChangedItem(EntityDiff entityDiff) {
+    changed.add(entityDiff);
+    return this;
+  }
+
+  public List<EntityDiff> getUnchanged() {
+    return unchanged;
+  }
+
+  public RepositoryDiff addUnchangedItem(EntityDiff entityDiff) {
+    unchanged.add(entityDiff);
+    return this;
+  }
+}
@@ -0,0 +1,106 @@
+package care.smith.top.backend.model.export;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manifest of an organisation export archive. It is written as last entry of the archive and lists
+ * all repositories that were requested, together with the archive entry they were written to or
+ * the reason why they could not be exported.
+ */
+public class OrganisationExportManifest {
+  private String organisationId;
+  private String converter;
+  private OffsetDateTime createdAt;
+  private OffsetDateTime finishedAt;
+  private final List<Entry> repositories = new ArrayList<>();
+
+  public OrganisationExportManifest() {}
+
+  public OrganisationExportManifest(String organisationId, String converter) {
+    this.organisationId = organisationId;
+    this.converter = converter;
+    this.createdAt = OffsetDateTime.now();
+  }
+
+  public String getOrganisationId() {
+    return organisationId;
+  }
+
+  public String getConverter() {
+    return converter;
+  }
+
+  public OffsetDateTime getCreatedAt() {
+    return createdAt;
+  }
+
+  public OffsetDateTime getFinishedAt() {
+    return finishedAt;
+  }
+
+  public OrganisationExportManifest finishedAt(OffsetDateTime finishedAt) {
+    this.finishedAt = finishedAt;
+    return this;
+  }
+
+  public List<Entry> getRepositories() {
+    return repositories;
+  }
+
+  public OrganisationExportManifest addRepositoriesItem(Entry entry) {
+    repositories.add(entry);
+    return this;
+  }
+
+  public static class Entry {
+    private String repositoryId;
+    private String name;
+    private String file;
+    private Long size;
+    private String error;
+
+    public Entry() {}
+
+    public Entry(String repositoryId, String name) {
+      this.repositoryId = repositoryId;
+      this.name = name;
+    }
+
+    public String getRepositoryId() {
+      return repositoryId;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getFile() {
+      return file;
+    }
+
+    public Entry file(String file) {
+      this.file = file;
+      return this;
+    }
+
+    public Long getSize() {
+      return size;
+    }
+
+    public Entry size(Long size) {
+      this.size = size;
+      return this;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    public Entry error(String error) {
+      this.error = error;
+      return this;
+    }
+  }
+}
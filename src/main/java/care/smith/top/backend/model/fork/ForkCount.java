@@ -0,0 +1,55 @@
+package care.smith.top.backend.model.fork;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Number of forks of an entity in an organisation or repository. For organisation counts, {@code
+ * repositoryId} and {@code repositoryName} are {@code null}.
+ */
+public class ForkCount {
+  private String organisationId;
+  private String repositoryId;
+  private String repositoryName;
+  private long count;
+  private OffsetDateTime lastForkedAt;
+
+  public ForkCount() {}
+
+  public ForkCount(String organisationId, long count, OffsetDateTime lastForkedAt) {
+    this(organisationId, null, null, count, lastForkedAt);
+  }
+
+  public ForkCount(
+      String organisationId,
+      String repositoryId,
+      String repositoryName,
+      long count,
+      OffsetDateTime lastForkedAt) {
+    this.organisationId = organisationId;
+    this.repositoryId = repositoryId;
+    this.repositoryName = repositoryName;
+    this.count = count;
+    this.lastForkedAt = lastForkedAt;
+  }
+
+  public String getOrganisationId() {
+    return organisationId;
+  }
+
+  public String getRepositoryId() {
+    return repositoryId;
+  }
+
+  public String getRepositoryName() {
+    return repositoryName;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /** Creation date of the most recent current version among the counted forks. */
+  public OffsetDateTime getLastForkedAt() {
+    return lastForkedAt;
+  }
+}
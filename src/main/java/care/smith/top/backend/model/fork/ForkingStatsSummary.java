@@ -0,0 +1,50 @@
+package care.smith.top.backend.model.fork;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Objects;
+
+/** Aggregated forking statistics of an entity. */
+public class ForkingStatsSummary {
+  private String id;
+  private long count;
+  private OffsetDateTime lastForkedAt;
+  private List<ForkCount> organisations;
+  private List<ForkCount> repositories;
+
+  public ForkingStatsSummary() {}
+
+  public ForkingStatsSummary(
+      String id, List<ForkCount> organisations, List<ForkCount> repositories) {
+    this.id = id;
+    this.organisations = organisations;
+    this.repositories = repositories;
+    this.count = organisations.stream().mapToLong(ForkCount::getCount).sum();
+    this.lastForkedAt =
+        organisations.stream()
+            .map(ForkCount::getLastForkedAt)
+            .filter(Objects::nonNull)
+            .max(OffsetDateTime::compareTo)
+            .orElse(null);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public OffsetDateTime getLastForkedAt() {
+    return lastForkedAt;
+  }
+
+  public List<ForkCount> getOrganisations() {
+    return organisations;
+  }
+
+  public List<ForkCount> getRepositories() {
+    return repositories;
+  }
+}
@@ -0,0 +1,71 @@
+package care.smith.top.backend.model.fork;
+
+import care.smith.top.model.EntityType;
+
+/**
+ * A forked entity whose most recently linked origin version is older than the current version of
+ * its origin.
+ */
+public class OutdatedFork {
+  private String id;
+  private String repositoryId;
+  private EntityType entityType;
+  private Integer version;
+  private String originId;
+  private String originRepositoryId;
+  private Integer linkedOriginVersion;
+  private Integer originVersion;
+
+  public OutdatedFork() {}
+
+  public OutdatedFork(
+      String id,
+      String repositoryId,
+      EntityType entityType,
+      Integer version,
+      String originId,
+      String originRepositoryId,
+      Integer linkedOriginVersion,
+      Integer originVersion) {
+    this.id = id;
+    this.repositoryId = repositoryId;
+    this.entityType = entityType;
+    this.version = version;
+    this.originId = originId;
+    this.originRepositoryId = originRepositoryId;
+    this.linkedOriginVersion = linkedOriginVersion;
+    this.originVersion = originVersion;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getRepositoryId() {
+    return repositoryId;
+  }
+
+  public EntityType getEntityType() {
+    return entityType;
+  }
+
+  public Integer getVersion() {
+    return version;
+  }
+
+  public String getOriginId() {
+    return originId;
+  }
+
+  public String getOriginRepositoryId() {
+    return originRepositoryId;
+  }
+
+  public Integer getLinkedOriginVersion() {
+    return linkedOriginVersion;
+  }
+
+  public Integer getOriginVersion() {
+    return originVersion;
+  }
+}
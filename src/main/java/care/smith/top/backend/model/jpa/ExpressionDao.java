@@ -17,9 +17,11 @@ public class ExpressionDao {
   private String constantId;
 
   @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
+  @OrderColumn
   private List<ExpressionDao> arguments = null;
 
   @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
+  @OrderColumn
   private List<ValueDao> values = null;
 
   public ExpressionDao() {}
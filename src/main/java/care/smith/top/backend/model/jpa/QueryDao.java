@@ -4,6 +4,7 @@ import care.smith.top.model.ConceptQuery;
 import care.smith.top.model.PhenotypeQuery;
 import care.smith.top.model.Query;
 import care.smith.top.model.QueryType;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Objects;
@@ -31,6 +32,18 @@ public class QueryDao {
 
   @ManyToOne private RepositoryDao repository;
 
+  private Duration timeLimit;
+
+  @Enumerated(EnumType.STRING)
+  @Column(length = 20)
+  private QueryPriority priority = QueryPriority.INTERACTIVE;
+
+  private boolean countOnly = false;
+
+  private OffsetDateTime dispatchedAt;
+
+  private OffsetDateTime cancelRequestedAt;
+
   @CreatedDate
   @Column(updatable = false)
   private OffsetDateTime createdAt;
@@ -176,6 +189,68 @@ public class QueryDao {
     return this;
   }
 
+  public Duration getTimeLimit() {
+    return timeLimit;
+  }
+
+  public QueryDao timeLimit(Duration timeLimit) {
+    this.timeLimit = timeLimit;
+    return this;
+  }
+
+  public QueryPriority getPriority() {
+    return priority == null ? QueryPriority.INTERACTIVE : priority;
+  }
+
+  public QueryDao priority(QueryPriority priority) {
+    this.priority = priority;
+    return this;
+  }
+
+  /**
+   * @return True if only the number of subjects and statistics of the result shall be stored, but
+   *     no result files.
+   */
+  public boolean isCountOnly() {
+    return countOnly;
+  }
+
+  public QueryDao countOnly(boolean countOnly) {
+    this.countOnly = countOnly;
+    return this;
+  }
+
+  /**
+   * @return Time the query was dispatched for execution or null, if the query is waiting for a free
+   *     slot of its data source.
+   */
+  public OffsetDateTime getDispatchedAt() {
+    return dispatchedAt;
+  }
+
+  public QueryDao dispatchedAt(OffsetDateTime dispatchedAt) {
+    this.dispatchedAt = dispatchedAt;
+    return this;
+  }
+
+  /**
+   * @return Time cancellation of the running query was requested or null. The instance executing
+   *     the query stops it and stores its result.
+   */
+  public OffsetDateTime getCancelRequestedAt() {
+    return cancelRequestedAt;
+  }
+
+  public QueryDao cancelRequestedAt(OffsetDateTime cancelRequestedAt) {
+    this.cancelRequestedAt = cancelRequestedAt;
+    return this;
+  }
+
+  /** @return True if the query has no result and is waiting for a free slot of its data source. */
+  public boolean isQueued() {
+    return result == null && dispatchedAt == null;
+  }
+
   public QueryResultDao getResult() {
     return result;
   }
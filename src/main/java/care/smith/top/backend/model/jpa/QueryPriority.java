@@ -0,0 +1,15 @@
+package care.smith.top.backend.model.jpa;
+
+/**
+ * Priority class of a query. Queued count-only queries are dispatched first, then interactive
+ * queries and then batch queries. Batch queries may only use a share of the concurrency limit of a
+ * data source.
+ */
+public enum QueryPriority {
+  /** Count-only queries (see {@link QueryDao#isCountOnly()}), e.g. for feasibility checks. */
+  COUNT,
+  /** Queries a user is waiting for. */
+  INTERACTIVE,
+  /** Large or scheduled queries, that may be delayed. */
+  BATCH
+}
@@ -24,6 +24,18 @@ public class QueryResultDao {
 
   private QueryState state;
 
+  @Column(length = 64)
+  private String fingerprint;
+
+  @Enumerated(EnumType.STRING)
+  @Column(length = 20)
+  private QueryTermination termination;
+
+  private OffsetDateTime expiredAt;
+
+  @Column(length = 1000000)
+  private String statistics;
+
   public QueryResultDao() {}
 
   public QueryResultDao(
@@ -102,6 +114,46 @@ public class QueryResultDao {
     return this;
   }
 
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public QueryResultDao fingerprint(String fingerprint) {
+    this.fingerprint = fingerprint;
+    return this;
+  }
+
+  public QueryTermination getTermination() {
+    return termination;
+  }
+
+  public QueryResultDao termination(QueryTermination termination) {
+    this.termination = termination;
+    return this;
+  }
+
+  public OffsetDateTime getExpiredAt() {
+    return expiredAt;
+  }
+
+  public QueryResultDao expiredAt(OffsetDateTime expiredAt) {
+    this.expiredAt = expiredAt;
+    return this;
+  }
+
+  /**
+   * @return Summary statistics of the result as JSON (see {@link
+   *     care.smith.top.backend.util.ResultStatistics}).
+   */
+  public String getStatistics() {
+    return statistics;
+  }
+
+  public QueryResultDao statistics(String statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
   public QueryResult toApiModel() {
     return new QueryResult()
         .id(UUID.fromString(getQuery().getId()))
@@ -0,0 +1,12 @@
+package care.smith.top.backend.model.jpa;
+
+/**
+ * Reason why the execution of a query was stopped before it finished. Terminated queries have the
+ * state {@link care.smith.top.model.QueryState#FAILED}.
+ */
+public enum QueryTermination {
+  /** The query was cancelled by a user. */
+  CANCELLED,
+  /** The query exceeded its time limit. */
+  TIMED_OUT
+}
@@ -20,10 +20,10 @@ public class RestrictionDao {
 
   private Integer cardinality;
 
-  @ElementCollection private List<String> stringValues;
-  @ElementCollection private List<BigDecimal> numberValues;
-  @ElementCollection private List<LocalDateTime> dateTimeValues;
-  @ElementCollection private List<Boolean> booleanValues;
+  @ElementCollection @OrderColumn private List<String> stringValues;
+  @ElementCollection @OrderColumn private List<BigDecimal> numberValues;
+  @ElementCollection @OrderColumn private List<LocalDateTime> dateTimeValues;
+  @ElementCollection @OrderColumn private List<Boolean> booleanValues;
   private RestrictionOperator minOperator;
   private RestrictionOperator maxOperator;
 
@@ -1,10 +1,13 @@
 package care.smith.top.backend.repository.jpa;
 
+import care.smith.top.backend.model.fork.ForkCount;
+import care.smith.top.backend.model.fork.OutdatedFork;
 import care.smith.top.backend.model.jpa.*;
 import care.smith.top.backend.util.ApiModelMapper;
 import care.smith.top.model.EntityType;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
@@ -13,13 +16,37 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface EntityRepository
     extends JpaRepository<EntityDao, String>, JpaSpecificationExecutor<EntityDao> {
+  /**
+   * Selects forks together with the highest origin version any of their versions is linked to, and
+   * keeps those whose linked version is older than the current version of the origin.
+   */
+  String OUTDATED_FORKS_QUERY =
+      "SELECT new care.smith.top.backend.model.fork.OutdatedFork("
+          + "f.id, r.id, f.entityType, fc.version, o.id, orr.id, MAX(ov.version), oc.version) "
+          + "FROM EntityDao f "
+          + "JOIN f.repository r "
+          + "JOIN f.currentVersion fc "
+          + "JOIN f.origin o "
+          + "JOIN o.repository orr "
+          + "JOIN o.currentVersion oc "
+          + "JOIN f.versions fv "
+          + "JOIN fv.equivalentEntityVersions ov "
+          + "WHERE ov.entity = o AND ";
+  String OUTDATED_FORKS_GROUP_BY =
+      " GROUP BY f.id, r.id, f.entityType, fc.version, o.id, orr.id, oc.version "
+          + "HAVING MAX(ov.version) < oc.version "
+          + "ORDER BY r.id, f.id";
+
   static Specification<EntityDao> byTitle(@Nullable String title) {
     return (root, query, cb) -> {
       if (title == null) return cb.and();
@@ -149,10 +176,62 @@ public interface EntityRepository
     return dependencies;
   }
 
+  /**
+   * Collects the dependencies of all provided entities, as {@link #getDependencies(EntityDao)}
+   * does for a single entity. The dependency graph is traversed breadth first with one query per
+   * level, and every entity is visited only once, even if several entities depend on it.
+   *
+   * @param entities Entities for which dependencies are collected.
+   * @return The combined dependencies of all entities.
+   */
+  default Set<EntityDao> getDependencies(Collection<EntityDao> entities) {
+    Map<String, EntityDao> seeds =
+        entities.stream().collect(Collectors.toMap(EntityDao::getId, e -> e, (a, b) -> a));
+    Set<String> visited = new HashSet<>();
+    Set<EntityDao> dependencies = new HashSet<>();
+    Collection<EntityDao> level = seeds.values();
+
+    while (!level.isEmpty()) {
+      Set<String> ids = new HashSet<>();
+      for (EntityDao entity : level)
+        getDirectDependencyIds(entity).filter(visited::add).forEach(ids::add);
+
+      // provided entities have already been traversed, so they are not loaded again
+      ids.stream().map(seeds::get).filter(Objects::nonNull).forEach(dependencies::add);
+      ids.removeAll(seeds.keySet());
+      level = ids.isEmpty() ? Collections.emptyList() : findDistinctByIdIn(ids);
+      dependencies.addAll(level);
+    }
+
+    return dependencies;
+  }
+
+  /**
+   * @param entity The entity to collect dependencies for.
+   * @return IDs of the entities the entity depends on directly, i.e. without their own
+   *     dependencies (see {@link #getDependencies(EntityDao)}).
+   */
+  static Stream<String> getDirectDependencyIds(EntityDao entity) {
+    List<String> ids = new ArrayList<>();
+    if (ApiModelMapper.isRestricted(entity.getEntityType()))
+      entity.getSuperEntities().stream().findFirst().map(EntityDao::getId).ifPresent(ids::add);
+
+    if (ApiModelMapper.isAbstract(entity.getEntityType())
+        || ApiModelMapper.isCompositeConcept(entity.getEntityType())) {
+      EntityVersionDao currentVersion = entity.getCurrentVersion();
+      if (currentVersion != null && currentVersion.getExpression() != null)
+        ids.addAll(
+            ApiModelMapper.getEntityIdsFromExpression(currentVersion.getExpression().toApiModel()));
+    }
+    return ids.stream();
+  }
+
   long count();
 
   long countByEntityTypeIn(EntityType[] entityType);
 
+  boolean existsByIdAndRepository_Id(String id, String repositoryId);
+
   boolean existsByIdAndSubEntities_EntityTypeIn(String id, Collection<EntityType> entityTypes);
 
   Slice<EntityDao> findAllByRepositoryIdAndSuperEntities_Id(
@@ -168,12 +247,47 @@ public interface EntityRepository
 
   Optional<EntityDao> findByIdAndRepositoryId(String id, String repositoryId);
 
+  @EntityGraph(attributePaths = {"currentVersion", "superEntities"})
+  List<EntityDao> findDistinctByIdIn(Collection<String> ids);
+
+  @EntityGraph(attributePaths = {"currentVersion", "superEntities"})
+  List<EntityDao> findDistinctByIdInAndRepositoryId(Collection<String> ids, String repositoryId);
+
   Page<EntityDao> findAllByRepositoryId(String repositoryId, Pageable pageable);
 
   Slice<EntityDao> findAllByRepositoryIdAndSuperEntitiesEmpty(String repositoryId, Sort sort);
 
   Optional<EntityDao> findByRepositoryIdAndOriginId(String repositoryId, String originId);
 
+  @EntityGraph(
+      attributePaths = {"repository", "repository.organisation", "currentVersion.author"})
+  Page<EntityDao> findAllByOrigin_Id(String originId, Pageable pageable);
+
+  @Query(
+      "SELECT new care.smith.top.backend.model.fork.ForkCount("
+          + "r.organisation.id, r.id, r.name, COUNT(f), MAX(fc.createdAt)) "
+          + "FROM EntityDao f JOIN f.repository r LEFT JOIN f.currentVersion fc "
+          + "WHERE f.origin.id = :originId "
+          + "GROUP BY r.organisation.id, r.id, r.name "
+          + "ORDER BY r.organisation.id, r.id")
+  List<ForkCount> countForksByRepository(@Param("originId") String originId);
+
+  @Query(
+      "SELECT new care.smith.top.backend.model.fork.ForkCount("
+          + "r.organisation.id, COUNT(f), MAX(fc.createdAt)) "
+          + "FROM EntityDao f JOIN f.repository r LEFT JOIN f.currentVersion fc "
+          + "WHERE f.origin.id = :originId "
+          + "GROUP BY r.organisation.id "
+          + "ORDER BY r.organisation.id")
+  List<ForkCount> countForksByOrganisation(@Param("originId") String originId);
+
+  @Query(OUTDATED_FORKS_QUERY + "r.id = :repositoryId" + OUTDATED_FORKS_GROUP_BY)
+  List<OutdatedFork> findOutdatedForksByRepositoryId(@Param("repositoryId") String repositoryId);
+
+  @Query(OUTDATED_FORKS_QUERY + "r.organisation.id = :organisationId" + OUTDATED_FORKS_GROUP_BY)
+  List<OutdatedFork> findOutdatedForksByOrganisationId(
+      @Param("organisationId") String organisationId);
+
   Page<EntityDao> findAllByRepositoryIdAndEntityTypeIn(
       String repositoryId, List<EntityType> entityTypes, Pageable pageable);
 }
@@ -1,11 +1,22 @@
 package care.smith.top.backend.repository.jpa;
 
 import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.model.QueryState;
+import care.smith.top.model.QueryType;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import javax.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 @Repository
 public interface QueryRepository extends JpaRepository<QueryDao, String> {
@@ -14,4 +25,75 @@ public interface QueryRepository extends JpaRepository<QueryDao, String> {
 
   Optional<QueryDao> findByRepository_OrganisationIdAndRepositoryIdAndId(
       String organisationId, String repositoryId, String id);
+
+  List<QueryDao> findAllByResultIsNullAndDispatchedAtIsNullOrderByCreatedAtAscIdAsc();
+
+  List<QueryDao> findAllByResultIsNullAndDispatchedAtIsNotNull();
+
+  List<QueryDao> findAllByResultIsNullAndDispatchedAtBefore(OffsetDateTime dispatchedBefore);
+
+  List<QueryDao> findAllByRepository_OrganisationIdAndRepositoryIdAndResultIsNull(
+      String organisationId, String repositoryId);
+
+  List<QueryDao> findAllByIdInAndResultIsNotNull(Collection<String> ids);
+
+  long countByRepository_OrganisationIdAndResultIsNullAndDispatchedAtIsNull(String organisationId);
+
+  /**
+   * Same as {@link #findAllByResultIsNullAndDispatchedAtIsNullOrderByCreatedAtAscIdAsc()}, but the
+   * queries are locked until the end of the transaction.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query(
+      "SELECT q FROM query q WHERE q.dispatchedAt IS NULL "
+          + "AND NOT EXISTS (SELECT r FROM query_result r WHERE r.query = q) "
+          + "ORDER BY q.createdAt, q.id")
+  List<QueryDao> lockQueued();
+
+  /** @return 1 if the query was queued and has been marked dispatched, otherwise 0. */
+  @Transactional
+  @Modifying
+  @Query(
+      "UPDATE query q SET q.dispatchedAt = :dispatchedAt "
+          + "WHERE q.id = :id AND q.dispatchedAt IS NULL")
+  int markDispatched(@Param("id") String id, @Param("dispatchedAt") OffsetDateTime dispatchedAt);
+
+  /** @return 1 if the query was dispatched at the given time and is queued again, otherwise 0. */
+  @Transactional
+  @Modifying
+  @Query(
+      "UPDATE query q SET q.dispatchedAt = NULL "
+          + "WHERE q.id = :id AND q.dispatchedAt = :dispatchedAt")
+  int markQueued(@Param("id") String id, @Param("dispatchedAt") OffsetDateTime dispatchedAt);
+
+  /** @return 1 if cancellation of the query has been requested, 0 if it was already requested. */
+  @Transactional
+  @Modifying
+  @Query(
+      "UPDATE query q SET q.cancelRequestedAt = :requestedAt "
+          + "WHERE q.id = :id AND q.cancelRequestedAt IS NULL")
+  int markCancelRequested(
+      @Param("id") String id, @Param("requestedAt") OffsetDateTime requestedAt);
+
+  /** @return IDs of the given queries, whose cancellation has been requested. */
+  @Query("SELECT q.id FROM query q WHERE q.id IN :ids AND q.cancelRequestedAt IS NOT NULL")
+  List<String> findCancelRequested(@Param("ids") Collection<String> ids);
+
+  /** @return True if a result has been stored for the query. */
+  @Query(
+      "SELECT CASE WHEN COUNT(r) > 0 THEN true ELSE false END "
+          + "FROM query_result r WHERE r.query.id = :id")
+  boolean hasResult(@Param("id") String id);
+
+  List<QueryDao> findAllByResult_FinishedAtIsNotNullAndResult_ExpiredAtIsNullOrderByResult_FinishedAtAsc();
+
+  boolean existsByRepository_OrganisationIdAndRepositoryIdAndId(
+      String organisationId, String repositoryId, String id);
+
+  List<QueryDao>
+      findAllByRepository_OrganisationIdAndResult_FingerprintInAndResult_StateAndResult_FinishedAtAfterOrderByResult_FinishedAtDesc(
+          String organisationId,
+          Collection<String> fingerprints,
+          QueryState state,
+          OffsetDateTime finishedAfter);
 }
@@ -1,6 +1,7 @@
 package care.smith.top.backend.repository.jpa;
 
 import care.smith.top.backend.model.jpa.*;
+import care.smith.top.backend.repository.jpa.custom.RepositoryCloneRepository;
 import care.smith.top.model.RepositoryType;
 import java.util.Collections;
 import java.util.List;
@@ -16,7 +17,9 @@ import org.springframework.stereotype.Repository;
 
 @Repository
 public interface RepositoryRepository
-    extends JpaRepository<RepositoryDao, String>, JpaSpecificationExecutor<RepositoryDao> {
+    extends JpaRepository<RepositoryDao, String>,
+        JpaSpecificationExecutor<RepositoryDao>,
+        RepositoryCloneRepository {
   static Specification<RepositoryDao> byPrimary(@Nullable Boolean primary) {
     return (root, query, cb) -> {
       if (primary == null) return cb.and();
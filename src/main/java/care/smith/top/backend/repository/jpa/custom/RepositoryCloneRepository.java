@@ -0,0 +1,19 @@
+package care.smith.top.backend.repository.jpa.custom;
+
+public interface RepositoryCloneRepository {
+
+  /**
+   * Copies all entities of a repository into another repository using set-based SQL statements.
+   * Entities get new IDs, while their current versions, element collections (titles, synonyms,
+   * descriptions, codes), expressions, restrictions, equivalent versions, origin links and
+   * hierarchy links are copied and remapped to the new IDs.
+   *
+   * <p>The target repository must already exist and should be empty. Must be called within a
+   * transaction.
+   *
+   * @param sourceRepositoryId ID of the repository to copy entities from.
+   * @param targetRepositoryId ID of the repository to copy entities to.
+   * @return Number of entities that were copied.
+   */
+  int cloneRepositoryContent(String sourceRepositoryId, String targetRepositoryId);
+}
@@ -0,0 +1,277 @@
+package care.smith.top.backend.repository.jpa.custom;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Set-based implementation of {@link RepositoryCloneRepository}.
+ *
+ * <p>Old and new IDs are collected in the mapping tables {@code clone_entity_map} (entity IDs) and
+ * {@code clone_id_map} (numeric IDs of versions, expressions, values and restrictions). All rows
+ * are then copied with {@code INSERT ... SELECT} statements that join against these mapping
+ * tables. New numeric IDs are drawn from {@code hibernate_sequence}, so they do not collide with
+ * IDs generated by Hibernate. Mapping rows are removed after the copy.
+ */
+public class RepositoryCloneRepositoryImpl implements RepositoryCloneRepository {
+  private static final String SEQUENCE_NAME = "hibernate_sequence";
+  private static final String ENTITY_VERSION = "entity_version";
+  private static final String EXPRESSION = "expression";
+  private static final String VALUE = "value";
+  private static final String RESTRICTION = "restriction";
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+  private final String nextId;
+
+  public RepositoryCloneRepositoryImpl(
+      NamedParameterJdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.nextId =
+        entityManagerFactory
+            .unwrap(SessionFactoryImplementor.class)
+            .getJdbcServices()
+            .getDialect()
+            .getSelectSequenceNextValString(SEQUENCE_NAME);
+  }
+
+  @Override
+  public int cloneRepositoryContent(String sourceRepositoryId, String targetRepositoryId) {
+    MapSqlParameterSource params =
+        new MapSqlParameterSource()
+            .addValue("cloneId", UUID.randomUUID().toString())
+            .addValue("source", sourceRepositoryId)
+            .addValue("target", targetRepositoryId);
+
+    int count = mapEntityIds(params);
+    if (count == 0) return 0;
+
+    mapIds(
+        params,
+        ENTITY_VERSION,
+        "SELECT e.current_version_id AS old_id FROM entity e "
+            + "JOIN clone_entity_map em ON em.clone_id = :cloneId AND em.old_id = e.id "
+            + "WHERE e.current_version_id IS NOT NULL");
+    mapIds(
+        params,
+        RESTRICTION,
+        "SELECT v.restriction_id AS old_id FROM entity_version v "
+            + joinMap("vm", ENTITY_VERSION, "v.id")
+            + " WHERE v.restriction_id IS NOT NULL");
+    mapIds(
+        params,
+        EXPRESSION,
+        "SELECT v.expression_id AS old_id FROM entity_version v "
+            + joinMap("vm", ENTITY_VERSION, "v.id")
+            + " WHERE v.expression_id IS NOT NULL");
+    // expressions are trees, so arguments are mapped level by level until no new ones are found
+    int mapped;
+    do {
+      mapped =
+          mapIds(
+              params,
+              EXPRESSION,
+              "SELECT a.arguments_id AS old_id FROM expression_arguments a "
+                  + joinMap("pm", EXPRESSION, "a.expression_id")
+                  + " WHERE NOT EXISTS (SELECT 1 FROM clone_id_map x WHERE x.clone_id = :cloneId"
+                  + " AND x.kind = '"
+                  + EXPRESSION
+                  + "' AND x.old_id = a.arguments_id)");
+    } while (mapped > 0);
+    mapIds(
+        params,
+        VALUE,
+        "SELECT ev.values_id AS old_id FROM expression_values ev "
+            + joinMap("xm", EXPRESSION, "ev.expression_id"));
+
+    copyRestrictions(params);
+    copyExpressions(params);
+    copyEntities(params);
+    copyVersions(params);
+
+    jdbcTemplate.update("DELETE FROM clone_id_map WHERE clone_id = :cloneId", params);
+    jdbcTemplate.update("DELETE FROM clone_entity_map WHERE clone_id = :cloneId", params);
+
+    return count;
+  }
+
+  private int mapEntityIds(MapSqlParameterSource params) {
+    List<String> ids =
+        jdbcTemplate.queryForList(
+            "SELECT id FROM entity WHERE repository_id = :source", params, String.class);
+    String cloneId = (String) params.getValue("cloneId");
+
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO clone_entity_map (clone_id, old_id, new_id) VALUES (:cloneId, :oldId, :newId)",
+        ids.stream()
+            .map(
+                id ->
+                    new MapSqlParameterSource()
+                        .addValue("cloneId", cloneId)
+                        .addValue("oldId", id)
+                        .addValue("newId", UUID.randomUUID().toString()))
+            .toArray(MapSqlParameterSource[]::new));
+    return ids.size();
+  }
+
+  /**
+   * Assigns new IDs from the sequence to all IDs returned by the provided select statement. The
+   * order of the new IDs is undefined, collections keep their order through their order columns.
+   *
+   * @param kind Kind of the mapped IDs, usually the table name.
+   * @param select Statement selecting exactly one column named {@code old_id}.
+   * @return Number of new mappings.
+   */
+  private int mapIds(MapSqlParameterSource params, String kind, String select) {
+    return jdbcTemplate.update(
+        String.format(
+            "INSERT INTO clone_id_map (clone_id, kind, old_id, new_id) "
+                + "SELECT :cloneId, '%s', o.old_id, %s "
+                + "FROM (SELECT DISTINCT s.old_id FROM (%s) s) o",
+            kind, nextId, select),
+        params);
+  }
+
+  private void copyRestrictions(MapSqlParameterSource params) {
+    jdbcTemplate.update(
+        "INSERT INTO restriction (id, cardinality, data_type, max_operator,"
+            + " maximum_date_time_value, maximum_number_value, min_operator,"
+            + " minimum_date_time_value, minimum_number_value, quantifier) "
+            + "SELECT rm.new_id, r.cardinality, r.data_type, r.max_operator,"
+            + " r.maximum_date_time_value, r.maximum_number_value, r.min_operator,"
+            + " r.minimum_date_time_value, r.minimum_number_value, r.quantifier "
+            + "FROM restriction r "
+            + joinMap("rm", RESTRICTION, "r.id"),
+        params);
+
+    for (String column :
+        List.of("boolean_values", "date_time_values", "number_values", "string_values"))
+      jdbcTemplate.update(
+          String.format(
+              "INSERT INTO restriction_%1$s (restriction_id, %1$s, %1$s_order) "
+                  + "SELECT rm.new_id, r.%1$s, r.%1$s_order FROM restriction_%1$s r %2$s",
+              column, joinMap("rm", RESTRICTION, "r.restriction_id")),
+          params);
+  }
+
+  private void copyExpressions(MapSqlParameterSource params) {
+    jdbcTemplate.update(
+        "INSERT INTO value (id, boolean_value, date_time_value, number_value, string_value) "
+            + "SELECT vm.new_id, v.boolean_value, v.date_time_value, v.number_value, v.string_value "
+            + "FROM value v "
+            + joinMap("vm", VALUE, "v.id"),
+        params);
+
+    jdbcTemplate.update(
+        "INSERT INTO expression (id, constant_id, entity_id, function_id) "
+            + "SELECT xm.new_id, x.constant_id, COALESCE(em.new_id, x.entity_id), x.function_id "
+            + "FROM expression x "
+            + joinMap("xm", EXPRESSION, "x.id")
+            + " LEFT JOIN clone_entity_map em ON em.clone_id = :cloneId AND em.old_id = x.entity_id",
+        params);
+
+    jdbcTemplate.update(
+        "INSERT INTO expression_arguments (expression_id, arguments_id, arguments_order) "
+            + "SELECT pm.new_id, am.new_id, a.arguments_order FROM expression_arguments a "
+            + joinMap("pm", EXPRESSION, "a.expression_id")
+            + " "
+            + joinMap("am", EXPRESSION, "a.arguments_id"),
+        params);
+
+    jdbcTemplate.update(
+        "INSERT INTO expression_values (expression_id, values_id, values_order) "
+            + "SELECT xm.new_id, vm.new_id, ev.values_order FROM expression_values ev "
+            + joinMap("xm", EXPRESSION, "ev.expression_id")
+            + " "
+            + joinMap("vm", VALUE, "ev.values_id"),
+        params);
+  }
+
+  private void copyEntities(MapSqlParameterSource params) {
+    jdbcTemplate.update(
+        "INSERT INTO entity (id, top_entity_type, origin_id, repository_id) "
+            + "SELECT em.new_id, e.top_entity_type, e.origin_id, :target FROM entity e "
+            + "JOIN clone_entity_map em ON em.clone_id = :cloneId AND em.old_id = e.id",
+        params);
+
+    jdbcTemplate.update(
+        "INSERT INTO entity_super_entities (sub_entities_id, super_entities_id) "
+            + "SELECT sub.new_id, sup.new_id FROM entity_super_entities s "
+            + "JOIN clone_entity_map sub ON sub.clone_id = :cloneId"
+            + " AND sub.old_id = s.sub_entities_id "
+            + "JOIN clone_entity_map sup ON sup.clone_id = :cloneId"
+            + " AND sup.old_id = s.super_entities_id",
+        params);
+  }
+
+  private void copyVersions(MapSqlParameterSource params) {
+    jdbcTemplate.update(
+        "INSERT INTO entity_version (id, created_at, data_type, item_type, unit, version,"
+            + " entity_id, expression_id, previous_version_id, restriction_id, user_id) "
+            + "SELECT vm.new_id, v.created_at, v.data_type, v.item_type, v.unit, v.version,"
+            + " em.new_id, xm.new_id, NULL, rm.new_id, v.user_id "
+            + "FROM entity_version v "
+            + joinMap("vm", ENTITY_VERSION, "v.id")
+            + " JOIN clone_entity_map em ON em.clone_id = :cloneId AND em.old_id = v.entity_id"
+            + " LEFT "
+            + joinMap("xm", EXPRESSION, "v.expression_id")
+            + " LEFT "
+            + joinMap("rm", RESTRICTION, "v.restriction_id"),
+        params);
+
+    jdbcTemplate.update(
+        "UPDATE entity SET current_version_id = ("
+            + "SELECT vm.new_id FROM clone_entity_map em "
+            + "JOIN entity o ON o.id = em.old_id "
+            + joinMap("vm", ENTITY_VERSION, "o.current_version_id")
+            + " WHERE em.clone_id = :cloneId AND em.new_id = entity.id) "
+            + "WHERE repository_id = :target",
+        params);
+
+    Map<String, String> textCollections =
+        Map.of(
+            "entity_version_titles", "titles_order",
+            "entity_version_synonyms", "synonyms_order",
+            "entity_version_descriptions", "descriptions_order");
+    textCollections.forEach(
+        (table, orderColumn) ->
+            jdbcTemplate.update(
+                String.format(
+                    "INSERT INTO %1$s (entity_version_id, lang, text, %2$s) "
+                        + "SELECT vm.new_id, t.lang, t.text, t.%2$s FROM %1$s t %3$s",
+                    table, orderColumn, joinMap("vm", ENTITY_VERSION, "t.entity_version_id")),
+                params));
+
+    jdbcTemplate.update(
+        "INSERT INTO entity_version_codes"
+            + " (entity_version_id, code, code_system_uri, name, uri, codes_order) "
+            + "SELECT vm.new_id, c.code, c.code_system_uri, c.name, c.uri, c.codes_order "
+            + "FROM entity_version_codes c "
+            + joinMap("vm", ENTITY_VERSION, "c.entity_version_id"),
+        params);
+
+    jdbcTemplate.update(
+        "INSERT INTO entity_version_equivalent_entity_versions"
+            + " (equivalent_entity_version_of_id, equivalent_entity_versions_id) "
+            + "SELECT vm.new_id, q.equivalent_entity_versions_id "
+            + "FROM entity_version_equivalent_entity_versions q "
+            + joinMap("vm", ENTITY_VERSION, "q.equivalent_entity_version_of_id"),
+        params);
+  }
+
+  /**
+   * @param alias Alias of the joined mapping table.
+   * @param kind Kind of mapped IDs.
+   * @param oldIdColumn Qualified column containing the old ID.
+   * @return A join clause for {@code clone_id_map}.
+   */
+  private static String joinMap(String alias, String kind, String oldIdColumn) {
+    return String.format(
+        "JOIN clone_id_map %1$s ON %1$s.clone_id = :cloneId AND %1$s.kind = '%2$s'"
+            + " AND %1$s.old_id = %3$s",
+        alias, kind, oldIdColumn);
+  }
+}
@@ -0,0 +1,198 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.model.jpa.Permission;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.model.QueryType;
+import java.io.IOException;
+import java.util.*;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Set operations between the cohorts (subjects) of stored phenotype query results. Cohorts are
+ * stored as bitmaps of subject codes (see {@link PhenotypeQueryService#getCohort}), so operations
+ * do not need to read the result files. Only cohorts of the same data source can be combined.
+ */
+@Service
+public class CohortService {
+  /** Maximum number of subject IDs returned by {@link #combine}. */
+  public static final int MAX_SUBJECTS = 10_000;
+
+  /** Maximum number of queries that can be combined at once. */
+  public static final int MAX_QUERIES = 50;
+
+  @Autowired private PhenotypeQueryService phenotypeQueryService;
+  @Autowired private SubjectDictionaryService subjectDictionaryService;
+  @Autowired private QueryRepository queryRepository;
+
+  /** Set operation between cohorts. */
+  public enum Operation {
+    /** Subjects contained in all cohorts. */
+    INTERSECTION,
+    /** Subjects contained in any cohort. */
+    UNION,
+    /** Subjects of the first cohort, that are not contained in any other cohort. */
+    DIFFERENCE
+  }
+
+  /**
+   * Combines the cohorts of query results.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the queries belong to.
+   * @param repositoryId ID of the repository the queries belong to.
+   * @param operation The set operation.
+   * @param queryIds IDs of the queries, whose cohorts are combined in the given order.
+   * @param subjectLimit Maximum number of returned subject IDs, at most {@link #MAX_SUBJECTS}. If
+   *     0, only the size of the resulting cohort is returned.
+   * @return Size and subject IDs of the resulting cohort.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public Cohort combine(
+      String organisationId,
+      String repositoryId,
+      Operation operation,
+      List<UUID> queryIds,
+      int subjectLimit)
+      throws IOException {
+    String dataSource = getDataSource(organisationId, repositoryId, queryIds);
+    RoaringBitmap result = null;
+    for (UUID queryId : queryIds) {
+      RoaringBitmap cohort = phenotypeQueryService.getCohort(organisationId, repositoryId, queryId);
+      if (result == null) result = cohort;
+      else if (operation == Operation.INTERSECTION) result.and(cohort);
+      else if (operation == Operation.UNION) result.or(cohort);
+      else result.andNot(cohort);
+    }
+
+    Cohort cohort = new Cohort();
+    cohort.dataSource = dataSource;
+    cohort.count = Objects.requireNonNull(result).getLongCardinality();
+    int limit = Math.max(0, Math.min(subjectLimit, MAX_SUBJECTS));
+    if (limit > 0) cohort.subjectIds = subjectDictionaryService.decode(dataSource, result, limit);
+    return cohort;
+  }
+
+  /**
+   * Counts the subjects shared by each pair of query results.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the queries belong to.
+   * @param repositoryId ID of the repository the queries belong to.
+   * @param queryIds IDs of the queries.
+   * @return Overlap of each pair of queries.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public List<Overlap> getOverlaps(String organisationId, String repositoryId, List<UUID> queryIds)
+      throws IOException {
+    getDataSource(organisationId, repositoryId, queryIds);
+    List<RoaringBitmap> cohorts = new ArrayList<>();
+    for (UUID queryId : queryIds)
+      cohorts.add(phenotypeQueryService.getCohort(organisationId, repositoryId, queryId));
+
+    List<Overlap> overlaps = new ArrayList<>();
+    for (int i = 0; i < cohorts.size(); i++)
+      for (int j = i + 1; j < cohorts.size(); j++) {
+        Overlap overlap = new Overlap();
+        overlap.firstQueryId = queryIds.get(i);
+        overlap.secondQueryId = queryIds.get(j);
+        overlap.firstCount = cohorts.get(i).getLongCardinality();
+        overlap.secondCount = cohorts.get(j).getLongCardinality();
+        overlap.sharedCount = RoaringBitmap.andCardinality(cohorts.get(i), cohorts.get(j));
+        overlaps.add(overlap);
+      }
+    return overlaps;
+  }
+
+  /**
+   * @return The data source all given queries were executed on.
+   * @throws ResponseStatusException If the queries do not exist, are no phenotype queries or were
+   *     executed on different data sources.
+   */
+  private String getDataSource(String organisationId, String repositoryId, List<UUID> queryIds) {
+    if (queryIds == null || queryIds.isEmpty() || queryIds.size() > MAX_QUERIES)
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          String.format("Between 1 and %d queries must be provided.", MAX_QUERIES));
+
+    Set<String> dataSources = new HashSet<>();
+    for (UUID queryId : queryIds) {
+      QueryDao query =
+          queryRepository
+              .findByRepository_OrganisationIdAndRepositoryIdAndId(
+                  organisationId, repositoryId, queryId.toString())
+              .orElseThrow(
+                  () ->
+                      new ResponseStatusException(
+                          HttpStatus.NOT_FOUND,
+                          String.format("Query '%s' does not exist.", queryId)));
+      if (!QueryType.PHENOTYPE.equals(query.getQueryType()))
+        throw new ResponseStatusException(
+            HttpStatus.BAD_REQUEST, String.format("Query '%s' is no phenotype query.", queryId));
+      dataSources.add(query.getDataSource());
+    }
+    if (dataSources.size() > 1)
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST, "Cohorts of different data sources cannot be combined.");
+    return dataSources.iterator().next();
+  }
+
+  /** Result of a set operation between cohorts. */
+  public static class Cohort {
+    private String dataSource;
+    private long count;
+    private List<String> subjectIds = new ArrayList<>();
+
+    public String getDataSource() {
+      return dataSource;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public List<String> getSubjectIds() {
+      return subjectIds;
+    }
+  }
+
+  /** Number of subjects shared by the cohorts of two queries. */
+  public static class Overlap {
+    private UUID firstQueryId;
+    private UUID secondQueryId;
+    private long firstCount;
+    private long secondCount;
+    private long sharedCount;
+
+    public UUID getFirstQueryId() {
+      return firstQueryId;
+    }
+
+    public UUID getSecondQueryId() {
+      return secondQueryId;
+    }
+
+    public long getFirstCount() {
+      return firstCount;
+    }
+
+    public long getSecondCount() {
+      return secondCount;
+    }
+
+    public long getSharedCount() {
+      return sharedCount;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package care.smith.top.backend.service;
 
+import care.smith.top.backend.model.fork.ForkingStatsSummary;
+import care.smith.top.backend.model.fork.OutdatedFork;
 import care.smith.top.backend.model.jpa.*;
 import care.smith.top.backend.repository.jpa.*;
 import care.smith.top.backend.repository.ols.CodeRepository;
@@ -371,6 +373,7 @@ public class EntityService implements ContentService {
         .map(populateWithCodeSystems());
   }
 
+  @Transactional(readOnly = true)
   @PreAuthorize(
       "hasRole('ADMIN') or hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', 'READ')")
   public ForkingStats getForkingStats(
@@ -392,24 +395,86 @@ public class EntityService implements ContentService {
                   origin.getCurrentVersion().getTitles().stream()
                       .map(LocalisableTextDao::toApiModel)
                       .collect(Collectors.toList())));
-    if (entity.getForks() != null)
-      entity.getForks().stream()
-          .map(
-              f -> {
-                RepositoryDao repository = f.getRepository();
-                return new Entity()
-                    .id(f.getId())
-                    .author(
-                        f.getCurrentVersion().getAuthor() != null
-                            ? f.getCurrentVersion().getAuthor().getUsername()
-                            : null)
-                    .createdAt(f.getCurrentVersion().getCreatedAt())
-                    .repository(repository.toApiModel());
-              })
-          .forEach(forkingStats::addForksItem);
+    entityRepository
+        .findAllByOrigin_Id(entity.getId(), Pageable.unpaged())
+        .map(this::toForkApiModel)
+        .forEach(forkingStats::addForksItem);
     return forkingStats;
   }
 
+  /**
+   * Returns one page of the forks of an entity. In contrast to {@link #getForkingStats(String,
+   * String, String, List)}, only the forks of the requested page are loaded.
+   */
+  @Transactional(readOnly = true)
+  @PreAuthorize(
+      "hasRole('ADMIN') or hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', 'READ')")
+  public Page<Entity> getForks(
+      String organisationId, String repositoryId, String id, Integer page) {
+    getRepository(organisationId, repositoryId);
+    if (!entityRepository.existsByIdAndRepository_Id(id, repositoryId))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+    PageRequest pageRequest =
+        PageRequest.of(page != null ? page - 1 : 0, pageSize, Sort.by(EntityDao_.ID));
+    return entityRepository.findAllByOrigin_Id(id, pageRequest).map(this::toForkApiModel);
+  }
+
+  /**
+   * Counts the forks of an entity per organisation and per repository with grouped queries,
+   * without loading the forks themselves.
+   */
+  @Transactional(readOnly = true)
+  @PreAuthorize(
+      "hasRole('ADMIN') or hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', 'READ')")
+  public ForkingStatsSummary getForkingStatsSummary(
+      String organisationId, String repositoryId, String id) {
+    getRepository(organisationId, repositoryId);
+    if (!entityRepository.existsByIdAndRepository_Id(id, repositoryId))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+    return new ForkingStatsSummary(
+        id,
+        entityRepository.countForksByOrganisation(id),
+        entityRepository.countForksByRepository(id));
+  }
+
+  private Entity toForkApiModel(EntityDao fork) {
+    EntityVersionDao currentVersion = fork.getCurrentVersion();
+    Entity entity = new Entity().id(fork.getId()).repository(fork.getRepository().toApiModel());
+    if (currentVersion != null)
+      entity
+          .author(
+              currentVersion.getAuthor() != null ? currentVersion.getAuthor().getUsername() : null)
+          .createdAt(currentVersion.getCreatedAt());
+    return entity;
+  }
+
+  /**
+   * Lists all forks in a repository that are behind their origin. A fork is outdated, if the
+   * highest origin version linked by any of its versions is older than the current version of the
+   * origin.
+   */
+  @Transactional(readOnly = true)
+  @PreAuthorize(
+      "hasRole('ADMIN') or hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', 'READ')")
+  public List<OutdatedFork> getOutdatedForks(String organisationId, String repositoryId) {
+    getRepository(organisationId, repositoryId);
+    return entityRepository.findOutdatedForksByRepositoryId(repositoryId);
+  }
+
+  /**
+   * Lists all forks in repositories of an organisation that are behind their origin.
+   *
+   * @see #getOutdatedForks(String, String)
+   */
+  @Transactional(readOnly = true)
+  @PreAuthorize(
+      "hasRole('ADMIN') or hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'READ')")
+  public List<OutdatedFork> getOutdatedForksByOrganisationId(String organisationId) {
+    return entityRepository.findOutdatedForksByOrganisationId(organisationId);
+  }
+
   @Cacheable(
       value = "entities",
       key = "#repositoryId",
@@ -546,6 +611,7 @@ public class EntityService implements ContentService {
         .apply(entityRepository.save(entity.currentVersion(newVersion)).toApiModel());
   }
 
+  @Transactional(readOnly = true)
   @PreAuthorize(
       "hasRole('ADMIN') or hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', 'READ')")
   public ByteArrayOutputStream exportRepository(
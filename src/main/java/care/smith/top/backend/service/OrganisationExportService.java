@@ -0,0 +1,214 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.model.export.OrganisationExportManifest;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.model.jpa.RepositoryDao_;
+import care.smith.top.backend.repository.jpa.RepositoryRepository;
+import care.smith.top.top_phenotypic_query.converter.PhenotypeExporter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * This service exports multiple repositories of an organisation into a single ZIP archive.
+ *
+ * <p>Repositories are exported in parallel on a bounded executor. Each repository is exported by
+ * {@link EntityService#exportRepository(String, String, String)} and thereby uses its own
+ * read-only transaction. Finished exports are written to the archive as soon as they are
+ * available, so at most {@code top.export.parallelism} repository exports are held in memory at
+ * the same time.
+ */
+@Service
+public class OrganisationExportService {
+  public static final String MANIFEST_FILE_NAME = "manifest.json";
+
+  private static final Logger LOGGER = Logger.getLogger(OrganisationExportService.class.getName());
+
+  private final ObjectMapper MAPPER =
+      new ObjectMapper()
+          .registerModule(new JavaTimeModule())
+          .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+          .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+          .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+  private final int parallelism;
+  private final ExecutorService executor;
+
+  @Autowired private EntityService entityService;
+  @Autowired private RepositoryRepository repositoryRepository;
+
+  public OrganisationExportService(@Value("${top.export.parallelism:4}") int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+    this.executor =
+        new DelegatingSecurityContextExecutorService(
+            Executors.newFixedThreadPool(this.parallelism));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Exports repositories of an organisation into a single ZIP archive that is written to the
+   * provided output stream. The archive contains one file per repository and a {@value
+   * #MANIFEST_FILE_NAME} file describing the archive content. Repositories that fail to export are
+   * listed in the manifest together with the error message.
+   *
+   * @param organisationId ID of the organisation to export repositories from.
+   * @param repositoryIds IDs of repositories to be exported. If {@code null} or empty, all
+   *     repositories of the organisation are exported.
+   * @param converter Simple class name of the {@link PhenotypeExporter} to be used.
+   * @param outputStream The stream the archive is written to. It is not closed by this method.
+   * @throws IOException If the archive could not be written to the stream.
+   */
+  @PreAuthorize(
+      "hasRole('ADMIN') or hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'READ')")
+  public void exportOrganisation(
+      String organisationId,
+      List<String> repositoryIds,
+      String converter,
+      OutputStream outputStream)
+      throws IOException {
+    PhenotypeExporter exporter = getExporter(converter);
+    List<RepositoryDao> repositories = getRepositories(organisationId, repositoryIds);
+    OrganisationExportManifest manifest =
+        new OrganisationExportManifest(organisationId, converter);
+
+    ZipOutputStream zipStream = new ZipOutputStream(outputStream);
+    CompletionService<RepositoryExport> completionService =
+        new ExecutorCompletionService<>(executor);
+    int submitted = 0;
+    int written = 0;
+
+    try {
+      for (RepositoryDao repository : repositories) {
+        if (submitted - written >= parallelism) {
+          writeExport(completionService.take().get(), zipStream, manifest, exporter);
+          written++;
+        }
+        completionService.submit(() -> export(organisationId, repository, converter));
+        submitted++;
+      }
+      while (written < submitted) {
+        writeExport(completionService.take().get(), zipStream, manifest, exporter);
+        written++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Organisation export was interrupted.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Organisation export failed.", e.getCause());
+    }
+
+    zipStream.putNextEntry(new ZipEntry(MANIFEST_FILE_NAME));
+    MAPPER.writeValue(zipStream, manifest.finishedAt(OffsetDateTime.now()));
+    zipStream.closeEntry();
+    zipStream.finish();
+  }
+
+  private RepositoryExport export(
+      String organisationId, RepositoryDao repository, String converter) {
+    OrganisationExportManifest.Entry entry =
+        new OrganisationExportManifest.Entry(repository.getId(), repository.getName());
+    try {
+      return new RepositoryExport(
+          entry, entityService.exportRepository(organisationId, repository.getId(), converter));
+    } catch (Exception e) {
+      LOGGER.warning(
+          String.format(
+              "Export of repository '%s' failed. Cause: %s", repository.getId(), e.getMessage()));
+      return new RepositoryExport(
+          entry.error(e.getMessage() != null ? e.getMessage() : e.toString()), null);
+    }
+  }
+
+  private void writeExport(
+      RepositoryExport export,
+      ZipOutputStream zipStream,
+      OrganisationExportManifest manifest,
+      PhenotypeExporter exporter)
+      throws IOException {
+    manifest.addRepositoriesItem(export.entry);
+    if (export.content == null) return;
+
+    String fileName =
+        String.format("%s.%s", export.entry.getRepositoryId(), exporter.getFileExtension());
+    zipStream.putNextEntry(new ZipEntry(fileName));
+    export.content.writeTo(zipStream);
+    zipStream.closeEntry();
+    export.entry.file(fileName).size((long) export.content.size());
+  }
+
+  private List<RepositoryDao> getRepositories(String organisationId, List<String> repositoryIds) {
+    List<RepositoryDao> repositories =
+        repositoryRepository.findAll(
+            RepositoryRepository.byOrganisationId(organisationId), Sort.by(RepositoryDao_.ID));
+    if (repositoryIds == null || repositoryIds.isEmpty()) return repositories;
+
+    Set<String> existing =
+        repositories.stream().map(RepositoryDao::getId).collect(Collectors.toSet());
+    List<String> missing =
+        repositoryIds.stream().filter(id -> !existing.contains(id)).collect(Collectors.toList());
+    if (!missing.isEmpty())
+      throw new ResponseStatusException(
+          HttpStatus.NOT_FOUND,
+          String.format(
+              "Repositories %s do not exist in organisation '%s'!", missing, organisationId));
+
+    return repositories.stream()
+        .filter(r -> repositoryIds.contains(r.getId()))
+        .collect(Collectors.toList());
+  }
+
+  private PhenotypeExporter getExporter(String converter) {
+    Class<? extends PhenotypeExporter> exporterClass =
+        entityService.getPhenotypeExporterImplementations().stream()
+            .filter(c -> c.getSimpleName().equals(converter))
+            .findFirst()
+            .orElseThrow(
+                () ->
+                    new ResponseStatusException(
+                        HttpStatus.NOT_ACCEPTABLE,
+                        String.format("No converter '%s' available.", converter)));
+    try {
+      return exporterClass.getConstructor().newInstance();
+    } catch (Exception e) {
+      throw new ResponseStatusException(
+          HttpStatus.INTERNAL_SERVER_ERROR,
+          String.format("Converter '%s' could not be instantiated.", converter));
+    }
+  }
+
+  private static class RepositoryExport {
+    private final OrganisationExportManifest.Entry entry;
+    private final ByteArrayOutputStream content;
+
+    private RepositoryExport(
+        OrganisationExportManifest.Entry entry, ByteArrayOutputStream content) {
+      this.entry = entry;
+      this.content = content;
+    }
+  }
+}
@@ -8,7 +8,6 @@ import care.smith.top.model.Organisation;
 import care.smith.top.model.OrganisationMembership;
 import care.smith.top.model.QueryType;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
@@ -24,6 +23,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.web.server.ResponseStatusException;
 
 /**
@@ -47,7 +47,7 @@ public class OrganisationService implements ContentService {
   @Value("${spring.paging.page-size:10}")
   private int pageSize = 10;
 
-  @Value("${top.phenotyping.result.dir:config/query_results}")
+  @Value("${top.result.dir:config/query_results}")
   private String resultDir;
 
   @Autowired private OrganisationMembershipRepository organisationMembershipRepository;
@@ -111,12 +111,14 @@ public class OrganisationService implements ContentService {
     organisationRepository.delete(organisation);
 
     Path organisationPath = Paths.get(resultDir, organisationId);
-    if (!organisationPath.startsWith(Paths.get(resultDir)))
+    if (!organisationPath.startsWith(Paths.get(resultDir))) {
       LOGGER.severe(
           String.format(
               "Organisation directory '%s' is invalid and cannot be deleted!", organisationPath));
+      return;
+    }
     try {
-      Files.deleteIfExists(organisationPath);
+      FileSystemUtils.deleteRecursively(organisationPath);
     } catch (IOException e) {
       LOGGER.severe(
           String.format(
@@ -1,33 +1,56 @@
 package care.smith.top.backend.service;
 
 import care.smith.top.backend.model.jpa.*;
+import care.smith.top.backend.repository.jpa.EntityRepository;
 import care.smith.top.backend.repository.jpa.PhenotypeRepository;
+import care.smith.top.backend.util.AdapterConfigRegistry;
+import care.smith.top.backend.util.AdapterPool;
+import care.smith.top.backend.util.ArrowResultWriter;
+import care.smith.top.backend.util.CohortBitmap;
+import care.smith.top.backend.util.DataSourceSettings;
+import care.smith.top.backend.util.Hashes;
+import care.smith.top.backend.util.PhenotypeResultWriter;
+import care.smith.top.backend.util.QueryWatchdog;
+import care.smith.top.backend.util.ResultManifest;
+import care.smith.top.backend.util.ResultRowFile;
+import care.smith.top.backend.util.ResultStatistics;
 import care.smith.top.model.*;
 import care.smith.top.top_phenotypic_query.adapter.DataAdapter;
 import care.smith.top.top_phenotypic_query.adapter.config.DataAdapterConfig;
 import care.smith.top.top_phenotypic_query.converter.csv.CSV;
 import care.smith.top.top_phenotypic_query.result.ResultSet;
 import care.smith.top.top_phenotypic_query.search.PhenotypeFinder;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.IOException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
 @Service
 public class PhenotypeQueryService extends QueryService {
+  /** Maximum number of queries enqueued at once by {@link #enqueueQueries}. */
+  public static final int MAX_BATCH_SIZE = 100;
+
   private final Logger LOGGER = Logger.getLogger(PhenotypeQueryService.class.getName());
 
   private final CSV csvConverter = new CSV();
@@ -38,10 +61,81 @@ public class PhenotypeQueryService extends QueryService {
   @Value("${top.phenotyping.execute-queries:true}")
   private boolean executeQueries;
 
+  @Value("${top.result.reuse-max-age:1h}")
+  private Duration resultReuseMaxAge;
+
+  @Value("${top.result.chunk-size:1000}")
+  private int resultChunkSize;
+
+  @Value("${top.result.arrow:false}")
+  private boolean arrowResults;
+
+  @Value("${top.result.data-source-arrow:}")
+  private String dataSourceArrow;
+
   @Autowired private PhenotypeRepository phenotypeRepository;
+  @Autowired private SubjectDictionaryService subjectDictionaryService;
+
+  private AdapterConfigRegistry<DataAdapterConfig> dataAdapterConfigs;
+  private AdapterPool<DataAdapter> dataAdapterPool;
+
+  @PostConstruct
+  public void initDataAdapterConfigs() {
+    dataAdapterConfigs =
+        new AdapterConfigRegistry<>(
+            dataSourceConfigDir, this::toDataAdapterConfig, DataAdapterConfig::getId);
+    dataAdapterConfigs.reload();
+    dataAdapterConfigs.watch();
+    dataAdapterPool = createAdapterPool("phenotype", DataAdapter::close);
+  }
+
+  @PreDestroy
+  public void closeDataAdapterConfigs() throws IOException {
+    dataAdapterConfigs.close();
+    dataAdapterPool.close();
+  }
 
   @Override
   public QueryResult enqueueQuery(String organisationId, String repositoryId, Query query) {
+    return enqueue(organisationId, repositoryId, query, false, null);
+  }
+
+  /**
+   * Enqueues a count-only phenotype query, e.g. for a feasibility check. Only the number of
+   * subjects and the statistics of the result (see {@link #getQueryResultStatistics}) are stored.
+   * No result files are written, so the result can neither be downloaded nor paged.
+   *
+   * <p>The statistics describe the result subjects, as for full queries. The number of subjects
+   * matching each criterion on its own is not available, because the query library only returns
+   * the final result set.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param query The query specification.
+   * @param priority Optional priority class of the query, defaults to {@link QueryPriority#COUNT}.
+   * @return A {@link QueryResult} that reflects the state immediately after enqueuing.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public QueryResult enqueueCountQuery(
+      String organisationId, String repositoryId, Query query, QueryPriority priority) {
+    return enqueue(
+        organisationId,
+        repositoryId,
+        query,
+        true,
+        priority == null ? QueryPriority.COUNT : priority);
+  }
+
+  private QueryResult enqueue(
+      String organisationId,
+      String repositoryId,
+      Query query,
+      boolean countOnly,
+      QueryPriority priority) {
     if (!(query instanceof PhenotypeQuery))
       throw new ResponseStatusException(
           HttpStatus.NOT_ACCEPTABLE, "The provided query is not a phenotype query!");
@@ -51,29 +145,236 @@ public class PhenotypeQueryService extends QueryService {
             .findByIdAndOrganisationId(repositoryId, organisationId)
             .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
 
-    if (!isValid(query)) throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE);
+    checkQuery(
+        repository,
+        query,
+        query.getId() != null && queryRepository.existsById(query.getId().toString()),
+        new HashMap<>());
+    checkPriority(priority, countOnly);
 
     UUID queryId = query.getId();
+    queryDispatcher.requireCapacity(organisationId);
+    QueryDao queryDao = new QueryDao(query).repository(repository).countOnly(countOnly);
+    if (priority != null) queryDao.priority(priority);
+    boolean reused = reuseResults(List.of(queryDao)).contains(queryDao.getId());
+    queryDao = queryRepository.save(queryDao);
+    if (!reused) queryDispatcher.dispatch();
+
+    return publishState(queryDao, getQueryById(organisationId, repositoryId, queryId).getResult());
+  }
+
+  /**
+   * Enqueues multiple phenotype queries of a repository at once. The repository, the data sources
+   * and existing query IDs are looked up once for all queries. Queries that fail validation are
+   * rejected individually. Stored results are looked up for all accepted queries at once (see
+   * {@link #reuseResults}). Accepted queries are saved in one transaction, and those that cannot
+   * reuse a stored result are dispatched together after the transaction has been committed.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the queries belong to.
+   * @param repositoryId ID of the repository the queries belong to.
+   * @param queries The query specifications, at most {@link #MAX_BATCH_SIZE}.
+   * @param timeLimit Optional time limit for the execution of each query.
+   * @param priority Optional priority class of the queries, defaults to {@link
+   *     QueryPriority#COUNT} for count-only queries.
+   * @param countOnly Whether the queries are count-only queries (see {@link #enqueueCountQuery}).
+   * @return Outcome of each query in the order of the provided queries.
+   * @throws ResponseStatusException If the repository does not exist, the number of queries or the
+   *     priority is invalid or the accepted queries exceed the queue capacity of the organisation.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public List<BatchEntry> enqueueQueries(
+      String organisationId,
+      String repositoryId,
+      List<Query> queries,
+      Duration timeLimit,
+      QueryPriority priority,
+      boolean countOnly) {
+    if (queries == null || queries.isEmpty() || queries.size() > MAX_BATCH_SIZE)
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          String.format("Between 1 and %d queries must be provided.", MAX_BATCH_SIZE));
+    checkPriority(priority, countOnly);
+    if (countOnly && priority == null) priority = QueryPriority.COUNT;
 
-    if (queryRepository.existsById(queryId.toString()))
-      throw new ResponseStatusException(HttpStatus.CONFLICT);
+    RepositoryDao repository =
+        repositoryRepository
+            .findByIdAndOrganisationId(repositoryId, organisationId)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+    Set<String> existingIds =
+        queryRepository
+            .findAllById(
+                queries.stream()
+                    .filter(q -> q != null && q.getId() != null)
+                    .map(q -> q.getId().toString())
+                    .collect(Collectors.toList()))
+            .stream()
+            .map(QueryDao::getId)
+            .collect(Collectors.toSet());
+    Map<String, ResponseStatusException> dataSourceErrors = new HashMap<>();
+
+    List<BatchEntry> entries = new ArrayList<>();
+    List<QueryDao> accepted = new ArrayList<>();
+    for (Query query : queries) {
+      BatchEntry entry = new BatchEntry();
+      entry.queryId = query == null ? null : query.getId();
+      entries.add(entry);
+      try {
+        if (!(query instanceof PhenotypeQuery))
+          throw new ResponseStatusException(
+              HttpStatus.NOT_ACCEPTABLE, "The provided query is not a phenotype query!");
+        boolean exists = query.getId() != null && existingIds.contains(query.getId().toString());
+        checkQuery(repository, query, exists, dataSourceErrors);
+        existingIds.add(query.getId().toString());
+        QueryDao queryDao = new QueryDao(query).repository(repository).countOnly(countOnly);
+        if (timeLimit != null) queryDao.timeLimit(timeLimit);
+        if (priority != null) queryDao.priority(priority);
+        accepted.add(queryDao);
+        entry.status = HttpStatus.CREATED.value();
+      } catch (ResponseStatusException e) {
+        entry.status = e.getStatus().value();
+        entry.message = e.getReason();
+      }
+    }
+    if (accepted.isEmpty()) return entries;
+
+    queryDispatcher.requireCapacity(organisationId, accepted.size());
+    Set<String> reused = reuseResults(accepted);
+    Map<UUID, QueryDao> saved = new HashMap<>();
+    for (QueryDao queryDao : queryRepository.saveAll(accepted))
+      saved.put(UUID.fromString(queryDao.getId()), queryDao);
+
+    for (BatchEntry entry : entries) {
+      if (entry.status != HttpStatus.CREATED.value()) continue;
+      QueryDao queryDao = saved.get(entry.queryId);
+      entry.result =
+          publishState(
+              queryDao,
+              queryDao.getResult() != null
+                  ? queryDao.getResult().toApiModel()
+                  : new QueryResult()
+                      .id(entry.queryId)
+                      .createdAt(queryDao.getCreatedAt())
+                      .state(QueryState.QUEUED));
+    }
+    if (reused.size() < accepted.size()) queryDispatcher.dispatch();
+    return entries;
+  }
+
+  /**
+   * Checks whether a query can be enqueued to a repository.
+   *
+   * @param repository The repository.
+   * @param query The query specification.
+   * @param exists Whether a query with the same ID already exists.
+   * @param dataSourceErrors Results of previous data source checks, which are reused.
+   * @throws ResponseStatusException If the query cannot be enqueued.
+   */
+  private void checkQuery(
+      RepositoryDao repository,
+      Query query,
+      boolean exists,
+      Map<String, ResponseStatusException> dataSourceErrors) {
+    if (!isValid(query)) throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE);
+    if (exists) throw new ResponseStatusException(HttpStatus.CONFLICT);
+
+    ResponseStatusException error =
+        dataSourceErrors.computeIfAbsent(
+            query.getDataSource(),
+            dataSource -> {
+              if (!repository.getOrganisation().hasDataSource(dataSource))
+                return new ResponseStatusException(
+                    HttpStatus.NOT_ACCEPTABLE, "Data source does not exist for organisation!");
+              if (getDataAdapterConfig(dataSource).isEmpty())
+                return new ResponseStatusException(
+                    HttpStatus.NOT_ACCEPTABLE, "Data source does not exist!");
+              return null;
+            });
+    if (error != null) throw error;
+  }
 
-    if (!repository.getOrganisation().hasDataSource(query.getDataSource()))
+  /**
+   * @param priority The requested priority class of a query.
+   * @param countOnly Whether the query is a count-only query.
+   * @throws ResponseStatusException If {@link QueryPriority#COUNT} is requested for a query, that
+   *     is not count-only.
+   */
+  private void checkPriority(QueryPriority priority, boolean countOnly) {
+    if (QueryPriority.COUNT.equals(priority) && !countOnly)
       throw new ResponseStatusException(
-          HttpStatus.NOT_ACCEPTABLE, "Data source does not exist for organisation!");
+          HttpStatus.BAD_REQUEST, "Priority COUNT is reserved for count-only queries.");
+  }
 
-    if (getDataAdapterConfig(query.getDataSource()).isEmpty())
-      throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Data source does not exist!");
+  /**
+   * Executes an existing query again. The previous result is deleted and no stored result of an
+   * identical query is reused.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query to be executed.
+   * @param timeLimit Optional new time limit for the execution of the query.
+   * @param priority Optional new priority class of the query.
+   * @return A {@link QueryResult} that reflects the state immediately after enqueuing.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public QueryResult rerunQuery(
+      String organisationId,
+      String repositoryId,
+      UUID queryId,
+      Duration timeLimit,
+      QueryPriority priority) {
+    if (!repositoryRepository.existsByIdAndOrganisation_Id(repositoryId, organisationId))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
 
-    queryRepository.save(new QueryDao(query).repository(repository));
-    jobScheduler.enqueue(queryId, () -> this.executeQuery(queryId));
+    QueryDao queryDao =
+        queryRepository
+            .findByRepository_OrganisationIdAndRepositoryIdAndId(
+                organisationId, repositoryId, queryId.toString())
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    if (!QueryType.PHENOTYPE.equals(queryDao.getQueryType()))
+      throw new ResponseStatusException(
+          HttpStatus.NOT_ACCEPTABLE, "The query is not a phenotype query!");
+    if (queryDao.getResult() == null)
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Query has not finished yet.");
+    checkPriority(priority, queryDao.isCountOnly());
+    queryDispatcher.requireCapacity(organisationId);
+
+    try {
+      storageProvider.deletePermanently(queryId);
+    } catch (Exception e) {
+      LOGGER.fine(e.getMessage());
+    }
+    try {
+      clearResults(organisationId, repositoryId, queryId.toString());
+    } catch (IOException e) {
+      throw new ResponseStatusException(
+          HttpStatus.INTERNAL_SERVER_ERROR, "Previous query result could not be deleted.", e);
+    }
 
-    return getQueryById(organisationId, repositoryId, queryId).getResult();
+    if (timeLimit != null) queryDao.timeLimit(timeLimit);
+    if (priority != null) queryDao.priority(priority);
+    queryRepository.save(queryDao.result(null).dispatchedAt(null));
+    queryDispatcher.dispatch();
+
+    return publishState(queryDao, getQueryById(organisationId, repositoryId, queryId).getResult());
   }
 
   @Override
   @org.jobrunr.jobs.annotations.Job(name = "Phenotypic query", retries = 0)
   public void executeQuery(UUID queryId) {
+    try {
+      execute(queryId);
+    } finally {
+      queryDispatcher.dispatch();
+    }
+  }
+
+  private void execute(UUID queryId) {
     OffsetDateTime createdAt = OffsetDateTime.now();
     QueryDao queryDao =
         queryRepository
@@ -88,79 +389,101 @@ public class PhenotypeQueryService extends QueryService {
             "Running %s query '%s' for repository '%s'...",
             getClass().getSimpleName(), queryId, queryDao.getRepository().getDisplayName()));
 
-    Entity[] phenotypes =
-        Stream.concat(
-                queryDao.getProjection().stream().map(ProjectionEntryDao::getSubjectId),
-                queryDao.getCriteria().stream().map(QueryCriterionDao::getSubjectId))
-            .distinct()
-            .flatMap(
-                id ->
-                    phenotypeRepository
-                        .findByIdAndRepositoryId(id, queryDao.getRepository().getId())
-                        .map(
-                            entityDao -> {
-                              Set<EntityDao> result =
-                                  phenotypeRepository.getDependencies(entityDao);
-                              result.add(entityDao);
-                              return result.stream();
-                            })
-                        .orElse(null))
-            .filter(Objects::nonNull)
-            .map(EntityDao::toApiModel)
-            .toArray(Entity[]::new);
-
-    PhenotypeQuery query = (PhenotypeQuery) queryDao.toApiModel();
-    DataAdapterConfig config = getDataAdapterConfig(query.getDataSource()).orElseThrow();
-
+    publishRunning(queryDao, createdAt);
+    Duration timeLimit = getTimeLimit(queryDao);
+    List<EntityDao> entities = null;
     QueryResultDao result;
-    try {
-      ResultSet rs;
-      if (executeQueries) {
-        DataAdapter adapter = DataAdapter.getInstance(config);
-        if (adapter == null) throw new NullPointerException("Adaptor type could not be derived.");
-
-        PhenotypeFinder finder = new PhenotypeFinder(query, phenotypes, adapter);
-        rs = finder.execute();
-        adapter.close();
-        result =
-            new QueryResultDao(
-                queryDao, createdAt, (long) rs.size(), OffsetDateTime.now(), QueryState.FINISHED);
-      } else {
-        rs = new ResultSet();
-        result =
-            new QueryResultDao(queryDao, createdAt, 0L, OffsetDateTime.now(), QueryState.FINISHED)
-                .message("Query execution is disabled.");
+    try (QueryWatchdog.Execution execution = queryWatchdog.start(queryId, timeLimit)) {
+      try {
+        // cancelled before the execution started
+        if (queryDao.getCancelRequestedAt() != null && queryWatchdog.cancel(queryId))
+          throw new CancellationException();
+        entities = resolvePhenotypes(queryDao);
+        Entity[] phenotypes = entities.stream().map(EntityDao::toApiModel).toArray(Entity[]::new);
+        PhenotypeQuery query = (PhenotypeQuery) queryDao.toApiModel();
+        DataAdapterConfig config = getDataAdapterConfig(query.getDataSource()).orElseThrow();
+
+        ResultSet rs;
+        if (executeQueries) {
+          try (AdapterPool.Lease<DataAdapter> lease =
+              dataAdapterPool.borrow(
+                  config.getId(),
+                  config,
+                  () ->
+                      Objects.requireNonNull(
+                          DataAdapter.getInstance(config), "Adaptor type could not be derived."))) {
+            execution.onAbort(lease::abort);
+            try {
+              rs = new PhenotypeFinder(query, phenotypes, lease.get()).execute();
+            } catch (Throwable e) {
+              lease.invalidate();
+              throw e;
+            } finally {
+              execution.onAbort(null);
+            }
+          }
+          result =
+              new QueryResultDao(
+                  queryDao, createdAt, (long) rs.size(), OffsetDateTime.now(), QueryState.FINISHED);
+        } else {
+          rs = new ResultSet();
+          result =
+              new QueryResultDao(
+                      queryDao, createdAt, 0L, OffsetDateTime.now(), QueryState.FINISHED)
+                  .message("Query execution is disabled.");
+        }
+        ResultStatistics statistics =
+            queryDao.isCountOnly()
+                ? countResult(queryDao, rs, phenotypes)
+                : storeResult(queryDao, rs, phenotypes);
+        result.statistics(statistics.toJson());
+        if (execution.getTermination() != null) throw new CancellationException();
+      } catch (Throwable e) {
+        QueryTermination termination = getTermination(execution);
+        if (termination != null) {
+          deleteResultQuietly(queryDao);
+          result = terminatedResult(queryDao, createdAt, termination, timeLimit);
+        } else {
+          LOGGER.log(Level.WARNING, e.getMessage(), e);
+          result =
+              new QueryResultDao(
+                      queryDao, createdAt, null, OffsetDateTime.now(), QueryState.FAILED)
+                  .message("Cause: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+        }
       }
-      storeResult(queryDao, rs, phenotypes);
-    } catch (Throwable e) {
-      LOGGER.log(Level.WARNING, e.getMessage(), e);
-      result =
-          new QueryResultDao(queryDao, createdAt, null, OffsetDateTime.now(), QueryState.FAILED)
-              .message("Cause: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
     }
 
-    queryDao.result(result);
-    queryRepository.save(queryDao);
+    if (entities != null) result.fingerprint(getFingerprint(queryDao, entities));
+    if (saveResult(queryDao, result)) publishState(queryDao, result.toApiModel());
+    else deleteResultQuietly(queryDao);
+  }
+
+  @Override
+  protected void enqueueJob(UUID queryId) {
+    jobScheduler.enqueue(queryId, () -> this.executeQuery(queryId));
+  }
+
+  @Override
+  protected String getRowEntryName() {
+    return "data_subjects.csv";
+  }
+
+  @Override
+  protected QueryType getQueryType() {
+    return QueryType.PHENOTYPE;
   }
 
   public Optional<DataAdapterConfig> getDataAdapterConfig(String id) {
-    if (id == null) return Optional.empty();
-    return getDataAdapterConfigs().stream().filter(a -> id.equals(a.getId())).findFirst();
+    return dataAdapterConfigs.get(id);
   }
 
   public List<DataAdapterConfig> getDataAdapterConfigs() {
-    try (Stream<Path> paths =
-        Files.list(Path.of(dataSourceConfigDir)).filter(f -> !Files.isDirectory(f))) {
-      return paths
-          .map(this::toDataAdapterConfig)
-          .filter(Objects::nonNull)
-          .sorted(Comparator.comparing(DataAdapterConfig::getId))
-          .collect(Collectors.toList());
-    } catch (Exception e) {
-      LOGGER.warning(
-          String.format("Could not load data adapter configs from dir '%s'.", dataSourceConfigDir));
-    }
-    return Collections.emptyList();
+    return dataAdapterConfigs.getAll();
+  }
+
+  @Override
+  protected AdapterPool<?> getAdapterPool() {
+    return dataAdapterPool;
   }
 
   public List<DataSource> getDataSources() {
@@ -177,25 +500,327 @@ public class PhenotypeQueryService extends QueryService {
         .title(dataAdapterConfig.getId().replace('_', ' '));
   }
 
-  private void storeResult(QueryDao queryDao, ResultSet resultSet, Entity[] phenotypes)
+  /**
+   * Writes the result of a query into its ZIP file and sidecar files. The subjects are removed from
+   * the result set while they are written (see {@link PhenotypeResultWriter}).
+   *
+   * @return Summary statistics of the subjects, computed while the result is written.
+   */
+  private ResultStatistics storeResult(QueryDao queryDao, ResultSet resultSet, Entity[] phenotypes)
+      throws IOException {
+    String organisationId = queryDao.getRepository().getOrganisation().getId();
+    String repositoryId = queryDao.getRepository().getId();
+    // before the result writer removes subjects from the result set
+    subjectDictionaryService.writeCohort(
+        queryDao.getDataSource(),
+        getCohortFile(organisationId, repositoryId, queryDao.getId()),
+        resultSet.keySet());
+    ResultStatistics.Collector statistics = new ResultStatistics.Collector();
+    try (ZipOutputStream zipStream =
+            createZipStream(organisationId, repositoryId, queryDao.getId());
+        ResultRowFile.Writer rowWriter =
+            createRowWriter(organisationId, repositoryId, queryDao.getId())) {
+      new PhenotypeResultWriter(
+              csvConverter, phenotypes, (PhenotypeQuery) queryDao.toApiModel(), resultChunkSize)
+          .write(resultSet, zipStream, rowWriter, statistics);
+      rowWriter.commit();
+      if (isArrow(queryDao))
+        ArrowResultWriter.write(
+            getRowFile(organisationId, repositoryId, queryDao.getId()),
+            "data_subjects.arrow",
+            zipStream);
+    }
+    ResultManifest.of(getResultFile(organisationId, repositoryId, queryDao.getId()));
+    return statistics.getStatistics();
+  }
+
+  /**
+   * @param queryDao The query.
+   * @return True if the result of the query shall additionally contain {@code data_subjects.arrow}
+   *     ({@code top.result.arrow}, overridden per data source by {@code
+   *     top.result.data-source-arrow}).
+   */
+  private boolean isArrow(QueryDao queryDao) {
+    return DataSourceSettings.parse(dataSourceArrow, Boolean::valueOf)
+        .getOrDefault(queryDao.getDataSource(), arrowResults);
+  }
+
+  /**
+   * Computes the summary statistics of the subjects of a count-only query without writing the
+   * result. Only {@code data_subjects.csv} is converted and the resulting CSV is not kept. Counts
+   * are therefore values among result subjects (see {@link #enqueueCountQuery}).
+   */
+  private ResultStatistics countResult(QueryDao queryDao, ResultSet resultSet, Entity[] phenotypes)
+      throws IOException {
+    ResultStatistics.Collector statistics = new ResultStatistics.Collector();
+    new PhenotypeResultWriter(
+            csvConverter, phenotypes, (PhenotypeQuery) queryDao.toApiModel(), resultChunkSize)
+        .writeSubjects(resultSet, statistics);
+    return statistics.getStatistics();
+  }
+
+  /**
+   * Returns the summary statistics of the subjects of a query result, which are computed while the
+   * result is stored. Statistics are kept when the result files expire.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @return Statistics of each phenotype of the result.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public ResultStatistics getQueryResultStatistics(
+      String organisationId, String repositoryId, UUID queryId) throws IOException {
+    QueryDao queryDao =
+        queryRepository
+            .findByRepository_OrganisationIdAndRepositoryIdAndId(
+                organisationId, repositoryId, queryId.toString())
+            .orElseThrow(
+                () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Query does not exist."));
+    if (queryDao.getResult() == null || queryDao.getResult().getStatistics() == null)
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query result has no statistics.");
+    return ResultStatistics.fromJson(queryDao.getResult().getStatistics());
+  }
+
+  /**
+   * Returns the cohort of a query result, i.e. the codes of all subjects of the result (see {@link
+   * SubjectDictionaryService}) as bitmap. The cohort is created from the result, if it has not
+   * been stored yet (e.g. for results stored by an older version) or was encoded with a subject
+   * dictionary, that has been lost or replaced meanwhile.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @return Bitmap of subject codes.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public RoaringBitmap getCohort(String organisationId, String repositoryId, UUID queryId)
       throws IOException {
-    ZipOutputStream zipStream =
-        createZipStream(
-            queryDao.getRepository().getOrganisation().getId(),
-            queryDao.getRepository().getId(),
-            queryDao.getId());
+    Path resultFile = getQueryResultPath(organisationId, repositoryId, queryId);
+    if (!Files.isRegularFile(resultFile))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query has no result.");
+
+    QueryDao queryDao =
+        queryRepository
+            .findByRepository_OrganisationIdAndRepositoryIdAndId(
+                organisationId, repositoryId, queryId.toString())
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    Path cohortFile = getCohortFile(organisationId, repositoryId, queryId.toString());
+    RoaringBitmap cohort =
+        subjectDictionaryService.readCohort(queryDao.getDataSource(), cohortFile);
+    if (cohort != null) return cohort;
+
+    Path rowFile = getOrCreateRowFile(resultFile, organisationId, repositoryId, queryId.toString());
+    return subjectDictionaryService.writeCohort(
+        queryDao.getDataSource(), cohortFile, CohortBitmap.readSubjectIds(rowFile));
+  }
 
-    zipStream.putNextEntry(new ZipEntry("metadata.csv"));
-    csvConverter.writeMetadata(phenotypes, zipStream);
+  /**
+   * Loads all phenotypes referenced by the query and their dependencies.
+   *
+   * @param queryDao The query.
+   * @return Referenced phenotypes and their dependencies.
+   */
+  private List<EntityDao> resolvePhenotypes(QueryDao queryDao) {
+    return resolvePhenotypes(List.of(queryDao)).get(queryDao.getId());
+  }
 
-    zipStream.putNextEntry(new ZipEntry("data_phenotypes.csv"));
-    csvConverter.writePhenotypes(resultSet, phenotypes, zipStream);
+  /**
+   * Loads the phenotypes referenced by multiple queries of the same repository and their
+   * dependencies at once: the subjects of all queries with one query and their dependencies with
+   * {@link PhenotypeRepository#getDependencies(Collection)}. The phenotypes of each query are then
+   * collected from the loaded entities.
+   *
+   * @param queryDaos Queries of the same repository.
+   * @return Referenced phenotypes and their dependencies by query ID.
+   */
+  private Map<String, List<EntityDao>> resolvePhenotypes(List<QueryDao> queryDaos) {
+    Map<String, Set<String>> subjectIds = new HashMap<>();
+    for (QueryDao queryDao : queryDaos) subjectIds.put(queryDao.getId(), getSubjectIds(queryDao));
+    Set<String> ids = subjectIds.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+
+    Map<String, EntityDao> phenotypes =
+        ids.isEmpty()
+            ? new HashMap<>()
+            : phenotypeRepository
+                .findDistinctByIdInAndRepositoryId(ids, queryDaos.get(0).getRepository().getId())
+                .stream()
+                .collect(Collectors.toMap(EntityDao::getId, Function.identity()));
+    Map<String, EntityDao> entities = new HashMap<>(phenotypes);
+    for (EntityDao dependency : phenotypeRepository.getDependencies(phenotypes.values()))
+      entities.putIfAbsent(dependency.getId(), dependency);
+
+    Map<String, List<EntityDao>> result = new HashMap<>();
+    subjectIds.forEach(
+        (queryId, querySubjectIds) -> {
+          Set<EntityDao> resolved = new LinkedHashSet<>();
+          Deque<EntityDao> pending = new ArrayDeque<>();
+          querySubjectIds.stream()
+              .map(phenotypes::get)
+              .filter(Objects::nonNull)
+              .filter(resolved::add)
+              .forEach(pending::add);
+          while (!pending.isEmpty())
+            EntityRepository.getDirectDependencyIds(pending.poll())
+                .map(entities::get)
+                .filter(Objects::nonNull)
+                .filter(resolved::add)
+                .forEach(pending::add);
+          result.put(queryId, new ArrayList<>(resolved));
+        });
+    return result;
+  }
 
-    zipStream.putNextEntry(new ZipEntry("data_subjects.csv"));
-    csvConverter.writeSubjects(
-        resultSet, phenotypes, (PhenotypeQuery) queryDao.toApiModel(), zipStream);
+  private Set<String> getSubjectIds(QueryDao queryDao) {
+    return Stream.concat(
+            queryDao.getProjection().stream().map(ProjectionEntryDao::getSubjectId),
+            queryDao.getCriteria().stream().map(QueryCriterionDao::getSubjectId))
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
 
-    zipStream.close();
+  /**
+   * Reuses the results of previously executed queries of the same organisation, if they have the
+   * same fingerprint and finished within the configured {@code top.result.reuse-max-age}. The
+   * phenotypes of all queries are resolved at once (see {@link #resolvePhenotypes(List)}) and the
+   * latest result of each fingerprint is looked up with one query. Result files are hard linked,
+   * or copied if the file system does not support links. Count-only queries only reuse results of
+   * count-only queries, which have no result files.
+   *
+   * @param queryDaos Queries of the same repository, that have not been saved yet. Queries reusing
+   *     a result must be saved together with it, so that they are never waiting for execution.
+   * @return IDs of the queries, that reuse a result and do not need to be executed.
+   */
+  private Set<String> reuseResults(List<QueryDao> queryDaos) {
+    Set<String> reused = new HashSet<>();
+    if (resultReuseMaxAge.isZero() || resultReuseMaxAge.isNegative()) return reused;
+
+    String organisationId = queryDaos.get(0).getRepository().getOrganisation().getId();
+    Map<String, List<EntityDao>> phenotypes = resolvePhenotypes(queryDaos);
+    Map<String, String> fingerprints = new HashMap<>();
+    for (QueryDao queryDao : queryDaos)
+      fingerprints.put(
+          queryDao.getId(), getFingerprint(queryDao, phenotypes.get(queryDao.getId())));
+
+    Map<String, QueryDao> sources = new HashMap<>();
+    queryRepository
+        .findAllByRepository_OrganisationIdAndResult_FingerprintInAndResult_StateAndResult_FinishedAtAfterOrderByResult_FinishedAtDesc(
+            organisationId,
+            new HashSet<>(fingerprints.values()),
+            QueryState.FINISHED,
+            OffsetDateTime.now().minus(resultReuseMaxAge))
+        .forEach(q -> sources.putIfAbsent(q.getResult().getFingerprint(), q));
+
+    for (QueryDao queryDao : queryDaos) {
+      String fingerprint = fingerprints.get(queryDao.getId());
+      QueryDao source = sources.get(fingerprint);
+      if (source != null && reuseResult(organisationId, queryDao, source, fingerprint))
+        reused.add(queryDao.getId());
+    }
+    return reused;
+  }
+
+  /**
+   * Assigns a copy of the result of another query to a query.
+   *
+   * @return True if the result was reused.
+   */
+  private boolean reuseResult(
+      String organisationId, QueryDao queryDao, QueryDao source, String fingerprint) {
+    try {
+      if (!queryDao.isCountOnly() && !linkResultFiles(organisationId, source, queryDao))
+        return false;
+    } catch (IOException e) {
+      LOGGER.warning(
+          String.format(
+              "Result of query '%s' could not be reused. Cause: %s",
+              source.getId(), e.getMessage()));
+      return false;
+    }
+
+    OffsetDateTime now = OffsetDateTime.now();
+    queryDao.result(
+        new QueryResultDao(queryDao, now, source.getResult().getCount(), now, QueryState.FINISHED)
+            .fingerprint(fingerprint)
+            .statistics(source.getResult().getStatistics())
+            .message(String.format("Result of query '%s' was reused.", source.getId())));
+    LOGGER.info(
+        String.format(
+            "Reused result of query '%s' for query '%s'.", source.getId(), queryDao.getId()));
+    return true;
+  }
+
+  /**
+   * Links the result file and sidecar files of a query to another query.
+   *
+   * @return False if the source query has no result file.
+   */
+  private boolean linkResultFiles(String organisationId, QueryDao source, QueryDao target)
+      throws IOException {
+    Path sourceFile = getResultFile(organisationId, source.getRepository().getId(), source.getId());
+    if (!Files.isRegularFile(sourceFile)) return false;
+    Path targetFile = getResultFile(organisationId, target.getRepository().getId(), target.getId());
+    Files.createDirectories(targetFile.getParent());
+    linkOrCopy(sourceFile, targetFile);
+
+    Path sourceRows = getRowFile(organisationId, source.getRepository().getId(), source.getId());
+    if (ResultRowFile.exists(sourceRows)) {
+      Path targetRows = getRowFile(organisationId, target.getRepository().getId(), target.getId());
+      linkOrCopy(sourceRows, targetRows);
+      linkOrCopy(ResultRowFile.getIndexFile(sourceRows), ResultRowFile.getIndexFile(targetRows));
+    }
+
+    Path sourceCohort =
+        getCohortFile(organisationId, source.getRepository().getId(), source.getId());
+    if (Files.isRegularFile(sourceCohort))
+      linkOrCopy(
+          sourceCohort,
+          getCohortFile(organisationId, target.getRepository().getId(), target.getId()));
+    return true;
+  }
+
+  private void linkOrCopy(Path source, Path target) throws IOException {
+    try {
+      Files.createLink(target, source);
+    } catch (UnsupportedOperationException | IOException e) {
+      Files.copy(source, target);
+    }
+  }
+
+  /**
+   * Computes a hash over everything that determines the result of a query: data source, criteria,
+   * projection, the current versions of all involved phenotypes and which result files are
+   * written. Names and IDs of the query are not part of the hash.
+   *
+   * @param queryDao The query.
+   * @param phenotypes Phenotypes used by the query, including dependencies.
+   * @return Hex encoded SHA-256 hash.
+   */
+  private String getFingerprint(QueryDao queryDao, List<EntityDao> phenotypes) {
+    PhenotypeQuery query = (PhenotypeQuery) queryDao.toApiModel();
+    ObjectNode content = Hashes.MAPPER.createObjectNode();
+    content.put("dataSource", query.getDataSource());
+    content.put("executeQueries", executeQueries);
+    content.put("countOnly", queryDao.isCountOnly());
+    content.put("arrow", !queryDao.isCountOnly() && isArrow(queryDao));
+    content.set("criteria", Hashes.MAPPER.valueToTree(query.getCriteria()));
+    content.set("projection", Hashes.MAPPER.valueToTree(query.getProjection()));
+    ObjectNode versions = content.putObject("versions");
+    phenotypes.stream()
+        .sorted(Comparator.comparing(EntityDao::getId))
+        .forEach(
+            p ->
+                versions.put(
+                    p.getId(),
+                    p.getCurrentVersion() != null ? p.getCurrentVersion().getVersion() : null));
+    return Hashes.sha256Hex(content);
   }
 
   private DataAdapterConfig toDataAdapterConfig(Path path) {
@@ -211,6 +836,17 @@ public class PhenotypeQueryService extends QueryService {
     return null;
   }
 
+  private void deleteResultQuietly(QueryDao queryDao) {
+    try {
+      clearResults(
+          queryDao.getRepository().getOrganisation().getId(),
+          queryDao.getRepository().getId(),
+          queryDao.getId());
+    } catch (IOException e) {
+      LOGGER.warning(e.getMessage());
+    }
+  }
+
   protected void clearResults(String organisationId, String repositoryId, String queryId)
       throws IOException {
     Path queryPath =
@@ -218,5 +854,44 @@ public class PhenotypeQueryService extends QueryService {
     if (!queryPath.startsWith(Paths.get(resultDir)))
       LOGGER.severe(String.format("Query file '%s' is invalid and cannot be deleted!", queryPath));
     Files.deleteIfExists(queryPath);
+    ResultManifest.delete(queryPath);
+    ResultRowFile.delete(getRowFile(organisationId, repositoryId, queryId));
+    Files.deleteIfExists(getCohortFile(organisationId, repositoryId, queryId));
+  }
+
+  private Path getCohortFile(String organisationId, String repositoryId, String queryId)
+      throws FileSystemException {
+    Path cohortPath =
+        Paths.get(resultDir, organisationId, repositoryId, String.format("%s.cohort", queryId));
+    if (!cohortPath.startsWith(Paths.get(resultDir)))
+      throw new FileSystemException("Repository directory isn't a child of the results directory.");
+    return cohortPath;
+  }
+
+  /** Outcome of a query enqueued by {@link #enqueueQueries}. */
+  public static class BatchEntry {
+    private UUID queryId;
+    private int status;
+    private String message;
+    private QueryResult result;
+
+    public UUID getQueryId() {
+      return queryId;
+    }
+
+    /** @return HTTP status code, 201 if the query was enqueued. */
+    public int getStatus() {
+      return status;
+    }
+
+    /** @return Reason why the query was rejected. */
+    public String getMessage() {
+      return message;
+    }
+
+    /** @return State of an enqueued query immediately after enqueuing. */
+    public QueryResult getResult() {
+      return result;
+    }
   }
 }
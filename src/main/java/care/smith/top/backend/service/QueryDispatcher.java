@@ -0,0 +1,565 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryPriority;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.backend.util.DataSourceSettings;
+import care.smith.top.model.QueryState;
+import care.smith.top.model.QueryType;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.jobrunr.jobs.Job;
+import org.jobrunr.jobs.states.StateName;
+import org.jobrunr.storage.JobNotFoundException;
+import org.jobrunr.storage.StorageProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Limits the number of queries executed concurrently per data source.
+ *
+ * <p>The state of the queue is kept in the database, so that it is shared by all backend instances
+ * using the same database. A query without result waits until its data source has a free slot
+ * ({@link QueryDao#isQueued()}). It occupies the slot from being dispatched, i.e. its job is
+ * enqueued to the {@link org.jobrunr.scheduling.JobScheduler}, until its result is stored. Queries
+ * are dispatched when a query is submitted or finishes and periodically, so that queries submitted
+ * to an instance that stopped are dispatched by the remaining instances. Dispatching locks the
+ * waiting queries, so only one instance dispatches at a time and the limits apply to all instances
+ * together.
+ *
+ * <p>Count-only queries are dispatched before interactive queries and interactive queries before
+ * batch queries. Batch queries may only occupy a share of the slots of a data source, so that
+ * interactive queries are not blocked by long running batch queries. Count-only queries are limited
+ * to a share of the slots as well, so that many feasibility checks cannot starve interactive
+ * queries.
+ *
+ * <p>Within a priority class, the organisation with the fewest running queries on the data source
+ * relative to its weight ({@code top.query.organisation-weights}, defaults to 1) is served first
+ * and organisations with equal usage take turns, so that an organisation submitting many queries
+ * cannot starve other organisations. With weights 2 and 1, two organisations get about two thirds
+ * and one third of the slots. The usage is determined from the running queries on each dispatch,
+ * because the queues are rebuilt from the database, so no deficit is carried over between
+ * dispatches. The number of running and waiting queries of a single organisation can be limited
+ * as well, with overrides for specific organisations.
+ *
+ * <p>The periodic check also repairs queries whose job got lost: a dispatched query without job
+ * (e.g. enqueued to the in-memory job storage of a stopped instance) waits again, and a query whose
+ * job ended without storing a result fails.
+ */
+@Service
+public class QueryDispatcher {
+  private static final long RECONCILE_INTERVAL_SECONDS = 5;
+  private static final Duration ENQUEUE_GRACE = Duration.ofMinutes(1);
+
+  private final Logger LOGGER = Logger.getLogger(QueryDispatcher.class.getName());
+
+  @Value("${top.query.max-concurrent:4}")
+  private int maxConcurrent;
+
+  @Value("${top.query.data-source-max-concurrent:}")
+  private String dataSourceMaxConcurrent;
+
+  @Value("${top.query.batch-share:0.5}")
+  private double batchShare;
+
+  @Value("${top.query.data-source-batch-share:}")
+  private String dataSourceBatchShare;
+
+  @Value("${top.query.count-share:0.5}")
+  private double countShare;
+
+  @Value("${top.query.data-source-count-share:}")
+  private String dataSourceCountShare;
+
+  @Value("${top.query.organisation-max-concurrent:0}")
+  private int organisationMaxConcurrent;
+
+  @Value("${top.query.organisation-max-queued:0}")
+  private int organisationMaxQueued;
+
+  @Value("${top.query.organisation-max-concurrent-overrides:}")
+  private String organisationMaxConcurrentOverrides;
+
+  @Value("${top.query.organisation-max-queued-overrides:}")
+  private String organisationMaxQueuedOverrides;
+
+  @Value("${top.query.organisation-weights:}")
+  private String organisationWeights;
+
+  @Autowired private StorageProvider storageProvider;
+  @Autowired private QueryRepository queryRepository;
+  @Autowired private QueryEventService queryEventService;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private final Map<QueryType, Consumer<UUID>> enqueuers = new ConcurrentHashMap<>();
+  private Map<String, Integer> maxConcurrentByDataSource;
+  private Map<String, Double> batchShareByDataSource;
+  private Map<String, Double> countShareByDataSource;
+  private Map<String, Integer> maxConcurrentByOrganisation;
+  private Map<String, Integer> maxQueuedByOrganisation;
+  private Map<String, Double> weightByOrganisation;
+  private TransactionTemplate transactionTemplate;
+  private ScheduledExecutorService reconciler;
+
+  @PostConstruct
+  public void initQueryDispatcher() {
+    maxConcurrentByDataSource = DataSourceSettings.parse(dataSourceMaxConcurrent, Integer::valueOf);
+    batchShareByDataSource = DataSourceSettings.parse(dataSourceBatchShare, Double::valueOf);
+    countShareByDataSource = DataSourceSettings.parse(dataSourceCountShare, Double::valueOf);
+    maxConcurrentByOrganisation =
+        DataSourceSettings.parse(organisationMaxConcurrentOverrides, Integer::valueOf);
+    maxQueuedByOrganisation =
+        DataSourceSettings.parse(organisationMaxQueuedOverrides, Integer::valueOf);
+    weightByOrganisation = DataSourceSettings.parse(organisationWeights, Double::valueOf);
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    reconciler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "query-dispatcher");
+              thread.setDaemon(true);
+              return thread;
+            });
+    reconciler.scheduleWithFixedDelay(
+        this::reconcile,
+        RECONCILE_INTERVAL_SECONDS,
+        RECONCILE_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void closeQueryDispatcher() {
+    reconciler.shutdownNow();
+  }
+
+  /**
+   * Registers the action, that enqueues the job of a query of the given type. The action is called
+   * for each dispatched query and must not block.
+   *
+   * @param queryType Type of the queries.
+   * @param enqueue Action enqueuing the job of a query.
+   */
+  public void register(QueryType queryType, Consumer<UUID> enqueue) {
+    enqueuers.put(queryType, enqueue);
+  }
+
+  /**
+   * Dispatches waiting queries of all data sources, that have a free slot. Must be called after a
+   * query has been saved without result or has stored its result. If called within a transaction,
+   * queries are dispatched after the transaction has completed, so that changes of the transaction
+   * are visible to the dispatcher and jobs cannot start before queries have been committed.
+   */
+  public void dispatch() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      dispatchNow();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCompletion(int status) {
+            dispatchNow();
+          }
+        });
+  }
+
+  private void dispatchNow() {
+    List<Dispatch> dispatches = transactionTemplate.execute(status -> poll());
+    for (Dispatch dispatch : Objects.requireNonNull(dispatches)) {
+      try {
+        Consumer<UUID> enqueue = enqueuers.get(dispatch.queryType);
+        if (enqueue == null)
+          throw new IllegalStateException(
+              String.format("No query service for queries of type %s.", dispatch.queryType));
+        enqueue.accept(dispatch.queryId);
+      } catch (Exception e) {
+        LOGGER.log(
+            Level.WARNING, String.format("Could not enqueue query '%s'.", dispatch.queryId), e);
+        fail(dispatch.queryId, "Query could not be enqueued.");
+      }
+    }
+  }
+
+  /**
+   * Removes a query that is still waiting for a free slot. The query is marked dispatched without
+   * enqueuing its job, so the caller must store a result or delete the query.
+   *
+   * @param queryId ID of the query.
+   * @return True if the query was waiting and has been removed.
+   */
+  public boolean remove(UUID queryId) {
+    return queryRepository.markDispatched(queryId.toString(), OffsetDateTime.now()) > 0;
+  }
+
+  /**
+   * Checks whether an organisation may submit another query.
+   *
+   * @param organisationId ID of the organisation.
+   * @throws ResponseStatusException If the organisation already has the maximum number of queries
+   *     waiting for a free slot ({@code top.query.organisation-max-queued} or its override).
+   */
+  public void requireCapacity(String organisationId) {
+    requireCapacity(organisationId, 1);
+  }
+
+  /**
+   * Checks whether an organisation may submit a number of queries.
+   *
+   * @param organisationId ID of the organisation.
+   * @param count Number of queries to be submitted.
+   * @throws ResponseStatusException If the queries would exceed the maximum number of queries of
+   *     the organisation waiting for a free slot ({@code top.query.organisation-max-queued} or its
+   *     override).
+   */
+  public void requireCapacity(String organisationId, int count) {
+    int maxQueued = maxQueuedByOrganisation.getOrDefault(organisationId, organisationMaxQueued);
+    if (maxQueued <= 0) return;
+    long queued =
+        queryRepository.countByRepository_OrganisationIdAndResultIsNullAndDispatchedAtIsNull(
+            organisationId);
+    if (queued + count > maxQueued)
+      throw new ResponseStatusException(
+          HttpStatus.TOO_MANY_REQUESTS,
+          String.format("Organisation has reached its limit of %d queued queries.", maxQueued));
+  }
+
+  /** @return Current utilisation of all data sources that have running or waiting queries. */
+  @PreAuthorize("hasRole('ADMIN')")
+  public List<Stats> getStats() {
+    return transactionTemplate.execute(
+        status -> {
+          List<QueryDao> queued =
+              queryRepository.findAllByResultIsNullAndDispatchedAtIsNullOrderByCreatedAtAscIdAsc();
+          return load(queued).values().stream()
+              .map(Stats::new)
+              .sorted(Comparator.comparing(Stats::getDataSource))
+              .collect(Collectors.toList());
+        });
+  }
+
+  /**
+   * Builds the queues of all data sources from the running queries and the given waiting queries.
+   *
+   * @param queued Waiting queries in submission order.
+   */
+  private Map<String, DataSourceQueue> load(List<QueryDao> queued) {
+    Map<String, DataSourceQueue> queues = new HashMap<>();
+    for (QueryDao queryDao : queryRepository.findAllByResultIsNullAndDispatchedAtIsNotNull())
+      queues
+          .computeIfAbsent(queryDao.getDataSource(), this::createQueue)
+          .dispatched
+          .add(new Dispatch(queryDao));
+    for (QueryDao queryDao : queued)
+      queues
+          .computeIfAbsent(queryDao.getDataSource(), this::createQueue)
+          .add(new Dispatch(queryDao));
+    return queues;
+  }
+
+  private DataSourceQueue createQueue(String dataSource) {
+    int limit = Math.max(1, maxConcurrentByDataSource.getOrDefault(dataSource, maxConcurrent));
+    double share = batchShareByDataSource.getOrDefault(dataSource, batchShare);
+    int batchLimit = Math.max(1, Math.min(limit, (int) Math.floor(limit * share)));
+    share = countShareByDataSource.getOrDefault(dataSource, countShare);
+    int countLimit = Math.max(1, Math.min(limit, (int) Math.floor(limit * share)));
+    return new DataSourceQueue(dataSource, limit, batchLimit, countLimit, this::getWeight);
+  }
+
+  /**
+   * Marks all queries, that can be dispatched now, dispatched. Must be called within a transaction,
+   * which holds the lock on the waiting queries until the marks are committed. All queues are
+   * polled, because a released slot of an organisation may allow waiting queries of that
+   * organisation on other data sources to run.
+   *
+   * @return The queries to be enqueued after the transaction has been committed.
+   */
+  private List<Dispatch> poll() {
+    List<QueryDao> queued = queryRepository.lockQueued();
+    if (queued.isEmpty()) return new ArrayList<>();
+
+    Map<String, DataSourceQueue> queues = load(queued);
+    Predicate<String> admissible = organisationId -> isAdmissible(queues, organisationId);
+    List<Dispatch> dispatches = new ArrayList<>();
+    for (DataSourceQueue queue : queues.values()) dispatches.addAll(queue.poll(admissible));
+
+    OffsetDateTime now = OffsetDateTime.now();
+    Map<String, QueryDao> byId = queued.stream().collect(Collectors.toMap(QueryDao::getId, q -> q));
+    for (Dispatch dispatch : dispatches) byId.get(dispatch.queryId.toString()).dispatchedAt(now);
+    return dispatches;
+  }
+
+  /** @return True if the organisation has not reached its limit of running queries. */
+  private boolean isAdmissible(Map<String, DataSourceQueue> queues, String organisationId) {
+    int maxConcurrent =
+        maxConcurrentByOrganisation.getOrDefault(organisationId, organisationMaxConcurrent);
+    if (maxConcurrent <= 0) return true;
+    long running =
+        queues.values().stream()
+            .flatMap(q -> q.dispatched.stream())
+            .filter(d -> d.organisationId.equals(organisationId))
+            .count();
+    return running < maxConcurrent;
+  }
+
+  /** @return Weight of the organisation for fair dispatching, non-positive weights become 1. */
+  private double getWeight(String organisationId) {
+    double weight = weightByOrganisation.getOrDefault(organisationId, 1.0);
+    return weight > 0 ? weight : 1;
+  }
+
+  /**
+   * Repairs dispatched queries whose jobs got lost, dispatches waiting queries and pushes state
+   * changes made by other instances to subscribers of {@link QueryEventService}. Queries are only
+   * repaired, if they were dispatched some time ago, because jobs may be enqueued with a delay.
+   */
+  private void reconcile() {
+    try {
+      OffsetDateTime threshold = OffsetDateTime.now().minus(ENQUEUE_GRACE);
+      for (QueryDao queryDao :
+          queryRepository.findAllByResultIsNullAndDispatchedAtBefore(threshold)) {
+        UUID queryId = UUID.fromString(queryDao.getId());
+        try {
+          Job job = storageProvider.getJobById(queryId);
+          if ((job.hasState(StateName.SUCCEEDED)
+                  || job.hasState(StateName.FAILED)
+                  || job.hasState(StateName.DELETED))
+              && job.getUpdatedAt().atOffset(ZoneOffset.UTC).isBefore(threshold))
+            fail(queryId, "Query execution ended without result.");
+        } catch (JobNotFoundException e) {
+          if (queryRepository.markQueued(queryDao.getId(), queryDao.getDispatchedAt()) > 0)
+            LOGGER.info(String.format("Job of query '%s' was lost, queuing it again.", queryId));
+        }
+      }
+      dispatchNow();
+      queryEventService.publishChanges();
+    } catch (Exception e) {
+      LOGGER.log(Level.WARNING, e.getMessage(), e);
+    }
+  }
+
+  /** Stores a failed result for a query, that has no result yet. */
+  private void fail(UUID queryId, String message) {
+    transactionTemplate.executeWithoutResult(
+        status ->
+            queryRepository
+                .findById(queryId.toString())
+                .filter(q -> q.getResult() == null)
+                .ifPresent(
+                    queryDao -> {
+                      OffsetDateTime now = OffsetDateTime.now();
+                      QueryResultDao result =
+                          new QueryResultDao(queryDao, now, null, now, QueryState.FAILED)
+                              .message(message);
+                      queryRepository.save(queryDao.result(result));
+                      queryEventService.publish(queryDao, result.toApiModel());
+                    }));
+  }
+
+  private static class Dispatch {
+    private final UUID queryId;
+    private final QueryType queryType;
+    private final String organisationId;
+    private final QueryPriority priority;
+
+    private Dispatch(QueryDao queryDao) {
+      this.queryId = UUID.fromString(queryDao.getId());
+      this.queryType = queryDao.getQueryType();
+      this.organisationId = queryDao.getRepository().getOrganisation().getId();
+      this.priority = queryDao.getPriority();
+    }
+  }
+
+  private static class DataSourceQueue {
+    private final String dataSource;
+    private final int limit;
+    private final int batchLimit;
+    private final int countLimit;
+    private final ToDoubleFunction<String> weight;
+    private final Map<QueryPriority, LinkedHashMap<String, Deque<Dispatch>>> pending =
+        new EnumMap<>(QueryPriority.class);
+    private final List<Dispatch> dispatched = new ArrayList<>();
+
+    private DataSourceQueue(
+        String dataSource,
+        int limit,
+        int batchLimit,
+        int countLimit,
+        ToDoubleFunction<String> weight) {
+      this.dataSource = dataSource;
+      this.limit = limit;
+      this.batchLimit = batchLimit;
+      this.countLimit = countLimit;
+      this.weight = weight;
+      for (QueryPriority priority : QueryPriority.values())
+        pending.put(priority, new LinkedHashMap<>());
+    }
+
+    private void add(Dispatch dispatch) {
+      pending
+          .get(dispatch.priority)
+          .computeIfAbsent(dispatch.organisationId, k -> new ArrayDeque<>())
+          .addLast(dispatch);
+    }
+
+    private Stream<Dispatch> pending() {
+      return pending.keySet().stream().flatMap(this::pending);
+    }
+
+    private Stream<Dispatch> pending(QueryPriority priority) {
+      return pending.get(priority).values().stream().flatMap(Deque::stream);
+    }
+
+    private long count(QueryPriority priority) {
+      return dispatched.stream().filter(d -> d.priority == priority).count();
+    }
+
+    /**
+     * Removes all queries from the queue, that can be dispatched now, and adds them to the running
+     * queries.
+     *
+     * @param admissible Tests whether an organisation may run another query.
+     */
+    private List<Dispatch> poll(Predicate<String> admissible) {
+      List<Dispatch> result = new ArrayList<>();
+      while (dispatched.size() < limit) {
+        Dispatch next = null;
+        if (count(QueryPriority.COUNT) < countLimit) next = next(QueryPriority.COUNT, admissible);
+        if (next == null) next = next(QueryPriority.INTERACTIVE, admissible);
+        if (next == null && count(QueryPriority.BATCH) < batchLimit)
+          next = next(QueryPriority.BATCH, admissible);
+        if (next == null) break;
+        dispatched.add(next);
+        result.add(next);
+      }
+      return result;
+    }
+
+    private long count(String organisationId) {
+      return dispatched.stream().filter(d -> d.organisationId.equals(organisationId)).count();
+    }
+
+    /**
+     * Takes the oldest query of the admissible organisation with the fewest running queries on this
+     * data source relative to its weight. The organisation is moved to the end of the queue
+     * afterwards, so that organisations with the same usage take turns.
+     */
+    private Dispatch next(QueryPriority priority, Predicate<String> admissible) {
+      LinkedHashMap<String, Deque<Dispatch>> organisations = pending.get(priority);
+      String selected = null;
+      double fewest = Double.MAX_VALUE;
+      for (String organisationId : organisations.keySet()) {
+        if (!admissible.test(organisationId)) continue;
+        double running = count(organisationId) / weight.applyAsDouble(organisationId);
+        if (running < fewest) {
+          selected = organisationId;
+          fewest = running;
+        }
+      }
+      if (selected == null) return null;
+
+      Deque<Dispatch> queue = organisations.remove(selected);
+      Dispatch next = queue.pollFirst();
+      if (!queue.isEmpty()) organisations.put(selected, queue);
+      return next;
+    }
+  }
+
+  /** Utilisation of a data source. */
+  public static class Stats {
+    private final String dataSource;
+    private final int maxConcurrent;
+    private final int maxConcurrentBatch;
+    private final int maxConcurrentCount;
+    private final int running;
+    private final int runningBatch;
+    private final int runningCount;
+    private final int queued;
+    private final int queuedBatch;
+    private final int queuedCount;
+    private final int queuedOrganisations;
+
+    private Stats(DataSourceQueue queue) {
+      this.dataSource = queue.dataSource;
+      this.maxConcurrent = queue.limit;
+      this.maxConcurrentBatch = queue.batchLimit;
+      this.maxConcurrentCount = queue.countLimit;
+      this.running = queue.dispatched.size();
+      this.runningBatch = (int) queue.count(QueryPriority.BATCH);
+      this.runningCount = (int) queue.count(QueryPriority.COUNT);
+      this.queued = (int) queue.pending().count();
+      this.queuedBatch = (int) queue.pending(QueryPriority.BATCH).count();
+      this.queuedCount = (int) queue.pending(QueryPriority.COUNT).count();
+      this.queuedOrganisations =
+          (int) queue.pending().map(d -> d.organisationId).distinct().count();
+    }
+
+    public String getDataSource() {
+      return dataSource;
+    }
+
+    public int getMaxConcurrent() {
+      return maxConcurrent;
+    }
+
+    public int getMaxConcurrentBatch() {
+      return maxConcurrentBatch;
+    }
+
+    public int getMaxConcurrentCount() {
+      return maxConcurrentCount;
+    }
+
+    public int getRunning() {
+      return running;
+    }
+
+    public int getRunningBatch() {
+      return runningBatch;
+    }
+
+    public int getRunningCount() {
+      return runningCount;
+    }
+
+    public int getQueued() {
+      return queued;
+    }
+
+    public int getQueuedBatch() {
+      return queuedBatch;
+    }
+
+    public int getQueuedCount() {
+      return queuedCount;
+    }
+
+    public int getQueuedOrganisations() {
+      return queuedOrganisations;
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.model.jpa.Permission;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.backend.repository.jpa.RepositoryRepository;
+import care.smith.top.model.QueryResult;
+import care.smith.top.model.QueryState;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * This service pushes state changes of queries to clients as server-sent events. Clients subscribe
+ * to all queries of a repository and receive a {@link QueryResult} whenever a query is queued,
+ * starts running, or finishes.
+ *
+ * <p>State changes made by this instance are pushed immediately. Changes made by other instances
+ * sharing the database (new queries and results) are detected by {@link #publishChanges()}, which
+ * {@link QueryDispatcher} calls periodically. The {@link QueryState#RUNNING} state is not stored,
+ * so it is only pushed by the instance executing the query. Events are sent by a single background
+ * thread, so that slow subscribers neither block query execution nor the dispatching of queries,
+ * and events of a repository are sent in the order they were published.
+ */
+@Service
+public class QueryEventService {
+  private static final String EVENT_NAME = "query";
+  private final Logger LOGGER = Logger.getLogger(QueryEventService.class.getName());
+
+  private final Map<String, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+  private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+  @Value("${top.query.event-timeout:30m}")
+  private Duration eventTimeout;
+
+  @Autowired private RepositoryRepository repositoryRepository;
+  @Autowired private QueryRepository queryRepository;
+
+  private ExecutorService sender;
+
+  @PostConstruct
+  public void initQueryEventService() {
+    sender =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread thread = new Thread(r, "query-events");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @PreDestroy
+  public void closeQueryEventService() {
+    sender.shutdownNow();
+  }
+
+  /**
+   * Subscribes to state changes of all queries of a repository.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the repository belongs to.
+   * @param repositoryId ID of the repository.
+   * @return An emitter that sends an event for each state change.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public SseEmitter subscribe(String organisationId, String repositoryId) {
+    if (!repositoryRepository.existsByIdAndOrganisation_Id(repositoryId, organisationId))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Repository does not exist.");
+
+    SseEmitter emitter = new SseEmitter(eventTimeout.toMillis());
+    String key = key(organisationId, repositoryId);
+    if (!subscriptions.containsKey(key))
+      subscriptions.putIfAbsent(
+          key,
+          new Subscription(
+              organisationId, repositoryId, findUnfinished(organisationId, repositoryId).keySet()));
+    emitters.compute(
+        key,
+        (k, subscribers) -> {
+          if (subscribers == null) subscribers = new CopyOnWriteArraySet<>();
+          subscribers.add(emitter);
+          return subscribers;
+        });
+
+    emitter.onCompletion(() -> remove(key, emitter));
+    emitter.onTimeout(() -> remove(key, emitter));
+    emitter.onError(e -> remove(key, emitter));
+    return emitter;
+  }
+
+  /**
+   * Pushes the state of a query to all subscribers of its repository asynchronously. If a
+   * transaction is active, the event is sent after the transaction has been committed, so that
+   * subscribers that load the query afterwards see the new state. {@link QueryState#RUNNING} is not
+   * persisted and is always sent immediately.
+   *
+   * @param queryDao The query.
+   * @param result The current result description of the query.
+   */
+  public void publish(QueryDao queryDao, QueryResult result) {
+    if (queryDao == null || result == null || queryDao.getRepository() == null) return;
+    String key =
+        key(queryDao.getRepository().getOrganisation().getId(), queryDao.getRepository().getId());
+    if (!emitters.containsKey(key)) return;
+
+    Subscription subscription = subscriptions.get(key);
+    if (subscription != null) {
+      if (isFinal(result.getState())) subscription.unfinished.remove(result.getId().toString());
+      else subscription.unfinished.add(result.getId().toString());
+    }
+
+    if (QueryState.RUNNING.equals(result.getState())
+        || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      submit(key, result);
+    } else {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              submit(key, result);
+            }
+          });
+    }
+  }
+
+  /**
+   * Pushes state changes of queries, that have not been published by this instance, e.g. because
+   * another instance sharing the database enqueued or executed them. New queries are pushed as
+   * {@link QueryState#QUEUED} and finished queries with their result.
+   */
+  public void publishChanges() {
+    for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+      Subscription subscription = entry.getValue();
+      Map<String, QueryDao> unfinished =
+          findUnfinished(subscription.organisationId, subscription.repositoryId);
+      Set<String> finished = new HashSet<>(subscription.unfinished);
+      finished.removeAll(unfinished.keySet());
+      subscription.unfinished.removeAll(finished);
+
+      for (QueryDao queryDao : unfinished.values())
+        if (subscription.unfinished.add(queryDao.getId()))
+          submit(
+              entry.getKey(),
+              new QueryResult()
+                  .id(UUID.fromString(queryDao.getId()))
+                  .createdAt(queryDao.getCreatedAt())
+                  .state(QueryState.QUEUED));
+      if (!finished.isEmpty())
+        for (QueryDao queryDao : queryRepository.findAllByIdInAndResultIsNotNull(finished))
+          submit(entry.getKey(), queryDao.getResult().toApiModel());
+    }
+  }
+
+  /** @return Number of currently connected subscribers. */
+  public int getSubscriberCount() {
+    return emitters.values().stream().mapToInt(Set::size).sum();
+  }
+
+  private void submit(String key, QueryResult result) {
+    try {
+      sender.execute(() -> send(key, result));
+    } catch (RejectedExecutionException e) {
+      LOGGER.fine("Query event service has been shut down.");
+    }
+  }
+
+  private void send(String key, QueryResult result) {
+    Set<SseEmitter> subscribers = emitters.get(key);
+    if (subscribers == null) return;
+    for (SseEmitter emitter : subscribers) {
+      try {
+        emitter.send(SseEmitter.event().name(EVENT_NAME).data(result, MediaType.APPLICATION_JSON));
+      } catch (IOException | IllegalStateException e) {
+        LOGGER.fine(String.format("Removing query event subscriber: %s", e.getMessage()));
+        remove(key, emitter);
+      }
+    }
+  }
+
+  /** Removes a subscriber and the subscriber set of its repository, if it became empty. */
+  private void remove(String key, SseEmitter emitter) {
+    emitters.computeIfPresent(
+        key,
+        (k, subscribers) -> {
+          subscribers.remove(emitter);
+          if (!subscribers.isEmpty()) return subscribers;
+          subscriptions.remove(key);
+          return null;
+        });
+  }
+
+  /** @return The queries of a repository without result by their IDs. */
+  private Map<String, QueryDao> findUnfinished(String organisationId, String repositoryId) {
+    return queryRepository
+        .findAllByRepository_OrganisationIdAndRepositoryIdAndResultIsNull(
+            organisationId, repositoryId)
+        .stream()
+        .collect(Collectors.toMap(QueryDao::getId, Function.identity()));
+  }
+
+  private boolean isFinal(QueryState state) {
+    return QueryState.FINISHED.equals(state) || QueryState.FAILED.equals(state);
+  }
+
+  private String key(String organisationId, String repositoryId) {
+    return organisationId + "/" + repositoryId;
+  }
+
+  /** Queries of a subscribed repository, whose unfinished state has been pushed. */
+  private static class Subscription {
+    private final String organisationId;
+    private final String repositoryId;
+    private final Set<String> unfinished = ConcurrentHashMap.newKeySet();
+
+    private Subscription(String organisationId, String repositoryId, Set<String> unfinished) {
+      this.organisationId = organisationId;
+      this.repositoryId = repositoryId;
+      this.unfinished.addAll(unfinished);
+    }
+  }
+}
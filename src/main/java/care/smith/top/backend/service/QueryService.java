@@ -2,21 +2,39 @@ package care.smith.top.backend.service;
 
 import care.smith.top.backend.model.jpa.Permission;
 import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.model.jpa.QueryTermination;
 import care.smith.top.backend.repository.jpa.QueryRepository;
 import care.smith.top.backend.repository.jpa.RepositoryRepository;
+import care.smith.top.backend.util.AdapterPool;
+import care.smith.top.backend.util.DataSourceSettings;
+import care.smith.top.backend.util.QueryWatchdog;
+import care.smith.top.backend.util.ResultAggregator;
+import care.smith.top.backend.util.ResultManifest;
+import care.smith.top.backend.util.ResultRowFile;
 import care.smith.top.model.*;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.jobrunr.jobs.Job;
 import org.jobrunr.jobs.states.StateName;
 import org.jobrunr.scheduling.JobScheduler;
@@ -24,6 +42,7 @@ import org.jobrunr.storage.JobNotFoundException;
 import org.jobrunr.storage.StorageProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
@@ -33,6 +52,12 @@ import org.springframework.web.server.ResponseStatusException;
 
 @Transactional
 public abstract class QueryService {
+  /** Maximum number of result rows returned at once by {@link #getQueryResultRows}. */
+  public static final int MAX_RESULT_ROWS = 1000;
+
+  /** Time between two checks for cancel requests of queries executed by this instance. */
+  private static final Duration CANCEL_POLL_INTERVAL = Duration.ofSeconds(5);
+
   private final Logger LOGGER = Logger.getLogger(QueryService.class.getName());
 
   @Value("${spring.paging.page-size:10}")
@@ -44,10 +69,33 @@ public abstract class QueryService {
   @Value("${top.result.download-enabled:true}")
   protected boolean queryResultDownloadEnabled;
 
+  @Value("${top.adapter-pool.max-size:4}")
+  protected int adapterPoolMaxSize;
+
+  @Value("${top.adapter-pool.idle-timeout:5m}")
+  protected Duration adapterPoolIdleTimeout;
+
+  @Value("${top.adapter-pool.max-lifetime:1h}")
+  protected Duration adapterPoolMaxLifetime;
+
+  @Value("${top.adapter-pool.borrow-timeout:10m}")
+  protected Duration adapterPoolBorrowTimeout;
+
+  @Value("${top.query.time-limit:0}")
+  protected Duration queryTimeLimit;
+
+  @Value("${top.query.data-source-time-limits:}")
+  protected String dataSourceTimeLimits;
+
+  protected final QueryWatchdog queryWatchdog = new QueryWatchdog(getClass().getSimpleName());
+
   @Autowired protected JobScheduler jobScheduler;
   @Autowired protected StorageProvider storageProvider;
   @Autowired protected QueryRepository queryRepository;
   @Autowired protected RepositoryRepository repositoryRepository;
+  @Autowired protected QueryEventService queryEventService;
+  @Autowired protected QueryDispatcher queryDispatcher;
+  @Autowired protected ResultAggregationService resultAggregationService;
 
   /**
    * Enqueues the given query to the {@link JobScheduler}.
@@ -87,13 +135,104 @@ public abstract class QueryService {
 
     if (query.getResult() == null)
       throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query has no result.");
+    if (query.getResult().getExpiredAt() != null)
+      throw new ResponseStatusException(HttpStatus.GONE, query.getResult().getMessage());
 
-    Path queryPath =
-        Paths.get(resultDir, organisationId, repositoryId, String.format("%s.zip", queryId));
-    if (!queryPath.startsWith(Paths.get(resultDir)))
-      throw new FileSystemException("Repository directory isn't a child of the results directory.");
+    return getResultFile(organisationId, repositoryId, queryId.toString());
+  }
 
-    return queryPath;
+  /**
+   * Returns the {@link ResultManifest} of a query result, which contains the SHA-256 checksum of
+   * the result file. The manifest is computed if it has not been cached yet.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @return The manifest of the result file.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public ResultManifest getQueryResultManifest(
+      String organisationId, String repositoryId, UUID queryId) throws IOException {
+    Path resultFile = getQueryResultPath(organisationId, repositoryId, queryId);
+    if (!Files.isRegularFile(resultFile))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query has no result.");
+    return ResultManifest.of(resultFile);
+  }
+
+  /**
+   * Returns a range of rows of the main table of a query result ({@code data_subjects.csv} for
+   * phenotype queries, {@code data.csv} for concept queries). Rows are read from a {@link
+   * ResultRowFile} next to the result ZIP file, which is created from the ZIP file if it does not
+   * exist (e.g. for results stored by an older version).
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @param offset Index of the first row, starting at 0.
+   * @param limit Maximum number of rows, at most {@link #MAX_RESULT_ROWS}.
+   * @return The requested rows, the CSV header and the total number of rows.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public ResultRowFile.Rows getQueryResultRows(
+      String organisationId, String repositoryId, UUID queryId, long offset, int limit)
+      throws IOException {
+    Path resultFile = getQueryResultPath(organisationId, repositoryId, queryId);
+    if (!Files.isRegularFile(resultFile))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query has no result.");
+
+    Path rowFile = getOrCreateRowFile(resultFile, organisationId, repositoryId, queryId.toString());
+    return ResultRowFile.read(
+        rowFile, Math.max(0, offset), Math.max(0, Math.min(limit, MAX_RESULT_ROWS)));
+  }
+
+  /**
+   * Computes aggregates (e.g. value counts, histograms or min/max) over columns of the main table
+   * of a query result (see {@link #getQueryResultRows}) with {@link ResultAggregator}, without
+   * transferring the result to the client.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @param function The aggregate function.
+   * @param columns Names of the columns to be aggregated. If empty, all columns are aggregated.
+   * @param groupBy Name of the column, whose values divide the rows into separately aggregated
+   *     groups, or {@code null}.
+   * @param filters Conditions rows must satisfy to be aggregated, e.g. {@code age>=18}.
+   * @param groupLimit Maximum number of returned values per column.
+   * @param bins Number of histogram bins.
+   * @return The aggregates of each column.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public ResultAggregator.Result aggregateQueryResult(
+      String organisationId,
+      String repositoryId,
+      UUID queryId,
+      ResultAggregator.Function function,
+      List<String> columns,
+      String groupBy,
+      List<String> filters,
+      int groupLimit,
+      int bins)
+      throws IOException {
+    Path resultFile = getQueryResultPath(organisationId, repositoryId, queryId);
+    if (!Files.isRegularFile(resultFile))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query has no result.");
+
+    Path rowFile = getOrCreateRowFile(resultFile, organisationId, repositoryId, queryId.toString());
+    return resultAggregationService.aggregate(
+        rowFile, function, columns, groupBy, filters, groupLimit, bins);
   }
 
   /**
@@ -118,11 +257,13 @@ public abstract class QueryService {
                 organisationId, repositoryId, queryId.toString())
             .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
 
-    try {
-      Job job = storageProvider.getJobById(queryId);
-      storageProvider.deletePermanently(job.getId());
-    } catch (Exception e) {
-      LOGGER.fine(e.getMessage());
+    if (!queryDispatcher.remove(queryId)) {
+      try {
+        Job job = storageProvider.getJobById(queryId);
+        storageProvider.deletePermanently(job.getId());
+      } catch (Exception e) {
+        LOGGER.fine(e.getMessage());
+      }
     }
 
     try {
@@ -135,6 +276,53 @@ public abstract class QueryService {
     }
 
     queryRepository.delete(query);
+    queryDispatcher.dispatch();
+  }
+
+  /**
+   * Cancels a query. The result of the query gets the state {@link QueryState#FAILED} and the
+   * termination {@link QueryTermination#CANCELLED}.
+   *
+   * <p>A query waiting for a free slot of its data source is removed from the {@link
+   * QueryDispatcher} and its result is stored immediately. For a dispatched query, the cancel
+   * request is stored in the database. The instance executing the query, which may be another one
+   * sharing the job storage, interrupts it, closes its data adapter and stores the result itself
+   * (see {@link QueryWatchdog#pollCancelRequests}). Until then, the query occupies its slot.
+   *
+   * <p>If authentication is enabled, users are required to have {@link Permission#WRITE} permission
+   * for the organisation.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query to be cancelled.
+   * @return A {@link QueryResult} that reflects the state immediately after cancelling.
+   */
+  @PreAuthorize(
+      "hasPermission(#organisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public QueryResult cancelQuery(String organisationId, String repositoryId, UUID queryId) {
+    if (!repositoryRepository.existsByIdAndOrganisation_Id(repositoryId, organisationId))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+
+    QueryDao queryDao =
+        queryRepository
+            .findByRepository_OrganisationIdAndRepositoryIdAndId(
+                organisationId, repositoryId, queryId.toString())
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    if (queryDao.getResult() != null)
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Query has already finished.");
+
+    if (queryDispatcher.remove(queryId)) {
+      queryRepository.save(
+          queryDao.result(
+              terminatedResult(
+                  queryDao, queryDao.getCreatedAt(), QueryTermination.CANCELLED, null)));
+    } else {
+      // the executing instance stores the result itself
+      queryRepository.markCancelRequested(queryId.toString(), OffsetDateTime.now());
+      queryWatchdog.cancel(queryId);
+    }
+
+    return publishState(queryDao, getQueryById(organisationId, repositoryId, queryId).getResult());
   }
 
   /**
@@ -169,7 +357,9 @@ public abstract class QueryService {
         queryResult.createdAt(job.getCreatedAt().atOffset(ZoneOffset.UTC)).state(getState(job));
         if (QueryState.FAILED.equals(queryResult.getState()))
           queryResult.finishedAt(job.getUpdatedAt().atOffset(ZoneOffset.UTC));
-      } catch (JobNotFoundException ignored) {
+      } catch (JobNotFoundException e) {
+        // waiting in the query dispatcher or about to be enqueued
+        queryResult.createdAt(queryDao.getCreatedAt()).state(QueryState.QUEUED);
       }
       query.result(queryResult);
     }
@@ -198,6 +388,177 @@ public abstract class QueryService {
         .map(QueryDao::toApiModel);
   }
 
+  /**
+   * Returns usage statistics of the data adapters that are pooled by this service.
+   *
+   * @return Statistics for each data source.
+   */
+  @PreAuthorize("hasRole('ADMIN')")
+  public List<AdapterPool.Stats> getAdapterPoolStats() {
+    return getAdapterPool().getStats();
+  }
+
+  /**
+   * Returns the time limit for the execution of a query. If the query has its own time limit and
+   * its data source (or the default, {@code top.query.time-limit}) defines one, the lower limit is
+   * used.
+   *
+   * @param queryDao The query.
+   * @return The time limit or {@link Duration#ZERO} if the execution time is not limited.
+   */
+  protected Duration getTimeLimit(QueryDao queryDao) {
+    Duration limit =
+        DataSourceSettings.parse(dataSourceTimeLimits, DurationStyle::detectAndParse)
+            .getOrDefault(queryDao.getDataSource(), queryTimeLimit);
+    Duration queryLimit = queryDao.getTimeLimit();
+    if (!isLimited(queryLimit)) return isLimited(limit) ? limit : Duration.ZERO;
+    if (!isLimited(limit)) return queryLimit;
+    return queryLimit.compareTo(limit) < 0 ? queryLimit : limit;
+  }
+
+  /**
+   * Creates the result of a query that was stopped before it finished.
+   *
+   * @param queryDao The query.
+   * @param createdAt Time the execution started.
+   * @param termination Why the query was stopped.
+   * @param timeLimit Time limit of the query, used in the message of timed out queries.
+   */
+  protected QueryResultDao terminatedResult(
+      QueryDao queryDao,
+      OffsetDateTime createdAt,
+      QueryTermination termination,
+      Duration timeLimit) {
+    String message =
+        QueryTermination.TIMED_OUT.equals(termination)
+            ? String.format("Query exceeded its time limit of %s.", timeLimit)
+            : "Query was cancelled.";
+    return new QueryResultDao(queryDao, createdAt, null, OffsetDateTime.now(), QueryState.FAILED)
+        .termination(termination)
+        .message(message);
+  }
+
+  /**
+   * Stores the result of an execution, unless the query already has one (e.g. stored by {@link
+   * QueryDispatcher} for an execution it considered lost). A query can only have one result.
+   *
+   * @param queryDao The query.
+   * @param result The result of the execution.
+   * @return True if the result was stored. Otherwise, the caller should delete result files it has
+   *     written.
+   */
+  protected boolean saveResult(QueryDao queryDao, QueryResultDao result) {
+    if (queryRepository.hasResult(queryDao.getId())) {
+      LOGGER.warning(
+          String.format("Query '%s' already has a result, discarding this one.", queryDao.getId()));
+      return false;
+    }
+    queryRepository.save(queryDao.result(result));
+    return true;
+  }
+
+  /**
+   * Determines why an execution failed. Besides cancellation and timeouts detected by {@link
+   * #queryWatchdog}, an interrupt of the executing thread is treated as cancellation, because
+   * JobRunr interrupts jobs that are deleted while they are processed (e.g. by another instance).
+   *
+   * @param execution The failed execution.
+   * @return The termination or {@code null} if the query failed for another reason.
+   */
+  protected QueryTermination getTermination(QueryWatchdog.Execution execution) {
+    QueryTermination termination = execution.getTermination();
+    if (termination == null && Thread.currentThread().isInterrupted())
+      return QueryTermination.CANCELLED;
+    return termination;
+  }
+
+  /**
+   * Pushes the state of a query to subscribers of {@link QueryEventService}.
+   *
+   * @param queryDao The query.
+   * @param result Current result description of the query.
+   * @return The provided result description.
+   */
+  protected QueryResult publishState(QueryDao queryDao, QueryResult result) {
+    queryEventService.publish(queryDao, result);
+    return result;
+  }
+
+  /**
+   * Pushes the {@link QueryState#RUNNING} state of a query that is about to be executed.
+   *
+   * @param queryDao The query.
+   * @param createdAt Time the execution started.
+   */
+  protected void publishRunning(QueryDao queryDao, OffsetDateTime createdAt) {
+    publishState(
+        queryDao,
+        new QueryResult()
+            .id(UUID.fromString(queryDao.getId()))
+            .createdAt(createdAt)
+            .state(QueryState.RUNNING));
+  }
+
+  /**
+   * Registers {@link #enqueueJob} at the {@link QueryDispatcher} and starts polling cancel requests
+   * for the queries executed by this instance.
+   */
+  @PostConstruct
+  public void registerQueryService() {
+    queryDispatcher.register(getQueryType(), this::enqueueJob);
+    queryWatchdog.pollCancelRequests(
+        queryIds ->
+            queryRepository
+                .findCancelRequested(
+                    queryIds.stream().map(UUID::toString).collect(Collectors.toList()))
+                .stream()
+                .map(UUID::fromString)
+                .collect(Collectors.toList()),
+        CANCEL_POLL_INTERVAL);
+  }
+
+  @PreDestroy
+  public void closeQueryWatchdog() {
+    queryWatchdog.close();
+  }
+
+  /**
+   * Enqueues the job of a query to the {@link JobScheduler}. This method is called by the {@link
+   * QueryDispatcher} and must not be called directly.
+   *
+   * @param queryId ID of the query.
+   */
+  protected abstract void enqueueJob(UUID queryId);
+
+  /** @return Name of the ZIP entry, that is provided by {@link #getQueryResultRows}. */
+  protected abstract String getRowEntryName();
+
+  /** @return Type of the queries handled by this service. */
+  protected abstract QueryType getQueryType();
+
+  /** @return The pool of data adapters used to execute queries. */
+  protected abstract AdapterPool<?> getAdapterPool();
+
+  /**
+   * Creates a pool of data adapters configured with the {@code top.adapter-pool.*} properties.
+   *
+   * @param name Name of the pool.
+   * @param closer Function that closes an adapter.
+   */
+  protected <T> AdapterPool<T> createAdapterPool(String name, AdapterPool.Closer<T> closer) {
+    return new AdapterPool<>(
+        name,
+        adapterPoolMaxSize,
+        adapterPoolIdleTimeout,
+        adapterPoolMaxLifetime,
+        adapterPoolBorrowTimeout,
+        closer);
+  }
+
+  private boolean isLimited(Duration duration) {
+    return duration != null && !duration.isZero() && !duration.isNegative();
+  }
+
   private boolean isEmpty(Collection<?> list) {
     return list == null || list.isEmpty();
   }
@@ -251,6 +612,72 @@ public abstract class QueryService {
                     || !isEmpty(((PhenotypeQuery) query).getProjection())));
   }
 
+  /**
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @return Path of the result file of the query.
+   * @throws FileSystemException If the path is not located in the results directory.
+   */
+  protected Path getResultFile(String organisationId, String repositoryId, String queryId)
+      throws FileSystemException {
+    Path queryPath =
+        Paths.get(resultDir, organisationId, repositoryId, String.format("%s.zip", queryId));
+    if (!queryPath.startsWith(Paths.get(resultDir)))
+      throw new FileSystemException("Repository directory isn't a child of the results directory.");
+    return queryPath;
+  }
+
+  /**
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @return Path of the {@link ResultRowFile} of the query.
+   * @throws FileSystemException If the path is not located in the results directory.
+   */
+  protected Path getRowFile(String organisationId, String repositoryId, String queryId)
+      throws FileSystemException {
+    Path rowPath =
+        Paths.get(resultDir, organisationId, repositoryId, String.format("%s.rows", queryId));
+    if (!rowPath.startsWith(Paths.get(resultDir)))
+      throw new FileSystemException("Repository directory isn't a child of the results directory.");
+    return rowPath;
+  }
+
+  protected ResultRowFile.Writer createRowWriter(
+      String organisationId, String repositoryId, String queryId) throws IOException {
+    return new ResultRowFile.Writer(getRowFile(organisationId, repositoryId, queryId));
+  }
+
+  /**
+   * @param resultFile Path of the result file of the query.
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @return Path of the {@link ResultRowFile} of the query, which is created from the result file
+   *     if it does not exist.
+   */
+  protected Path getOrCreateRowFile(
+      Path resultFile, String organisationId, String repositoryId, String queryId)
+      throws IOException {
+    Path rowFile = getRowFile(organisationId, repositoryId, queryId);
+    if (!ResultRowFile.exists(rowFile)) createRowFile(resultFile, rowFile);
+    return rowFile;
+  }
+
+  private void createRowFile(Path resultFile, Path rowFile) throws IOException {
+    try (ZipFile zip = new ZipFile(resultFile.toFile());
+        ResultRowFile.Writer writer = new ResultRowFile.Writer(rowFile)) {
+      ZipEntry entry = zip.getEntry(getRowEntryName());
+      if (entry == null)
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Query result has no rows.");
+      try (InputStream input = zip.getInputStream(entry)) {
+        input.transferTo(writer);
+      }
+      writer.commit();
+    }
+  }
+
   protected ZipOutputStream createZipStream(
       String organisationId, String repositoryId, String queryId) throws IOException {
     Path repositoryPath = Paths.get(resultDir, organisationId, repositoryId);
@@ -260,6 +687,6 @@ public abstract class QueryService {
     Files.createDirectories(repositoryPath);
     File zipFile =
         Files.createFile(repositoryPath.resolve(String.format("%s.zip", queryId))).toFile();
-    return new ZipOutputStream(new FileOutputStream(zipFile));
+    return new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
   }
 }
@@ -0,0 +1,210 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.model.diff.EntityDiff;
+import care.smith.top.backend.model.diff.FieldDiff;
+import care.smith.top.backend.model.diff.RepositoryDiff;
+import care.smith.top.backend.model.jpa.EntityDao;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.repository.jpa.EntityRepository;
+import care.smith.top.backend.repository.jpa.RepositoryRepository;
+import care.smith.top.backend.util.Hashes;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * This service compares a fork repository with its origin repository.
+ *
+ * <p>Both repositories are loaded once and entities are matched by their origin links. For each
+ * entity a content hash is computed over its current version. Fields that only describe the
+ * version (ID, version number, author, timestamps, repository) and the hierarchy, which may
+ * intentionally differ in forks, are not part of the hash. Entity IDs referenced by a fork (e.g.
+ * in expressions or as super phenotype) are replaced by the IDs of their origins beforehand, so
+ * that unchanged forks and their origins have the same hash.
+ */
+@Service
+public class RepositoryDiffService {
+  private static final Set<String> IGNORED_FIELDS =
+      Set.of(
+          "id",
+          "version",
+          "author",
+          "createdAt",
+          "repository",
+          "equivalentEntities",
+          "superCategories",
+          "subCategories",
+          "superConcepts",
+          "subConcepts",
+          "phenotypes");
+  private static final Set<String> REFERENCE_FIELDS = Set.of("id", "entityId");
+
+  @Autowired private EntityRepository entityRepository;
+  @Autowired private RepositoryRepository repositoryRepository;
+
+  /**
+   * Compares the current versions of all entities of a fork repository with their origins in the
+   * origin repository.
+   *
+   * @param organisationId ID of the organisation the fork repository belongs to.
+   * @param repositoryId ID of the fork repository.
+   * @param originRepositoryId ID of the origin repository.
+   * @param includeFields If true, changed entities contain a list of differing top-level fields.
+   * @return The differences between both repositories.
+   */
+  @Transactional(readOnly = true)
+  @PreAuthorize(
+      "hasRole('ADMIN') or "
+          + "hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', "
+          + "'READ') and "
+          + "hasPermission(#originRepositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', "
+          + "'READ')")
+  public RepositoryDiff diffRepository(
+      String organisationId,
+      String repositoryId,
+      String originRepositoryId,
+      boolean includeFields) {
+    RepositoryDao repository =
+        repositoryRepository
+            .findByIdAndOrganisationId(repositoryId, organisationId)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    RepositoryDao originRepository =
+        repositoryRepository
+            .findById(originRepositoryId)
+            .orElseThrow(
+                () ->
+                    new ResponseStatusException(
+                        HttpStatus.NOT_FOUND,
+                        String.format("Repository '%s' does not exist!", originRepositoryId)));
+    if (repository.getId().equals(originRepository.getId()))
+      throw new ResponseStatusException(
+          HttpStatus.NOT_ACCEPTABLE, "Cannot compare a repository with itself.");
+
+    List<EntityDao> forks = findAll(repository.getId());
+    Map<String, EntityDao> origins =
+        findAll(originRepository.getId()).stream()
+            .collect(Collectors.toMap(EntityDao::getId, Function.identity()));
+
+    Map<String, String> ids = new HashMap<>();
+    for (EntityDao fork : forks)
+      if (isForkOf(fork, originRepository)) ids.put(fork.getId(), fork.getOrigin().getId());
+
+    RepositoryDiff diff = new RepositoryDiff(repository.getId(), originRepository.getId());
+    Set<String> matchedOrigins = new HashSet<>();
+
+    for (EntityDao fork : forks) {
+      ObjectNode content = normalize(fork, ids);
+      EntityDiff entityDiff = toEntityDiff(fork).hash(Hashes.sha256Hex(content));
+
+      EntityDao origin = ids.containsKey(fork.getId()) ? origins.get(ids.get(fork.getId())) : null;
+      if (origin == null) {
+        diff.addAddedItem(entityDiff);
+        continue;
+      }
+      matchedOrigins.add(origin.getId());
+
+      ObjectNode originContent = normalize(origin, Collections.emptyMap());
+      entityDiff
+          .originId(origin.getId())
+          .originVersion(version(origin))
+          .originHash(Hashes.sha256Hex(originContent));
+
+      if (entityDiff.getHash().equals(entityDiff.getOriginHash())) {
+        diff.addUnchangedItem(entityDiff);
+      } else {
+        if (includeFields) entityDiff.fields(diffFields(content, originContent));
+        diff.addChangedItem(entityDiff);
+      }
+    }
+
+    origins.values().stream()
+        .filter(o -> !matchedOrigins.contains(o.getId()))
+        .sorted(Comparator.comparing(EntityDao::getId))
+        .forEach(
+            o ->
+                diff.addRemovedItem(
+                    new EntityDiff()
+                        .originId(o.getId())
+                        .entityType(o.getEntityType())
+                        .originVersion(version(o))
+                        .originHash(Hashes.sha256Hex(normalize(o, Collections.emptyMap())))));
+
+    return diff;
+  }
+
+  private List<EntityDao> findAll(String repositoryId) {
+    return entityRepository.findAllByRepositoryId(repositoryId, Pageable.unpaged()).stream()
+        .sorted(Comparator.comparing(EntityDao::getId))
+        .collect(Collectors.toList());
+  }
+
+  private boolean isForkOf(EntityDao fork, RepositoryDao originRepository) {
+    return fork.getOrigin() != null
+        && fork.getOrigin().getRepository() != null
+        && originRepository.getId().equals(fork.getOrigin().getRepository().getId());
+  }
+
+  private EntityDiff toEntityDiff(EntityDao entity) {
+    return new EntityDiff()
+        .id(entity.getId())
+        .entityType(entity.getEntityType())
+        .version(version(entity));
+  }
+
+  private Integer version(EntityDao entity) {
+    return entity.getCurrentVersion() != null ? entity.getCurrentVersion().getVersion() : null;
+  }
+
+  /**
+   * Converts the current version of an entity into a JSON tree that only contains comparable
+   * content.
+   *
+   * @param entity The entity to be converted.
+   * @param ids Mapping of entity IDs that are replaced in references.
+   * @return The normalised JSON tree.
+   */
+  private ObjectNode normalize(EntityDao entity, Map<String, String> ids) {
+    ObjectNode node = Hashes.MAPPER.valueToTree(entity.toApiModel());
+    node.remove(IGNORED_FIELDS);
+    JsonNode superPhenotype = node.get("superPhenotype");
+    if (superPhenotype != null && superPhenotype.has("id"))
+      node.set(
+          "superPhenotype", Hashes.MAPPER.createObjectNode().set("id", superPhenotype.get("id")));
+    replaceReferences(node, ids);
+    return node;
+  }
+
+  private void replaceReferences(JsonNode node, Map<String, String> ids) {
+    if (ids.isEmpty()) return;
+    if (node.isObject()) {
+      ObjectNode object = (ObjectNode) node;
+      for (String field : REFERENCE_FIELDS) {
+        JsonNode value = object.get(field);
+        if (value != null && value.isTextual() && ids.containsKey(value.asText()))
+          object.put(field, ids.get(value.asText()));
+      }
+    }
+    node.forEach(child -> replaceReferences(child, ids));
+  }
+
+  private List<FieldDiff> diffFields(ObjectNode content, ObjectNode originContent) {
+    SortedSet<String> fields = new TreeSet<>();
+    content.fieldNames().forEachRemaining(fields::add);
+    originContent.fieldNames().forEachRemaining(fields::add);
+
+    return fields.stream()
+        .filter(f -> !Objects.equals(content.get(f), originContent.get(f)))
+        .map(f -> new FieldDiff(f, content.get(f), originContent.get(f)))
+        .collect(Collectors.toList());
+  }
+
+}
@@ -8,7 +8,6 @@ import care.smith.top.backend.repository.jpa.RepositoryRepository;
 import care.smith.top.model.Repository;
 import care.smith.top.model.RepositoryType;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -24,6 +23,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.web.server.ResponseStatusException;
 
 @Service
@@ -33,7 +33,7 @@ public class RepositoryService implements ContentService {
   @Value("${spring.paging.page-size:10}")
   private int pageSize;
 
-  @Value("${top.phenotyping.result.dir:config/query_results}")
+  @Value("${top.result.dir:config/query_results}")
   private String resultDir;
 
   @Autowired private RepositoryRepository repositoryRepository;
@@ -69,6 +69,59 @@ public class RepositoryService implements ContentService {
     return repositoryRepository.save(repository).toApiModel();
   }
 
+  /**
+   * Creates a new repository and copies all entities of an existing repository into it. Entities,
+   * their current versions, expressions, restrictions and hierarchy are copied with set-based SQL
+   * statements instead of one entity at a time. Origin links of forked entities are kept.
+   *
+   * @param organisationId ID of the organisation the source repository belongs to.
+   * @param repositoryId ID of the source repository.
+   * @param targetOrganisationId ID of the organisation the clone will belong to.
+   * @param data Properties of the new repository. If no ID is provided, a random one is generated.
+   * @return The new repository.
+   */
+  @Transactional
+  @CacheEvict("entityCount")
+  @PreAuthorize(
+      "hasRole('ADMIN') or hasPermission(#repositoryId, 'care.smith.top.backend.model.jpa.RepositoryDao', 'READ') "
+          + "and hasPermission(#targetOrganisationId, 'care.smith.top.backend.model.jpa.OrganisationDao', 'WRITE')")
+  public Repository cloneRepository(
+      String organisationId, String repositoryId, String targetOrganisationId, Repository data) {
+    RepositoryDao source =
+        repositoryRepository
+            .findByIdAndOrganisationId(repositoryId, organisationId)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    if (data.getId() != null && repositoryRepository.existsById(data.getId()))
+      throw new ResponseStatusException(HttpStatus.CONFLICT);
+
+    OrganisationDao organisation =
+        organisationRepository
+            .findById(targetOrganisationId)
+            .orElseThrow(
+                () ->
+                    new ResponseStatusException(
+                        HttpStatus.NOT_FOUND,
+                        String.format("Organisation '%s' does not exist!", targetOrganisationId)));
+
+    RepositoryDao target =
+        new RepositoryDao(
+                data.getId(),
+                data.getName() != null ? data.getName() : source.getName(),
+                data.getDescription() != null ? data.getDescription() : source.getDescription(),
+                false,
+                source.getRepositoryType())
+            .organisation(organisation);
+    target = repositoryRepository.saveAndFlush(target);
+
+    int count = repositoryRepository.cloneRepositoryContent(source.getId(), target.getId());
+    LOGGER.info(
+        String.format(
+            "Cloned %d entities from repository '%s' to '%s'.",
+            count, source.getId(), target.getId()));
+
+    return target.toApiModel();
+  }
+
   @Transactional
   @Caching(
       evict = {@CacheEvict("entityCount"), @CacheEvict(value = "entities", key = "#repositoryId")})
@@ -81,12 +134,14 @@ public class RepositoryService implements ContentService {
             .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
 
     Path repositoryPath = Paths.get(resultDir, organisationId, repositoryId);
-    if (!repositoryPath.startsWith(Paths.get(resultDir)))
+    if (!repositoryPath.startsWith(Paths.get(resultDir))) {
       LOGGER.severe(
           String.format(
               "Repository directory '%s' is invalid and cannot be deleted!", repositoryPath));
+      return;
+    }
     try {
-      Files.deleteIfExists(repositoryPath);
+      FileSystemUtils.deleteRecursively(repositoryPath);
     } catch (IOException e) {
       LOGGER.severe(
           String.format(
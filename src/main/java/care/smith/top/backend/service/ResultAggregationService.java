@@ -0,0 +1,104 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.util.ResultAggregator;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Executes {@link ResultAggregator} scans over stored query results on a small, dedicated thread
+ * pool ({@code top.result.aggregation.threads}), so that aggregations cannot occupy the request
+ * threads or the disk of the query workers. If more than {@code top.result.aggregation.queue-size}
+ * aggregations are waiting, further requests are rejected. Aggregations taking longer than {@code
+ * top.result.aggregation.timeout} are interrupted.
+ */
+@Service
+public class ResultAggregationService {
+  private final ExecutorService executor;
+
+  @Value("${top.result.aggregation.timeout:30s}")
+  private Duration timeout;
+
+  public ResultAggregationService(
+      @Value("${top.result.aggregation.threads:2}") int threads,
+      @Value("${top.result.aggregation.queue-size:16}") int queueSize) {
+    AtomicInteger count = new AtomicInteger();
+    this.executor =
+        new ThreadPoolExecutor(
+            Math.max(1, threads),
+            Math.max(1, threads),
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            r -> {
+              Thread thread = new Thread(r, "result-aggregation-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Aggregates columns of a stored table (see {@link ResultAggregator#aggregate}).
+   *
+   * @param rowFile Rows file of the table.
+   * @param function The aggregate function.
+   * @param columns Names of the columns to be aggregated.
+   * @param groupBy Name of the column grouping the rows, or {@code null}.
+   * @param filters Conditions rows must satisfy, e.g. {@code age>=18}.
+   * @param groupLimit Maximum number of returned values per column.
+   * @param bins Number of histogram bins.
+   * @return The aggregates of each column.
+   */
+  public ResultAggregator.Result aggregate(
+      Path rowFile,
+      ResultAggregator.Function function,
+      List<String> columns,
+      String groupBy,
+      List<String> filters,
+      int groupLimit,
+      int bins)
+      throws IOException {
+    Future<ResultAggregator.Result> future;
+    try {
+      future =
+          executor.submit(
+              () ->
+                  ResultAggregator.aggregate(
+                      rowFile, function, columns, groupBy, filters, groupLimit, bins));
+    } catch (RejectedExecutionException e) {
+      throw new ResponseStatusException(
+          HttpStatus.SERVICE_UNAVAILABLE, "Too many aggregations are running.");
+    }
+
+    try {
+      return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new ResponseStatusException(
+          HttpStatus.SERVICE_UNAVAILABLE,
+          String.format("Aggregation exceeded its time limit of %s.", timeout));
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Aggregation was interrupted.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IllegalArgumentException)
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getCause().getMessage());
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      throw new IOException("Aggregation failed.", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,442 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.repository.jpa.OrganisationRepository;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.backend.repository.jpa.RepositoryRepository;
+import care.smith.top.backend.util.DataSourceSettings;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Manages the disk space used by query results in {@code top.result.dir}. A background job
+ * periodically
+ *
+ * <ol>
+ *   <li>removes orphaned files and directories, that do not belong to an existing organisation,
+ *       repository or query,
+ *   <li>deletes the files of results older than the configured retention period, which can be
+ *       overridden per organisation and per repository,
+ *   <li>deletes the files of the oldest results of an organisation, while the organisation exceeds
+ *       its quota, and of the oldest results overall, while the results directory exceeds the total
+ *       quota.
+ * </ol>
+ *
+ * <p>Queries of deleted results are kept. Their result is marked as expired, so that downloads
+ * fail with a meaningful message and the result is not reused for identical queries.
+ */
+@Service
+public class ResultStorageService {
+  /** Minimum age of orphaned files before they are deleted, to spare files that are written. */
+  private static final Duration ORPHAN_MIN_AGE = Duration.ofHours(1);
+
+  private final Logger LOGGER = Logger.getLogger(ResultStorageService.class.getName());
+
+  @Value("${top.result.dir:config/query_results}")
+  private String resultDir;
+
+  @Value("${top.result.retention.max-age:0}")
+  private Duration maxAge;
+
+  @Value("${top.result.retention.organisation-max-age:}")
+  private String organisationMaxAge;
+
+  @Value("${top.result.retention.repository-max-age:}")
+  private String repositoryMaxAge;
+
+  @Value("${top.result.quota.max-size:0}")
+  private DataSize maxSize;
+
+  @Value("${top.result.quota.organisation-max-size:}")
+  private String organisationMaxSize;
+
+  @Value("${top.result.gc-interval:1h}")
+  private Duration gcInterval;
+
+  @Autowired private QueryRepository queryRepository;
+  @Autowired private RepositoryRepository repositoryRepository;
+  @Autowired private OrganisationRepository organisationRepository;
+
+  private Map<String, Duration> maxAgeByOrganisation;
+  private Map<String, Duration> maxAgeByRepository;
+  private Map<String, DataSize> maxSizeByOrganisation;
+  private ScheduledExecutorService collector;
+  private volatile GarbageCollection lastCollection;
+
+  @PostConstruct
+  public void initResultStorageService() {
+    maxAgeByOrganisation =
+        DataSourceSettings.parse(organisationMaxAge, DurationStyle::detectAndParse);
+    maxAgeByRepository = DataSourceSettings.parse(repositoryMaxAge, DurationStyle::detectAndParse);
+    maxSizeByOrganisation = DataSourceSettings.parse(organisationMaxSize, DataSize::parse);
+    if (gcInterval.isZero() || gcInterval.isNegative()) return;
+
+    collector =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "result-gc");
+              thread.setDaemon(true);
+              return thread;
+            });
+    collector.scheduleWithFixedDelay(
+        () -> {
+          try {
+            collectGarbage();
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Query result garbage collection failed.", e);
+          }
+        },
+        gcInterval.toMillis(),
+        gcInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void closeResultStorageService() {
+    if (collector != null) collector.shutdownNow();
+  }
+
+  /**
+   * Removes orphaned files and deletes results that exceed their retention period or a quota. This
+   * method is called periodically ({@code top.result.gc-interval}).
+   *
+   * @return What has been deleted.
+   */
+  @PreAuthorize("hasRole('ADMIN')")
+  public synchronized GarbageCollection collectGarbage() {
+    GarbageCollection collection = new GarbageCollection();
+    Path root = Paths.get(resultDir);
+    if (Files.isDirectory(root)) {
+      try {
+        removeOrphans(root, collection);
+      } catch (IOException e) {
+        LOGGER.warning(
+            String.format(
+                "Orphaned query results could not be removed. Cause: %s", e.getMessage()));
+      }
+    }
+
+    List<QueryDao> results =
+        queryRepository
+            .findAllByResult_FinishedAtIsNotNullAndResult_ExpiredAtIsNullOrderByResult_FinishedAtAsc();
+    OffsetDateTime now = OffsetDateTime.now();
+    List<QueryDao> retained = new ArrayList<>();
+    for (QueryDao query : results) {
+      Duration age = getMaxAge(query);
+      if (isLimited(age) && query.getResult().getFinishedAt().isBefore(now.minus(age)))
+        expire(query, String.format("retention period of %s", age), collection);
+      else retained.add(query);
+    }
+
+    Map<String, Long> sizes = new HashMap<>();
+    Map<String, Long> usage = new HashMap<>();
+    for (QueryDao query : retained) {
+      long size = getResultSize(query);
+      sizes.put(query.getId(), size);
+      usage.merge(getOrganisationId(query), size, Long::sum);
+    }
+
+    // results are ordered by age, so the oldest results are deleted first
+    Iterator<QueryDao> iterator = retained.iterator();
+    while (iterator.hasNext()) {
+      QueryDao query = iterator.next();
+      String organisationId = getOrganisationId(query);
+      DataSize quota = maxSizeByOrganisation.get(organisationId);
+      if (quota == null || usage.get(organisationId) <= quota.toBytes()) continue;
+      expire(query, "organisation quota", collection);
+      usage.merge(organisationId, -sizes.get(query.getId()), Long::sum);
+      iterator.remove();
+    }
+
+    long total = usage.values().stream().mapToLong(Long::longValue).sum();
+    for (QueryDao query : retained) {
+      if (maxSize.toBytes() <= 0 || total <= maxSize.toBytes()) break;
+      expire(query, "total quota", collection);
+      total -= sizes.get(query.getId());
+    }
+
+    if (collection.expiredResults > 0 || collection.removedOrphans > 0)
+      LOGGER.info(
+          String.format(
+              "Deleted %d query results and %d orphaned files, %d bytes freed.",
+              collection.expiredResults, collection.removedOrphans, collection.freedBytes));
+    lastCollection = collection;
+    return collection;
+  }
+
+  /**
+   * @return Disk space used by query results, in total and per organisation, the configured quotas
+   *     and the last garbage collection.
+   */
+  @PreAuthorize("hasRole('ADMIN')")
+  public Usage getUsage() throws IOException {
+    Usage usage = new Usage();
+    usage.maxSize = maxSize.toBytes();
+    usage.lastCollection = lastCollection;
+    Path root = Paths.get(resultDir);
+    if (!Files.isDirectory(root)) return usage;
+
+    try (DirectoryStream<Path> organisations = Files.newDirectoryStream(root)) {
+      for (Path organisation : organisations) {
+        if (!Files.isDirectory(organisation) || isReserved(organisation)) continue;
+        OrganisationUsage organisationUsage = new OrganisationUsage();
+        organisationUsage.organisationId = organisation.getFileName().toString();
+        organisationUsage.size = getSize(organisation);
+        organisationUsage.maxSize =
+            Optional.ofNullable(maxSizeByOrganisation.get(organisationUsage.organisationId))
+                .map(DataSize::toBytes)
+                .orElse(0L);
+        usage.size += organisationUsage.size;
+        usage.organisations.add(organisationUsage);
+      }
+    }
+    usage.organisations.sort(Comparator.comparing(OrganisationUsage::getOrganisationId));
+    return usage;
+  }
+
+  /**
+   * @param query A query with result.
+   * @return Retention period of the result: the period of the repository, if configured, else the
+   *     period of the organisation, if configured, else the default period.
+   */
+  private Duration getMaxAge(QueryDao query) {
+    String organisationId = getOrganisationId(query);
+    Duration age =
+        maxAgeByRepository.get(
+            String.format("%s/%s", organisationId, query.getRepository().getId()));
+    if (age == null) age = maxAgeByOrganisation.get(organisationId);
+    return age == null ? maxAge : age;
+  }
+
+  private void expire(QueryDao query, String reason, GarbageCollection collection) {
+    try {
+      collection.freedBytes += deleteResultFiles(query);
+    } catch (IOException e) {
+      LOGGER.warning(
+          String.format(
+              "Result of query '%s' could not be deleted. Cause: %s",
+              query.getId(), e.getMessage()));
+      return;
+    }
+    OffsetDateTime now = OffsetDateTime.now();
+    QueryResultDao result = query.getResult();
+    result
+        .expiredAt(now)
+        .fingerprint(null)
+        .message(
+            String.format(
+                "Result was deleted on %s (%s).",
+                now.format(DateTimeFormatter.ISO_LOCAL_DATE), reason));
+    queryRepository.save(query);
+    collection.expiredResults++;
+  }
+
+  /**
+   * Deletes all files of a query result: the result ZIP file and all files next to it that start
+   * with the query ID (rows, indexes, manifest).
+   *
+   * @return Number of deleted bytes.
+   */
+  private long deleteResultFiles(QueryDao query) throws IOException {
+    Path directory = getRepositoryPath(getOrganisationId(query), query.getRepository().getId());
+    if (!Files.isDirectory(directory)) return 0;
+    long size = 0;
+    for (Path file : getResultFiles(directory, query.getId())) {
+      size += Files.size(file);
+      Files.deleteIfExists(file);
+    }
+    return size;
+  }
+
+  private long getResultSize(QueryDao query) {
+    Path directory = getRepositoryPath(getOrganisationId(query), query.getRepository().getId());
+    try {
+      if (!Files.isDirectory(directory)) return 0;
+      long size = 0;
+      for (Path file : getResultFiles(directory, query.getId())) size += Files.size(file);
+      return size;
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private List<Path> getResultFiles(Path directory, String queryId) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, queryId + ".*")) {
+      for (Path file : stream) if (Files.isRegularFile(file)) files.add(file);
+    }
+    return files;
+  }
+
+  private void removeOrphans(Path root, GarbageCollection collection) throws IOException {
+    long minModified = System.currentTimeMillis() - ORPHAN_MIN_AGE.toMillis();
+    for (Path organisation : list(root)) {
+      if (!Files.isDirectory(organisation) || isReserved(organisation)) continue;
+      String organisationId = organisation.getFileName().toString();
+      if (!organisationRepository.existsById(organisationId)) {
+        removeOrphan(organisation, collection);
+        continue;
+      }
+      for (Path repository : list(organisation)) {
+        if (!Files.isDirectory(repository)) continue;
+        String repositoryId = repository.getFileName().toString();
+        if (!repositoryRepository.existsByIdAndOrganisation_Id(repositoryId, organisationId)) {
+          removeOrphan(repository, collection);
+          continue;
+        }
+        for (Path file : list(repository)) {
+          if (!Files.isRegularFile(file)
+              || Files.getLastModifiedTime(file).toMillis() > minModified) continue;
+          String name = file.getFileName().toString();
+          String queryId = name.contains(".") ? name.substring(0, name.indexOf('.')) : name;
+          if (name.endsWith(".tmp")
+              || !queryRepository.existsByRepository_OrganisationIdAndRepositoryIdAndId(
+                  organisationId, repositoryId, queryId)) removeOrphan(file, collection);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return True if the directory is not an organisation directory, but used for shared data of all
+   *     instances (e.g. subject dictionaries, see {@link SubjectDictionaryService}).
+   */
+  private boolean isReserved(Path directory) {
+    return directory.getFileName().toString().startsWith(".");
+  }
+
+  private void removeOrphan(Path path, GarbageCollection collection) throws IOException {
+    if (!path.startsWith(Paths.get(resultDir))) return;
+    long size = getSize(path);
+    if (FileSystemUtils.deleteRecursively(path)) {
+      collection.removedOrphans++;
+      collection.freedBytes += size;
+    }
+  }
+
+  private List<Path> list(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) return Collections.emptyList();
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.collect(Collectors.toList());
+    }
+  }
+
+  private long getSize(Path path) throws IOException {
+    try (Stream<Path> files = Files.walk(path)) {
+      return files
+          .filter(Files::isRegularFile)
+          .mapToLong(
+              f -> {
+                try {
+                  return Files.size(f);
+                } catch (IOException e) {
+                  return 0;
+                }
+              })
+          .sum();
+    }
+  }
+
+  private Path getRepositoryPath(String organisationId, String repositoryId) {
+    return Paths.get(resultDir, organisationId, repositoryId);
+  }
+
+  private String getOrganisationId(QueryDao query) {
+    return query.getRepository().getOrganisation().getId();
+  }
+
+  private boolean isLimited(Duration duration) {
+    return duration != null && !duration.isZero() && !duration.isNegative();
+  }
+
+  /** Summary of a garbage collection run. */
+  public static class GarbageCollection {
+    private final OffsetDateTime startedAt = OffsetDateTime.now();
+    private int expiredResults;
+    private int removedOrphans;
+    private long freedBytes;
+
+    public OffsetDateTime getStartedAt() {
+      return startedAt;
+    }
+
+    public int getExpiredResults() {
+      return expiredResults;
+    }
+
+    public int getRemovedOrphans() {
+      return removedOrphans;
+    }
+
+    public long getFreedBytes() {
+      return freedBytes;
+    }
+  }
+
+  /** Disk space used by query results. Sizes are in bytes, a maximum size of 0 means unlimited. */
+  public static class Usage {
+    private long size;
+    private long maxSize;
+    private GarbageCollection lastCollection;
+    private final List<OrganisationUsage> organisations = new ArrayList<>();
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getMaxSize() {
+      return maxSize;
+    }
+
+    public GarbageCollection getLastCollection() {
+      return lastCollection;
+    }
+
+    public List<OrganisationUsage> getOrganisations() {
+      return organisations;
+    }
+  }
+
+  /** Disk space used by query results of an organisation. */
+  public static class OrganisationUsage {
+    private String organisationId;
+    private long size;
+    private long maxSize;
+
+    public String getOrganisationId() {
+      return organisationId;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getMaxSize() {
+      return maxSize;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package care.smith.top.backend.service;
+
+import care.smith.top.backend.util.CohortBitmap;
+import care.smith.top.backend.util.SubjectDictionary;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Provides one {@link SubjectDictionary} per data source, which maps the subject IDs of the data
+ * source to the integer codes used in cohort bitmaps. Dictionaries are stored in {@code
+ * top.cohort.dictionary-dir}, by default within the result storage, so that backend instances
+ * sharing the result storage use the same codes.
+ */
+@Service
+public class SubjectDictionaryService {
+  @Value("${top.cohort.dictionary-dir:${top.result.dir:config/query_results}/.subject_dictionaries}")
+  private String dictionaryDir;
+
+  private final Map<String, SubjectDictionary> dictionaries = new ConcurrentHashMap<>();
+
+  /**
+   * Encodes subjects and writes them as cohort (see {@link CohortBitmap}).
+   *
+   * @param dataSource ID of the data source the subjects belong to.
+   * @param file Path of the cohort file.
+   * @param subjectIds Subject IDs to be encoded. Unknown subject IDs are added to the dictionary.
+   * @return Bitmap with the codes of the subject IDs set.
+   */
+  public RoaringBitmap writeCohort(String dataSource, Path file, Collection<String> subjectIds)
+      throws IOException {
+    SubjectDictionary dictionary = getDictionary(dataSource);
+    RoaringBitmap bits = dictionary.encode(subjectIds);
+    CohortBitmap.write(file, bits, dictionary.getId(), dictionary.size());
+    return bits;
+  }
+
+  /**
+   * Reads a cohort, if it was encoded with the current dictionary of the data source. Cohorts
+   * encoded with a dictionary that has been lost or replaced meanwhile are not returned, because
+   * their codes may refer to other subjects.
+   *
+   * @param dataSource ID of the data source the subjects belong to.
+   * @param file Path of the cohort file.
+   * @return Bitmap of subject codes or null, if the file does not exist or was encoded with another
+   *     dictionary.
+   */
+  public RoaringBitmap readCohort(String dataSource, Path file) throws IOException {
+    if (!Files.isRegularFile(file)) return null;
+    CohortBitmap cohort = CohortBitmap.read(file);
+    if (cohort == null) return null;
+    SubjectDictionary dictionary = getDictionary(dataSource);
+    if (!isEncodedWith(cohort, dictionary)) dictionary.refresh();
+    return isEncodedWith(cohort, dictionary) ? cohort.getBits() : null;
+  }
+
+  /**
+   * @param dataSource ID of the data source the subjects belong to.
+   * @param bits Bitmap of subject codes.
+   * @param limit Maximum number of returned subject IDs.
+   * @return Subject IDs in code order.
+   */
+  public List<String> decode(String dataSource, RoaringBitmap bits, int limit) throws IOException {
+    return getDictionary(dataSource).decode(bits, limit);
+  }
+
+  private boolean isEncodedWith(CohortBitmap cohort, SubjectDictionary dictionary) {
+    return cohort.getDictionaryId().equals(dictionary.getId())
+        && cohort.getDictionarySize() <= dictionary.size();
+  }
+
+  private SubjectDictionary getDictionary(String dataSource) throws IOException {
+    Path file = Paths.get(dictionaryDir, String.format("%s.dict", dataSource)).normalize();
+    if (!file.getParent().equals(Paths.get(dictionaryDir).normalize()))
+      throw new FileSystemException("Dictionary file isn't a child of the dictionary directory.");
+    try {
+      return dictionaries.computeIfAbsent(
+          dataSource,
+          id -> {
+            try {
+              return new SubjectDictionary(file);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -3,28 +3,42 @@ package care.smith.top.backend.service.nlp;
 import care.smith.top.backend.model.jpa.EntityDao;
 import care.smith.top.backend.model.jpa.QueryDao;
 import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.model.jpa.QueryTermination;
 import care.smith.top.backend.model.jpa.RepositoryDao;
 import care.smith.top.backend.repository.elasticsearch.DocumentRepository;
 import care.smith.top.backend.repository.jpa.ConceptRepository;
 import care.smith.top.backend.service.QueryService;
+import care.smith.top.backend.util.AdapterConfigRegistry;
+import care.smith.top.backend.util.AdapterPool;
+import care.smith.top.backend.util.DocumentIdIndex;
+import care.smith.top.backend.util.QueryWatchdog;
+import care.smith.top.backend.util.ResultManifest;
+import care.smith.top.backend.util.ResultRowFile;
 import care.smith.top.model.*;
 import care.smith.top.top_document_query.adapter.*;
 import care.smith.top.top_document_query.adapter.config.TextAdapterConfig;
 import care.smith.top.top_document_query.converter.csv.DocumentCSV;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
@@ -41,15 +55,47 @@ public class DocumentQueryService extends QueryService {
   private final DocumentRepository documentRepository;
   private final ConceptRepository conceptRepository;
 
+  private AdapterConfigRegistry<TextAdapterConfig> textAdapterConfigs;
+  private AdapterPool<TextAdapter> textAdapterPool;
+
   public DocumentQueryService(
       DocumentRepository documentRepository, ConceptRepository conceptRepository) {
     this.documentRepository = documentRepository;
     this.conceptRepository = conceptRepository;
   }
 
+  @PostConstruct
+  public void initTextAdapterConfigs() {
+    textAdapterConfigs =
+        new AdapterConfigRegistry<>(
+            dataSourceConfigDir, this::toTextAdapterConfig, TextAdapterConfig::getId);
+    textAdapterConfigs.reload();
+    textAdapterConfigs.watch();
+    textAdapterPool =
+        createAdapterPool(
+            "document",
+            adapter -> {
+              if (adapter instanceof AutoCloseable) ((AutoCloseable) adapter).close();
+            });
+  }
+
+  @PreDestroy
+  public void closeTextAdapterConfigs() throws IOException {
+    textAdapterConfigs.close();
+    textAdapterPool.close();
+  }
+
   @Override
   @org.jobrunr.jobs.annotations.Job(name = "Document query", retries = 0)
   public void executeQuery(UUID queryId) {
+    try {
+      execute(queryId);
+    } finally {
+      queryDispatcher.dispatch();
+    }
+  }
+
+  private void execute(UUID queryId) {
     OffsetDateTime createdAt = OffsetDateTime.now();
     QueryDao queryDao =
         queryRepository
@@ -64,47 +110,88 @@ public class DocumentQueryService extends QueryService {
             "Running %s query '%s' for repository '%s'...",
             getClass().getSimpleName(), queryId, queryDao.getRepository().getDisplayName()));
 
-    ConceptQuery query = (ConceptQuery) queryDao.toApiModel();
+    publishRunning(queryDao, createdAt);
+    Duration timeLimit = getTimeLimit(queryDao);
+    QueryResultDao result;
+    try (QueryWatchdog.Execution execution = queryWatchdog.start(queryId, timeLimit)) {
+      try {
+        // cancelled before the execution started
+        if (queryDao.getCancelRequestedAt() != null && queryWatchdog.cancel(queryId))
+          throw new CancellationException();
+        ConceptQuery query = (ConceptQuery) queryDao.toApiModel();
+        EntityDao entity =
+            conceptRepository
+                .findByIdAndRepositoryId(queryDao.getEntityId(), queryDao.getRepository().getId())
+                .orElseThrow();
+        List<Entity> concepts =
+            conceptRepository.getDependencies(entity).stream()
+                .map(EntityDao::toApiModel)
+                .collect(Collectors.toList());
+        concepts.add(entity.toApiModel());
+        TextAdapterConfig config = getTextAdapterConfig(query.getDataSource()).orElseThrow();
+
+        List<DocumentHit> documents;
+        try (AdapterPool.Lease<TextAdapter> lease =
+            textAdapterPool.borrow(
+                config.getId(),
+                config,
+                () ->
+                    Objects.requireNonNull(
+                        TextAdapter.getInstance(config), "Adaptor type could not be derived."))) {
+          execution.onAbort(lease::abort);
+          try {
+            documents =
+                new TextFinder(query, concepts.toArray(new Entity[0]), lease.get()).execute();
+          } catch (Throwable e) {
+            lease.invalidate();
+            throw e;
+          } finally {
+            execution.onAbort(null);
+          }
+        }
+        result =
+            new QueryResultDao(
+                queryDao,
+                createdAt,
+                (long) documents.size(),
+                OffsetDateTime.now(),
+                QueryState.FINISHED);
+
+        storeResult(
+            queryDao.getRepository().getOrganisation().getId(),
+            queryDao.getRepository().getId(),
+            queryId.toString(),
+            documents,
+            concepts.toArray(new Concept[0]));
+        if (execution.getTermination() != null) throw new CancellationException();
+      } catch (Throwable e) {
+        QueryTermination termination = getTermination(execution);
+        if (termination != null) {
+          clearResultsQuietly(queryDao);
+          result = terminatedResult(queryDao, createdAt, termination, timeLimit);
+        } else {
+          e.printStackTrace();
+          result =
+              new QueryResultDao(
+                      queryDao, createdAt, null, OffsetDateTime.now(), QueryState.FAILED)
+                  .message("Cause: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+        }
+      }
+    }
 
-    EntityDao entity =
-        conceptRepository
-            .findByIdAndRepositoryId(queryDao.getEntityId(), queryDao.getRepository().getId())
-            .orElseThrow();
-    List<Entity> concepts =
-        conceptRepository.getDependencies(entity).stream()
-            .map(EntityDao::toApiModel)
-            .collect(Collectors.toList());
-    concepts.add(entity.toApiModel());
+    if (saveResult(queryDao, result)) publishState(queryDao, result.toApiModel());
+    else clearResultsQuietly(queryDao);
+  }
 
-    TextAdapterConfig config = getTextAdapterConfig(query.getDataSource()).orElseThrow();
-    QueryResultDao result;
+  private void clearResultsQuietly(QueryDao queryDao) {
     try {
-      TextAdapter adapter = TextAdapter.getInstance(config);
-      TextFinder finder = new TextFinder(query, concepts.toArray(new Entity[0]), adapter);
-      List<DocumentHit> documents = finder.execute();
-      result =
-          new QueryResultDao(
-              queryDao,
-              createdAt,
-              (long) documents.size(),
-              OffsetDateTime.now(),
-              QueryState.FINISHED);
-
-      storeResult(
+      clearResults(
           queryDao.getRepository().getOrganisation().getId(),
           queryDao.getRepository().getId(),
-          queryId.toString(),
-          documents,
-          concepts.toArray(new Concept[0]));
-    } catch (Throwable e) {
-      e.printStackTrace();
-      result =
-          new QueryResultDao(queryDao, createdAt, null, OffsetDateTime.now(), QueryState.FAILED)
-              .message("Cause: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+          queryDao.getId());
+    } catch (IOException e) {
+      LOGGER.warning(e.getMessage());
     }
-
-    queryDao.result(result);
-    queryRepository.save(queryDao);
   }
 
   @Override
@@ -133,51 +220,65 @@ public class DocumentQueryService extends QueryService {
     if (getTextAdapterConfig(query.getDataSource()).isEmpty())
       throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Data source does not exist!");
 
-    queryRepository.save(new QueryDao(query).repository(repository));
+    queryDispatcher.requireCapacity(organisationId);
+    QueryDao queryDao = queryRepository.save(new QueryDao(query).repository(repository));
+    queryDispatcher.dispatch();
+
+    return publishState(queryDao, getQueryById(organisationId, repositoryId, queryId).getResult());
+  }
+
+  @Override
+  protected void enqueueJob(UUID queryId) {
     jobScheduler.enqueue(queryId, () -> this.executeQuery(queryId));
+  }
+
+  @Override
+  protected String getRowEntryName() {
+    return "data.csv";
+  }
 
-    return getQueryById(organisationId, repositoryId, queryId).getResult();
+  @Override
+  protected QueryType getQueryType() {
+    return QueryType.CONCEPT;
   }
 
   public Optional<TextAdapterConfig> getTextAdapterConfig(String id) {
-    if (id == null) return Optional.empty();
-    return getTextAdapterConfigs().stream().filter(a -> id.equals(a.getId())).findFirst();
+    return textAdapterConfigs.get(id);
   }
 
   public List<String> getDocumentIds(String organisationId, String repositoryId, UUID queryId)
       throws IOException {
-    Path queryPath =
-        Paths.get(resultDir, organisationId, repositoryId, String.format("%s.zip", queryId));
-    if (!queryPath.toFile().exists())
-      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No data for query found");
-    if (!queryPath.startsWith(Paths.get(resultDir)))
-      throw new FileSystemException("Repository directory isn't a child of the results directory.");
+    Path indexFile = getIdIndexFile(organisationId, repositoryId, queryId.toString());
+    return DocumentIdIndex.read(indexFile, 0, (int) DocumentIdIndex.count(indexFile));
+  }
 
-    ArrayList<String> ids = new ArrayList<>();
-    ZipFile zip = new ZipFile(queryPath.toFile());
-    Enumeration<? extends ZipEntry> entries = zip.entries();
-    while (entries.hasMoreElements()) {
-      ZipEntry content = entries.nextElement();
-      if (content.getName().equals("data.csv")) {
-        ids.addAll(csvConverter.readFirstColumn(zip.getInputStream(content)));
-      }
-    }
-    return ids;
+  /**
+   * Returns one page of the document IDs of a concept query result. IDs are read from a {@link
+   * DocumentIdIndex}, so that only the requested page is loaded.
+   *
+   * @param organisationId ID of the organisation the query belongs to.
+   * @param repositoryId ID of the repository the query belongs to.
+   * @param queryId ID of the query.
+   * @param page Page number, starting at 1.
+   * @return A page of document IDs in result order.
+   */
+  public Page<String> getDocumentIds(
+      String organisationId, String repositoryId, UUID queryId, Integer page) throws IOException {
+    PageRequest pageRequest = PageRequest.of(page == null || page < 1 ? 0 : page - 1, pageSize);
+    Path indexFile = getIdIndexFile(organisationId, repositoryId, queryId.toString());
+    return new PageImpl<>(
+        DocumentIdIndex.read(indexFile, pageRequest.getOffset(), pageRequest.getPageSize()),
+        pageRequest,
+        DocumentIdIndex.count(indexFile));
   }
 
   public List<TextAdapterConfig> getTextAdapterConfigs() {
-    try (Stream<Path> paths =
-        Files.list(Path.of(dataSourceConfigDir)).filter(f -> !Files.isDirectory(f))) {
-      return paths
-          .map(this::toTextAdapterConfig)
-          .filter(Objects::nonNull)
-          .sorted(Comparator.comparing(TextAdapterConfig::getId))
-          .collect(Collectors.toList());
-    } catch (Exception e) {
-      LOGGER.warning(
-          String.format("Could not load text adapter configs from dir '%s'.", dataSourceConfigDir));
-    }
-    return Collections.emptyList();
+    return textAdapterConfigs.getAll();
+  }
+
+  @Override
+  protected AdapterPool<?> getAdapterPool() {
+    return textAdapterPool;
   }
 
   public List<DataSource> getDataSources() {
@@ -215,15 +316,56 @@ public class DocumentQueryService extends QueryService {
       Concept[] concepts)
       throws IOException {
 
-    ZipOutputStream zipStream = createZipStream(organisationId, repositoryId, queryId);
+    try (ZipOutputStream zipStream = createZipStream(organisationId, repositoryId, queryId);
+        ResultRowFile.Writer rowWriter = createRowWriter(organisationId, repositoryId, queryId)) {
+      zipStream.putNextEntry(new ZipEntry("metadata.csv"));
+      csvConverter.write(concepts, zipStream);
+
+      zipStream.putNextEntry(new ZipEntry("data.csv"));
+      csvConverter.write(results, rowWriter.tee(zipStream));
+      rowWriter.commit();
+    }
+
+    try (InputStream input =
+        Files.newInputStream(getRowFile(organisationId, repositoryId, queryId))) {
+      DocumentIdIndex.write(
+          getIdPath(organisationId, repositoryId, queryId), csvConverter.readFirstColumn(input));
+    }
+    ResultManifest.of(getResultFile(organisationId, repositoryId, queryId));
+  }
+
+  /**
+   * Returns the {@link DocumentIdIndex} of a query result. The index is created from the result ZIP
+   * file, if it does not exist (e.g. for results stored by an older version).
+   */
+  private Path getIdIndexFile(String organisationId, String repositoryId, String queryId)
+      throws IOException {
+    Path indexFile = getIdPath(organisationId, repositoryId, queryId);
+    if (Files.isRegularFile(indexFile)) return indexFile;
 
-    zipStream.putNextEntry(new ZipEntry("metadata.csv"));
-    csvConverter.write(concepts, zipStream);
+    Path resultFile = getResultFile(organisationId, repositoryId, queryId);
+    if (!Files.isRegularFile(resultFile))
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No data for query found");
 
-    zipStream.putNextEntry(new ZipEntry("data.csv"));
-    csvConverter.write(results, zipStream);
+    List<String> ids = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(resultFile.toFile())) {
+      ZipEntry content = zip.getEntry("data.csv");
+      if (content != null)
+        try (InputStream input = zip.getInputStream(content)) {
+          ids.addAll(csvConverter.readFirstColumn(input));
+        }
+    }
+    DocumentIdIndex.write(indexFile, ids);
+    return indexFile;
+  }
 
-    zipStream.close();
+  private Path getIdPath(String organisationId, String repositoryId, String queryId)
+      throws FileSystemException {
+    Path idPath =
+        Paths.get(resultDir, organisationId, repositoryId, String.format("%s.ids", queryId));
+    if (!idPath.startsWith(Paths.get(resultDir)))
+      throw new FileSystemException("Repository directory isn't a child of the results directory.");
+    return idPath;
   }
 
   @Override
@@ -234,5 +376,8 @@ public class DocumentQueryService extends QueryService {
     if (!queryPath.startsWith(Paths.get(resultDir)))
       LOGGER.severe(String.format("Query file '%s' is invalid and cannot be deleted!", queryPath));
     Files.deleteIfExists(queryPath);
+    ResultManifest.delete(queryPath);
+    ResultRowFile.delete(getRowFile(organisationId, repositoryId, queryId));
+    Files.deleteIfExists(getIdPath(organisationId, repositoryId, queryId));
   }
 }
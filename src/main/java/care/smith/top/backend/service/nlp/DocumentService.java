@@ -108,6 +108,27 @@ public class DocumentService implements ContentService {
     return new PageImpl<>(documents, pageRequestOf(page), documentCount);
   }
 
+  /**
+   * Loads the documents of a page of document IDs. Only the documents of the page are fetched from
+   * Elasticsearch, and they are returned in the order of the IDs.
+   *
+   * @param ids A page of document IDs, e.g. from a concept query result.
+   * @return The documents of the page. IDs without document are omitted.
+   */
+  public Page<Document> getDocumentsByIdPage(@NonNull Page<String> ids) {
+    Map<String, Document> documents =
+        StreamSupport.stream(documentRepository.findAllById(ids.getContent()).spliterator(), false)
+            .map(DocumentEntity::toApiModel)
+            .collect(Collectors.toMap(Document::getId, d -> d, (a, b) -> a));
+    return new PageImpl<>(
+        ids.getContent().stream()
+            .map(documents::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList()),
+        ids.getPageable(),
+        ids.getTotalElements());
+  }
+
   public Page<Document> getDocumentsByPhrases(@NonNull Collection<String> phrases, Integer page) {
     return documentRepository
         .findDocumentEntitiesByDocumentTextIn(phrases, pageRequestOf(page))
@@ -0,0 +1,154 @@
+package care.smith.top.backend.util;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory registry of adapter configurations that are stored as files in a directory. All files
+ * are parsed once when {@link #reload()} is called. Afterwards, the directory is observed with a
+ * {@link WatchService} and only created, modified or deleted files are parsed again. Lookups by ID
+ * do not touch the file system.
+ *
+ * @param <T> Type of the adapter configuration (e.g. {@code DataAdapterConfig}).
+ */
+public class AdapterConfigRegistry<T> implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(AdapterConfigRegistry.class.getName());
+
+  private final Path directory;
+  private final Function<Path, T> loader;
+  private final Function<T, String> idGetter;
+
+  private final Map<Path, T> configsByPath = new ConcurrentHashMap<>();
+  private volatile Map<String, T> configsById = Collections.emptyMap();
+  private volatile List<T> configs = Collections.emptyList();
+
+  private WatchService watchService;
+  private Thread watcher;
+
+  /**
+   * @param directory Directory containing the configuration files.
+   * @param loader Function that parses a configuration file. It must return {@code null} for
+   *     invalid files.
+   * @param idGetter Function returning the ID of a configuration.
+   */
+  public AdapterConfigRegistry(
+      String directory, Function<Path, T> loader, Function<T, String> idGetter) {
+    this.directory = Path.of(directory);
+    this.loader = loader;
+    this.idGetter = idGetter;
+  }
+
+  public Optional<T> get(String id) {
+    if (id == null) return Optional.empty();
+    return Optional.ofNullable(configsById.get(id));
+  }
+
+  /** @return All valid configurations sorted by ID. */
+  public List<T> getAll() {
+    return configs;
+  }
+
+  /** Parses all files of the directory and replaces the content of this registry. */
+  public synchronized void reload() {
+    configsByPath.clear();
+    try (Stream<Path> paths = Files.list(directory).filter(f -> !Files.isDirectory(f))) {
+      paths.forEach(
+          path -> {
+            T config = loader.apply(path);
+            if (config != null) configsByPath.put(path, config);
+          });
+    } catch (Exception e) {
+      LOGGER.warning(String.format("Could not load adapter configs from dir '%s'.", directory));
+    }
+    rebuildIndex();
+  }
+
+  /**
+   * Starts a daemon thread that observes the directory and updates this registry on changes. If
+   * the directory cannot be observed, the registry keeps its current content.
+   */
+  public synchronized void watch() {
+    if (watcher != null) return;
+    try {
+      watchService = directory.getFileSystem().newWatchService();
+      directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    } catch (Exception e) {
+      LOGGER.warning(
+          String.format(
+              "Could not watch adapter config dir '%s'. Changes require a restart. Cause: %s",
+              directory, e.getMessage()));
+      return;
+    }
+    WatchService service = watchService;
+    watcher =
+        new Thread(
+            () -> processEvents(service), "adapter-config-watcher-" + directory.getFileName());
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (watcher != null) watcher.interrupt();
+    if (watchService != null) watchService.close();
+    watcher = null;
+    watchService = null;
+  }
+
+  private void processEvents(WatchService service) {
+    while (!Thread.currentThread().isInterrupted()) {
+      WatchKey key;
+      try {
+        key = service.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      boolean overflow = false;
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (OVERFLOW.equals(event.kind())) overflow = true;
+        else update(directory.resolve((Path) event.context()));
+      }
+      if (overflow) reload();
+
+      if (!key.reset()) {
+        LOGGER.warning(
+            String.format("Adapter config dir '%s' is no longer accessible.", directory));
+        return;
+      }
+    }
+  }
+
+  private synchronized void update(Path path) {
+    T config = Files.isRegularFile(path) ? loader.apply(path) : null;
+    if (config == null) configsByPath.remove(path);
+    else configsByPath.put(path, config);
+    rebuildIndex();
+    LOGGER.info(String.format("Adapter config file '%s' changed.", path));
+  }
+
+  private void rebuildIndex() {
+    List<T> sorted =
+        configsByPath.values().stream()
+            .sorted(Comparator.comparing(idGetter))
+            .collect(Collectors.toList());
+    Map<String, T> byId = new HashMap<>();
+    sorted.forEach(c -> byId.putIfAbsent(idGetter.apply(c), c));
+    configs = Collections.unmodifiableList(sorted);
+    configsById = Collections.unmodifiableMap(byId);
+  }
+}
@@ -0,0 +1,333 @@
+package care.smith.top.backend.util;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Pool of reusable data source adapters, partitioned by data source ID.
+ *
+ * <p>Each partition holds at most {@code maxSize} adapters. If all adapters of a partition are
+ * leased, {@link #borrow(String, Object, Factory)} blocks until one is returned or the borrow
+ * timeout elapses. Adapters are health checked passively: a lease that is {@link
+ * Lease#invalidate() invalidated} (e.g. because the query failed) closes its adapter instead of
+ * returning it. Adapters are also closed, when they were idle for longer than {@code idleTimeout},
+ * exceed {@code maxLifetime}, or were created for a different configuration than the one that is
+ * currently requested.
+ *
+ * @param <T> Type of the pooled adapters.
+ */
+public class AdapterPool<T> implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(AdapterPool.class.getName());
+
+  private final String name;
+  private final int maxSize;
+  private final Duration idleTimeout;
+  private final Duration maxLifetime;
+  private final Duration borrowTimeout;
+  private final Closer<T> closer;
+  private final Map<String, Partition<T>> partitions = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+
+  /**
+   * @param name Name of the pool, used in logs and statistics.
+   * @param maxSize Maximum number of adapters per data source.
+   * @param idleTimeout Idle adapters are closed after this duration.
+   * @param maxLifetime Adapters are closed after this duration, regardless of their usage.
+   * @param borrowTimeout Maximum duration to wait for an adapter.
+   * @param closer Function that closes an adapter.
+   */
+  public AdapterPool(
+      String name,
+      int maxSize,
+      Duration idleTimeout,
+      Duration maxLifetime,
+      Duration borrowTimeout,
+      Closer<T> closer) {
+    this.name = name;
+    this.maxSize = Math.max(1, maxSize);
+    this.idleTimeout = idleTimeout;
+    this.maxLifetime = maxLifetime;
+    this.borrowTimeout = borrowTimeout;
+    this.closer = closer;
+
+    long interval = Math.max(1, Math.min(idleTimeout.toSeconds(), 60));
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "adapter-pool-evictor-" + name);
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.evictor.scheduleWithFixedDelay(this::evict, interval, interval, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Leases an adapter for the given data source. An idle adapter is reused if it was created for
+   * the same configuration, otherwise a new one is created with the provided factory. The lease
+   * must be closed after usage.
+   *
+   * @param dataSourceId ID of the data source.
+   * @param config Configuration the adapter is created from. Idle adapters created from another
+   *     configuration instance are discarded.
+   * @param factory Creates a new adapter.
+   * @return A lease of an adapter.
+   * @throws TimeoutException If no adapter became available within the borrow timeout.
+   * @throws Exception If the factory failed to create an adapter.
+   */
+  public Lease<T> borrow(String dataSourceId, Object config, Factory<T> factory) throws Exception {
+    Partition<T> partition =
+        partitions.computeIfAbsent(dataSourceId, id -> new Partition<>(id, maxSize));
+    long start = System.nanoTime();
+
+    if (!partition.permits.tryAcquire(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+      partition.timeouts.increment();
+      throw new TimeoutException(
+          String.format(
+              "No adapter for data source '%s' available within %s.",
+              dataSourceId, borrowTimeout));
+    }
+
+    try {
+      PooledAdapter<T> pooled;
+      while ((pooled = partition.idle.pollFirst()) != null) {
+        if (pooled.config == config && !isExpired(pooled, System.nanoTime())) break;
+        destroy(partition, pooled);
+      }
+      if (pooled == null) {
+        pooled = new PooledAdapter<>(factory.create(), config);
+        partition.created.increment();
+      }
+      partition.active.incrementAndGet();
+      partition.borrowed.increment();
+      partition.waitNanos.add(System.nanoTime() - start);
+      return new Lease<>(this, partition, pooled);
+    } catch (Exception e) {
+      partition.permits.release();
+      throw e;
+    }
+  }
+
+  /** @return Statistics of all partitions of this pool. */
+  public List<Stats> getStats() {
+    return partitions.values().stream()
+        .map(p -> new Stats(name, maxSize, p))
+        .sorted(Comparator.comparing(Stats::getDataSourceId))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public void close() {
+    evictor.shutdownNow();
+    partitions.values().forEach(p -> p.idle.forEach(a -> destroyIfIdle(p, a)));
+  }
+
+  private void giveBack(
+      Partition<T> partition, PooledAdapter<T> pooled, boolean invalid, boolean destroyed) {
+    partition.active.decrementAndGet();
+    if (invalid || isExpired(pooled, System.nanoTime())) {
+      if (invalid) partition.invalidated.increment();
+      if (!destroyed) destroy(partition, pooled);
+    } else {
+      pooled.lastUsed = System.nanoTime();
+      partition.idle.offerFirst(pooled);
+    }
+    partition.permits.release();
+  }
+
+  private void evict() {
+    long now = System.nanoTime();
+    partitions.values()
+        .forEach(
+            p ->
+                p.idle.stream()
+                    .filter(a -> isExpired(a, now) || now - a.lastUsed > idleTimeout.toNanos())
+                    .forEach(a -> destroyIfIdle(p, a)));
+  }
+
+  private boolean isExpired(PooledAdapter<T> pooled, long now) {
+    return now - pooled.createdAt > maxLifetime.toNanos();
+  }
+
+  private void destroyIfIdle(Partition<T> partition, PooledAdapter<T> pooled) {
+    if (partition.idle.remove(pooled)) destroy(partition, pooled);
+  }
+
+  private void destroy(Partition<T> partition, PooledAdapter<T> pooled) {
+    partition.destroyed.increment();
+    try {
+      closer.close(pooled.adapter);
+    } catch (Exception e) {
+      LOGGER.log(
+          Level.WARNING,
+          String.format("Could not close adapter of data source '%s'.", partition.dataSourceId),
+          e);
+    }
+  }
+
+  @FunctionalInterface
+  public interface Factory<T> {
+    T create() throws Exception;
+  }
+
+  @FunctionalInterface
+  public interface Closer<T> {
+    void close(T adapter) throws Exception;
+  }
+
+  /** A leased adapter. Closing the lease returns the adapter to the pool. */
+  public static class Lease<T> implements AutoCloseable {
+    private final AdapterPool<T> pool;
+    private final Partition<T> partition;
+    private final PooledAdapter<T> pooled;
+    private final AtomicBoolean destroyed = new AtomicBoolean(false);
+    private volatile boolean invalid = false;
+    private boolean closed = false;
+
+    private Lease(AdapterPool<T> pool, Partition<T> partition, PooledAdapter<T> pooled) {
+      this.pool = pool;
+      this.partition = partition;
+      this.pooled = pooled;
+    }
+
+    public T get() {
+      return pooled.adapter;
+    }
+
+    /** Marks the adapter as broken, so that it is closed instead of being reused. */
+    public void invalidate() {
+      invalid = true;
+    }
+
+    /**
+     * Invalidates the lease and closes the adapter immediately. This may be called from another
+     * thread to stop an operation that is currently using the adapter. The lease must still be
+     * closed by its owner.
+     */
+    public void abort() {
+      invalid = true;
+      if (destroyed.compareAndSet(false, true)) pool.destroy(partition, pooled);
+    }
+
+    @Override
+    public synchronized void close() {
+      if (closed) return;
+      closed = true;
+      pool.giveBack(partition, pooled, invalid, destroyed.getAndSet(true));
+    }
+  }
+
+  /** Usage statistics of the adapters of one data source. */
+  public static class Stats {
+    private final String pool;
+    private final String dataSourceId;
+    private final int maxSize;
+    private final int active;
+    private final int idle;
+    private final long created;
+    private final long destroyed;
+    private final long borrowed;
+    private final long invalidated;
+    private final long timeouts;
+    private final double averageWaitMillis;
+
+    private Stats(String pool, int maxSize, Partition<?> partition) {
+      this.pool = pool;
+      this.dataSourceId = partition.dataSourceId;
+      this.maxSize = maxSize;
+      this.active = partition.active.get();
+      this.idle = partition.idle.size();
+      this.created = partition.created.sum();
+      this.destroyed = partition.destroyed.sum();
+      this.borrowed = partition.borrowed.sum();
+      this.invalidated = partition.invalidated.sum();
+      this.timeouts = partition.timeouts.sum();
+      this.averageWaitMillis =
+          borrowed == 0 ? 0 : partition.waitNanos.sum() / (double) borrowed / 1_000_000;
+    }
+
+    public String getPool() {
+      return pool;
+    }
+
+    public String getDataSourceId() {
+      return dataSourceId;
+    }
+
+    public int getMaxSize() {
+      return maxSize;
+    }
+
+    public int getActive() {
+      return active;
+    }
+
+    public int getIdle() {
+      return idle;
+    }
+
+    public long getCreated() {
+      return created;
+    }
+
+    public long getDestroyed() {
+      return destroyed;
+    }
+
+    public long getBorrowed() {
+      return borrowed;
+    }
+
+    public long getInvalidated() {
+      return invalidated;
+    }
+
+    public long getTimeouts() {
+      return timeouts;
+    }
+
+    public double getAverageWaitMillis() {
+      return averageWaitMillis;
+    }
+  }
+
+  private static class PooledAdapter<A> {
+    private final A adapter;
+    private final Object config;
+    private final long createdAt = System.nanoTime();
+    private volatile long lastUsed = createdAt;
+
+    private PooledAdapter(A adapter, Object config) {
+      this.adapter = adapter;
+      this.config = config;
+    }
+  }
+
+  private static class Partition<A> {
+    private final String dataSourceId;
+    private final Semaphore permits;
+    private final Deque<PooledAdapter<A>> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    private Partition(String dataSourceId, int maxSize) {
+      this.dataSourceId = dataSourceId;
+      this.permits = new Semaphore(maxSize, true);
+    }
+  }
+}
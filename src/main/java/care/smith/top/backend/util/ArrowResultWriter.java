@@ -0,0 +1,289 @@
+package care.smith.top.backend.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * Writes a CSV table, stored as {@link ResultRowFile}, as Arrow IPC file ({@code .arrow}, also
+ * known as Feather V2) into an entry of a ZIP file, e.g. for {@code pyarrow.feather.read_table} or
+ * {@code arrow::read_feather}.
+ *
+ * <p>Each column gets the narrowest of the following types, that fits all of its non-empty values:
+ * bool for {@code true}/{@code false}, float64 for numbers, timestamp (milliseconds, UTC) for ISO
+ * dates and date-times, and otherwise UTF-8 strings. String columns, including the first column
+ * (the subject IDs), are dictionary encoded with int32 indices. Columns with mixed types are
+ * strings. Empty values are null.
+ *
+ * <p>The table is read three times: to determine the column types, to collect the dictionaries,
+ * which the IPC file format requires before the first record batch, and to write record batches of
+ * {@link #BATCH_SIZE} rows. Only the dictionaries and one batch are held in memory.
+ */
+public class ArrowResultWriter {
+  /** Number of rows per record batch. */
+  public static final int BATCH_SIZE = 10_000;
+
+  private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+  private static final int PAGE_SIZE = 10_000;
+
+  private ArrowResultWriter() {}
+
+  /**
+   * Writes a table into a new entry of the ZIP stream. Nothing is written for a table without
+   * header.
+   *
+   * @param rowFile Rows file of the table.
+   * @param entryName Name of the ZIP entry, e.g. {@code data_subjects.arrow}.
+   * @param zipStream The stream to write to. It is not closed by this method.
+   */
+  public static void write(Path rowFile, String entryName, ZipOutputStream zipStream)
+      throws IOException {
+    String header = ResultRowFile.read(rowFile, 0, 0).getHeader();
+    if (header == null) return;
+    char delimiter = CsvLines.detectDelimiter(header);
+    List<String> names = CsvLines.split(header, delimiter);
+    List<Column> columns = new ArrayList<>();
+    for (int i = 0; i < names.size(); i++) columns.add(new Column(names.get(i).trim(), i));
+    columns.get(0).type = Type.STRING;
+
+    forEachRow(
+        rowFile,
+        delimiter,
+        values -> {
+          for (Column column : columns) column.detectType(value(values, column.index));
+        });
+    if (columns.stream().anyMatch(c -> c.type == Type.STRING))
+      forEachRow(
+          rowFile,
+          delimiter,
+          values -> {
+            for (Column column : columns) column.addToDictionary(value(values, column.index));
+          });
+
+    zipStream.putNextEntry(new ZipEntry(entryName));
+    DictionaryProvider.MapDictionaryProvider provider =
+        new DictionaryProvider.MapDictionaryProvider();
+    try (BufferAllocator allocator = new RootAllocator()) {
+      try {
+        List<Field> fields = new ArrayList<>();
+        for (Column column : columns) fields.add(column.createField(allocator, provider));
+        try (VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator);
+            ArrowFileWriter writer =
+                new ArrowFileWriter(
+                    root, provider, Channels.newChannel(new EntryOutputStream(zipStream)))) {
+          root.getFieldVectors().forEach(v -> v.setInitialCapacity(BATCH_SIZE));
+          writer.start();
+          int[] rowCount = {0};
+          forEachRow(
+              rowFile,
+              delimiter,
+              values -> {
+                if (rowCount[0] == 0) root.allocateNew();
+                for (Column column : columns)
+                  column.set(
+                      root.getVector(column.index), rowCount[0], value(values, column.index));
+                if (++rowCount[0] == BATCH_SIZE) {
+                  root.setRowCount(rowCount[0]);
+                  writer.writeBatch();
+                  rowCount[0] = 0;
+                }
+              });
+          if (rowCount[0] > 0) {
+            root.setRowCount(rowCount[0]);
+            writer.writeBatch();
+          }
+          writer.end();
+        }
+      } finally {
+        for (Column column : columns)
+          if (column.dictionaryVector != null) column.dictionaryVector.close();
+      }
+    }
+    zipStream.closeEntry();
+  }
+
+  private static void forEachRow(Path rowFile, char delimiter, RowConsumer consumer)
+      throws IOException {
+    long offset = 0;
+    ResultRowFile.Rows page;
+    do {
+      if (Thread.interrupted()) throw new InterruptedIOException("Arrow export was interrupted.");
+      page = ResultRowFile.read(rowFile, offset, PAGE_SIZE);
+      for (String row : page.getRows()) consumer.accept(CsvLines.split(row, delimiter));
+      offset += page.getRows().size();
+    } while (offset < page.getTotal() && !page.getRows().isEmpty());
+  }
+
+  private static String value(List<String> values, int index) {
+    return index < values.size() ? values.get(index).trim() : "";
+  }
+
+  /**
+   * @return Milliseconds since epoch of an ISO date or date-time, or null. Dates and date-times
+   *     without offset are read as UTC.
+   */
+  static Long parseTimestamp(String value) {
+    try {
+      return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      // no offset
+    }
+    try {
+      return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      // no time
+    }
+    try {
+      return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  @FunctionalInterface
+  private interface RowConsumer {
+    void accept(List<String> values) throws IOException;
+  }
+
+  /** Column types. {@link #NONE} is the type of columns without values, which become strings. */
+  private enum Type {
+    NONE,
+    BOOLEAN,
+    NUMBER,
+    TIMESTAMP,
+    STRING
+  }
+
+  private static class Column {
+    private final String name;
+    private final int index;
+    private Type type = Type.NONE;
+    private Map<String, Integer> dictionary;
+    private VarCharVector dictionaryVector;
+
+    private Column(String name, int index) {
+      this.name = name;
+      this.index = index;
+    }
+
+    private void detectType(String value) {
+      if (value.isEmpty() || type == Type.STRING) return;
+      Type valueType;
+      if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value))
+        valueType = Type.BOOLEAN;
+      else if (NUMBER.matcher(value).matches()) valueType = Type.NUMBER;
+      else if (parseTimestamp(value) != null) valueType = Type.TIMESTAMP;
+      else valueType = Type.STRING;
+      if (type == Type.NONE) type = valueType;
+      else if (type != valueType) type = Type.STRING;
+    }
+
+    private void addToDictionary(String value) {
+      if (type != Type.STRING || value.isEmpty()) return;
+      if (dictionary == null) dictionary = new LinkedHashMap<>();
+      dictionary.putIfAbsent(value, dictionary.size());
+    }
+
+    private Field createField(
+        BufferAllocator allocator, DictionaryProvider.MapDictionaryProvider provider) {
+      switch (type) {
+        case BOOLEAN:
+          return new Field(name, FieldType.nullable(ArrowType.Bool.INSTANCE), null);
+        case NUMBER:
+          return new Field(
+              name,
+              FieldType.nullable(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+              null);
+        case TIMESTAMP:
+          return new Field(
+              name,
+              FieldType.nullable(new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC")),
+              null);
+        default:
+          if (dictionary == null) dictionary = new LinkedHashMap<>();
+          dictionaryVector = new VarCharVector(name, allocator);
+          dictionaryVector.allocateNew(dictionary.size());
+          for (Map.Entry<String, Integer> entry : dictionary.entrySet())
+            dictionaryVector.setSafe(
+                entry.getValue(), entry.getKey().getBytes(StandardCharsets.UTF_8));
+          dictionaryVector.setValueCount(dictionary.size());
+          DictionaryEncoding encoding =
+              new DictionaryEncoding(index, false, new ArrowType.Int(32, true));
+          provider.put(new Dictionary(dictionaryVector, encoding));
+          return new Field(name, new FieldType(true, encoding.getIndexType(), encoding), null);
+      }
+    }
+
+    private void set(FieldVector vector, int row, String value) {
+      if (value.isEmpty()) return;
+      switch (type) {
+        case BOOLEAN:
+          ((BitVector) vector).setSafe(row, Boolean.parseBoolean(value) ? 1 : 0);
+          break;
+        case NUMBER:
+          ((Float8Vector) vector).setSafe(row, Double.parseDouble(value));
+          break;
+        case TIMESTAMP:
+          ((TimeStampMilliTZVector) vector).setSafe(row, parseTimestamp(value));
+          break;
+        default:
+          ((IntVector) vector).setSafe(row, dictionary.get(value));
+      }
+    }
+  }
+
+  /**
+   * Stream that writes to the current ZIP entry and ignores {@link #close()}, so that the Arrow
+   * writer cannot close the ZIP stream.
+   */
+  private static class EntryOutputStream extends FilterOutputStream {
+    private EntryOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
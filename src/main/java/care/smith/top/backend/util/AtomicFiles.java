@@ -0,0 +1,87 @@
+package care.smith.top.backend.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes files of query results, so that readers never see a partially written file: content is
+ * written to a temporary file in the same directory, which then replaces the target file. The
+ * replacement is atomic, if the file system supports it.
+ */
+public class AtomicFiles {
+  private AtomicFiles() {}
+
+  /** Writes the content of a file. */
+  @FunctionalInterface
+  public interface Content {
+    void write(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Writes a file. If writing fails, an existing file is kept and the temporary file is deleted.
+   *
+   * @param file Path of the file. Missing parent directories are created.
+   * @param content Writes the content of the file into the stream.
+   */
+  public static void write(Path file, Content content) throws IOException {
+    Path temp = createTempFile(file);
+    try {
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        content.write(out);
+      }
+      move(temp, file);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Creates an empty temporary file next to a file, that is to be replaced by {@link #move}. The
+   * caller must delete the temporary file, if it is not moved.
+   *
+   * @param file Path of the file to be replaced. Missing parent directories are created.
+   * @return Path of the temporary file.
+   */
+  public static Path createTempFile(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+  }
+
+  /**
+   * Replaces a file by another file of the same directory, atomically if supported.
+   *
+   * @param source Path of the new content, e.g. created by {@link #createTempFile}.
+   * @param target Path of the file to be replaced.
+   */
+  public static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(
+          source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Fills a buffer with content of a channel starting at a position.
+   *
+   * @param channel Channel to read from.
+   * @param buffer Buffer to be filled up to its limit.
+   * @param position Position of the channel of the first byte of the buffer.
+   * @param message Message of the exception thrown at the end of the channel.
+   * @throws EOFException If the channel ends before the buffer is full.
+   */
+  public static void readFully(
+      FileChannel channel, ByteBuffer buffer, long position, String message) throws IOException {
+    long start = position - buffer.position();
+    while (buffer.hasRemaining())
+      if (channel.read(buffer, start + buffer.position()) < 0) throw new EOFException(message);
+  }
+}
@@ -0,0 +1,114 @@
+package care.smith.top.backend.util;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Cohort of a phenotype query result, stored next to the result ZIP file ({@code <query>.cohort}).
+ *
+ * <p>The file starts with a header containing a magic number, the ID and the size of the {@link
+ * SubjectDictionary} the cohort was encoded with. It is followed by a {@link RoaringBitmap} of the
+ * codes of all subjects of the result in the portable Roaring serialization format, which can also
+ * be read by the Roaring implementations of other languages (e.g. CRoaring, pyroaring). Sparse
+ * cohorts and runs of consecutive codes are stored compactly, and set operations between cohorts of
+ * the same data source do not need to touch the result files.
+ */
+public class CohortBitmap {
+  private static final int MAGIC = 0x544F5052;
+
+  private final RoaringBitmap bits;
+  private final UUID dictionaryId;
+  private final int dictionarySize;
+
+  private CohortBitmap(RoaringBitmap bits, UUID dictionaryId, int dictionarySize) {
+    this.bits = bits;
+    this.dictionaryId = dictionaryId;
+    this.dictionarySize = dictionarySize;
+  }
+
+  /**
+   * Writes a cohort. The cohort is written to a temporary file first, which then replaces an
+   * existing cohort (see {@link AtomicFiles}).
+   *
+   * @param file Path of the cohort file.
+   * @param bits Bitmap of subject codes.
+   * @param dictionaryId ID of the dictionary the subjects were encoded with.
+   * @param dictionarySize Size of the dictionary after encoding the subjects.
+   */
+  public static void write(Path file, RoaringBitmap bits, UUID dictionaryId, int dictionarySize)
+      throws IOException {
+    AtomicFiles.write(
+        file,
+        stream -> {
+          DataOutputStream out = new DataOutputStream(stream);
+          out.writeInt(MAGIC);
+          out.writeLong(dictionaryId.getMostSignificantBits());
+          out.writeLong(dictionaryId.getLeastSignificantBits());
+          out.writeInt(dictionarySize);
+          bits.runOptimize();
+          bits.serialize(out);
+          out.flush();
+        });
+  }
+
+  /**
+   * @param file Path of the cohort file.
+   * @return The cohort or null, if the file has no header or was written by an older version.
+   */
+  public static CohortBitmap read(Path file) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      if (in.readInt() != MAGIC) return null;
+      UUID dictionaryId = new UUID(in.readLong(), in.readLong());
+      int dictionarySize = in.readInt();
+      RoaringBitmap bits = new RoaringBitmap();
+      bits.deserialize(in);
+      return new CohortBitmap(bits, dictionaryId, dictionarySize);
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /** @return Bitmap of subject codes. */
+  public RoaringBitmap getBits() {
+    return bits;
+  }
+
+  /** @return ID of the dictionary the subjects were encoded with. */
+  public UUID getDictionaryId() {
+    return dictionaryId;
+  }
+
+  /** @return Size of the dictionary after encoding the subjects. */
+  public int getDictionarySize() {
+    return dictionarySize;
+  }
+
+  /**
+   * Reads the subject IDs of a result from the first column of its {@link ResultRowFile}.
+   *
+   * @param rowFile Rows file of the subjects table of the result.
+   * @return Subject IDs in result order.
+   */
+  public static List<String> readSubjectIds(Path rowFile) throws IOException {
+    List<String> subjectIds = new ArrayList<>();
+    String header = ResultRowFile.read(rowFile, 0, 0).getHeader();
+    if (header == null) return subjectIds;
+    char delimiter = CsvLines.detectDelimiter(header);
+
+    long offset = 0;
+    ResultRowFile.Rows page;
+    do {
+      page = ResultRowFile.read(rowFile, offset, 10_000);
+      for (String row : page.getRows()) {
+        String subjectId = CsvLines.split(row, delimiter).get(0).trim();
+        if (!subjectId.isEmpty()) subjectIds.add(subjectId);
+      }
+      offset += page.getRows().size();
+    } while (offset < page.getTotal() && !page.getRows().isEmpty());
+    return subjectIds;
+  }
+}
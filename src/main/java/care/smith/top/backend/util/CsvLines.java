@@ -0,0 +1,52 @@
+package care.smith.top.backend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses single lines of the CSV files written for query results, e.g. the rows of a {@link
+ * ResultRowFile}.
+ */
+public class CsvLines {
+  private CsvLines() {}
+
+  /** @return The most frequent of {@code ;}, {@code ,} and tab outside of quotes. */
+  static char detectDelimiter(String header) {
+    char[] candidates = {';', ',', '\t'};
+    int[] counts = new int[candidates.length];
+    boolean quoted = false;
+    for (char c : header.toCharArray()) {
+      if (c == '"') quoted = !quoted;
+      else if (!quoted)
+        for (int i = 0; i < candidates.length; i++) if (c == candidates[i]) counts[i]++;
+    }
+    int best = 0;
+    for (int i = 1; i < candidates.length; i++) if (counts[i] > counts[best]) best = i;
+    return candidates[best];
+  }
+
+  /** Splits a CSV line into values. Quotes are removed and escaped quotes are unescaped. */
+  static List<String> split(String line, char delimiter) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          value.append('"');
+          i++;
+        } else {
+          quoted = !quoted;
+        }
+      } else if (c == delimiter && !quoted) {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    values.add(value.toString());
+    return values;
+  }
+}
@@ -0,0 +1,40 @@
+package care.smith.top.backend.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Parses per data source (or per organisation, repository, ...) settings from a property value of
+ * the form {@code id1=value1,id2=value2}, which can easily be provided as environment variable.
+ */
+public class DataSourceSettings {
+  private static final Logger LOGGER = Logger.getLogger(DataSourceSettings.class.getName());
+
+  private DataSourceSettings() {}
+
+  /**
+   * @param value The property value, may be {@code null} or blank.
+   * @param parser Converts a single value. Entries that cannot be converted are skipped.
+   * @return Converted values by ID.
+   */
+  public static <T> Map<String, T> parse(String value, Function<String, T> parser) {
+    if (value == null || value.isBlank()) return Collections.emptyMap();
+    Map<String, T> settings = new HashMap<>();
+    for (String entry : value.split(",")) {
+      String[] parts = entry.split("=", 2);
+      if (parts.length != 2 || parts[0].isBlank()) {
+        LOGGER.warning(String.format("Invalid data source setting '%s'.", entry));
+        continue;
+      }
+      try {
+        settings.put(parts[0].trim(), parser.apply(parts[1].trim()));
+      } catch (IllegalArgumentException e) {
+        LOGGER.warning(String.format("Invalid data source setting '%s'.", entry));
+      }
+    }
+    return settings;
+  }
+}
@@ -0,0 +1,103 @@
+package care.smith.top.backend.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact index of the document IDs of a concept query result, stored next to the result ZIP file
+ * ({@code <query>.ids}).
+ *
+ * <p>The file starts with the number of IDs as big-endian long, followed by the byte offsets of all
+ * IDs (relative to the end of the offset table) and the total length of all IDs. The UTF-8 encoded
+ * IDs follow without separators. A page of IDs can be read with two positional reads, without
+ * parsing the result ZIP file.
+ */
+public class DocumentIdIndex {
+  private DocumentIdIndex() {}
+
+  /**
+   * Writes an index. The index is written to a temporary file first, which then replaces an
+   * existing index.
+   *
+   * @param file Path of the index.
+   * @param ids Document IDs in result order.
+   */
+  public static void write(Path file, Collection<String> ids) throws IOException {
+    AtomicFiles.write(
+        file,
+        stream -> {
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+          out.writeLong(ids.size());
+          long offset = 0;
+          for (String id : ids) {
+            out.writeLong(offset);
+            offset += id.getBytes(StandardCharsets.UTF_8).length;
+          }
+          out.writeLong(offset);
+          for (String id : ids) out.write(id.getBytes(StandardCharsets.UTF_8));
+          out.flush();
+        });
+  }
+
+  /**
+   * @param file Path of the index.
+   * @return Number of IDs in the index.
+   */
+  public static long count(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return readLongs(channel, 0, 1)[0];
+    }
+  }
+
+  /**
+   * Reads a range of IDs.
+   *
+   * @param file Path of the index.
+   * @param offset Index of the first ID, starting at 0.
+   * @param limit Maximum number of IDs.
+   * @return IDs in result order.
+   */
+  public static List<String> read(Path file, long offset, int limit) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long total = readLongs(channel, 0, 1)[0];
+      long first = Math.max(0, Math.min(offset, total));
+      int count = (int) Math.max(0, Math.min(limit, total - first));
+      List<String> ids = new ArrayList<>(count);
+      if (count == 0) return ids;
+
+      long[] offsets = readLongs(channel, (first + 1) * Long.BYTES, count + 1);
+      long dataStart = (total + 2) * Long.BYTES;
+      ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(offsets[count] - offsets[0]));
+      readFully(channel, data, dataStart + offsets[0]);
+      for (int i = 0; i < count; i++)
+        ids.add(
+            new String(
+                data.array(),
+                (int) (offsets[i] - offsets[0]),
+                (int) (offsets[i + 1] - offsets[i]),
+                StandardCharsets.UTF_8));
+      return ids;
+    }
+  }
+
+  private static long[] readLongs(FileChannel channel, long position, int count)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(count * Long.BYTES);
+    readFully(channel, buffer, position);
+    buffer.flip();
+    long[] values = new long[count];
+    for (int i = 0; i < count; i++) values[i] = buffer.getLong();
+    return values;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    AtomicFiles.readFully(channel, buffer, position, "Document ID index is incomplete.");
+  }
+}
@@ -0,0 +1,61 @@
+package care.smith.top.backend.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** SHA-256 hashes of files and of JSON content, e.g. to detect identical queries or entities. */
+public class Hashes {
+  /**
+   * Mapper that serialises equal content to equal bytes: properties and map entries are sorted and
+   * null values are omitted.
+   */
+  public static final ObjectMapper MAPPER =
+      JsonMapper.builder()
+          .addModule(new JavaTimeModule())
+          .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+          .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+          .serializationInclusion(JsonInclude.Include.NON_NULL)
+          .build();
+
+  private Hashes() {}
+
+  /** @return A new SHA-256 message digest. */
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param content JSON content, serialised with {@link #MAPPER}.
+   * @return Hex encoded SHA-256 hash of the content.
+   */
+  public static String sha256Hex(JsonNode content) {
+    try {
+      return sha256Hex(MAPPER.writeValueAsBytes(content));
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** @return Hex encoded SHA-256 hash of the bytes. */
+  public static String sha256Hex(byte[] bytes) {
+    return hex(sha256().digest(bytes));
+  }
+
+  /** @return Lower case hex encoding of a SHA-256 digest. */
+  public static String hex(byte[] digest) {
+    return String.format("%064x", new BigInteger(1, digest));
+  }
+}
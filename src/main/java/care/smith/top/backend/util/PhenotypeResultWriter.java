@@ -0,0 +1,180 @@
+package care.smith.top.backend.util;
+
+import care.smith.top.model.Entity;
+import care.smith.top.model.PhenotypeQuery;
+import care.smith.top.top_phenotypic_query.converter.csv.CSV;
+import care.smith.top.top_phenotypic_query.result.ResultSet;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the result of a phenotype query into the entries {@code metadata.csv}, {@code
+ * data_phenotypes.csv} and {@code data_subjects.csv} of a ZIP file.
+ *
+ * <p>Subjects are converted in chunks of {@code chunkSize} subjects, so the CSV converter never
+ * holds more than one chunk at a time. The CSV header is only written for the first chunk of an
+ * entry. The result set is iterated in place without copying its subject IDs. While {@code
+ * data_subjects.csv} is written, converted subjects are removed from the result set, so that their
+ * memory can be released before the ZIP file is complete. The result set itself is still held in
+ * memory completely when writing starts, because {@code PhenotypeFinder} returns it as a whole, so
+ * the memory needed for a result is bounded by its number of subjects, not by the chunk size.
+ *
+ * <p>{@code data_subjects.csv} can additionally be written to a {@link ResultRowFile}, which allows
+ * reading pages of subjects without unpacking the ZIP file, and to a {@link
+ * ResultStatistics.Collector}, which summarises the phenotypes of the subjects.
+ */
+public class PhenotypeResultWriter {
+  private final CSV csvConverter;
+  private final Entity[] phenotypes;
+  private final PhenotypeQuery query;
+  private final int chunkSize;
+
+  /**
+   * @param csvConverter Converter used to write CSV rows.
+   * @param phenotypes All phenotypes of the query, including dependencies.
+   * @param query The executed query.
+   * @param chunkSize Number of subjects that are converted at once.
+   */
+  public PhenotypeResultWriter(
+      CSV csvConverter, Entity[] phenotypes, PhenotypeQuery query, int chunkSize) {
+    this.csvConverter = csvConverter;
+    this.phenotypes = phenotypes;
+    this.query = query;
+    this.chunkSize = Math.max(1, chunkSize);
+  }
+
+  /**
+   * Writes the result set into the ZIP stream. Subjects are removed from the result set.
+   *
+   * @param resultSet The result set to be written.
+   * @param zipStream The stream to write to. It is not closed by this method.
+   * @param rowWriter Optional writer that receives {@code data_subjects.csv} as well. It is neither
+   *     committed nor closed by this method.
+   */
+  public void write(
+      ResultSet resultSet, ZipOutputStream zipStream, ResultRowFile.Writer rowWriter)
+      throws IOException {
+    write(resultSet, zipStream, rowWriter, null);
+  }
+
+  /**
+   * Writes the result set into the ZIP stream. Subjects are removed from the result set.
+   *
+   * @param resultSet The result set to be written.
+   * @param zipStream The stream to write to. It is not closed by this method.
+   * @param rowWriter Optional writer that receives {@code data_subjects.csv} as well. It is neither
+   *     committed nor closed by this method.
+   * @param statistics Optional collector that receives {@code data_subjects.csv} as well.
+   */
+  public void write(
+      ResultSet resultSet,
+      ZipOutputStream zipStream,
+      ResultRowFile.Writer rowWriter,
+      ResultStatistics.Collector statistics)
+      throws IOException {
+    zipStream.putNextEntry(new ZipEntry("metadata.csv"));
+    csvConverter.writeMetadata(phenotypes, zipStream);
+
+    zipStream.putNextEntry(new ZipEntry("data_phenotypes.csv"));
+    forEachChunk(
+        resultSet,
+        false,
+        (chunk, header) ->
+            csvConverter.writePhenotypes(chunk, phenotypes, entryStream(zipStream, header)));
+
+    zipStream.putNextEntry(new ZipEntry("data_subjects.csv"));
+    OutputStream subjectStream = statistics == null ? zipStream : statistics.tee(zipStream);
+    if (rowWriter != null) subjectStream = rowWriter.tee(subjectStream);
+    writeSubjects(resultSet, subjectStream);
+    zipStream.closeEntry();
+  }
+
+  /**
+   * Writes only the content of {@code data_subjects.csv} into the stream, e.g. to compute {@link
+   * ResultStatistics} without storing the result. Subjects are removed from the result set.
+   *
+   * @param resultSet The result set to be written.
+   * @param out The stream to write to. It is not closed by this method.
+   */
+  public void writeSubjects(ResultSet resultSet, OutputStream out) throws IOException {
+    forEachChunk(
+        resultSet,
+        true,
+        (chunk, header) ->
+            csvConverter.writeSubjects(chunk, phenotypes, query, entryStream(out, header)));
+  }
+
+  /**
+   * Passes the subjects of a result set in chunks to a consumer, iterating the result set in place.
+   * An empty result set results in one empty chunk, so that the header is still written.
+   *
+   * @param remove Whether subjects are removed from the result set once they are in a chunk.
+   */
+  private void forEachChunk(ResultSet resultSet, boolean remove, ChunkConsumer consumer)
+      throws IOException {
+    Iterator<String> iterator = resultSet.keySet().iterator();
+    boolean header = true;
+    do {
+      ResultSet chunk = new ResultSet();
+      while (iterator.hasNext() && chunk.size() < chunkSize) {
+        String subjectId = iterator.next();
+        chunk.put(subjectId, resultSet.get(subjectId));
+        if (remove) iterator.remove();
+      }
+      consumer.accept(chunk, header);
+      header = false;
+    } while (iterator.hasNext());
+  }
+
+  @FunctionalInterface
+  private interface ChunkConsumer {
+    /**
+     * @param chunk Subjects of the chunk.
+     * @param header Whether this is the first chunk, whose CSV header is written.
+     */
+    void accept(ResultSet chunk, boolean header) throws IOException;
+  }
+
+  private OutputStream entryStream(OutputStream zipStream, boolean header) {
+    return new EntryOutputStream(zipStream, !header);
+  }
+
+  /**
+   * Stream that writes to the current ZIP entry. It optionally drops the first line (the CSV
+   * header) and ignores {@link #close()}, so that the converter cannot close the ZIP stream.
+   */
+  private static class EntryOutputStream extends FilterOutputStream {
+    private boolean skipping;
+
+    private EntryOutputStream(OutputStream out, boolean skipHeader) {
+      super(out);
+      this.skipping = skipHeader;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (skipping) {
+        if (b == '\n') skipping = false;
+        return;
+      }
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int start = off;
+      int end = off + len;
+      while (skipping && start < end) if (b[start++] == '\n') skipping = false;
+      if (start < end) out.write(b, start, end - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package care.smith.top.backend.util;
+
+import care.smith.top.backend.model.jpa.QueryTermination;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of queries that are executed on this instance, so that they can be cancelled or
+ * stopped when they exceed their time limit.
+ *
+ * <p>Stopping an execution interrupts the executing thread and runs the abort action of the
+ * execution (e.g. closing the data adapter), because data adapters usually block in I/O and do not
+ * react to interrupts.
+ */
+public class QueryWatchdog implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(QueryWatchdog.class.getName());
+
+  private final Map<UUID, Execution> executions = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService timer;
+
+  /** @param name Name of the watchdog, used for its timer thread. */
+  public QueryWatchdog(String name) {
+    timer =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "query-watchdog-" + name);
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Registers the execution of a query by the current thread. The returned execution must be
+   * closed by the same thread.
+   *
+   * @param queryId ID of the query.
+   * @param timeLimit Maximum execution time. {@code null}, zero or negative values disable the
+   *     limit.
+   * @return The registered execution.
+   */
+  public Execution start(UUID queryId, Duration timeLimit) {
+    Execution execution = new Execution(queryId, Thread.currentThread());
+    executions.put(queryId, execution);
+    if (timeLimit != null && !timeLimit.isZero() && !timeLimit.isNegative())
+      execution.timeout =
+          timer.schedule(
+              () -> execution.abort(QueryTermination.TIMED_OUT),
+              timeLimit.toMillis(),
+              TimeUnit.MILLISECONDS);
+    return execution;
+  }
+
+  /**
+   * Cancels the execution of a query.
+   *
+   * @param queryId ID of the query.
+   * @return True if the query is executed on this instance and was cancelled.
+   */
+  public boolean cancel(UUID queryId) {
+    Execution execution = executions.get(queryId);
+    return execution != null && execution.abort(QueryTermination.CANCELLED);
+  }
+
+  /**
+   * Periodically cancels executions of this instance, whose cancellation has been requested
+   * elsewhere, e.g. by another instance sharing the job storage.
+   *
+   * @param cancelRequested Function that returns the IDs of the given queries, whose cancellation
+   *     has been requested.
+   * @param interval Time between two checks.
+   */
+  public void pollCancelRequests(
+      Function<Set<UUID>, Collection<UUID>> cancelRequested, Duration interval) {
+    timer.scheduleWithFixedDelay(
+        () -> {
+          try {
+            Set<UUID> queryIds = new HashSet<>(executions.keySet());
+            if (queryIds.isEmpty()) return;
+            cancelRequested.apply(queryIds).forEach(this::cancel);
+          } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not check for cancelled queries.", e);
+          }
+        },
+        interval.toMillis(),
+        interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void close() {
+    timer.shutdownNow();
+  }
+
+  /** A running query execution. */
+  public class Execution implements AutoCloseable {
+    private final UUID queryId;
+    private final Thread thread;
+    private ScheduledFuture<?> timeout;
+    private QueryTermination termination;
+    private Runnable abortAction;
+    private boolean closed = false;
+
+    private Execution(UUID queryId, Thread thread) {
+      this.queryId = queryId;
+      this.thread = thread;
+    }
+
+    /**
+     * Sets the action that is run when the execution is stopped. It replaces any previously set
+     * action. If the execution has already been stopped, the action is run immediately.
+     *
+     * @param abortAction The action or {@code null}.
+     */
+    public synchronized void onAbort(Runnable abortAction) {
+      this.abortAction = abortAction;
+      if (termination != null) runAbortAction();
+    }
+
+    /** @return Why the execution was stopped, or {@code null} if it was not stopped. */
+    public synchronized QueryTermination getTermination() {
+      return termination;
+    }
+
+    private synchronized boolean abort(QueryTermination termination) {
+      if (closed || this.termination != null) return false;
+      this.termination = termination;
+      LOGGER.info(String.format("Stopping query '%s': %s", queryId, termination));
+      thread.interrupt();
+      runAbortAction();
+      return true;
+    }
+
+    private void runAbortAction() {
+      if (abortAction == null) return;
+      try {
+        abortAction.run();
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING, String.format("Could not abort query '%s'.", queryId), e);
+      }
+    }
+
+    /** Unregisters the execution and clears the interrupted flag of the executing thread. */
+    @Override
+    public void close() {
+      synchronized (this) {
+        closed = true;
+        abortAction = null;
+      }
+      executions.remove(queryId, this);
+      if (timeout != null) timeout.cancel(false);
+      if (Thread.currentThread() == thread) Thread.interrupted();
+    }
+  }
+}
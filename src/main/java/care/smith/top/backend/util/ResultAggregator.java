@@ -0,0 +1,546 @@
+package care.smith.top.backend.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Computes aggregates over the columns of a CSV table, stored as {@link ResultRowFile}, by scanning
+ * the table page by page. Only a restricted set of aggregates is supported, whose results are small
+ * regardless of the size of the table:
+ *
+ * <ul>
+ *   <li>{@link Function#SUMMARY}: number of values and missing values, minimum, maximum and mean,
+ *   <li>{@link Function#COUNT}: additionally the most frequent values and their counts,
+ *   <li>{@link Function#HISTOGRAM}: additionally the counts of equal-width bins between minimum and
+ *       maximum of numeric columns. This requires a second scan.
+ * </ul>
+ *
+ * <p>Rows can be filtered with conditions like {@code age>=18} (operators {@code =}, {@code !=},
+ * {@code <}, {@code <=}, {@code >}, {@code >=}), that all must hold, and divided into groups by the
+ * values of a column (e.g. {@code sex}), which are aggregated separately. At most {@link
+ * #MAX_PARTITIONS} groups are aggregated, rows of further groups are only counted in {@link
+ * Result#getOtherRows()}.
+ *
+ * <p>Numeric columns are compared numerically, all other columns (e.g. ISO dates)
+ * lexicographically. This applies to filter conditions as well, if both values are numbers. At
+ * most {@link #MAX_DISTINCT} distinct values are counted per column, further values are only
+ * included in {@link Column#getOtherCount()}. The scan stops if the executing thread is
+ * interrupted.
+ */
+public class ResultAggregator {
+  /** Maximum number of aggregated columns. */
+  public static final int MAX_COLUMNS = 20;
+
+  /** Maximum number of returned values per column. */
+  public static final int MAX_GROUPS = 1000;
+
+  /** Maximum number of histogram bins per column. */
+  public static final int MAX_BINS = 100;
+
+  /** Maximum number of distinct values that are counted per column. */
+  public static final int MAX_DISTINCT = 10_000;
+
+  /** Maximum number of groups of rows, that are aggregated separately. */
+  public static final int MAX_PARTITIONS = 100;
+
+  /** Maximum number of filter conditions. */
+  public static final int MAX_FILTERS = 20;
+
+  private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+  private static final int PAGE_SIZE = 10_000;
+
+  private ResultAggregator() {}
+
+  /** Aggregate function. */
+  public enum Function {
+    SUMMARY,
+    COUNT,
+    HISTOGRAM
+  }
+
+  /**
+   * Aggregates columns of all rows of a table.
+   *
+   * @see #aggregate(Path, Function, List, String, List, int, int)
+   */
+  public static Result aggregate(
+      Path rowFile, Function function, List<String> columnNames, int groupLimit, int binCount)
+      throws IOException {
+    return aggregate(rowFile, function, columnNames, null, null, groupLimit, binCount);
+  }
+
+  /**
+   * Aggregates columns of a table.
+   *
+   * @param rowFile Rows file of the table.
+   * @param function The aggregate function.
+   * @param columnNames Names of the columns to be aggregated. If empty, the first {@link
+   *     #MAX_COLUMNS} columns are aggregated.
+   * @param groupBy Name of the column, whose values divide the rows into separately aggregated
+   *     groups, or {@code null}.
+   * @param filters Conditions, that rows must satisfy to be aggregated, e.g. {@code age>=18}, or
+   *     {@code null}.
+   * @param groupLimit Maximum number of returned values per column for {@link Function#COUNT}, at
+   *     most {@link #MAX_GROUPS}.
+   * @param binCount Number of bins for {@link Function#HISTOGRAM}, at most {@link #MAX_BINS}.
+   * @return The aggregates of each column, or of each group if {@code groupBy} is set.
+   * @throws IllegalArgumentException If a column does not exist, a filter is invalid, or too many
+   *     columns or filters are requested.
+   */
+  public static Result aggregate(
+      Path rowFile,
+      Function function,
+      List<String> columnNames,
+      String groupBy,
+      List<String> filters,
+      int groupLimit,
+      int binCount)
+      throws IOException {
+    Result result = new Result();
+    result.function = function;
+    String header = ResultRowFile.read(rowFile, 0, 0).getHeader();
+    if (header == null) return result;
+    char delimiter = CsvLines.detectDelimiter(header);
+    List<String> names = CsvLines.split(header, delimiter);
+
+    List<Column> columns = new ArrayList<>();
+    if (columnNames == null || columnNames.isEmpty()) {
+      for (int i = 0; i < names.size() && i < MAX_COLUMNS; i++)
+        columns.add(new Column(names.get(i).trim(), i, function == Function.COUNT));
+      result.truncated = names.size() > MAX_COLUMNS;
+    } else {
+      if (columnNames.size() > MAX_COLUMNS)
+        throw new IllegalArgumentException(
+            String.format("At most %d columns can be aggregated.", MAX_COLUMNS));
+      for (String name : columnNames)
+        columns.add(new Column(name, requireIndex(names, name), function == Function.COUNT));
+    }
+
+    List<Filter> conditions = new ArrayList<>();
+    if (filters != null) {
+      if (filters.size() > MAX_FILTERS)
+        throw new IllegalArgumentException(
+            String.format("At most %d filters can be applied.", MAX_FILTERS));
+      for (String filter : filters) conditions.add(Filter.parse(filter, names));
+    }
+
+    int groupIndex = groupBy == null || groupBy.isBlank() ? -1 : requireIndex(names, groupBy);
+    Map<String, Partition> partitions = new LinkedHashMap<>();
+    Partition all = groupIndex < 0 ? new Partition(null, columns) : null;
+
+    result.rows =
+        forEachRow(
+            rowFile,
+            delimiter,
+            values -> {
+              for (Filter condition : conditions) if (!condition.test(values)) return;
+              result.matched++;
+              Partition partition = all;
+              if (partition == null) {
+                String key = value(values, groupIndex);
+                partition = partitions.get(key);
+                if (partition == null && partitions.size() < MAX_PARTITIONS) {
+                  partition = new Partition(key, copy(columns, function));
+                  partitions.put(key, partition);
+                }
+              }
+              if (partition == null) {
+                result.otherRows++;
+                return;
+              }
+              partition.rows++;
+              for (Column column : partition.columns) column.add(value(values, column.index));
+            });
+
+    if (function == Function.HISTOGRAM) {
+      int bins = Math.max(1, Math.min(binCount, MAX_BINS));
+      if (all != null) for (Column column : all.columns) column.initBins(bins);
+      for (Partition partition : partitions.values())
+        for (Column column : partition.columns) column.initBins(bins);
+      forEachRow(
+          rowFile,
+          delimiter,
+          values -> {
+            for (Filter condition : conditions) if (!condition.test(values)) return;
+            Partition partition = all != null ? all : partitions.get(value(values, groupIndex));
+            if (partition == null) return;
+            for (Column column : partition.columns) column.addToBin(value(values, column.index));
+          });
+    }
+
+    int limit = Math.max(0, Math.min(groupLimit, MAX_GROUPS));
+    if (all != null) {
+      for (Column column : all.columns) column.finish(limit, function);
+      result.columns = all.columns;
+    } else {
+      result.groupBy = groupBy;
+      result.partitions = new ArrayList<>(partitions.values());
+      for (Partition partition : result.partitions)
+        for (Column column : partition.columns) column.finish(limit, function);
+      result.partitions.sort(
+          Comparator.comparingLong(Partition::getRows)
+              .reversed()
+              .thenComparing(Partition::getValue));
+      result.columns = null;
+    }
+    return result;
+  }
+
+  private static int requireIndex(List<String> names, String name) {
+    int index = indexOf(names, name);
+    if (index < 0)
+      throw new IllegalArgumentException(String.format("Column '%s' does not exist.", name));
+    return index;
+  }
+
+  private static List<Column> copy(List<Column> columns, Function function) {
+    List<Column> copies = new ArrayList<>(columns.size());
+    for (Column column : columns)
+      copies.add(new Column(column.name, column.index, function == Function.COUNT));
+    return copies;
+  }
+
+  private static int indexOf(List<String> names, String name) {
+    for (int i = 0; i < names.size(); i++) if (names.get(i).trim().equals(name)) return i;
+    return -1;
+  }
+
+  private static long forEachRow(Path rowFile, char delimiter, Consumer<List<String>> consumer)
+      throws IOException {
+    long offset = 0;
+    ResultRowFile.Rows page;
+    do {
+      if (Thread.interrupted()) throw new InterruptedIOException("Aggregation was interrupted.");
+      page = ResultRowFile.read(rowFile, offset, PAGE_SIZE);
+      for (String row : page.getRows()) consumer.accept(CsvLines.split(row, delimiter));
+      offset += page.getRows().size();
+    } while (offset < page.getTotal() && !page.getRows().isEmpty());
+    return offset;
+  }
+
+  private static String value(List<String> values, int index) {
+    return index < values.size() ? values.get(index).trim() : "";
+  }
+
+  /** Aggregates of a table. */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Result {
+    private Function function;
+    private long rows;
+    private long matched;
+    private boolean truncated;
+    private List<Column> columns = new ArrayList<>();
+    private String groupBy;
+    private List<Partition> partitions;
+    private long otherRows;
+
+    public Function getFunction() {
+      return function;
+    }
+
+    /** @return Number of rows of the table. */
+    public long getRows() {
+      return rows;
+    }
+
+    /** @return Number of rows satisfying all filter conditions. */
+    public long getMatched() {
+      return matched;
+    }
+
+    /** @return True if the table has more columns than were aggregated. */
+    public boolean isTruncated() {
+      return truncated;
+    }
+
+    /** @return Aggregates of all matching rows, or {@code null} if the rows are grouped. */
+    public List<Column> getColumns() {
+      return columns;
+    }
+
+    /** @return Name of the column, whose values group the rows, or {@code null}. */
+    public String getGroupBy() {
+      return groupBy;
+    }
+
+    /** @return Aggregates of each group in descending order of their row count, or {@code null}. */
+    public List<Partition> getPartitions() {
+      return partitions;
+    }
+
+    /** @return Number of matching rows of groups exceeding {@link #MAX_PARTITIONS}, if grouped. */
+    public Long getOtherRows() {
+      return partitions == null ? null : otherRows;
+    }
+  }
+
+  /** Aggregates of the rows with the same value in the group-by column. */
+  public static class Partition {
+    private final String value;
+    private final List<Column> columns;
+    private long rows;
+
+    private Partition(String value, List<Column> columns) {
+      this.value = value;
+      this.columns = columns;
+    }
+
+    /** @return Value of the group-by column, empty for rows without value. */
+    public String getValue() {
+      return value;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    public List<Column> getColumns() {
+      return columns;
+    }
+  }
+
+  /** A filter condition of the form {@code <column><operator><value>}. */
+  private static class Filter {
+    private static final Pattern SYNTAX = Pattern.compile("(.+?)(<=|>=|!=|=|<|>)(.*)");
+
+    private final int index;
+    private final String operator;
+    private final String value;
+
+    private Filter(int index, String operator, String value) {
+      this.index = index;
+      this.operator = operator;
+      this.value = value;
+    }
+
+    private static Filter parse(String filter, List<String> names) {
+      Matcher matcher = SYNTAX.matcher(filter);
+      if (!matcher.matches())
+        throw new IllegalArgumentException(String.format("Invalid filter '%s'.", filter));
+      return new Filter(
+          requireIndex(names, matcher.group(1).trim()),
+          matcher.group(2),
+          matcher.group(3).trim());
+    }
+
+    /** Tests a row. Empty values only satisfy {@code =} and {@code !=} conditions. */
+    private boolean test(List<String> values) {
+      String actual = value(values, index);
+      int comparison =
+          NUMBER.matcher(actual).matches() && NUMBER.matcher(value).matches()
+              ? Double.compare(Double.parseDouble(actual), Double.parseDouble(value))
+              : actual.compareTo(value);
+      switch (operator) {
+        case "=":
+          return comparison == 0;
+        case "!=":
+          return comparison != 0;
+        default:
+          if (actual.isEmpty()) return false;
+          if ("<".equals(operator)) return comparison < 0;
+          if ("<=".equals(operator)) return comparison <= 0;
+          if (">".equals(operator)) return comparison > 0;
+          return comparison >= 0;
+      }
+    }
+  }
+
+  /** Aggregates of a column. */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Column {
+    private final String name;
+    private final int index;
+    private long count;
+    private long missing;
+    private boolean numeric = true;
+    private double numericMin = Double.POSITIVE_INFINITY;
+    private double numericMax = Double.NEGATIVE_INFINITY;
+    private double sum;
+    private String textMin;
+    private String textMax;
+    private Map<String, Long> counts;
+    private long otherCount;
+    private boolean truncated;
+    private List<Group> groups;
+    private List<Bin> bins;
+
+    private Column(String name, int index, boolean counting) {
+      this.name = name;
+      this.index = index;
+      if (counting) counts = new HashMap<>();
+    }
+
+    private void add(String value) {
+      if (value.isEmpty()) {
+        missing++;
+        return;
+      }
+      count++;
+      if (numeric && NUMBER.matcher(value).matches()) {
+        double number = Double.parseDouble(value);
+        numericMin = Math.min(numericMin, number);
+        numericMax = Math.max(numericMax, number);
+        sum += number;
+      } else {
+        numeric = false;
+      }
+      if (textMin == null || value.compareTo(textMin) < 0) textMin = value;
+      if (textMax == null || value.compareTo(textMax) > 0) textMax = value;
+
+      if (counts != null) {
+        Long known = counts.get(value);
+        if (known != null) counts.put(value, known + 1);
+        else if (counts.size() < MAX_DISTINCT) counts.put(value, 1L);
+        else {
+          otherCount++;
+          truncated = true;
+        }
+      }
+    }
+
+    private void initBins(int binCount) {
+      if (!numeric || count == 0) return;
+      bins = new ArrayList<>(binCount);
+      double width = (numericMax - numericMin) / binCount;
+      for (int i = 0; i < binCount; i++) {
+        Bin bin = new Bin();
+        bin.lower = numericMin + i * width;
+        bin.upper = i == binCount - 1 ? numericMax : numericMin + (i + 1) * width;
+        bins.add(bin);
+        if (width == 0) break;
+      }
+    }
+
+    private void addToBin(String value) {
+      if (bins == null || value.isEmpty()) return;
+      double number = Double.parseDouble(value);
+      int i =
+          numericMax == numericMin
+              ? 0
+              : (int) ((number - numericMin) / (numericMax - numericMin) * bins.size());
+      bins.get(Math.max(0, Math.min(i, bins.size() - 1))).count++;
+    }
+
+    private void finish(int groupLimit, Function function) {
+      if (counts != null) {
+        groups = new ArrayList<>(Math.min(groupLimit, counts.size()));
+        counts.entrySet().stream()
+            .sorted(
+                Map.Entry.<String, Long>comparingByValue()
+                    .reversed()
+                    .thenComparing(Map.Entry.comparingByKey()))
+            .limit(groupLimit)
+            .forEach(
+                e -> {
+                  Group group = new Group();
+                  group.value = e.getKey();
+                  group.count = e.getValue();
+                  groups.add(group);
+                });
+        truncated |= groups.size() < counts.size();
+        otherCount = count - groups.stream().mapToLong(Group::getCount).sum();
+        counts = null;
+      }
+      if (function == Function.HISTOGRAM && bins == null) bins = new ArrayList<>();
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** @return Number of non-empty values. */
+    public long getCount() {
+      return count;
+    }
+
+    /** @return Number of empty values. */
+    public long getMissing() {
+      return missing;
+    }
+
+    /** @return True if all non-empty values are numbers. */
+    public boolean isNumeric() {
+      return numeric && count > 0;
+    }
+
+    public String getMin() {
+      if (count == 0) return null;
+      return isNumeric() ? format(numericMin) : textMin;
+    }
+
+    public String getMax() {
+      if (count == 0) return null;
+      return isNumeric() ? format(numericMax) : textMax;
+    }
+
+    /** @return Mean of numeric columns. */
+    public Double getMean() {
+      return isNumeric() ? sum / count : null;
+    }
+
+    /** @return Most frequent values in descending order of their count. */
+    public List<Group> getGroups() {
+      return groups;
+    }
+
+    /** @return Number of non-empty values not contained in {@link #getGroups()}. */
+    public Long getOtherCount() {
+      return groups == null ? null : otherCount;
+    }
+
+    /** @return True if not all distinct values are contained in {@link #getGroups()}. */
+    public boolean isTruncated() {
+      return truncated;
+    }
+
+    /** @return Histogram bins of numeric columns. */
+    public List<Bin> getBins() {
+      return bins;
+    }
+
+    private static String format(double number) {
+      return number == Math.rint(number) && Math.abs(number) < 1e15
+          ? String.valueOf((long) number)
+          : String.valueOf(number);
+    }
+  }
+
+  /** Number of occurrences of a value. */
+  public static class Group {
+    private String value;
+    private long count;
+
+    public String getValue() {
+      return value;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
+  /** Number of values in a histogram bin. The upper bound is exclusive, except for the last bin. */
+  public static class Bin {
+    private double lower;
+    private double upper;
+    private long count;
+
+    public double getLower() {
+      return lower;
+    }
+
+    public double getUpper() {
+      return upper;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package care.smith.top.backend.util;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Describes a result ZIP file: its size, modification time, SHA-256 checksum and entries. Clients
+ * can use the manifest to verify downloads, and the checksum serves as strong entity tag for
+ * conditional and range requests.
+ *
+ * <p>The manifest is cached next to the result ZIP file ({@code <query>.zip.manifest}). A cached
+ * manifest is only used while size and modification time of the ZIP file are unchanged.
+ */
+public class ResultManifest {
+  private static final String SUFFIX = ".manifest";
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+  private String fileName;
+  private long size;
+  private long lastModified;
+  private String sha256;
+  private List<Entry> entries = new ArrayList<>();
+
+  /**
+   * Returns the manifest of a result file. The manifest is computed and cached, if there is no
+   * valid cached manifest.
+   *
+   * @param resultFile Path of the result ZIP file.
+   * @return The manifest of the result file.
+   */
+  public static ResultManifest of(Path resultFile) throws IOException {
+    long size = Files.size(resultFile);
+    long lastModified = Files.getLastModifiedTime(resultFile).toMillis();
+    Path manifestFile = getManifestFile(resultFile);
+    if (Files.isRegularFile(manifestFile)) {
+      try {
+        ResultManifest cached = MAPPER.readValue(manifestFile.toFile(), ResultManifest.class);
+        if (cached.size == size
+            && cached.lastModified == lastModified
+            && resultFile.getFileName().toString().equals(cached.fileName)) return cached;
+      } catch (IOException ignored) {
+        // the cached manifest is recomputed
+      }
+    }
+
+    ResultManifest manifest = compute(resultFile);
+    manifest.size = size;
+    manifest.lastModified = lastModified;
+    AtomicFiles.write(manifestFile, out -> MAPPER.writeValue(out, manifest));
+    return manifest;
+  }
+
+  /**
+   * @param resultFile Path of a result ZIP file.
+   * @return Path of the cached manifest of the result file.
+   */
+  public static Path getManifestFile(Path resultFile) {
+    return resultFile.resolveSibling(resultFile.getFileName() + SUFFIX);
+  }
+
+  /**
+   * Deletes the cached manifest of a result file.
+   *
+   * @param resultFile Path of the result ZIP file.
+   */
+  public static void delete(Path resultFile) throws IOException {
+    Files.deleteIfExists(getManifestFile(resultFile));
+  }
+
+  private static ResultManifest compute(Path resultFile) throws IOException {
+    ResultManifest manifest = new ResultManifest();
+    manifest.fileName = resultFile.getFileName().toString();
+
+    MessageDigest digest = Hashes.sha256();
+    try (InputStream input = new DigestInputStream(Files.newInputStream(resultFile), digest)) {
+      input.transferTo(OutputStream.nullOutputStream());
+    }
+    manifest.sha256 = Hashes.hex(digest.digest());
+
+    try (ZipFile zip = new ZipFile(resultFile.toFile())) {
+      for (ZipEntry entry : Collections.list(zip.entries()))
+        manifest.entries.add(new Entry(entry.getName(), entry.getSize(), entry.getCrc()));
+    }
+    return manifest;
+  }
+
+  /** @return Name of the result file. */
+  public String getFileName() {
+    return fileName;
+  }
+
+  /** @return Size of the result file in bytes. */
+  public long getSize() {
+    return size;
+  }
+
+  /** @return Modification time of the result file in milliseconds since the epoch. */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /** @return Hex encoded SHA-256 checksum of the result file. */
+  public String getSha256() {
+    return sha256;
+  }
+
+  /** @return Entries of the result ZIP file. */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /** @return Strong entity tag of the result file, including quotes. */
+  @JsonIgnore
+  public String getETag() {
+    return "\"" + sha256 + "\"";
+  }
+
+  /** An entry of a result ZIP file. */
+  public static class Entry {
+    private String name;
+    private long size;
+    private long crc32;
+
+    private Entry() {}
+
+    private Entry(String name, long size, long crc32) {
+      this.name = name;
+      this.size = size;
+      this.crc32 = crc32;
+    }
+
+    /** @return Name of the entry. */
+    public String getName() {
+      return name;
+    }
+
+    /** @return Uncompressed size of the entry in bytes. */
+    public long getSize() {
+      return size;
+    }
+
+    /** @return CRC-32 checksum of the uncompressed entry. */
+    public long getCrc32() {
+      return crc32;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package care.smith.top.backend.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row-addressable copy of a CSV table of a query result, stored next to the result ZIP file.
+ *
+ * <p>The rows file ({@code <query>.rows}) contains the uncompressed CSV table. The index file
+ * ({@code <query>.rows.idx}) contains the byte offset of each line of the rows file as big-endian
+ * long, followed by the length of the rows file. The first line is the CSV header. Line breaks
+ * inside quoted values do not start a new row. Any range of rows can be read with two positional
+ * reads, without reading the preceding rows.
+ */
+public class ResultRowFile {
+  private static final String INDEX_SUFFIX = ".idx";
+
+  private ResultRowFile() {}
+
+  /**
+   * @param rowFile Path of a rows file.
+   * @return Path of the index file that belongs to the rows file.
+   */
+  public static Path getIndexFile(Path rowFile) {
+    return rowFile.resolveSibling(rowFile.getFileName() + INDEX_SUFFIX);
+  }
+
+  /**
+   * @param rowFile Path of a rows file.
+   * @return True if the rows file and its index exist.
+   */
+  public static boolean exists(Path rowFile) {
+    return Files.isRegularFile(rowFile) && Files.isRegularFile(getIndexFile(rowFile));
+  }
+
+  /**
+   * Deletes a rows file and its index.
+   *
+   * @param rowFile Path of the rows file.
+   */
+  public static void delete(Path rowFile) throws IOException {
+    Files.deleteIfExists(getIndexFile(rowFile));
+    Files.deleteIfExists(rowFile);
+  }
+
+  /**
+   * Reads a range of rows. The header is not counted as row.
+   *
+   * @param rowFile Path of the rows file.
+   * @param offset Index of the first row, starting at 0.
+   * @param limit Maximum number of rows.
+   * @return The requested rows, the header and the total number of rows.
+   */
+  public static Rows read(Path rowFile, long offset, int limit) throws IOException {
+    try (FileChannel rows = FileChannel.open(rowFile, StandardOpenOption.READ);
+        FileChannel index = FileChannel.open(getIndexFile(rowFile), StandardOpenOption.READ)) {
+      long lines = Math.max(0, index.size() / Long.BYTES - 1);
+      long total = Math.max(0, lines - 1);
+      long first = Math.max(0, Math.min(offset, total));
+      long count = Math.max(0, Math.min(limit, total - first));
+
+      String header = lines == 0 ? null : readLines(rows, index, 0, 1).get(0);
+      return new Rows(first, total, header, readLines(rows, index, first + 1, (int) count));
+    }
+  }
+
+  private static List<String> readLines(FileChannel rows, FileChannel index, long line, int count)
+      throws IOException {
+    List<String> result = new ArrayList<>(count);
+    if (count == 0) return result;
+
+    ByteBuffer offsets = ByteBuffer.allocate((count + 1) * Long.BYTES);
+    readFully(index, offsets, line * Long.BYTES);
+    long start = offsets.getLong(0);
+    long end = offsets.getLong(count * Long.BYTES);
+
+    ByteBuffer content = ByteBuffer.allocate(Math.toIntExact(end - start));
+    readFully(rows, content, start);
+    byte[] bytes = content.array();
+    for (int i = 0; i < count; i++) {
+      int from = (int) (offsets.getLong(i * Long.BYTES) - start);
+      int to = (int) (offsets.getLong((i + 1) * Long.BYTES) - start);
+      while (to > from && (bytes[to - 1] == '\n' || bytes[to - 1] == '\r')) to--;
+      result.add(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+    }
+    return result;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    AtomicFiles.readFully(channel, buffer, position, "Row index does not match rows file.");
+  }
+
+  /**
+   * Writes a rows file and its index. Content is written to temporary files, which replace the
+   * rows file and its index on {@link #commit()}. Closing an uncommitted writer deletes the
+   * temporary files.
+   */
+  public static class Writer extends OutputStream {
+    private final Path rowFile;
+    private final Path tempRows;
+    private final Path tempIndex;
+    private final OutputStream rows;
+    private final DataOutputStream index;
+    private long position = 0;
+    private boolean quoted = false;
+    private boolean lineStart = true;
+    private boolean closed = false;
+
+    /** @param rowFile Path of the rows file to be written. */
+    public Writer(Path rowFile) throws IOException {
+      this.rowFile = rowFile;
+      this.tempRows = AtomicFiles.createTempFile(rowFile);
+      this.tempIndex = AtomicFiles.createTempFile(getIndexFile(rowFile));
+      this.rows = new BufferedOutputStream(Files.newOutputStream(tempRows));
+      this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempIndex)));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      track((byte) b, position);
+      rows.write(b);
+      position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for (int i = 0; i < len; i++) track(b[off + i], position + i);
+      rows.write(b, off, len);
+      position += len;
+    }
+
+    /**
+     * Returns a stream that writes to the provided stream and to this writer. Closing the returned
+     * stream closes neither of them.
+     *
+     * @param out Stream that receives the same content.
+     */
+    public OutputStream tee(OutputStream out) {
+      Writer writer = this;
+      return new FilterOutputStream(out) {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          writer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          writer.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      };
+    }
+
+    /** Replaces the rows file and its index with the written content. */
+    public void commit() throws IOException {
+      index.writeLong(position);
+      closeStreams();
+      AtomicFiles.move(tempRows, rowFile);
+      AtomicFiles.move(tempIndex, getIndexFile(rowFile));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) closeStreams();
+      Files.deleteIfExists(tempRows);
+      Files.deleteIfExists(tempIndex);
+    }
+
+    private void track(byte b, long at) throws IOException {
+      if (lineStart) {
+        index.writeLong(at);
+        lineStart = false;
+      }
+      if (b == '"') quoted = !quoted;
+      else if (b == '\n' && !quoted) lineStart = true;
+    }
+
+    private void closeStreams() throws IOException {
+      closed = true;
+      try (OutputStream r = rows;
+          OutputStream i = index) {
+        r.flush();
+        i.flush();
+      }
+    }
+  }
+
+  /** A range of rows of a query result. */
+  public static class Rows {
+    private final long offset;
+    private final long total;
+    private final String header;
+    private final List<String> rows;
+
+    private Rows(long offset, long total, String header, List<String> rows) {
+      this.offset = offset;
+      this.total = total;
+      this.header = header;
+      this.rows = rows;
+    }
+
+    /** @return Index of the first returned row. */
+    public long getOffset() {
+      return offset;
+    }
+
+    /** @return Total number of rows of the result. */
+    public long getTotal() {
+      return total;
+    }
+
+    /** @return CSV header of the table. */
+    public String getHeader() {
+      return header;
+    }
+
+    /** @return Requested rows as CSV lines. */
+    public List<String> getRows() {
+      return rows;
+    }
+  }
+}
@@ -0,0 +1,382 @@
+package care.smith.top.backend.util;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Summary statistics of the subjects table ({@code data_subjects.csv}) of a phenotype query result.
+ * For each phenotype column, the number of values and missing values is stored, for numeric
+ * columns additionally minimum, maximum, mean and an approximate distribution, for all other
+ * columns (e.g. strings and booleans) the most frequent values.
+ *
+ * <p>Statistics are computed by a {@link Collector} in a single pass, while the table is written,
+ * with constant memory per column:
+ *
+ * <ul>
+ *   <li>The distribution is a streaming histogram of at most {@link #CENTROIDS} centroids. If a new
+ *       value exceeds this number, the two closest centroids are merged into their weighted mean.
+ *   <li>Frequent values are counted with at most {@link #COUNTERS} counters (Misra-Gries). If a
+ *       column has more distinct values, counts are lower bounds and {@link Column#isExact()} is
+ *       false.
+ * </ul>
+ */
+public class ResultStatistics {
+  /** Maximum number of summarised columns. */
+  public static final int MAX_COLUMNS = 200;
+
+  /** Maximum number of centroids of the distribution of numeric columns. */
+  public static final int CENTROIDS = 32;
+
+  /** Number of counters used to find the most frequent values of a column. */
+  public static final int COUNTERS = 64;
+
+  /** Maximum number of stored frequent values per column. */
+  public static final int TOP_VALUES = 10;
+
+  private static final int MAX_VALUE_LENGTH = 100;
+  private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+  private long rows;
+  private boolean truncated;
+  private List<Column> columns = new ArrayList<>();
+
+  /** @return Statistics parsed from JSON, created by {@link #toJson()}. */
+  public static ResultStatistics fromJson(String json) throws IOException {
+    return MAPPER.readValue(json, ResultStatistics.class);
+  }
+
+  public String toJson() throws IOException {
+    return MAPPER.writeValueAsString(this);
+  }
+
+  /** @return Number of subjects. */
+  public long getRows() {
+    return rows;
+  }
+
+  /** @return True if the table has more columns than {@link #MAX_COLUMNS}. */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  /** Statistics of a column. */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Column {
+    private String name;
+    private long count;
+    private long missing;
+    private boolean numeric;
+    private Double min;
+    private Double max;
+    private Double mean;
+    private List<Centroid> distribution;
+    private List<Value> topValues;
+    private boolean exact;
+
+    public String getName() {
+      return name;
+    }
+
+    /** @return Number of non-empty values. */
+    public long getCount() {
+      return count;
+    }
+
+    /** @return Number of empty values. */
+    public long getMissing() {
+      return missing;
+    }
+
+    /** @return True if all non-empty values are numbers. */
+    public boolean isNumeric() {
+      return numeric;
+    }
+
+    public Double getMin() {
+      return min;
+    }
+
+    public Double getMax() {
+      return max;
+    }
+
+    public Double getMean() {
+      return mean;
+    }
+
+    /** @return Approximate distribution of numeric columns in ascending order of values. */
+    public List<Centroid> getDistribution() {
+      return distribution;
+    }
+
+    /**
+     * @return Most frequent values in descending order of their count. Omitted for numeric columns
+     *     with more than {@link #COUNTERS} distinct values.
+     */
+    public List<Value> getTopValues() {
+      return topValues;
+    }
+
+    /** @return True if the counts of {@link #getTopValues()} are exact. */
+    public boolean isExact() {
+      return exact;
+    }
+  }
+
+  /** Mean of a number of close values. */
+  public static class Centroid {
+    private double value;
+    private long count;
+
+    public double getValue() {
+      return value;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
+  /** Number of occurrences of a value. */
+  public static class Value {
+    private String value;
+    private long count;
+
+    public String getValue() {
+      return value;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Computes {@link ResultStatistics} from the CSV table written to it. The first column (the
+   * subject ID) is not summarised.
+   */
+  public static class Collector extends OutputStream {
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private boolean quoted = false;
+    private char delimiter;
+    private ColumnCollector[] columns;
+    private long rows;
+    private boolean truncated;
+
+    @Override
+    public void write(int b) {
+      if (b == '"') quoted = !quoted;
+      if (b == '\n' && !quoted) endLine();
+      else line.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      for (int i = off; i < off + len; i++) write(b[i]);
+    }
+
+    /**
+     * Returns a stream that writes to the provided stream and to this collector. Closing the
+     * returned stream closes neither of them.
+     *
+     * @param out Stream that receives the same content.
+     */
+    public OutputStream tee(OutputStream out) {
+      Collector collector = this;
+      return new FilterOutputStream(out) {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          collector.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          collector.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      };
+    }
+
+    /** @return Statistics of all rows written so far, including an unterminated last row. */
+    public ResultStatistics getStatistics() {
+      if (line.size() > 0) endLine();
+      ResultStatistics statistics = new ResultStatistics();
+      statistics.rows = rows;
+      statistics.truncated = truncated;
+      if (columns != null)
+        for (ColumnCollector column : columns) statistics.columns.add(column.get());
+      return statistics;
+    }
+
+    private void endLine() {
+      String text = line.toString(StandardCharsets.UTF_8);
+      line.reset();
+      if (text.endsWith("\r")) text = text.substring(0, text.length() - 1);
+      if (columns == null) {
+        delimiter = CsvLines.detectDelimiter(text);
+        List<String> names = CsvLines.split(text, delimiter);
+        columns = new ColumnCollector[Math.max(0, Math.min(names.size() - 1, MAX_COLUMNS))];
+        for (int i = 0; i < columns.length; i++)
+          columns[i] = new ColumnCollector(names.get(i + 1).trim());
+        truncated = names.size() - 1 > MAX_COLUMNS;
+        return;
+      }
+      if (text.isEmpty()) return;
+      rows++;
+      List<String> values = CsvLines.split(text, delimiter);
+      for (int i = 0; i < columns.length; i++)
+        columns[i].add(i + 1 < values.size() ? values.get(i + 1).trim() : "");
+    }
+  }
+
+  /** Collects the statistics of one column. */
+  private static class ColumnCollector {
+    private final String name;
+    private long count;
+    private long missing;
+    private boolean numeric = true;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+    private final double[] centroidValues = new double[CENTROIDS + 1];
+    private final long[] centroidCounts = new long[CENTROIDS + 1];
+    private int centroids;
+    private Map<String, Long> counters = new HashMap<>();
+    private boolean exact = true;
+
+    private ColumnCollector(String name) {
+      this.name = name;
+    }
+
+    private void add(String value) {
+      if (value.isEmpty()) {
+        missing++;
+        return;
+      }
+      count++;
+      if (numeric && NUMBER.matcher(value).matches()) {
+        double number = Double.parseDouble(value);
+        min = Math.min(min, number);
+        max = Math.max(max, number);
+        sum += number;
+        addCentroid(number);
+      } else {
+        numeric = false;
+      }
+
+      if (counters == null) {
+        // dropped for numeric columns with many distinct values
+        if (numeric) return;
+        counters = new HashMap<>();
+        exact = false;
+      }
+      count(value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) : value);
+    }
+
+    private void count(String value) {
+      Long known = counters.get(value);
+      if (known != null) {
+        counters.put(value, known + 1);
+      } else if (counters.size() < COUNTERS) {
+        counters.put(value, 1L);
+      } else {
+        exact = false;
+        if (numeric) {
+          counters = null;
+          return;
+        }
+        counters.replaceAll((v, c) -> c - 1);
+        counters.values().removeIf(c -> c == 0);
+      }
+    }
+
+    private void addCentroid(double value) {
+      int i = Arrays.binarySearch(centroidValues, 0, centroids, value);
+      if (i >= 0) {
+        centroidCounts[i]++;
+        return;
+      }
+      i = -i - 1;
+      System.arraycopy(centroidValues, i, centroidValues, i + 1, centroids - i);
+      System.arraycopy(centroidCounts, i, centroidCounts, i + 1, centroids - i);
+      centroidValues[i] = value;
+      centroidCounts[i] = 1;
+      if (++centroids <= CENTROIDS) return;
+
+      int closest = 0;
+      for (int j = 1; j < centroids - 1; j++)
+        if (centroidValues[j + 1] - centroidValues[j]
+            < centroidValues[closest + 1] - centroidValues[closest]) closest = j;
+      long merged = centroidCounts[closest] + centroidCounts[closest + 1];
+      centroidValues[closest] =
+          (centroidValues[closest] * centroidCounts[closest]
+                  + centroidValues[closest + 1] * centroidCounts[closest + 1])
+              / merged;
+      centroidCounts[closest] = merged;
+      centroids--;
+      System.arraycopy(
+          centroidValues, closest + 2, centroidValues, closest + 1, centroids - closest - 1);
+      System.arraycopy(
+          centroidCounts, closest + 2, centroidCounts, closest + 1, centroids - closest - 1);
+    }
+
+    private Column get() {
+      Column column = new Column();
+      column.name = name;
+      column.count = count;
+      column.missing = missing;
+      column.numeric = numeric && count > 0;
+      if (column.numeric) {
+        column.min = min;
+        column.max = max;
+        column.mean = sum / count;
+        column.distribution = new ArrayList<>(centroids);
+        for (int i = 0; i < centroids; i++) {
+          Centroid centroid = new Centroid();
+          centroid.value = centroidValues[i];
+          centroid.count = centroidCounts[i];
+          column.distribution.add(centroid);
+        }
+      }
+      if (counters != null && (!column.numeric || exact)) {
+        column.exact = exact;
+        column.topValues = new ArrayList<>();
+        counters.entrySet().stream()
+            .sorted(
+                Map.Entry.<String, Long>comparingByValue()
+                    .reversed()
+                    .thenComparing(Map.Entry.comparingByKey()))
+            .limit(TOP_VALUES)
+            .forEach(
+                e -> {
+                  Value value = new Value();
+                  value.value = e.getKey();
+                  value.count = e.getValue();
+                  column.topValues.add(value);
+                });
+      }
+      return column;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package care.smith.top.backend.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Append-only dictionary that maps the subject IDs of a data source to consecutive integers,
+ * starting at 0, so that cohorts can be stored as bitmaps (see {@link CohortBitmap}). Codes never
+ * change once assigned.
+ *
+ * <p>The dictionary is kept in memory completely, i.e. all subject IDs of the data source are held
+ * twice (as list in code order and as map to their codes), and persisted in a file, which starts
+ * with a header (magic number and random ID of the dictionary) followed by the UTF-8 encoded
+ * subject IDs in code order, each prefixed by its length as unsigned short. An incomplete record at
+ * the end of the file (e.g. after a crash) is ignored and overwritten by the next append.
+ *
+ * <p>The file may be shared by multiple processes, e.g. backend instances using the same result
+ * storage. Subjects are only appended while holding an exclusive lock on the file, after the
+ * subjects appended by other processes have been read. If the file is replaced by a file with
+ * another ID, the dictionary is reloaded. Cohorts store the ID and size of the dictionary they were
+ * encoded with, so that cohorts of a lost or replaced dictionary can be detected.
+ */
+public class SubjectDictionary {
+  private static final int MAGIC = 0x544F5044;
+  private static final int HEADER_LENGTH = Integer.BYTES + 2 * Long.BYTES;
+
+  private final Path file;
+  private final List<String> subjectIds = new ArrayList<>();
+  private final Map<String, Integer> codes = new HashMap<>();
+  private UUID id;
+  private long length;
+
+  /**
+   * Loads a dictionary. The file is created, when the first subject is added.
+   *
+   * @param file Path of the dictionary file.
+   */
+  public SubjectDictionary(Path file) throws IOException {
+    this.file = file;
+    refresh();
+  }
+
+  /**
+   * Encodes subject IDs. Unknown subject IDs are added to the dictionary.
+   *
+   * @param subjectIds Subject IDs to be encoded.
+   * @return Bitmap with the codes of the subject IDs set.
+   */
+  public synchronized RoaringBitmap encode(Collection<String> subjectIds) throws IOException {
+    for (String subjectId : subjectIds)
+      if (!codes.containsKey(subjectId)
+          && subjectId.getBytes(StandardCharsets.UTF_8).length > 0xFFFF)
+        throw new IOException(String.format("Subject ID '%.50s...' is too long.", subjectId));
+
+    Files.createDirectories(file.getParent());
+    try (FileChannel channel =
+            FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileLock ignored = channel.lock()) {
+      read(channel);
+      if (id == null) create(channel);
+
+      RoaringBitmap bits = new RoaringBitmap();
+      int size = this.subjectIds.size();
+      for (String subjectId : subjectIds) {
+        Integer code = codes.get(subjectId);
+        bits.add(code != null ? code : add(subjectId));
+      }
+      if (this.subjectIds.size() > size) append(channel, size);
+      return bits;
+    }
+  }
+
+  /**
+   * Decodes subject IDs. Subjects appended by other processes are read first, if the bitmap
+   * contains unknown codes.
+   *
+   * @param bits Bitmap of subject codes.
+   * @param limit Maximum number of returned subject IDs.
+   * @return Subject IDs in code order.
+   */
+  public synchronized List<String> decode(RoaringBitmap bits, int limit) throws IOException {
+    if (!bits.isEmpty() && bits.last() >= subjectIds.size()) refresh();
+    List<String> result = new ArrayList<>(Math.min(limit, bits.getCardinality()));
+    PeekableIntIterator iterator = bits.getIntIterator();
+    while (iterator.hasNext() && result.size() < limit) {
+      int code = iterator.next();
+      if (code < 0 || code >= subjectIds.size()) break;
+      result.add(subjectIds.get(code));
+    }
+    return result;
+  }
+
+  /** Reads subjects appended to the file by other processes. */
+  public synchronized void refresh() throws IOException {
+    if (!Files.isRegularFile(file)) {
+      read(null);
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        FileLock ignored = channel.lock(0, Long.MAX_VALUE, true)) {
+      read(channel);
+    }
+  }
+
+  /** @return ID of the dictionary or null, if no subject has been added yet. */
+  public synchronized UUID getId() {
+    return id;
+  }
+
+  /** @return Number of subjects in the dictionary. */
+  public synchronized int size() {
+    return subjectIds.size();
+  }
+
+  private int add(String subjectId) {
+    int code = subjectIds.size();
+    subjectIds.add(subjectId);
+    codes.put(subjectId, code);
+    return code;
+  }
+
+  /**
+   * Reads all complete records, that have not been read yet. If the file has another ID than the
+   * dictionary in memory or has been truncated, the dictionary is reloaded. The caller must hold a
+   * lock on the file.
+   *
+   * @param channel Channel of the dictionary file or null, if the file does not exist.
+   */
+  private void read(FileChannel channel) throws IOException {
+    UUID fileId = channel == null ? null : readId(channel);
+    if (fileId == null || !fileId.equals(id) || channel.size() < length) {
+      id = fileId;
+      length = HEADER_LENGTH;
+      subjectIds.clear();
+      codes.clear();
+    }
+    if (id == null) return;
+
+    channel.position(length);
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    try {
+      while (true) {
+        int recordLength = in.readUnsignedShort();
+        byte[] bytes = new byte[recordLength];
+        in.readFully(bytes);
+        add(new String(bytes, StandardCharsets.UTF_8));
+        length += Short.BYTES + recordLength;
+      }
+    } catch (EOFException e) {
+      // end of file or incomplete last record
+    }
+  }
+
+  /** @return ID from the header of the file or null, if the file has no valid header. */
+  private UUID readId(FileChannel channel) throws IOException {
+    if (channel.size() < HEADER_LENGTH) return null;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    while (header.hasRemaining())
+      if (channel.read(header, header.position()) < 0) return null;
+    header.flip();
+    if (header.getInt() != MAGIC) return null;
+    return new UUID(header.getLong(), header.getLong());
+  }
+
+  /** Replaces the content of the file by the header of a new, empty dictionary. */
+  private void create(FileChannel channel) throws IOException {
+    UUID newId = UUID.randomUUID();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header
+        .putInt(MAGIC)
+        .putLong(newId.getMostSignificantBits())
+        .putLong(newId.getLeastSignificantBits())
+        .flip();
+    channel.truncate(0);
+    while (header.hasRemaining()) channel.write(header, header.position());
+    id = newId;
+    length = HEADER_LENGTH;
+  }
+
+  /**
+   * Appends all subjects starting at the given code to the file, replacing an incomplete last
+   * record. If this fails, the subjects are removed again, so that codes in memory and in the file
+   * do not diverge. The caller must hold an exclusive lock on the file.
+   */
+  private void append(FileChannel channel, int from) throws IOException {
+    try {
+      channel.truncate(length);
+      channel.position(length);
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      for (String subjectId : subjectIds.subList(from, subjectIds.size())) {
+        byte[] bytes = subjectId.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+      }
+      out.flush();
+      length = channel.position();
+    } catch (IOException e) {
+      List<String> added = subjectIds.subList(from, subjectIds.size());
+      added.forEach(codes::remove);
+      added.clear();
+      try {
+        channel.truncate(length);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.backend.util.CohortBitmap;
+import care.smith.top.backend.util.ResultRowFile;
+import care.smith.top.model.Organisation;
+import care.smith.top.model.QueryState;
+import care.smith.top.model.Repository;
+import care.smith.top.model.RepositoryType;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class CohortServiceTest extends AbstractTest {
+  @Autowired CohortService cohortService;
+  @Autowired QueryRepository queryRepository;
+
+  @Value("${top.result.dir:config/query_results}")
+  String resultDir;
+
+  @Test
+  void combine() throws IOException {
+    Organisation orga = organisationService.createOrganisation(new Organisation().id("orga_1"));
+    Repository repo =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_1").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    RepositoryDao repository =
+        repositoryRepository.findByIdAndOrganisationId(repo.getId(), orga.getId()).orElseThrow();
+
+    UUID query1 = saveQuery(repository, "Test_Data_Source_1", "s1", "s2", "s3");
+    UUID query2 = saveQuery(repository, "Test_Data_Source_1", "s2", "s3", "s4");
+    UUID query3 = saveQuery(repository, "Test_Data_Source_1", "s3", "s5");
+    UUID query4 = saveQuery(repository, "Test_Data_Source_2", "s1");
+
+    assertThat(
+            cohortService.combine(
+                orga.getId(),
+                repo.getId(),
+                CohortService.Operation.INTERSECTION,
+                List.of(query1, query2, query3),
+                10))
+        .satisfies(
+            c -> {
+              assertThat(c.getDataSource()).isEqualTo("Test_Data_Source_1");
+              assertThat(c.getCount()).isEqualTo(1);
+              assertThat(c.getSubjectIds()).containsExactly("s3");
+            });
+    assertThat(
+            cohortService.combine(
+                orga.getId(),
+                repo.getId(),
+                CohortService.Operation.UNION,
+                List.of(query1, query2, query3),
+                10))
+        .satisfies(
+            c -> {
+              assertThat(c.getCount()).isEqualTo(5);
+              assertThat(c.getSubjectIds()).containsExactlyInAnyOrder("s1", "s2", "s3", "s4", "s5");
+            });
+    assertThat(
+            cohortService.combine(
+                orga.getId(),
+                repo.getId(),
+                CohortService.Operation.DIFFERENCE,
+                List.of(query1, query2),
+                0))
+        .satisfies(
+            c -> {
+              assertThat(c.getCount()).isEqualTo(1);
+              assertThat(c.getSubjectIds()).isEmpty();
+            });
+
+    assertThat(cohortService.getOverlaps(orga.getId(), repo.getId(), List.of(query1, query2)))
+        .singleElement()
+        .satisfies(
+            o -> {
+              assertThat(o.getFirstCount()).isEqualTo(3);
+              assertThat(o.getSecondCount()).isEqualTo(3);
+              assertThat(o.getSharedCount()).isEqualTo(2);
+            });
+
+    assertThatThrownBy(
+            () ->
+                cohortService.combine(
+                    orga.getId(),
+                    repo.getId(),
+                    CohortService.Operation.UNION,
+                    List.of(query1, query4),
+                    0))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  void rebuildCohortOfOtherDictionary() throws IOException {
+    Organisation orga = organisationService.createOrganisation(new Organisation().id("orga_2"));
+    Repository repo =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_1").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    RepositoryDao repository =
+        repositoryRepository.findByIdAndOrganisationId(repo.getId(), orga.getId()).orElseThrow();
+    UUID query1 = saveQuery(repository, "Test_Data_Source_3", "s1", "s2");
+    UUID query2 = saveQuery(repository, "Test_Data_Source_3", "s2", "s3");
+    assertThat(
+            cohortService.combine(
+                orga.getId(), repo.getId(), CohortService.Operation.UNION, List.of(query1), 10))
+        .satisfies(c -> assertThat(c.getSubjectIds()).containsExactly("s1", "s2"));
+
+    // cohort encoded with a dictionary of another instance or a lost dictionary
+    Path cohortFile =
+        Paths.get(resultDir, orga.getId(), repo.getId(), String.format("%s.cohort", query1));
+    CohortBitmap.write(cohortFile, RoaringBitmap.bitmapOf(2, 3), UUID.randomUUID(), 4);
+
+    assertThat(
+            cohortService.combine(
+                orga.getId(),
+                repo.getId(),
+                CohortService.Operation.INTERSECTION,
+                List.of(query1, query2),
+                10))
+        .satisfies(c -> assertThat(c.getSubjectIds()).containsExactly("s2"));
+    Path otherCohortFile = cohortFile.resolveSibling(String.format("%s.cohort", query2));
+    assertThat(CohortBitmap.read(cohortFile).getDictionaryId())
+        .isEqualTo(CohortBitmap.read(otherCohortFile).getDictionaryId());
+  }
+
+  /** Saves a finished query with a result, whose subjects table contains the given subjects. */
+  private UUID saveQuery(RepositoryDao repository, String dataSource, String... subjectIds)
+      throws IOException {
+    UUID queryId = UUID.randomUUID();
+    QueryDao query = new QueryDao(queryId.toString(), null, dataSource, null, null, repository);
+    OffsetDateTime now = OffsetDateTime.now();
+    long count = subjectIds.length;
+    query.result(new QueryResultDao(query, now, count, now, QueryState.FINISHED));
+    queryRepository.save(query);
+
+    Path directory =
+        Paths.get(resultDir, repository.getOrganisation().getId(), repository.getId());
+    Files.createDirectories(directory);
+    Files.write(directory.resolve(queryId + ".zip"), new byte[0]);
+    try (ResultRowFile.Writer writer =
+        new ResultRowFile.Writer(directory.resolve(queryId + ".rows"))) {
+      writer.write(
+          ("subject_id;age\r\n" + String.join(";1\r\n", subjectIds) + ";1\r\n")
+              .getBytes(StandardCharsets.UTF_8));
+      writer.commit();
+    }
+    return queryId;
+  }
+}
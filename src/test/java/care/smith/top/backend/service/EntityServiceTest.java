@@ -14,6 +14,7 @@ import java.util.*;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
 class EntityServiceTest extends AbstractTest {
@@ -326,6 +327,213 @@ class EntityServiceTest extends AbstractTest {
     assertThat(entityVersionRepository.findAll()).isNotEmpty().size().isEqualTo(2);
   }
 
+  @Test
+  @Transactional
+  void getDependencies() {
+    Organisation organisation =
+        organisationService.createOrganisation(new Organisation().id("org"));
+    Repository repository =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository().id("repo").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    Phenotype weight =
+        (Phenotype)
+            new Phenotype()
+                .dataType(DataType.NUMBER)
+                .entityType(EntityType.SINGLE_PHENOTYPE)
+                .id("weight");
+    Phenotype heavy =
+        (Phenotype)
+            new Phenotype()
+                .restriction(
+                    new NumberRestriction()
+                        .minOperator(RestrictionOperator.GREATER_THAN)
+                        .addValuesItem(BigDecimal.valueOf(100))
+                        .type(DataType.NUMBER))
+                .superPhenotype(weight)
+                .dataType(DataType.BOOLEAN)
+                .entityType(EntityType.SINGLE_RESTRICTION)
+                .id("heavy");
+    Phenotype doubleWeight =
+        (Phenotype)
+            new Phenotype()
+                .expression(new Expression().entityId(weight.getId()))
+                .dataType(DataType.NUMBER)
+                .entityType(EntityType.COMPOSITE_PHENOTYPE)
+                .id("double_weight");
+    Phenotype high =
+        (Phenotype)
+            new Phenotype()
+                .restriction(
+                    new NumberRestriction()
+                        .minOperator(RestrictionOperator.GREATER_THAN)
+                        .addValuesItem(BigDecimal.valueOf(200))
+                        .type(DataType.NUMBER))
+                .superPhenotype(doubleWeight)
+                .dataType(DataType.BOOLEAN)
+                .entityType(EntityType.COMPOSITE_RESTRICTION)
+                .id("high");
+    for (Phenotype phenotype : List.of(weight, heavy, doubleWeight, high))
+      entityService.createEntity(organisation.getId(), repository.getId(), phenotype);
+
+    List<EntityDao> entities =
+        phenotypeRepository.findDistinctByIdInAndRepositoryId(
+            List.of(heavy.getId(), high.getId(), "unknown"), repository.getId());
+    assertThat(entities)
+        .extracting(EntityDao::getId)
+        .containsExactlyInAnyOrder(heavy.getId(), high.getId());
+
+    Set<EntityDao> expected = new HashSet<>();
+    entities.forEach(e -> expected.addAll(phenotypeRepository.getDependencies(e)));
+    assertThat(phenotypeRepository.getDependencies(entities))
+        .containsExactlyInAnyOrderElementsOf(expected)
+        .extracting(EntityDao::getId)
+        .containsExactlyInAnyOrder(weight.getId(), doubleWeight.getId());
+  }
+
+  @Test
+  void getForkingStatsSummary() {
+    Organisation organisation1 =
+        organisationService.createOrganisation(new Organisation().id("org1"));
+    Organisation organisation2 =
+        organisationService.createOrganisation(new Organisation().id("org2"));
+    Repository origin =
+        repositoryService.createRepository(
+            organisation1.getId(),
+            new Repository()
+                .id("origin")
+                .primary(true)
+                .repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    Entity entity =
+        entityService.createEntity(
+            organisation1.getId(),
+            origin.getId(),
+            new Entity()
+                .id(UUID.randomUUID().toString())
+                .entityType(EntityType.CATEGORY)
+                .addTitlesItem(new LocalisableText().lang("en").text("title")));
+
+    for (Organisation organisation : List.of(organisation1, organisation1, organisation2)) {
+      Repository repository =
+          repositoryService.createRepository(
+              organisation.getId(),
+              new Repository()
+                  .id(UUID.randomUUID().toString())
+                  .repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+              null);
+      entityService.createFork(
+          organisation1.getId(),
+          origin.getId(),
+          entity.getId(),
+          new ForkingInstruction()
+              .organisationId(organisation.getId())
+              .repositoryId(repository.getId()),
+          null,
+          null);
+    }
+
+    assertThat(
+            entityService.getForkingStatsSummary(
+                organisation1.getId(), origin.getId(), entity.getId()))
+        .satisfies(
+            s -> {
+              assertThat(s.getCount()).isEqualTo(3);
+              assertThat(s.getLastForkedAt()).isNotNull();
+              assertThat(s.getRepositories()).hasSize(3).allMatch(c -> c.getCount() == 1);
+              assertThat(s.getOrganisations())
+                  .hasSize(2)
+                  .anyMatch(c -> c.getOrganisationId().equals("org1") && c.getCount() == 2)
+                  .anyMatch(c -> c.getOrganisationId().equals("org2") && c.getCount() == 1);
+            });
+
+    assertThat(entityService.getForks(organisation1.getId(), origin.getId(), entity.getId(), 1))
+        .satisfies(
+            p -> {
+              assertThat(p.getTotalElements()).isEqualTo(3);
+              assertThat(p.getContent()).allMatch(f -> f.getRepository() != null);
+            });
+    assertThat(
+            entityService
+                .getForkingStats(organisation1.getId(), origin.getId(), entity.getId(), null)
+                .getForks())
+        .hasSize(3);
+
+    assertThatThrownBy(
+            () ->
+                entityService.getForkingStatsSummary(
+                    organisation1.getId(), origin.getId(), "does not exist"))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
+  }
+
+  @Test
+  void getOutdatedForks() {
+    Organisation organisation =
+        organisationService.createOrganisation(new Organisation().id("org"));
+    Repository repository1 =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository()
+                .id("repo1")
+                .primary(true)
+                .repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    Repository repository2 =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository().id("repo2").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+
+    Entity origin =
+        entityService.createEntity(
+            organisation.getId(),
+            repository1.getId(),
+            new Entity()
+                .id(UUID.randomUUID().toString())
+                .entityType(EntityType.CATEGORY)
+                .addTitlesItem(new LocalisableText().lang("en").text("title")));
+    ForkingInstruction forkingInstruction =
+        new ForkingInstruction()
+            .organisationId(organisation.getId())
+            .repositoryId(repository2.getId());
+    entityService.createFork(
+        organisation.getId(), repository1.getId(), origin.getId(), forkingInstruction, null, null);
+
+    assertThat(entityService.getOutdatedForks(organisation.getId(), repository2.getId()))
+        .isEmpty();
+
+    origin.addTitlesItem(new LocalisableText().lang("de").text("Titel"));
+    entityService.updateEntityById(
+        organisation.getId(), repository1.getId(), origin.getId(), origin, null);
+
+    assertThat(entityService.getOutdatedForks(organisation.getId(), repository2.getId()))
+        .singleElement()
+        .satisfies(
+            f -> {
+              assertThat(f.getRepositoryId()).isEqualTo(repository2.getId());
+              assertThat(f.getOriginId()).isEqualTo(origin.getId());
+              assertThat(f.getOriginRepositoryId()).isEqualTo(repository1.getId());
+              assertThat(f.getVersion()).isEqualTo(1);
+              assertThat(f.getLinkedOriginVersion()).isEqualTo(1);
+              assertThat(f.getOriginVersion()).isEqualTo(2);
+            });
+    assertThat(entityService.getOutdatedForks(organisation.getId(), repository1.getId()))
+        .isEmpty();
+    assertThat(entityService.getOutdatedForksByOrganisationId(organisation.getId())).hasSize(1);
+
+    entityService.createFork(
+        organisation.getId(),
+        repository1.getId(),
+        origin.getId(),
+        forkingInstruction.update(true),
+        null,
+        null);
+
+    assertThat(entityService.getOutdatedForksByOrganisationId(organisation.getId())).isEmpty();
+  }
+
   @Test
   void createEntity() {
     Organisation organisation =
@@ -0,0 +1,77 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.util.TopJsonFormat;
+import care.smith.top.model.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class OrganisationExportServiceTest extends AbstractTest {
+  @Autowired OrganisationExportService organisationExportService;
+
+  @Test
+  void exportOrganisation() throws IOException {
+    Organisation organisation =
+        organisationService.createOrganisation(new Organisation().id("org"));
+    for (int i = 1; i <= 3; i++) {
+      Repository repository =
+          repositoryService.createRepository(
+              organisation.getId(),
+              new Repository()
+                  .id("repo" + i)
+                  .organisation(organisation)
+                  .repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+              null);
+      entityService.createEntity(
+          organisation.getId(),
+          repository.getId(),
+          new Phenotype()
+              .dataType(DataType.STRING)
+              .id("phen" + i)
+              .entityType(EntityType.SINGLE_PHENOTYPE));
+    }
+
+    assertThat(export(organisation.getId(), null))
+        .containsExactlyInAnyOrder(
+            "repo1.json", "repo2.json", "repo3.json", OrganisationExportService.MANIFEST_FILE_NAME);
+
+    assertThat(export(organisation.getId(), List.of("repo2")))
+        .containsExactlyInAnyOrder("repo2.json", OrganisationExportService.MANIFEST_FILE_NAME);
+
+    assertThatThrownBy(() -> export(organisation.getId(), List.of("does not exist")))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
+
+    assertThatThrownBy(
+            () ->
+                organisationExportService.exportOrganisation(
+                    organisation.getId(), null, "invalid", new ByteArrayOutputStream()))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_ACCEPTABLE);
+  }
+
+  private List<String> export(String organisationId, List<String> repositoryIds)
+      throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    organisationExportService.exportOrganisation(
+        organisationId, repositoryIds, TopJsonFormat.class.getSimpleName(), stream);
+
+    List<String> entries = new ArrayList<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(stream.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) entries.add(entry.getName());
+    }
+    return entries;
+  }
+}
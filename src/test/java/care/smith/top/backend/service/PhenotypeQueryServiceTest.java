@@ -4,14 +4,23 @@ import static org.assertj.core.api.Assertions.*;
 import static org.awaitility.Awaitility.await;
 
 import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryPriority;
+import care.smith.top.backend.model.jpa.QueryTermination;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
 import care.smith.top.model.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import org.jobrunr.storage.StorageProvider;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -23,33 +32,43 @@ class PhenotypeQueryServiceTest extends AbstractTest {
   static List<String> dataSources = Arrays.asList("Test_Data_Source_1", "Test_Data_Source_2");
   @Autowired PhenotypeQueryService queryService;
   @Autowired StorageProvider storageProvider;
+  @Autowired QueryRepository queryRepository;
   @Autowired OrganisationService organisationService;
   @Autowired RepositoryService repositoryService;
   @Autowired EntityService entityService;
 
-  @Test
-  void executeQuery() {
-    DataSource dataSource = new DataSource().id(dataSources.get(0)).queryType(QueryType.PHENOTYPE);
-    Organisation orga = organisationService.createOrganisation(new Organisation().id("orga_1"));
-    Repository repo1 =
+  Organisation orga;
+  Repository repo;
+  Phenotype phenotype;
+
+  /** Creates an organisation without data sources, a repository and a phenotype. */
+  @BeforeEach
+  void createPhenotype() {
+    orga = organisationService.createOrganisation(new Organisation().id("orga_1"));
+    repo =
         repositoryService.createRepository(
             orga.getId(),
             new Repository().id("repo_1").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
             null);
-    Repository repo2 =
-        repositoryService.createRepository(
-            orga.getId(),
-            new Repository().id("repo_2").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
-            null);
-    Phenotype phenotype1 =
+    phenotype =
         (Phenotype)
             entityService.createEntity(
                 orga.getId(),
-                repo1.getId(),
+                repo.getId(),
                 new Phenotype()
                     .dataType(DataType.NUMBER)
                     .id("entity_1")
                     .entityType(EntityType.SINGLE_PHENOTYPE));
+  }
+
+  @Test
+  void executeQuery() {
+    DataSource dataSource = new DataSource().id(dataSources.get(0)).queryType(QueryType.PHENOTYPE);
+    Repository repo2 =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_2").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
 
     PhenotypeQuery query =
         (PhenotypeQuery)
@@ -57,7 +76,7 @@ class PhenotypeQueryServiceTest extends AbstractTest {
                 .addCriteriaItem(
                     (QueryCriterion)
                         new QueryCriterion()
-                            .subjectId(phenotype1.getId())
+                            .subjectId(phenotype.getId())
                             .dateTimeRestriction(
                                 (DateTimeRestriction)
                                     new DateTimeRestriction()
@@ -75,7 +94,7 @@ class PhenotypeQueryServiceTest extends AbstractTest {
         .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
 
     assertThatThrownBy(
-            () -> queryService.enqueueQuery(orga.getId(), repo1.getId(), query),
+            () -> queryService.enqueueQuery(orga.getId(), repo.getId(), query),
             "data source was not added to organisation, enqueue should fail")
         .isInstanceOf(ResponseStatusException.class)
         .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_ACCEPTABLE);
@@ -83,14 +102,16 @@ class PhenotypeQueryServiceTest extends AbstractTest {
     assertThatCode(() -> organisationService.addOrganisationDataSource(orga.getId(), dataSource))
         .doesNotThrowAnyException();
 
-    assertThatCode(() -> queryService.enqueueQuery(orga.getId(), repo1.getId(), query))
+    // other tests of this class leave their succeeded jobs behind
+    long succeeded = storageProvider.getJobStats().getSucceeded();
+    assertThatCode(() -> queryService.enqueueQuery(orga.getId(), repo.getId(), query))
         .doesNotThrowAnyException();
 
     await()
         .atMost(100, TimeUnit.SECONDS)
-        .until(() -> storageProvider.getJobStats().getSucceeded() == 1);
+        .until(() -> storageProvider.getJobStats().getSucceeded() == succeeded + 1);
 
-    assertThat(queryService.getQueries(orga.getId(), repo1.getId(), null))
+    assertThat(queryService.getQueries(orga.getId(), repo.getId(), null))
         .map(PhenotypeQuery.class::cast)
         .isNotNull()
         .anySatisfy(
@@ -114,7 +135,7 @@ class PhenotypeQueryServiceTest extends AbstractTest {
         .isInstanceOf(ResponseStatusException.class)
         .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
 
-    assertThat(queryService.getQueryById(orga.getId(), repo1.getId(), query.getId()))
+    assertThat(queryService.getQueryById(orga.getId(), repo.getId(), query.getId()))
         .satisfies(
             r -> {
               assertThat(r.getId()).isEqualTo(query.getId());
@@ -126,9 +147,232 @@ class PhenotypeQueryServiceTest extends AbstractTest {
               assertThat(r.getResult().getState()).isNotNull();
             });
 
-    queryService.deleteQuery(orga.getId(), repo1.getId(), query.getId());
-    assertThat(storageProvider.getJobStats().getSucceeded()).isEqualTo(0);
-    assertThat(queryService.getQueries(orga.getId(), repo1.getId(), null)).isNullOrEmpty();
+    queryService.deleteQuery(orga.getId(), repo.getId(), query.getId());
+    assertThat(storageProvider.getJobStats().getSucceeded()).isEqualTo(succeeded);
+    assertThat(queryService.getQueries(orga.getId(), repo.getId(), null)).isNullOrEmpty();
+  }
+
+  @Test
+  void reuseQueryResult() {
+    addDataSource();
+    PhenotypeQuery query1 = runQuery();
+
+    PhenotypeQuery query2 = (PhenotypeQuery) createQuery().name("same query");
+    assertThat(queryService.enqueueQuery(orga.getId(), repo.getId(), query2))
+        .satisfies(
+            r -> {
+              assertThat(r.getState()).isEqualTo(QueryState.FINISHED);
+              assertThat(r.getMessage()).contains(query1.getId().toString());
+            });
+    assertThat(storageProvider.getJobStats().getEnqueued()).isEqualTo(0);
+    assertThat(queryService.getQueryResultPath(orga.getId(), repo.getId(), query2.getId()))
+        .isRegularFile();
+
+    // a rerun does not reuse the result
+    assertThat(
+            queryService
+                .rerunQuery(
+                    orga.getId(), repo.getId(), query2.getId(), Duration.ofMinutes(10), null)
+                .getState())
+        .isNotEqualTo(QueryState.FINISHED);
+    awaitResult(query2);
+    assertThat(queryService.getQueryById(orga.getId(), repo.getId(), query2.getId()).getResult())
+        .satisfies(r -> assertThat(r.getMessage()).doesNotContain(query1.getId().toString()));
+
+    queryService.deleteQuery(orga.getId(), repo.getId(), query1.getId());
+    queryService.deleteQuery(orga.getId(), repo.getId(), query2.getId());
+  }
+
+  @Test
+  void enqueueQueriesReusingResults() {
+    addDataSource();
+    PhenotypeQuery query1 = runQuery();
+
+    List<Query> queries = List.of(createQuery(), createQuery());
+    assertThat(
+            queryService.enqueueQueries(orga.getId(), repo.getId(), queries, null, null, false))
+        .allSatisfy(
+            e -> {
+              assertThat(e.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+              assertThat(e.getResult().getState()).isEqualTo(QueryState.FINISHED);
+              assertThat(e.getResult().getMessage()).contains(query1.getId().toString());
+            });
+    assertThat(storageProvider.getJobStats().getEnqueued()).isEqualTo(0);
+    for (Query query : queries)
+      assertThat(queryService.getQueryResultPath(orga.getId(), repo.getId(), query.getId()))
+          .isRegularFile();
+  }
+
+  @Test
+  void cancelFinishedQuery() {
+    addDataSource();
+    PhenotypeQuery query = runQuery();
+
+    assertThatThrownBy(() -> queryService.cancelQuery(orga.getId(), repo.getId(), query.getId()))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.CONFLICT);
+  }
+
+  @Test
+  void getQueryResultRows() throws Exception {
+    addDataSource();
+    PhenotypeQuery query = runQuery();
+
+    assertThat(queryService.getQueryResultRows(orga.getId(), repo.getId(), query.getId(), 0, 10))
+        .satisfies(
+            r -> {
+              assertThat(r.getTotal()).isEqualTo(0);
+              assertThat(r.getRows()).isEmpty();
+            });
+  }
+
+  @Test
+  void getQueryResultManifest() throws Exception {
+    addDataSource();
+    PhenotypeQuery query = runQuery();
+
+    assertThat(queryService.getQueryResultManifest(orga.getId(), repo.getId(), query.getId()))
+        .satisfies(
+            m -> {
+              assertThat(m.getSha256()).hasSize(64);
+              assertThat(m.getEntries()).isNotEmpty();
+            });
+  }
+
+  @Test
+  void getQueryResultStatistics() {
+    addDataSource();
+    PhenotypeQuery query = runQuery();
+
+    assertThat(queryService.getQueryResultStatistics(orga.getId(), repo.getId(), query.getId()))
+        .satisfies(st -> assertThat(st.getRows()).isEqualTo(0));
+  }
+
+  @Test
+  void enqueueQueries() {
+    addDataSource();
+    UUID queryId1 = UUID.randomUUID();
+    UUID queryId2 = UUID.randomUUID();
+    List<Query> queries =
+        List.of(
+            createQuery().id(queryId1),
+            createQuery().id(queryId2),
+            createQuery().id(queryId1),
+            createQuery().dataSource(dataSources.get(1)));
+
+    assertThat(
+            queryService.enqueueQueries(
+                orga.getId(), repo.getId(), queries, Duration.ofMinutes(5), null, false))
+        .satisfiesExactly(
+            e -> {
+              assertThat(e.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+              assertThat(e.getResult().getState()).isEqualTo(QueryState.QUEUED);
+            },
+            e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.CREATED.value()),
+            e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.CONFLICT.value()),
+            e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_ACCEPTABLE.value()));
+    awaitResult(queries.get(0));
+    awaitResult(queries.get(1));
+    assertThat(queryService.getQueries(orga.getId(), repo.getId(), null)).hasSize(2);
+
+    assertThatThrownBy(
+            () ->
+                queryService.enqueueQueries(
+                    orga.getId(), repo.getId(), List.of(), null, null, false))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  void enqueueCountQuery() {
+    addDataSource();
+    PhenotypeQuery query1 = createQuery();
+    assertThatThrownBy(
+            () ->
+                queryService.enqueueQueries(
+                    orga.getId(), repo.getId(), List.of(query1), null, QueryPriority.COUNT, false))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.BAD_REQUEST);
+
+    queryService.enqueueCountQuery(orga.getId(), repo.getId(), query1, null);
+    awaitResult(query1);
+    assertThat(queryService.getQueryById(orga.getId(), repo.getId(), query1.getId()).getResult())
+        .satisfies(r -> assertThat(r.getCount()).isEqualTo(0));
+    assertThat(queryService.getQueryResultStatistics(orga.getId(), repo.getId(), query1.getId()))
+        .satisfies(st -> assertThat(st.getRows()).isEqualTo(0));
+    assertThatThrownBy(
+            () -> queryService.getQueryResultPath(orga.getId(), repo.getId(), query1.getId()))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
+
+    // count-only results are reused by count-only queries only
+    PhenotypeQuery query2 = createQuery();
+    assertThat(queryService.enqueueCountQuery(orga.getId(), repo.getId(), query2, null))
+        .satisfies(r -> assertThat(r.getMessage()).contains(query1.getId().toString()));
+
+    PhenotypeQuery query3 = createQuery();
+    assertThat(queryService.enqueueQuery(orga.getId(), repo.getId(), query3).getState())
+        .isNotEqualTo(QueryState.FINISHED);
+    awaitResult(query3);
+    assertThat(queryService.getQueryResultPath(orga.getId(), repo.getId(), query3.getId()))
+        .isRegularFile();
+  }
+
+  @Test
+  void executeQueryOfUnknownDataSource() {
+    RepositoryDao repository =
+        repositoryRepository.findByIdAndOrganisationId(repo.getId(), orga.getId()).orElseThrow();
+    UUID queryId = UUID.randomUUID();
+    queryRepository.save(
+        new QueryDao(
+            queryId.toString(),
+            null,
+            "Unknown_Data_Source",
+            new ArrayList<>(),
+            new ArrayList<>(),
+            repository));
+
+    // the query fails before its execution starts, but still gets a result
+    queryService.executeQuery(queryId);
+    assertThat(queryService.getQueryById(orga.getId(), repo.getId(), queryId).getResult())
+        .satisfies(
+            r -> {
+              assertThat(r.getState()).isEqualTo(QueryState.FAILED);
+              assertThat(r.getMessage()).startsWith("Cause:");
+            });
+  }
+
+  @Test
+  void cancelDispatchedQuery() {
+    RepositoryDao repository =
+        repositoryRepository.findByIdAndOrganisationId(repo.getId(), orga.getId()).orElseThrow();
+    UUID queryId = UUID.randomUUID();
+    queryRepository.save(
+        new QueryDao(
+                queryId.toString(),
+                null,
+                "Unknown_Data_Source",
+                new ArrayList<>(),
+                new ArrayList<>(),
+                repository)
+            .dispatchedAt(OffsetDateTime.now()));
+
+    // the query may be executed by another instance, which stores the result
+    queryService.cancelQuery(orga.getId(), repo.getId(), queryId);
+    assertThat(queryRepository.findById(queryId.toString()).orElseThrow())
+        .satisfies(
+            q -> {
+              assertThat(q.getCancelRequestedAt()).isNotNull();
+              assertThat(q.getResult()).isNull();
+            });
+
+    queryService.executeQuery(queryId);
+    assertThat(queryRepository.findById(queryId.toString()).orElseThrow().getResult())
+        .satisfies(
+            r -> {
+              assertThat(r.getState()).isEqualTo(QueryState.FAILED);
+              assertThat(r.getTermination()).isEqualTo(QueryTermination.CANCELLED);
+            });
   }
 
   @Test
@@ -158,4 +402,39 @@ class PhenotypeQueryServiceTest extends AbstractTest {
             d -> assertThat(d.getId()).isEqualTo(dataSources.get(0)),
             d -> assertThat(d.getId()).isEqualTo(dataSources.get(1)));
   }
+
+  private void addDataSource() {
+    organisationService.addOrganisationDataSource(
+        orga.getId(), new DataSource().id(dataSources.get(0)).queryType(QueryType.PHENOTYPE));
+  }
+
+  /** @return A new query of the first data source with the phenotype as projection. */
+  private PhenotypeQuery createQuery() {
+    return (PhenotypeQuery)
+        new PhenotypeQuery()
+            .addProjectionItem(new ProjectionEntry().subjectId(phenotype.getId()))
+            .type(QueryType.PHENOTYPE)
+            .id(UUID.randomUUID())
+            .dataSource(dataSources.get(0));
+  }
+
+  /** Enqueues a new query and waits until it has finished. */
+  private PhenotypeQuery runQuery() {
+    PhenotypeQuery query = createQuery();
+    queryService.enqueueQuery(orga.getId(), repo.getId(), query);
+    awaitResult(query);
+    return query;
+  }
+
+  /** Waits until the query has finished successfully. */
+  private void awaitResult(Query query) {
+    await()
+        .atMost(100, TimeUnit.SECONDS)
+        .until(
+            () -> {
+              QueryResult result =
+                  queryService.getQueryById(orga.getId(), repo.getId(), query.getId()).getResult();
+              return result != null && QueryState.FINISHED.equals(result.getState());
+            });
+  }
 }
@@ -0,0 +1,257 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.awaitility.Awaitility.await;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryPriority;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.backend.service.nlp.DocumentQueryService;
+import care.smith.top.model.*;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+class QueryDispatcherTest extends AbstractTest {
+  @Autowired QueryDispatcher queryDispatcher;
+  @Autowired QueryRepository queryRepository;
+  @Autowired DocumentQueryService documentQueryService;
+
+  List<UUID> enqueued = Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  void registerEnqueuer() {
+    queryDispatcher.register(QueryType.CONCEPT, enqueued::add);
+  }
+
+  @AfterEach
+  void restoreEnqueuer() {
+    documentQueryService.registerQueryService();
+  }
+
+  @Test
+  void dispatchByPriority() {
+    RepositoryDao repository = createRepository("orga");
+    String dataSource = "dispatcher_test";
+    List<UUID> batch = new ArrayList<>();
+    for (int i = 0; i < 3; i++) batch.add(submit(repository, dataSource, QueryPriority.BATCH));
+
+    // default limit of 4 concurrent queries, of which 2 may be batch queries
+    assertThat(enqueued).containsExactly(batch.get(0), batch.get(1));
+    assertThat(isQueued(batch.get(2))).isTrue();
+
+    UUID interactive1 = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+    UUID interactive2 = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+    UUID interactive3 = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+    assertThat(enqueued).containsExactly(batch.get(0), batch.get(1), interactive1, interactive2);
+
+    assertThat(queryDispatcher.getStats())
+        .filteredOn(s -> dataSource.equals(s.getDataSource()))
+        .singleElement()
+        .satisfies(
+            s -> {
+              assertThat(s.getMaxConcurrent()).isEqualTo(4);
+              assertThat(s.getMaxConcurrentBatch()).isEqualTo(2);
+              assertThat(s.getRunning()).isEqualTo(4);
+              assertThat(s.getRunningBatch()).isEqualTo(2);
+              assertThat(s.getQueued()).isEqualTo(2);
+              assertThat(s.getQueuedBatch()).isEqualTo(1);
+            });
+
+    // interactive queries are dispatched before batch queries
+    finish(batch.get(0));
+    assertThat(enqueued).last().isEqualTo(interactive3);
+    assertThat(isQueued(batch.get(2))).isTrue();
+
+    finish(interactive1);
+    assertThat(enqueued).last().isEqualTo(batch.get(2));
+
+    // removed queries are never enqueued
+    UUID removed = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+    assertThat(queryDispatcher.remove(removed)).isTrue();
+    assertThat(queryDispatcher.remove(removed)).isFalse();
+    queryRepository.deleteById(removed.toString());
+    finish(interactive2);
+    assertThat(enqueued).doesNotContain(removed);
+
+    // count-only queries are dispatched before interactive queries
+    UUID interactive4 = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+    UUID interactive5 = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+    UUID count = submit(repository, dataSource, QueryPriority.COUNT);
+    assertThat(enqueued).last().isEqualTo(interactive4);
+    finish(interactive4);
+    assertThat(enqueued).last().isEqualTo(count);
+    finish(count);
+    assertThat(enqueued).last().isEqualTo(interactive5);
+  }
+
+  @Test
+  void dispatchCountQueriesUpToShare() {
+    RepositoryDao repository = createRepository("orga");
+    String dataSource = "count_share_test";
+    List<UUID> count = new ArrayList<>();
+    for (int i = 0; i < 3; i++) count.add(submit(repository, dataSource, QueryPriority.COUNT));
+    UUID interactive = submit(repository, dataSource, QueryPriority.INTERACTIVE);
+
+    // default limit of 4 concurrent queries, of which 2 may be count-only queries
+    assertThat(enqueued).containsExactly(count.get(0), count.get(1), interactive);
+    assertThat(isQueued(count.get(2))).isTrue();
+
+    assertThat(queryDispatcher.getStats())
+        .filteredOn(s -> dataSource.equals(s.getDataSource()))
+        .singleElement()
+        .satisfies(
+            s -> {
+              assertThat(s.getMaxConcurrentCount()).isEqualTo(2);
+              assertThat(s.getRunningCount()).isEqualTo(2);
+              assertThat(s.getQueuedCount()).isEqualTo(1);
+            });
+
+    finish(count.get(0));
+    assertThat(enqueued).last().isEqualTo(count.get(2));
+  }
+
+  @Test
+  void dispatchFairly() {
+    RepositoryDao repository1 = createRepository("orga_1");
+    RepositoryDao repository2 = createRepository("orga_2");
+    String dataSource = "fairness_test";
+    List<UUID> queries1 = new ArrayList<>();
+    for (int i = 0; i < 6; i++)
+      queries1.add(submit(repository1, dataSource, QueryPriority.INTERACTIVE));
+    UUID query2a = submit(repository2, dataSource, QueryPriority.INTERACTIVE);
+    UUID query2b = submit(repository2, dataSource, QueryPriority.INTERACTIVE);
+    assertThat(enqueued).containsExactlyElementsOf(queries1.subList(0, 4));
+
+    // the organisation with fewer running queries is served first
+    finish(queries1.get(0));
+    assertThat(enqueued).last().isEqualTo(query2a);
+    finish(queries1.get(1));
+    assertThat(enqueued).last().isEqualTo(query2b);
+    finish(queries1.get(2));
+    assertThat(enqueued).last().isEqualTo(queries1.get(4));
+
+    assertThat(queryDispatcher.getStats())
+        .filteredOn(s -> dataSource.equals(s.getDataSource()))
+        .singleElement()
+        .satisfies(
+            s -> {
+              assertThat(s.getRunning()).isEqualTo(4);
+              assertThat(s.getQueued()).isEqualTo(1);
+              assertThat(s.getQueuedOrganisations()).isEqualTo(1);
+            });
+
+    finish(queries1.get(3));
+    assertThat(enqueued).hasSize(8).last().isEqualTo(queries1.get(5));
+  }
+
+  @Test
+  void dispatchByOrganisationWeight() {
+    ReflectionTestUtils.setField(queryDispatcher, "weightByOrganisation", Map.of("orga_1", 3.0));
+    try {
+      RepositoryDao repository1 = createRepository("orga_1");
+      RepositoryDao repository2 = createRepository("orga_2");
+      String dataSource = "weight_test";
+      List<UUID> queries1 = new ArrayList<>();
+      for (int i = 0; i < 6; i++)
+        queries1.add(submit(repository1, dataSource, QueryPriority.INTERACTIVE));
+      UUID query2a = submit(repository2, dataSource, QueryPriority.INTERACTIVE);
+      submit(repository2, dataSource, QueryPriority.INTERACTIVE);
+
+      // 3 running queries with weight 3 equal 1 running query with weight 1
+      finish(queries1.get(0));
+      assertThat(enqueued).last().isEqualTo(query2a);
+      finish(queries1.get(1));
+      assertThat(enqueued).last().isEqualTo(queries1.get(4));
+    } finally {
+      ReflectionTestUtils.setField(queryDispatcher, "weightByOrganisation", Map.of());
+    }
+  }
+
+  @Test
+  void limitOrganisationsIndividually() {
+    ReflectionTestUtils.setField(
+        queryDispatcher, "maxConcurrentByOrganisation", Map.of("orga_1", 1));
+    ReflectionTestUtils.setField(queryDispatcher, "maxQueuedByOrganisation", Map.of("orga_2", 1));
+    try {
+      RepositoryDao repository1 = createRepository("orga_1");
+      RepositoryDao repository2 = createRepository("orga_2");
+      String dataSource = "organisation_limit_test";
+      UUID query1a = submit(repository1, dataSource, QueryPriority.INTERACTIVE);
+      UUID query1b = submit(repository1, dataSource, QueryPriority.INTERACTIVE);
+      UUID query2 = submit(repository2, dataSource, QueryPriority.INTERACTIVE);
+      assertThat(enqueued).containsExactly(query1a, query2);
+      assertThat(isQueued(query1b)).isTrue();
+
+      assertThatCode(() -> queryDispatcher.requireCapacity("orga_1", 2)).doesNotThrowAnyException();
+      assertThatThrownBy(() -> queryDispatcher.requireCapacity("orga_2", 2))
+          .isInstanceOf(ResponseStatusException.class)
+          .hasFieldOrPropertyWithValue("status", HttpStatus.TOO_MANY_REQUESTS);
+    } finally {
+      ReflectionTestUtils.setField(queryDispatcher, "maxConcurrentByOrganisation", Map.of());
+      ReflectionTestUtils.setField(queryDispatcher, "maxQueuedByOrganisation", Map.of());
+    }
+  }
+
+  @Test
+  void dispatchQueriesOfOtherInstances() {
+    RepositoryDao repository = createRepository("orga");
+
+    // saved by an instance, that stopped before dispatching the query
+    UUID queryId = UUID.randomUUID();
+    queryRepository.save(
+        new QueryDao(queryId.toString(), null, "entity", null, "other_instance_test", repository));
+    assertThat(isQueued(queryId)).isTrue();
+
+    await().atMost(30, TimeUnit.SECONDS).until(() -> enqueued.contains(queryId));
+    assertThat(isQueued(queryId)).isFalse();
+  }
+
+  private RepositoryDao createRepository(String organisationId) {
+    String repositoryId = organisationId + "_repo";
+    organisationService.createOrganisation(new Organisation().id(organisationId));
+    repositoryService.createRepository(
+        organisationId,
+        new Repository().id(repositoryId).repositoryType(RepositoryType.CONCEPT_REPOSITORY),
+        null);
+    return repositoryRepository
+        .findByIdAndOrganisationId(repositoryId, organisationId)
+        .orElseThrow();
+  }
+
+  private UUID submit(RepositoryDao repository, String dataSource, QueryPriority priority) {
+    UUID queryId = UUID.randomUUID();
+    queryRepository.save(
+        new QueryDao(queryId.toString(), null, "entity", null, dataSource, repository)
+            .priority(priority));
+    queryDispatcher.dispatch();
+    return queryId;
+  }
+
+  /** Stores a result for a query, which releases its slot. */
+  private void finish(UUID queryId) {
+    QueryDao queryDao = queryRepository.findById(queryId.toString()).orElseThrow();
+    OffsetDateTime now = OffsetDateTime.now();
+    queryRepository.save(
+        queryDao.result(new QueryResultDao(queryDao, now, 0L, now, QueryState.FINISHED)));
+    queryDispatcher.dispatch();
+  }
+
+  private boolean isQueued(UUID queryId) {
+    return queryRepository.findById(queryId.toString()).orElseThrow().isQueued();
+  }
+}
@@ -0,0 +1,166 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.awaitility.Awaitility.await;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.model.*;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@AutoConfigureMockMvc
+class QueryEventServiceTest extends AbstractTest {
+  @Autowired QueryEventService queryEventService;
+  @Autowired QueryRepository queryRepository;
+  @Autowired MockMvc mockMvc;
+
+  Organisation orga;
+  Repository repo;
+
+  @BeforeEach
+  void createRepository() {
+    orga = organisationService.createOrganisation(new Organisation().id("orga_1"));
+    repo =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_1").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+  }
+
+  @Test
+  void subscribe() {
+    assertThatThrownBy(() -> queryEventService.subscribe(orga.getId(), "invalid"))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
+
+    int subscribers = queryEventService.getSubscriberCount();
+    SseEmitter emitter = queryEventService.subscribe(orga.getId(), repo.getId());
+    assertThat(emitter).isNotNull();
+    assertThat(queryEventService.getSubscriberCount()).isEqualTo(subscribers + 1);
+  }
+
+  @Test
+  void publish() throws Exception {
+    MockHttpServletResponse response =
+        mockMvc
+            .perform(
+                get(
+                        "/organisation/{organisationId}/repository/{repositoryId}/queryEvents",
+                        orga.getId(),
+                        repo.getId())
+                    .accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted())
+            .andReturn()
+            .getResponse();
+
+    UUID queryId = UUID.randomUUID();
+    queryEventService.publish(
+        createQuery(queryId, repo), new QueryResult().id(queryId).state(QueryState.FINISHED));
+
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .untilAsserted(
+            () ->
+                assertThat(response.getContentAsString())
+                    .contains("event:query")
+                    .contains(queryId.toString()));
+  }
+
+  @Test
+  void publishChanges() throws Exception {
+    QueryDao running = queryRepository.save(createStoredQuery());
+    MockHttpServletResponse response =
+        mockMvc
+            .perform(
+                get(
+                        "/organisation/{organisationId}/repository/{repositoryId}/queryEvents",
+                        orga.getId(),
+                        repo.getId())
+                    .accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted())
+            .andReturn()
+            .getResponse();
+
+    // changes made by another instance sharing the database
+    QueryDao queued = queryRepository.save(createStoredQuery());
+    OffsetDateTime now = OffsetDateTime.now();
+    queryRepository.save(
+        running.result(new QueryResultDao(running, now, 1L, now, QueryState.FINISHED)));
+    queryEventService.publishChanges();
+
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .untilAsserted(
+            () ->
+                assertThat(response.getContentAsString())
+                    .contains(queued.getId())
+                    .contains("QUEUED")
+                    .contains(running.getId())
+                    .contains("FINISHED"));
+  }
+
+  @Test
+  void removeCompletedSubscribers() {
+    Repository otherRepo =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_2").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    int subscribers = queryEventService.getSubscriberCount();
+    SseEmitter emitter = queryEventService.subscribe(orga.getId(), otherRepo.getId());
+    emitter.complete();
+
+    // sending to the completed emitter fails, which removes it and the empty subscriber set
+    UUID queryId = UUID.randomUUID();
+    queryEventService.publish(
+        createQuery(queryId, otherRepo), new QueryResult().id(queryId).state(QueryState.RUNNING));
+
+    await()
+        .atMost(10, TimeUnit.SECONDS)
+        .until(() -> queryEventService.getSubscriberCount() == subscribers);
+    assertThat((Map<?, ?>) ReflectionTestUtils.getField(queryEventService, "emitters"))
+        .doesNotContainKey(orga.getId() + "/" + otherRepo.getId());
+  }
+
+  /** @return A query of {@link #repo}, that has been dispatched, so that it is not executed. */
+  private QueryDao createStoredQuery() {
+    RepositoryDao repositoryDao =
+        repositoryRepository.findByIdAndOrganisationId(repo.getId(), orga.getId()).orElseThrow();
+    return new QueryDao(
+            UUID.randomUUID().toString(),
+            null,
+            "data_source",
+            new ArrayList<>(),
+            new ArrayList<>(),
+            repositoryDao)
+        .dispatchedAt(OffsetDateTime.now());
+  }
+
+  private QueryDao createQuery(UUID queryId, Repository repository) {
+    RepositoryDao repositoryDao =
+        repositoryRepository
+            .findByIdAndOrganisationId(repository.getId(), orga.getId())
+            .orElseThrow();
+    return new QueryDao(queryId.toString(), null, "entity", null, "data_source", repositoryDao);
+  }
+}
@@ -0,0 +1,103 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.model.diff.EntityDiff;
+import care.smith.top.backend.model.diff.FieldDiff;
+import care.smith.top.backend.model.diff.RepositoryDiff;
+import care.smith.top.model.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class RepositoryDiffServiceTest extends AbstractTest {
+  @Autowired RepositoryDiffService repositoryDiffService;
+
+  @Test
+  void diffRepository() {
+    Organisation organisation =
+        organisationService.createOrganisation(new Organisation().id("org"));
+    Repository origin =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository()
+                .id("origin")
+                .primary(true)
+                .repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    Repository fork =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository().id("fork").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+
+    Entity unchanged = createPhenotype(origin, "unchanged", "Unchanged");
+    Entity changed = createPhenotype(origin, "changed", "Changed");
+    ForkingInstruction forkingInstruction =
+        new ForkingInstruction().organisationId(organisation.getId()).repositoryId(fork.getId());
+    entityService.createFork(
+        organisation.getId(), origin.getId(), unchanged.getId(), forkingInstruction, null, null);
+    entityService.createFork(
+        organisation.getId(), origin.getId(), changed.getId(), forkingInstruction, null, null);
+
+    changed.getTitles().get(0).setText("Changed title");
+    entityService.updateEntityById(
+        organisation.getId(), origin.getId(), changed.getId(), changed, null);
+    createPhenotype(origin, "removed", "Removed");
+    createPhenotype(fork, "added", "Added");
+
+    RepositoryDiff diff =
+        repositoryDiffService.diffRepository(
+            organisation.getId(), fork.getId(), origin.getId(), true);
+
+    assertThat(diff.getAdded()).map(EntityDiff::getId).containsExactly("added");
+    assertThat(diff.getRemoved()).map(EntityDiff::getOriginId).containsExactly("removed");
+    assertThat(diff.getUnchanged()).map(EntityDiff::getOriginId).containsExactly("unchanged");
+    assertThat(diff.getUnchanged().get(0).getHash())
+        .isEqualTo(diff.getUnchanged().get(0).getOriginHash());
+    assertThat(diff.getChanged())
+        .singleElement()
+        .satisfies(
+            e -> {
+              assertThat(e.getOriginId()).isEqualTo("changed");
+              assertThat(e.getVersion()).isEqualTo(1);
+              assertThat(e.getOriginVersion()).isEqualTo(2);
+              assertThat(e.getHash()).isNotEqualTo(e.getOriginHash());
+              assertThat(e.getFields()).map(FieldDiff::getField).containsExactly("titles");
+            });
+
+    assertThat(
+            repositoryDiffService
+                .diffRepository(organisation.getId(), fork.getId(), origin.getId(), false)
+                .getChanged())
+        .singleElement()
+        .satisfies(e -> assertThat(e.getFields()).isNull());
+
+    assertThatThrownBy(
+            () ->
+                repositoryDiffService.diffRepository(
+                    organisation.getId(), fork.getId(), "does not exist", false))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
+
+    assertThatThrownBy(
+            () ->
+                repositoryDiffService.diffRepository(
+                    organisation.getId(), fork.getId(), fork.getId(), false))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_ACCEPTABLE);
+  }
+
+  private Entity createPhenotype(Repository repository, String id, String title) {
+    return entityService.createEntity(
+        repository.getOrganisation().getId(),
+        repository.getId(),
+        new Phenotype()
+            .dataType(DataType.NUMBER)
+            .id(id)
+            .entityType(EntityType.SINGLE_PHENOTYPE)
+            .addTitlesItem(new LocalisableText().lang("en").text(title)));
+  }
+}
@@ -5,7 +5,10 @@ import static org.assertj.core.api.Assertions.*;
 import care.smith.top.backend.AbstractTest;
 import care.smith.top.backend.model.jpa.RepositoryDao;
 import care.smith.top.model.*;
+import java.math.BigDecimal;
+import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -314,4 +317,230 @@ class RepositoryServiceTest extends AbstractTest {
                 organisation1.getId(), null, null, RepositoryType.CONCEPT_REPOSITORY, 1))
         .isNullOrEmpty();
   }
+
+  @Test
+  void cloneRepository() {
+    Organisation organisation =
+        organisationService.createOrganisation(new Organisation().id("org"));
+    Repository repository =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository()
+                .id("repo")
+                .name("Repository")
+                .repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+
+    Category category =
+        (Category)
+            entityService.createEntity(
+                organisation.getId(),
+                repository.getId(),
+                new Category()
+                    .id("cat")
+                    .entityType(EntityType.CATEGORY)
+                    .addTitlesItem(new LocalisableText().lang("en").text("Category")));
+    Phenotype phenotype =
+        (Phenotype)
+            entityService.createEntity(
+                organisation.getId(),
+                repository.getId(),
+                new Phenotype()
+                    .dataType(DataType.NUMBER)
+                    .addSuperCategoriesItem(category)
+                    .id("phen")
+                    .entityType(EntityType.SINGLE_PHENOTYPE)
+                    .addTitlesItem(new LocalisableText().lang("en").text("Phenotype")));
+    entityService.createEntity(
+        organisation.getId(),
+        repository.getId(),
+        new Phenotype()
+            .restriction(
+                new NumberRestriction()
+                    .minOperator(RestrictionOperator.GREATER_THAN)
+                    .addValuesItem(BigDecimal.valueOf(50))
+                    .type(DataType.NUMBER))
+            .dataType(DataType.BOOLEAN)
+            .superPhenotype(phenotype)
+            .id("res")
+            .entityType(EntityType.SINGLE_RESTRICTION));
+    entityService.createEntity(
+        organisation.getId(),
+        repository.getId(),
+        new Phenotype()
+            .expression(new Expression().entityId(phenotype.getId()))
+            .dataType(DataType.NUMBER)
+            .id("comp")
+            .entityType(EntityType.COMPOSITE_PHENOTYPE));
+
+    assertThatThrownBy(
+            () ->
+                repositoryService.cloneRepository(
+                    organisation.getId(),
+                    "does not exist",
+                    organisation.getId(),
+                    new Repository().id("clone")))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.NOT_FOUND);
+
+    assertThatThrownBy(
+            () ->
+                repositoryService.cloneRepository(
+                    organisation.getId(),
+                    repository.getId(),
+                    organisation.getId(),
+                    new Repository().id(repository.getId())))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.CONFLICT);
+
+    Repository clone =
+        repositoryService.cloneRepository(
+            organisation.getId(),
+            repository.getId(),
+            organisation.getId(),
+            new Repository().id("clone"));
+    assertThat(clone)
+        .isNotNull()
+        .hasFieldOrPropertyWithValue("id", "clone")
+        .hasFieldOrPropertyWithValue("name", repository.getName())
+        .hasFieldOrPropertyWithValue("repositoryType", RepositoryType.PHENOTYPE_REPOSITORY);
+
+    List<Entity> entities =
+        entityService
+            .getEntitiesByRepositoryId(
+                organisation.getId(), clone.getId(), null, null, null, null, null, 1)
+            .getContent();
+    assertThat(entities)
+        .size()
+        .isEqualTo(4)
+        .returnToIterable()
+        .noneMatch(e -> List.of("cat", "phen", "res", "comp").contains(e.getId()));
+
+    Entity clonedCategory = findByType(entities, EntityType.CATEGORY);
+    Phenotype clonedPhenotype = (Phenotype) findByType(entities, EntityType.SINGLE_PHENOTYPE);
+    assertThat(clonedPhenotype.getTitles())
+        .singleElement()
+        .hasFieldOrPropertyWithValue("text", "Phenotype");
+    assertThat(clonedPhenotype.getSuperCategories())
+        .singleElement()
+        .hasFieldOrPropertyWithValue("id", clonedCategory.getId());
+
+    assertThat((Phenotype) findByType(entities, EntityType.SINGLE_RESTRICTION))
+        .satisfies(
+            r -> {
+              assertThat(r.getSuperPhenotype().getId()).isEqualTo(clonedPhenotype.getId());
+              assertThat(r.getRestriction())
+                  .isInstanceOf(NumberRestriction.class)
+                  .hasFieldOrPropertyWithValue("minOperator", RestrictionOperator.GREATER_THAN);
+              assertThat(((NumberRestriction) r.getRestriction()).getValues())
+                  .containsExactly(BigDecimal.valueOf(50));
+            });
+
+    assertThat((Phenotype) findByType(entities, EntityType.COMPOSITE_PHENOTYPE))
+        .satisfies(
+            c -> assertThat(c.getExpression().getEntityId()).isEqualTo(clonedPhenotype.getId()));
+
+    assertThat(entityRepository.findAllByRepositoryId(repository.getId(), Pageable.unpaged()))
+        .size()
+        .isEqualTo(4);
+  }
+
+  @Test
+  void cloneRepositoryKeepsOrder() {
+    Organisation organisation =
+        organisationService.createOrganisation(new Organisation().id("org"));
+    Repository repository =
+        repositoryService.createRepository(
+            organisation.getId(),
+            new Repository().id("repo").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    Phenotype phenotype =
+        (Phenotype)
+            entityService.createEntity(
+                organisation.getId(),
+                repository.getId(),
+                new Phenotype()
+                    .dataType(DataType.NUMBER)
+                    .id("phen")
+                    .entityType(EntityType.SINGLE_PHENOTYPE));
+    entityService.createEntity(
+        organisation.getId(),
+        repository.getId(),
+        new Phenotype()
+            .restriction(
+                new NumberRestriction()
+                    .addValuesItem(BigDecimal.valueOf(7))
+                    .addValuesItem(BigDecimal.valueOf(3))
+                    .type(DataType.NUMBER))
+            .dataType(DataType.BOOLEAN)
+            .superPhenotype(phenotype)
+            .id("res")
+            .entityType(EntityType.SINGLE_RESTRICTION));
+    entityService.createEntity(
+        organisation.getId(),
+        repository.getId(),
+        new Phenotype()
+            .expression(
+                new Expression()
+                    .functionId("minus")
+                    .addArgumentsItem(
+                        new Expression()
+                            .functionId("divide")
+                            .addArgumentsItem(new Expression().entityId(phenotype.getId()))
+                            .addArgumentsItem(constant(4)))
+                    .addArgumentsItem(constant(3))
+                    .addArgumentsItem(
+                        new Expression()
+                            .addValuesItem(new NumberValue().value(BigDecimal.valueOf(2)))
+                            .addValuesItem(new NumberValue().value(BigDecimal.valueOf(1)))))
+            .dataType(DataType.NUMBER)
+            .id("comp")
+            .entityType(EntityType.COMPOSITE_PHENOTYPE));
+
+    repositoryService.cloneRepository(
+        organisation.getId(),
+        repository.getId(),
+        organisation.getId(),
+        new Repository().id("clone"));
+
+    List<Entity> sources =
+        entityService
+            .getEntitiesByRepositoryId(
+                organisation.getId(), repository.getId(), null, null, null, null, null, 1)
+            .getContent();
+    List<Entity> clones =
+        entityService
+            .getEntitiesByRepositoryId(
+                organisation.getId(), "clone", null, null, null, null, null, 1)
+            .getContent();
+
+    Phenotype sourceRestriction = (Phenotype) findByType(sources, EntityType.SINGLE_RESTRICTION);
+    Phenotype clonedRestriction = (Phenotype) findByType(clones, EntityType.SINGLE_RESTRICTION);
+    assertThat(((NumberRestriction) sourceRestriction.getRestriction()).getValues())
+        .containsExactly(BigDecimal.valueOf(7), BigDecimal.valueOf(3));
+    assertThat(clonedRestriction.getRestriction()).isEqualTo(sourceRestriction.getRestriction());
+
+    Expression source =
+        ((Phenotype) findByType(sources, EntityType.COMPOSITE_PHENOTYPE)).getExpression();
+    Expression clone =
+        ((Phenotype) findByType(clones, EntityType.COMPOSITE_PHENOTYPE)).getExpression();
+    assertThat(source.getArguments())
+        .extracting(Expression::getFunctionId)
+        .containsExactly("divide", null, null);
+    assertThat(clone.getArguments().get(0).getArguments().get(0).getEntityId())
+        .isEqualTo(findByType(clones, EntityType.SINGLE_PHENOTYPE).getId());
+    clone.getArguments().get(0).getArguments().get(0).entityId(phenotype.getId());
+    assertThat(clone).isEqualTo(source);
+  }
+
+  private Expression constant(int value) {
+    return new Expression().addValuesItem(new NumberValue().value(BigDecimal.valueOf(value)));
+  }
+
+  private Entity findByType(List<Entity> entities, EntityType entityType) {
+    return entities.stream()
+        .filter(e -> entityType.equals(e.getEntityType()))
+        .findFirst()
+        .orElseThrow();
+  }
 }
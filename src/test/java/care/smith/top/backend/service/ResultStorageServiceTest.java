@@ -0,0 +1,110 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.backend.model.jpa.QueryDao;
+import care.smith.top.backend.model.jpa.QueryResultDao;
+import care.smith.top.backend.model.jpa.RepositoryDao;
+import care.smith.top.backend.repository.jpa.QueryRepository;
+import care.smith.top.model.Organisation;
+import care.smith.top.model.QueryState;
+import care.smith.top.model.Repository;
+import care.smith.top.model.RepositoryType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.server.ResponseStatusException;
+
+@SpringBootTest(properties = "top.result.retention.organisation-max-age=orga_gc=1d")
+class ResultStorageServiceTest extends AbstractTest {
+  @Autowired ResultStorageService resultStorageService;
+  @Autowired PhenotypeQueryService queryService;
+  @Autowired QueryRepository queryRepository;
+
+  /** The garbage collection removes all orphaned results, so it gets a directory of its own. */
+  @TempDir static Path resultDir;
+
+  @DynamicPropertySource
+  static void resultDirProperties(DynamicPropertyRegistry registry) {
+    registry.add("top.result.dir", resultDir::toString);
+  }
+
+  @Test
+  void collectGarbage() throws IOException {
+    Organisation orga = organisationService.createOrganisation(new Organisation().id("orga_gc"));
+    Repository repo =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_gc").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    RepositoryDao repository =
+        repositoryRepository.findByIdAndOrganisationId(repo.getId(), orga.getId()).orElseThrow();
+    Path directory = resultDir.resolve(orga.getId()).resolve(repo.getId());
+    Files.createDirectories(directory);
+
+    QueryDao expired = saveQuery(repository, OffsetDateTime.now().minusDays(2));
+    Files.write(directory.resolve(expired.getId() + ".zip"), new byte[100]);
+    Files.write(directory.resolve(expired.getId() + ".rows"), new byte[50]);
+    QueryDao retained = saveQuery(repository, OffsetDateTime.now());
+    Path retainedFile = Files.write(directory.resolve(retained.getId() + ".zip"), new byte[10]);
+
+    Path orphanFile = Files.write(directory.resolve(UUID.randomUUID() + ".zip"), new byte[20]);
+    Files.setLastModifiedTime(orphanFile, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+    Path recentFile = Files.write(directory.resolve(UUID.randomUUID() + ".zip"), new byte[20]);
+    Path orphanDirectory = resultDir.resolve("orga_deleted").resolve("repo_deleted");
+    Files.createDirectories(orphanDirectory);
+    Files.write(orphanDirectory.resolve("query.zip"), new byte[30]);
+
+    assertThat(resultStorageService.collectGarbage())
+        .satisfies(
+            c -> {
+              assertThat(c.getExpiredResults()).isEqualTo(1);
+              assertThat(c.getRemovedOrphans()).isEqualTo(2);
+              assertThat(c.getFreedBytes()).isEqualTo(200);
+            });
+
+    assertThat(directory.resolve(expired.getId() + ".zip")).doesNotExist();
+    assertThat(directory.resolve(expired.getId() + ".rows")).doesNotExist();
+    assertThat(orphanFile).doesNotExist();
+    assertThat(orphanDirectory.getParent()).doesNotExist();
+    assertThat(retainedFile).exists();
+    assertThat(recentFile).exists();
+    assertThat(queryRepository.findById(expired.getId()).orElseThrow().getResult().getExpiredAt())
+        .isNotNull();
+    assertThatThrownBy(
+            () ->
+                queryService.getQueryResultPath(
+                    orga.getId(), repo.getId(), UUID.fromString(expired.getId())))
+        .isInstanceOf(ResponseStatusException.class)
+        .hasFieldOrPropertyWithValue("status", HttpStatus.GONE);
+
+    assertThat(resultStorageService.getUsage().getOrganisations())
+        .filteredOn(o -> orga.getId().equals(o.getOrganisationId()))
+        .singleElement()
+        .satisfies(o -> assertThat(o.getSize()).isEqualTo(30));
+
+    organisationService.deleteOrganisationById(orga.getId());
+    assertThat(resultDir.resolve(orga.getId())).doesNotExist();
+  }
+
+  private QueryDao saveQuery(RepositoryDao repository, OffsetDateTime finishedAt) {
+    QueryDao query =
+        new QueryDao(
+            UUID.randomUUID().toString(), null, "Test_Data_Source_1", null, null, repository);
+    query.result(new QueryResultDao(query, finishedAt, 0L, finishedAt, QueryState.FINISHED));
+    return queryRepository.save(query);
+  }
+}
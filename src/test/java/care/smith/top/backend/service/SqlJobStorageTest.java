@@ -0,0 +1,78 @@
+package care.smith.top.backend.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.awaitility.Awaitility.await;
+
+import care.smith.top.backend.AbstractTest;
+import care.smith.top.model.*;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.jobrunr.storage.InMemoryStorageProvider;
+import org.jobrunr.storage.StorageProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Runs queries with jobs stored in the application database. JobRunr does not support HSQLDB, so
+ * this test uses an in-memory H2 database instead.
+ */
+@SpringBootTest(
+    properties = {
+      "top.jobs.storage=sql",
+      "spring.datasource.url=jdbc:h2:mem:jobs;DB_CLOSE_DELAY=-1"
+    })
+class SqlJobStorageTest extends AbstractTest {
+  @Autowired PhenotypeQueryService queryService;
+  @Autowired StorageProvider storageProvider;
+
+  @Test
+  void executeQuery() {
+    assertThat(storageProvider).isNotInstanceOf(InMemoryStorageProvider.class);
+
+    Organisation orga = organisationService.createOrganisation(new Organisation().id("orga_1"));
+    DataSource dataSource =
+        new DataSource().id("Test_Data_Source_1").queryType(QueryType.PHENOTYPE);
+    organisationService.addOrganisationDataSource(orga.getId(), dataSource);
+    Repository repo =
+        repositoryService.createRepository(
+            orga.getId(),
+            new Repository().id("repo_1").repositoryType(RepositoryType.PHENOTYPE_REPOSITORY),
+            null);
+    Phenotype phenotype =
+        (Phenotype)
+            entityService.createEntity(
+                orga.getId(),
+                repo.getId(),
+                new Phenotype()
+                    .dataType(DataType.NUMBER)
+                    .id("entity_1")
+                    .entityType(EntityType.SINGLE_PHENOTYPE));
+    PhenotypeQuery query =
+        (PhenotypeQuery)
+            new PhenotypeQuery()
+                .addProjectionItem(new ProjectionEntry().subjectId(phenotype.getId()))
+                .type(QueryType.PHENOTYPE)
+                .id(UUID.randomUUID())
+                .dataSource(dataSource.getId());
+
+    assertThat(queryService.enqueueQuery(orga.getId(), repo.getId(), query).getState())
+        .isEqualTo(QueryState.QUEUED);
+    assertThat(storageProvider.getJobById(query.getId())).isNotNull();
+
+    await()
+        .atMost(100, TimeUnit.SECONDS)
+        .until(
+            () -> {
+              QueryResult result =
+                  queryService.getQueryById(orga.getId(), repo.getId(), query.getId()).getResult();
+              return result != null && QueryState.FINISHED.equals(result.getState());
+            });
+    assertThat(storageProvider.getJobStats().getSucceeded()).isEqualTo(1);
+    assertThat(queryService.getQueryResultPath(orga.getId(), repo.getId(), query.getId()))
+        .isRegularFile();
+
+    queryService.deleteQuery(orga.getId(), repo.getId(), query.getId());
+    assertThat(storageProvider.getJobStats().getSucceeded()).isEqualTo(0);
+  }
+}
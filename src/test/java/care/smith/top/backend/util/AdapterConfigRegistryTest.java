@@ -0,0 +1,127 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.awaitility.Awaitility.await;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AdapterConfigRegistryTest {
+  @TempDir Path dir;
+
+  AdapterConfigRegistry<String[]> registry;
+
+  @BeforeEach
+  void createRegistry() {
+    // a config file contains "<id>;<value>", all other files are invalid
+    registry =
+        new AdapterConfigRegistry<>(
+            dir.toString(),
+            path -> {
+              try {
+                String[] config = Files.readString(path).trim().split(";");
+                return config.length == 2 ? config : null;
+              } catch (IOException e) {
+                return null;
+              }
+            },
+            config -> config[0]);
+  }
+
+  @AfterEach
+  void closeRegistry() throws IOException {
+    registry.close();
+  }
+
+  @Test
+  void reload() throws IOException {
+    Files.writeString(dir.resolve("b.yml"), "b;1");
+    Files.writeString(dir.resolve("a.yml"), "a;1");
+    Files.writeString(dir.resolve("invalid.yml"), "invalid");
+    Files.createDirectory(dir.resolve("sub"));
+
+    assertThat(registry.getAll()).isEmpty();
+    registry.reload();
+    assertThat(registry.getAll()).extracting(c -> c[0]).containsExactly("a", "b");
+    assertThat(registry.get("a")).hasValueSatisfying(c -> assertThat(c[1]).isEqualTo("1"));
+    assertThat(registry.get("invalid")).isEmpty();
+    assertThat(registry.get(null)).isEmpty();
+
+    // changes are only visible after reloading, if the directory is not watched
+    Files.delete(dir.resolve("b.yml"));
+    assertThat(registry.get("b")).isPresent();
+    registry.reload();
+    assertThat(registry.get("b")).isEmpty();
+  }
+
+  @Test
+  void reloadMissingDirectory() throws IOException {
+    Path subDir = Files.createDirectory(dir.resolve("sub"));
+    Files.writeString(subDir.resolve("a.yml"), "a;1");
+    try (AdapterConfigRegistry<String> subRegistry =
+        new AdapterConfigRegistry<>(subDir.toString(), p -> "a", c -> c)) {
+      subRegistry.reload();
+      assertThat(subRegistry.getAll()).containsExactly("a");
+
+      Files.delete(subDir.resolve("a.yml"));
+      Files.delete(subDir);
+      subRegistry.reload();
+      assertThat(subRegistry.getAll()).isEmpty();
+
+      // a directory that cannot be watched keeps the registry usable
+      subRegistry.watch();
+      assertThat(subRegistry.get("a")).isEmpty();
+    }
+  }
+
+  @Test
+  void watch() throws IOException {
+    Files.writeString(dir.resolve("a.yml"), "a;1");
+    registry.reload();
+    registry.watch();
+
+    Files.writeString(dir.resolve("b.yml"), "b;1");
+    await()
+        .atMost(30, TimeUnit.SECONDS)
+        .untilAsserted(
+            () -> assertThat(registry.getAll()).extracting(c -> c[0]).containsExactly("a", "b"));
+
+    Files.writeString(dir.resolve("a.yml"), "a;2");
+    await()
+        .atMost(30, TimeUnit.SECONDS)
+        .untilAsserted(
+            () ->
+                assertThat(registry.get("a"))
+                    .hasValueSatisfying(c -> assertThat(c[1]).isEqualTo("2")));
+
+    // a file that becomes invalid is removed
+    Files.writeString(dir.resolve("b.yml"), "invalid");
+    await().atMost(30, TimeUnit.SECONDS).until(() -> registry.get("b").isEmpty());
+
+    Files.delete(dir.resolve("a.yml"));
+    await().atMost(30, TimeUnit.SECONDS).until(() -> registry.getAll().isEmpty());
+  }
+
+  @Test
+  void close() throws IOException, InterruptedException {
+    registry.reload();
+    registry.watch();
+    registry.close();
+
+    Files.writeString(dir.resolve("a.yml"), "a;1");
+    Thread.sleep(1000);
+    assertThat(registry.get("a")).isEmpty();
+
+    // closing twice and watching again is possible
+    registry.close();
+    registry.watch();
+    Files.writeString(dir.resolve("b.yml"), "b;1");
+    await().atMost(30, TimeUnit.SECONDS).until(() -> registry.get("b").isPresent());
+  }
+}
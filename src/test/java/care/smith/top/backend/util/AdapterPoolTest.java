@@ -0,0 +1,90 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class AdapterPoolTest {
+  private final AtomicInteger counter = new AtomicInteger();
+  private final List<Integer> closed = new ArrayList<>();
+
+  @Test
+  void reuseAdapters() throws Exception {
+    Object config = new Object();
+    try (AdapterPool<Integer> pool = createPool(1)) {
+      int adapter;
+      try (AdapterPool.Lease<Integer> lease = pool.borrow("ds", config, counter::incrementAndGet)) {
+        adapter = lease.get();
+      }
+      try (AdapterPool.Lease<Integer> lease = pool.borrow("ds", config, counter::incrementAndGet)) {
+        assertThat(lease.get()).isEqualTo(adapter);
+      }
+
+      assertThat(pool.getStats())
+          .singleElement()
+          .satisfies(
+              s -> {
+                assertThat(s.getDataSourceId()).isEqualTo("ds");
+                assertThat(s.getCreated()).isEqualTo(1);
+                assertThat(s.getBorrowed()).isEqualTo(2);
+                assertThat(s.getActive()).isEqualTo(0);
+                assertThat(s.getIdle()).isEqualTo(1);
+              });
+    }
+    assertThat(closed).containsExactly(1);
+  }
+
+  @Test
+  void invalidateAdapters() throws Exception {
+    Object config = new Object();
+    try (AdapterPool<Integer> pool = createPool(1)) {
+      try (AdapterPool.Lease<Integer> lease = pool.borrow("ds", config, counter::incrementAndGet)) {
+        lease.invalidate();
+      }
+      assertThat(closed).containsExactly(1);
+
+      try (AdapterPool.Lease<Integer> lease = pool.borrow("ds", config, counter::incrementAndGet)) {
+        assertThat(lease.get()).isEqualTo(2);
+      }
+      try (AdapterPool.Lease<Integer> lease =
+          pool.borrow("ds", new Object(), counter::incrementAndGet)) {
+        assertThat(lease.get()).isEqualTo(3);
+      }
+      assertThat(closed).containsExactly(1, 2);
+      assertThat(pool.getStats())
+          .singleElement()
+          .satisfies(s -> assertThat(s.getInvalidated()).isEqualTo(1));
+    }
+  }
+
+  @Test
+  void limitAdapters() throws Exception {
+    Object config = new Object();
+    try (AdapterPool<Integer> pool = createPool(1)) {
+      try (AdapterPool.Lease<Integer> ignored =
+          pool.borrow("ds", config, counter::incrementAndGet)) {
+        assertThatThrownBy(() -> pool.borrow("ds", config, counter::incrementAndGet))
+            .isInstanceOf(TimeoutException.class);
+        assertThatCode(() -> pool.borrow("other", config, counter::incrementAndGet).close())
+            .doesNotThrowAnyException();
+      }
+      assertThat(pool.getStats())
+          .anySatisfy(s -> assertThat(s.getTimeouts()).isEqualTo(1));
+    }
+  }
+
+  private AdapterPool<Integer> createPool(int maxSize) {
+    return new AdapterPool<>(
+        "test",
+        maxSize,
+        Duration.ofMinutes(5),
+        Duration.ofHours(1),
+        Duration.ofMillis(50),
+        closed::add);
+  }
+}
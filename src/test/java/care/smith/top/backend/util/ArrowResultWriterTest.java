@@ -0,0 +1,138 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryEncoder;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.util.ByteArrayReadableSeekableByteChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArrowResultWriterTest {
+  @TempDir Path dir;
+
+  @Test
+  void write() throws IOException {
+    int rows = ArrowResultWriter.BATCH_SIZE + 5;
+    StringBuilder csv = new StringBuilder("subject;age;sex;smoker;birth_date;mixed\n");
+    for (int i = 0; i < rows; i++)
+      csv.append(
+          String.format(
+              "s%d;%s;%s;%s;2000-01-%02dT00:00;%s\n",
+              i,
+              i == 1 ? "" : String.valueOf(i + 0.5),
+              i % 2 == 0 ? "female" : "male",
+              i % 3 == 0,
+              i % 28 + 1,
+              i == 2 ? "x" : String.valueOf(i)));
+    byte[] arrow = write(csv.toString());
+
+    try (BufferAllocator allocator = new RootAllocator();
+        ArrowFileReader reader =
+            new ArrowFileReader(new ByteArrayReadableSeekableByteChannel(arrow), allocator)) {
+      VectorSchemaRoot root = reader.getVectorSchemaRoot();
+      List<Field> fields = root.getSchema().getFields();
+      assertThat(fields)
+          .extracting(Field::getName)
+          .containsExactly("subject", "age", "sex", "smoker", "birth_date", "mixed");
+      assertThat(fields.get(0).getDictionary()).isNotNull();
+      assertThat(((ArrowType.FloatingPoint) fields.get(1).getType()).getPrecision())
+          .isEqualTo(FloatingPointPrecision.DOUBLE);
+      assertThat(fields.get(2).getDictionary()).isNotNull();
+      assertThat(fields.get(3).getType()).isEqualTo(ArrowType.Bool.INSTANCE);
+      assertThat(fields.get(4).getType()).isInstanceOf(ArrowType.Timestamp.class);
+      assertThat(fields.get(5).getDictionary()).isNotNull();
+
+      List<Integer> batchSizes = new ArrayList<>();
+      while (reader.loadNextBatch()) {
+        batchSizes.add(root.getRowCount());
+        if (batchSizes.size() > 1) continue;
+
+        Map<Long, Dictionary> dictionaries = reader.getDictionaryVectors();
+        Dictionary subjects = dictionaries.get(fields.get(0).getDictionary().getId());
+        Dictionary sexes = dictionaries.get(fields.get(2).getDictionary().getId());
+        assertThat(subjects.getVector().getValueCount()).isEqualTo(rows);
+        assertThat(sexes.getVector().getValueCount()).isEqualTo(2);
+        try (ValueVector subjectIds = DictionaryEncoder.decode(root.getVector(0), subjects);
+            ValueVector sex = DictionaryEncoder.decode(root.getVector(2), sexes)) {
+          assertThat(((VarCharVector) subjectIds).getObject(3).toString()).isEqualTo("s3");
+          assertThat(((VarCharVector) sex).getObject(3).toString()).isEqualTo("male");
+        }
+        assertThat(((Float8Vector) root.getVector(1)).get(0)).isEqualTo(0.5);
+        assertThat(root.getVector(1).isNull(1)).isTrue();
+        assertThat(((BitVector) root.getVector(3)).getObject(3)).isTrue();
+        assertThat(((TimeStampMilliTZVector) root.getVector(4)).get(0)).isEqualTo(946684800000L);
+      }
+      assertThat(batchSizes).containsExactly(ArrowResultWriter.BATCH_SIZE, 5);
+    }
+  }
+
+  @Test
+  void writeEmptyTable() throws IOException {
+    byte[] arrow = write("subject;age\n");
+    try (BufferAllocator allocator = new RootAllocator();
+        ArrowFileReader reader =
+            new ArrowFileReader(new ByteArrayReadableSeekableByteChannel(arrow), allocator)) {
+      assertThat(reader.getVectorSchemaRoot().getFieldVectors())
+          .extracting(FieldVector::getName)
+          .containsExactly("subject", "age");
+      assertThat(reader.loadNextBatch()).isFalse();
+    }
+  }
+
+  @Test
+  void parseTimestamp() {
+    assertThat(ArrowResultWriter.parseTimestamp("1970-01-02")).isEqualTo(86_400_000L);
+    assertThat(ArrowResultWriter.parseTimestamp("1970-01-01T01:00")).isEqualTo(3_600_000L);
+    assertThat(ArrowResultWriter.parseTimestamp("1970-01-01T01:00+01:00")).isEqualTo(0L);
+    assertThat(ArrowResultWriter.parseTimestamp("male")).isNull();
+  }
+
+  /** Writes a table into a ZIP file and returns the content of its Arrow entry. */
+  private byte[] write(String csv) throws IOException {
+    Path rowFile = dir.resolve("query.rows");
+    try (ResultRowFile.Writer writer = new ResultRowFile.Writer(rowFile)) {
+      writer.write(csv.getBytes(StandardCharsets.UTF_8));
+      writer.commit();
+    }
+
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream zipStream = new ZipOutputStream(zip)) {
+      ArrowResultWriter.write(rowFile, "data_subjects.arrow", zipStream);
+      zipStream.putNextEntry(new ZipEntry("other.csv"));
+    }
+
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+      ZipEntry entry = in.getNextEntry();
+      assertThat(entry).isNotNull();
+      assertThat(entry.getName()).isEqualTo("data_subjects.arrow");
+      byte[] arrow = in.readAllBytes();
+      assertThat(in.getNextEntry()).extracting(ZipEntry::getName).isEqualTo("other.csv");
+      return arrow;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AtomicFilesTest {
+  @TempDir Path dir;
+
+  @Test
+  void write() throws IOException {
+    Path file = dir.resolve("sub").resolve("file");
+    AtomicFiles.write(file, out -> out.write("first".getBytes(StandardCharsets.UTF_8)));
+    AtomicFiles.write(file, out -> out.write("second".getBytes(StandardCharsets.UTF_8)));
+    assertThat(file).hasContent("second");
+
+    // a failed write keeps the existing file and leaves no temporary file behind
+    assertThatThrownBy(
+            () ->
+                AtomicFiles.write(
+                    file,
+                    out -> {
+                      out.write("third".getBytes(StandardCharsets.UTF_8));
+                      throw new IOException("failed");
+                    }))
+        .hasMessage("failed");
+    assertThat(file).hasContent("second");
+    assertThat(dir.resolve("sub").toFile().list()).containsExactly("file");
+  }
+
+  @Test
+  void readFully() throws IOException {
+    Path file = dir.resolve("file");
+    Files.writeString(file, "0123456789");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(4);
+      AtomicFiles.readFully(channel, buffer, 3, "incomplete");
+      assertThat(new String(buffer.array(), StandardCharsets.UTF_8)).isEqualTo("3456");
+
+      assertThatThrownBy(
+              () -> AtomicFiles.readFully(channel, ByteBuffer.allocate(4), 8, "incomplete"))
+          .isInstanceOf(EOFException.class)
+          .hasMessage("incomplete");
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+class CohortBitmapTest {
+  @TempDir Path dir;
+
+  @Test
+  void writeAndRead() throws IOException {
+    Path file = dir.resolve("query.cohort");
+    RoaringBitmap bits = RoaringBitmap.bitmapOf(3);
+    bits.add(100_000L, 100_500L);
+    UUID dictionaryId = UUID.randomUUID();
+    CohortBitmap.write(file, bits, dictionaryId, 100_500);
+    assertThat(CohortBitmap.read(file))
+        .satisfies(
+            c -> {
+              assertThat(c.getBits()).isEqualTo(bits);
+              assertThat(c.getDictionaryId()).isEqualTo(dictionaryId);
+              assertThat(c.getDictionarySize()).isEqualTo(100_500);
+            });
+    assertThat(Files.size(file)).isLessThan(100);
+
+    // cohorts without header or of older versions are not read
+    Files.write(file, new byte[] {1, 2, 3});
+    assertThat(CohortBitmap.read(file)).isNull();
+    Files.write(file, new byte[] {0x54, 0x4F, 0x50, 0x43, 1, 2, 3});
+    assertThat(CohortBitmap.read(file)).isNull();
+  }
+
+  @Test
+  void readSubjectIds() throws IOException {
+    Path rowFile = dir.resolve("query.rows");
+    try (ResultRowFile.Writer writer = new ResultRowFile.Writer(rowFile)) {
+      writer.write("subject_id;age\r\ns1;1\r\n\"s;2\";2\r\n".getBytes(StandardCharsets.UTF_8));
+      writer.commit();
+    }
+    assertThat(CohortBitmap.readSubjectIds(rowFile)).containsExactly("s1", "s;2");
+  }
+}
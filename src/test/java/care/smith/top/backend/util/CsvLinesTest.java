@@ -0,0 +1,22 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class CsvLinesTest {
+  @Test
+  void detectDelimiter() {
+    assertThat(CsvLines.detectDelimiter("subject;age;sex")).isEqualTo(';');
+    assertThat(CsvLines.detectDelimiter("subject,age;sex,\"a;b;c\"")).isEqualTo(',');
+    assertThat(CsvLines.detectDelimiter("subject\tage")).isEqualTo('\t');
+  }
+
+  @Test
+  void split() {
+    assertThat(CsvLines.split("s1;30.5;male", ';')).containsExactly("s1", "30.5", "male");
+    assertThat(CsvLines.split("s2;;", ';')).containsExactly("s2", "", "");
+    assertThat(CsvLines.split("s3;\"ma;le\";\"say \"\"hi\"\"\"", ';'))
+        .containsExactly("s3", "ma;le", "say \"hi\"");
+  }
+}
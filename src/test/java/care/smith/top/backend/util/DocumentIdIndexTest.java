@@ -0,0 +1,32 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DocumentIdIndexTest {
+  @TempDir Path dir;
+
+  @Test
+  void read() throws IOException {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 25; i++) ids.add("document_" + i + (i % 2 == 0 ? "_ä" : ""));
+    Path file = dir.resolve("query.ids");
+    DocumentIdIndex.write(file, ids);
+
+    assertThat(DocumentIdIndex.count(file)).isEqualTo(25);
+    assertThat(DocumentIdIndex.read(file, 0, 25)).isEqualTo(ids);
+    assertThat(DocumentIdIndex.read(file, 10, 3)).isEqualTo(ids.subList(10, 13));
+    assertThat(DocumentIdIndex.read(file, 20, 10)).isEqualTo(ids.subList(20, 25));
+    assertThat(DocumentIdIndex.read(file, 30, 10)).isEmpty();
+
+    DocumentIdIndex.write(file, List.of());
+    assertThat(DocumentIdIndex.count(file)).isEqualTo(0);
+    assertThat(DocumentIdIndex.read(file, 0, 10)).isEmpty();
+  }
+}
@@ -0,0 +1,36 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class HashesTest {
+  @Test
+  void sha256Hex() {
+    assertThat(Hashes.sha256Hex("abc".getBytes(StandardCharsets.UTF_8)))
+        .isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    assertThat(Hashes.hex(new byte[32])).hasSize(64).matches("0+");
+  }
+
+  @Test
+  void sha256HexOfJson() {
+    // map entries are sorted, when converted with the mapper
+    Map<String, Object> content = new LinkedHashMap<>();
+    content.put("b", 1);
+    content.put("a", "x");
+    Map<String, Object> reordered = new LinkedHashMap<>();
+    reordered.put("a", "x");
+    reordered.put("b", 1);
+
+    JsonNode node = Hashes.MAPPER.valueToTree(content);
+    assertThat(Hashes.sha256Hex(node))
+        .isEqualTo(Hashes.sha256Hex((JsonNode) Hashes.MAPPER.valueToTree(reordered)));
+    reordered.put("b", 2);
+    assertThat(Hashes.sha256Hex(node))
+        .isNotEqualTo(Hashes.sha256Hex((JsonNode) Hashes.MAPPER.valueToTree(reordered)));
+  }
+}
@@ -0,0 +1,111 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import care.smith.top.model.*;
+import care.smith.top.top_phenotypic_query.converter.csv.CSV;
+import care.smith.top.top_phenotypic_query.result.ResultSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+
+class PhenotypeResultWriterTest {
+  private static final int SUBJECTS = 25;
+
+  private final Phenotype age =
+      (Phenotype)
+          new Phenotype()
+              .dataType(DataType.NUMBER)
+              .id("age")
+              .entityType(EntityType.SINGLE_PHENOTYPE)
+              .addTitlesItem(new LocalisableText().text("Age").lang("en"));
+  private final Entity[] phenotypes = {age};
+  private final PhenotypeQuery query =
+      (PhenotypeQuery)
+          new PhenotypeQuery()
+              .addProjectionItem(
+                  new ProjectionEntry()
+                      .subjectId(age.getId())
+                      .type(ProjectionEntry.TypeEnum.PROJECTIONENTRY));
+
+  @Test
+  void writeChunks() throws IOException {
+    Map<String, List<String>> chunked = write(createResultSet(), 4);
+    Map<String, List<String>> single = write(createResultSet(), SUBJECTS);
+
+    assertThat(chunked)
+        .containsOnlyKeys("metadata.csv", "data_phenotypes.csv", "data_subjects.csv");
+    assertThat(chunked.get("metadata.csv")).isEqualTo(single.get("metadata.csv"));
+
+    for (String entry : List.of("data_phenotypes.csv", "data_subjects.csv")) {
+      List<String> lines = chunked.get(entry);
+      List<String> singleLines = single.get(entry);
+      String header = singleLines.get(0);
+
+      // exactly one header and all rows of the single-chunk write
+      assertThat(lines).as(entry).first().isEqualTo(header);
+      assertThat(lines).as(entry).filteredOn(header::equals).hasSize(1);
+      assertThat(lines.subList(1, lines.size()))
+          .as(entry)
+          .containsExactlyInAnyOrderElementsOf(singleLines.subList(1, singleLines.size()));
+    }
+    assertThat(chunked.get("data_subjects.csv")).hasSize(SUBJECTS + 1);
+  }
+
+  @Test
+  void writeEmptyResultSet() throws IOException {
+    Map<String, List<String>> entries = write(new ResultSet(), 4);
+    assertThat(entries.get("data_subjects.csv")).hasSize(1);
+    assertThat(entries.get("data_phenotypes.csv")).hasSize(1);
+  }
+
+  @Test
+  void writeSubjectsRemovesSubjects() throws IOException {
+    ResultSet resultSet = createResultSet();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new PhenotypeResultWriter(new CSV(), phenotypes, query, 4).writeSubjects(resultSet, out);
+
+    assertThat(resultSet).isEmpty();
+    assertThat(lines(out.toByteArray())).hasSize(SUBJECTS + 1);
+  }
+
+  /** The writer consumes the result set, so each write needs its own. */
+  private ResultSet createResultSet() {
+    ResultSet resultSet = new ResultSet();
+    for (int i = 0; i < SUBJECTS; i++)
+      resultSet.addValue(
+          "subject_" + i, age, null, new NumberValue().value(BigDecimal.valueOf(20 + i)));
+    return resultSet;
+  }
+
+  private Map<String, List<String>> write(ResultSet resultSet, int chunkSize) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zipStream = new ZipOutputStream(bytes)) {
+      new PhenotypeResultWriter(new CSV(), phenotypes, query, chunkSize)
+          .write(resultSet, zipStream, null);
+    }
+
+    Map<String, List<String>> entries = new HashMap<>();
+    try (ZipInputStream zipStream =
+        new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zipStream.getNextEntry()) != null)
+        entries.put(entry.getName(), lines(zipStream.readAllBytes()));
+    }
+    return entries;
+  }
+
+  private List<String> lines(byte[] bytes) {
+    String content = new String(bytes, StandardCharsets.UTF_8);
+    List<String> lines = new ArrayList<>();
+    for (String line : content.split("\r?\n")) if (!line.isEmpty()) lines.add(line);
+    return lines;
+  }
+}
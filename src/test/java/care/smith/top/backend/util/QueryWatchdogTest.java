@@ -0,0 +1,60 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.awaitility.Awaitility.await;
+
+import care.smith.top.backend.model.jpa.QueryTermination;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class QueryWatchdogTest {
+  @Test
+  void cancel() {
+    UUID queryId = UUID.randomUUID();
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    try (QueryWatchdog watchdog = new QueryWatchdog("test")) {
+      assertThat(watchdog.cancel(queryId)).isFalse();
+
+      try (QueryWatchdog.Execution execution = watchdog.start(queryId, null)) {
+        execution.onAbort(() -> aborted.set(true));
+        assertThat(watchdog.cancel(queryId)).isTrue();
+        assertThat(watchdog.cancel(queryId)).isFalse();
+        assertThat(execution.getTermination()).isEqualTo(QueryTermination.CANCELLED);
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        assertThat(aborted).isTrue();
+      }
+
+      assertThat(Thread.currentThread().isInterrupted()).isFalse();
+      assertThat(watchdog.cancel(queryId)).isFalse();
+    }
+  }
+
+  @Test
+  void pollCancelRequests() {
+    UUID queryId = UUID.randomUUID();
+    try (QueryWatchdog watchdog = new QueryWatchdog("test");
+        QueryWatchdog.Execution execution = watchdog.start(queryId, null)) {
+      watchdog.pollCancelRequests(ids -> ids, Duration.ofMillis(10));
+      await().atMost(5, TimeUnit.SECONDS).until(() -> execution.getTermination() != null);
+      assertThat(execution.getTermination()).isEqualTo(QueryTermination.CANCELLED);
+    }
+    assertThat(Thread.currentThread().isInterrupted()).isFalse();
+  }
+
+  @Test
+  void timeLimit() {
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    try (QueryWatchdog watchdog = new QueryWatchdog("test");
+        QueryWatchdog.Execution execution =
+            watchdog.start(UUID.randomUUID(), Duration.ofMillis(50))) {
+      execution.onAbort(() -> aborted.set(true));
+      await().atMost(5, TimeUnit.SECONDS).until(() -> execution.getTermination() != null);
+      assertThat(execution.getTermination()).isEqualTo(QueryTermination.TIMED_OUT);
+      assertThat(aborted).isTrue();
+    }
+    assertThat(Thread.currentThread().isInterrupted()).isFalse();
+  }
+}
@@ -0,0 +1,144 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResultAggregatorTest {
+  @TempDir Path dir;
+  Path rowFile;
+
+  @BeforeEach
+  void writeRows() throws IOException {
+    rowFile = dir.resolve("query.rows");
+    try (ResultRowFile.Writer writer = new ResultRowFile.Writer(rowFile)) {
+      writer.write(
+          String.join(
+                  "\r\n",
+                  "subject;age;sex;birthdate",
+                  "s1;30;male;1990-01-01",
+                  "s2;;female;1985-06-30",
+                  "s3;10;female;2010-02-01",
+                  "s4;20;\"fe;male\";",
+                  "")
+              .getBytes(StandardCharsets.UTF_8));
+      writer.commit();
+    }
+  }
+
+  @Test
+  void summary() throws IOException {
+    ResultAggregator.Result result =
+        ResultAggregator.aggregate(rowFile, ResultAggregator.Function.SUMMARY, List.of(), 0, 0);
+    assertThat(result.getRows()).isEqualTo(4);
+    assertThat(result.getColumns())
+        .extracting(ResultAggregator.Column::getName)
+        .containsExactly("subject", "age", "sex", "birthdate");
+
+    ResultAggregator.Column age = result.getColumns().get(1);
+    assertThat(age.isNumeric()).isTrue();
+    assertThat(age.getCount()).isEqualTo(3);
+    assertThat(age.getMissing()).isEqualTo(1);
+    assertThat(age.getMin()).isEqualTo("10");
+    assertThat(age.getMax()).isEqualTo("30");
+    assertThat(age.getMean()).isEqualTo(20);
+    assertThat(age.getGroups()).isNull();
+
+    ResultAggregator.Column birthdate = result.getColumns().get(3);
+    assertThat(birthdate.isNumeric()).isFalse();
+    assertThat(birthdate.getMin()).isEqualTo("1985-06-30");
+    assertThat(birthdate.getMax()).isEqualTo("2010-02-01");
+    assertThat(birthdate.getMean()).isNull();
+  }
+
+  @Test
+  void count() throws IOException {
+    ResultAggregator.Column sex =
+        ResultAggregator.aggregate(rowFile, ResultAggregator.Function.COUNT, List.of("sex"), 2, 0)
+            .getColumns()
+            .get(0);
+    assertThat(sex.getGroups())
+        .extracting(ResultAggregator.Group::getValue, ResultAggregator.Group::getCount)
+        .containsExactly(tuple("female", 2L), tuple("fe;male", 1L));
+    assertThat(sex.getOtherCount()).isEqualTo(1);
+    assertThat(sex.isTruncated()).isTrue();
+  }
+
+  @Test
+  void histogram() throws IOException {
+    ResultAggregator.Result result =
+        ResultAggregator.aggregate(
+            rowFile, ResultAggregator.Function.HISTOGRAM, List.of("age", "sex"), 0, 2);
+    assertThat(result.getColumns().get(0).getBins())
+        .extracting(
+            ResultAggregator.Bin::getLower,
+            ResultAggregator.Bin::getUpper,
+            ResultAggregator.Bin::getCount)
+        .containsExactly(tuple(10.0, 20.0, 1L), tuple(20.0, 30.0, 2L));
+    assertThat(result.getColumns().get(1).getBins()).isEmpty();
+  }
+
+  @Test
+  void filter() throws IOException {
+    ResultAggregator.Result result =
+        ResultAggregator.aggregate(
+            rowFile,
+            ResultAggregator.Function.SUMMARY,
+            List.of("age"),
+            null,
+            List.of("age>=20", "birthdate<2000-01-01"),
+            0,
+            0);
+    assertThat(result.getRows()).isEqualTo(4);
+    assertThat(result.getMatched()).isEqualTo(1);
+    assertThat(result.getColumns().get(0).getMin()).isEqualTo("30");
+  }
+
+  @Test
+  void groupBy() throws IOException {
+    ResultAggregator.Result result =
+        ResultAggregator.aggregate(
+            rowFile,
+            ResultAggregator.Function.HISTOGRAM,
+            List.of("age"),
+            "sex",
+            List.of("subject!=s1"),
+            0,
+            2);
+    assertThat(result.getMatched()).isEqualTo(3);
+    assertThat(result.getColumns()).isNull();
+    assertThat(result.getOtherRows()).isZero();
+    assertThat(result.getPartitions())
+        .extracting(ResultAggregator.Partition::getValue, ResultAggregator.Partition::getRows)
+        .containsExactly(tuple("female", 2L), tuple("fe;male", 1L));
+
+    ResultAggregator.Column age = result.getPartitions().get(0).getColumns().get(0);
+    assertThat(age.getCount()).isEqualTo(1);
+    assertThat(age.getMissing()).isEqualTo(1);
+    assertThat(age.getBins()).extracting(ResultAggregator.Bin::getCount).containsExactly(1L);
+  }
+
+  @Test
+  void invalidFilter() {
+    assertThatThrownBy(
+            () ->
+                ResultAggregator.aggregate(
+                    rowFile, ResultAggregator.Function.SUMMARY, null, null, List.of("age"), 0, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void unknownColumn() {
+    assertThatThrownBy(
+            () ->
+                ResultAggregator.aggregate(
+                    rowFile, ResultAggregator.Function.SUMMARY, List.of("weight"), 0, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
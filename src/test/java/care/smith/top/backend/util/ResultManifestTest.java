@@ -0,0 +1,66 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResultManifestTest {
+  @TempDir Path dir;
+
+  @Test
+  void of() throws Exception {
+    Path resultFile = dir.resolve("query.zip");
+    writeZip(resultFile, "a;b\r\n1;2\r\n");
+
+    ResultManifest manifest = ResultManifest.of(resultFile);
+    assertThat(manifest.getFileName()).isEqualTo("query.zip");
+    assertThat(manifest.getSize()).isEqualTo(Files.size(resultFile));
+    assertThat(manifest.getSha256()).isEqualTo(sha256(resultFile)).hasSize(64);
+    assertThat(manifest.getETag()).isEqualTo("\"" + manifest.getSha256() + "\"");
+    assertThat(manifest.getEntries())
+        .singleElement()
+        .satisfies(
+            e -> {
+              assertThat(e.getName()).isEqualTo("data.csv");
+              assertThat(e.getSize()).isEqualTo(10);
+            });
+    assertThat(ResultManifest.getManifestFile(resultFile)).isRegularFile();
+
+    // the cached manifest is used while the file is unchanged
+    assertThat(ResultManifest.of(resultFile).getSha256()).isEqualTo(manifest.getSha256());
+
+    writeZip(resultFile, "a;b\r\n1;3\r\n");
+    Files.setLastModifiedTime(resultFile, FileTime.fromMillis(manifest.getLastModified() + 2000));
+    assertThat(ResultManifest.of(resultFile).getSha256())
+        .isEqualTo(sha256(resultFile))
+        .isNotEqualTo(manifest.getSha256());
+
+    ResultManifest.delete(resultFile);
+    assertThat(ResultManifest.getManifestFile(resultFile)).doesNotExist();
+  }
+
+  private static void writeZip(Path file, String content) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file);
+        ZipOutputStream zipStream = new ZipOutputStream(out)) {
+      zipStream.putNextEntry(new ZipEntry("data.csv"));
+      zipStream.write(content.getBytes(StandardCharsets.UTF_8));
+      zipStream.closeEntry();
+    }
+  }
+
+  private static String sha256(Path file) throws Exception {
+    byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file));
+    return String.format("%064x", new BigInteger(1, digest));
+  }
+}
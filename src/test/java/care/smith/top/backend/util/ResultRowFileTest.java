@@ -0,0 +1,53 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResultRowFileTest {
+  @TempDir Path dir;
+
+  @Test
+  void read() throws IOException {
+    Path rowFile = dir.resolve("query.rows");
+    try (ResultRowFile.Writer writer = new ResultRowFile.Writer(rowFile)) {
+      StringBuilder csv = new StringBuilder("id;text\r\n");
+      for (int i = 0; i < 100; i++) csv.append(String.format("%d;\"line\nbreak %d\"\r\n", i, i));
+      writer.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+      writer.commit();
+    }
+    assertThat(ResultRowFile.exists(rowFile)).isTrue();
+
+    ResultRowFile.Rows rows = ResultRowFile.read(rowFile, 10, 3);
+    assertThat(rows.getTotal()).isEqualTo(100);
+    assertThat(rows.getOffset()).isEqualTo(10);
+    assertThat(rows.getHeader()).isEqualTo("id;text");
+    assertThat(rows.getRows())
+        .containsExactly(
+            "10;\"line\nbreak 10\"", "11;\"line\nbreak 11\"", "12;\"line\nbreak 12\"");
+
+    assertThat(ResultRowFile.read(rowFile, 98, 10).getRows()).hasSize(2);
+    assertThat(ResultRowFile.read(rowFile, 200, 10).getRows()).isEmpty();
+
+    ResultRowFile.delete(rowFile);
+    assertThat(ResultRowFile.exists(rowFile)).isFalse();
+  }
+
+  @Test
+  void discardUncommitted() throws IOException {
+    Path rowFile = dir.resolve("query.rows");
+    try (ResultRowFile.Writer writer = new ResultRowFile.Writer(rowFile)) {
+      writer.write("id\n1\n".getBytes(StandardCharsets.UTF_8));
+    }
+    assertThat(ResultRowFile.exists(rowFile)).isFalse();
+    try (Stream<Path> files = Files.list(dir)) {
+      assertThat(files).isEmpty();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class ResultStatisticsTest {
+  @Test
+  void collect() throws IOException {
+    ResultStatistics.Collector collector = new ResultStatistics.Collector();
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    String csv =
+        String.join(
+            "\r\n",
+            "subject;age;sex;smoker",
+            "s1;30;male;true",
+            "s2;;female;false",
+            "s3;10;female;true",
+            "s4;20;\"fe;\nmale\";true");
+    try (OutputStream out = collector.tee(copy)) {
+      out.write(csv.getBytes(StandardCharsets.UTF_8));
+    }
+    assertThat(copy.toString(StandardCharsets.UTF_8)).isEqualTo(csv);
+
+    ResultStatistics statistics = ResultStatistics.fromJson(collector.getStatistics().toJson());
+    assertThat(statistics.getRows()).isEqualTo(4);
+    assertThat(statistics.getColumns())
+        .extracting(ResultStatistics.Column::getName)
+        .containsExactly("age", "sex", "smoker");
+
+    ResultStatistics.Column age = statistics.getColumns().get(0);
+    assertThat(age.isNumeric()).isTrue();
+    assertThat(age.getCount()).isEqualTo(3);
+    assertThat(age.getMissing()).isEqualTo(1);
+    assertThat(age.getMin()).isEqualTo(10);
+    assertThat(age.getMax()).isEqualTo(30);
+    assertThat(age.getMean()).isEqualTo(20);
+    assertThat(age.getDistribution())
+        .extracting(ResultStatistics.Centroid::getValue)
+        .containsExactly(10.0, 20.0, 30.0);
+
+    ResultStatistics.Column sex = statistics.getColumns().get(1);
+    assertThat(sex.isNumeric()).isFalse();
+    assertThat(sex.getMean()).isNull();
+    assertThat(sex.isExact()).isTrue();
+    assertThat(sex.getTopValues())
+        .extracting(ResultStatistics.Value::getValue, ResultStatistics.Value::getCount)
+        .containsExactly(tuple("female", 2L), tuple("fe;\nmale", 1L), tuple("male", 1L));
+
+    assertThat(statistics.getColumns().get(2).getTopValues())
+        .extracting(ResultStatistics.Value::getValue, ResultStatistics.Value::getCount)
+        .containsExactly(tuple("true", 3L), tuple("false", 1L));
+  }
+
+  @Test
+  void boundedMemory() {
+    ResultStatistics.Collector collector = new ResultStatistics.Collector();
+    StringBuilder csv = new StringBuilder("subject,value,category\n");
+    for (int i = 0; i < 10_000; i++)
+      csv.append(String.format("s%d,%d,%s\n", i, i, i % 3 == 0 ? "frequent" : "c" + i));
+    collector.write(csv.toString().getBytes(StandardCharsets.UTF_8), 0, csv.length());
+
+    ResultStatistics statistics = collector.getStatistics();
+    ResultStatistics.Column value = statistics.getColumns().get(0);
+    assertThat(value.getDistribution()).hasSize(ResultStatistics.CENTROIDS);
+    assertThat(
+            value.getDistribution().stream().mapToLong(ResultStatistics.Centroid::getCount).sum())
+        .isEqualTo(10_000);
+    assertThat(value.getTopValues()).isNull();
+
+    ResultStatistics.Column category = statistics.getColumns().get(1);
+    assertThat(category.isExact()).isFalse();
+    assertThat(category.getTopValues().get(0).getValue()).isEqualTo("frequent");
+  }
+}
@@ -0,0 +1,58 @@
+package care.smith.top.backend.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.roaringbitmap.RoaringBitmap;
+
+class SubjectDictionaryTest {
+  @TempDir Path dir;
+
+  @Test
+  void encode() throws IOException {
+    Path file = dir.resolve("data_source.dict");
+    SubjectDictionary dictionary = new SubjectDictionary(file);
+    RoaringBitmap first = dictionary.encode(List.of("s1", "s2", "s3"));
+    RoaringBitmap second = dictionary.encode(List.of("s3", "s4", "s1"));
+    assertThat(first.toArray()).containsExactly(0, 1, 2);
+    assertThat(second.toArray()).containsExactly(0, 2, 3);
+    assertThat(dictionary.decode(second, 10)).containsExactly("s1", "s3", "s4");
+    assertThat(dictionary.decode(second, 2)).containsExactly("s1", "s3");
+
+    // codes are stable after reloading, an incomplete last record is discarded
+    Files.write(file, new byte[] {0, 10, 's'}, StandardOpenOption.APPEND);
+    SubjectDictionary reloaded = new SubjectDictionary(file);
+    assertThat(reloaded.size()).isEqualTo(4);
+    assertThat(reloaded.encode(List.of("s4", "ä5")).toArray()).containsExactly(3, 4);
+    assertThat(new SubjectDictionary(file).decode(RoaringBitmap.bitmapOf(3, 4), 10))
+        .containsExactly("s4", "ä5");
+  }
+
+  @Test
+  void share() throws IOException {
+    Path file = dir.resolve("data_source.dict");
+    SubjectDictionary first = new SubjectDictionary(file);
+    SubjectDictionary second = new SubjectDictionary(file);
+    assertThat(first.getId()).isNull();
+
+    assertThat(first.encode(List.of("s1", "s2")).toArray()).containsExactly(0, 1);
+    assertThat(second.encode(List.of("s3", "s1")).toArray()).containsExactly(0, 2);
+    assertThat(second.getId()).isNotNull().isEqualTo(first.getId());
+    assertThat(first.decode(RoaringBitmap.bitmapOf(2), 10)).containsExactly("s3");
+    assertThat(first.encode(List.of("s4")).toArray()).containsExactly(3);
+
+    // a replaced dictionary is reloaded and gets a new ID
+    Files.delete(file);
+    assertThat(second.encode(List.of("s4")).toArray()).containsExactly(0);
+    assertThat(second.getId()).isNotEqualTo(first.getId());
+    first.refresh();
+    assertThat(first.getId()).isEqualTo(second.getId());
+    assertThat(first.size()).isEqualTo(1);
+  }
+}